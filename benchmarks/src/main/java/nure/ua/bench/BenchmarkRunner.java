@@ -0,0 +1,33 @@
+package nure.ua.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Точка входу benchmarks.jar. Приймає звичайні параметри JMH (наприклад,
+ * регулярний вираз з назвами бенчмарків), але завжди вмикає профілювання
+ * виділень пам'яті (-prof gc: байт на операцію, частота GC) і зберігає
+ * результати в jmh-result.json для порівняння між збірками.
+ *
+ * Для відтворюваності форк запускається з фіксованою купою та збирачем сміття.
+ */
+public class BenchmarkRunner {
+    private static final String RESULT_FILE = System.getProperty("bench.result", "jmh-result.json");
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .jvmArgsPrepend("-Xms1g", "-Xmx1g", "-XX:+UseG1GC", "-XX:+AlwaysPreTouch")
+            .resultFormat(ResultFormatType.JSON)
+            .result(RESULT_FILE)
+            .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,65 @@
+package nure.ua.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nure.ua.server.ClientManager;
+
+/**
+ * Вартість широкомовних розсилок {@link ClientManager} залежно від кількості
+ * підключених клієнтів (мкс на одну розсилку до завершення запису всіма скриньками).
+ * Клієнти симулюються потоками, що серіалізують в нікуди, тому вимірюється лише
+ * робота сервера: додавання до вихідних скриньок і серіалізація для кожного
+ * отримувача. БД не потрібна.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BroadcastBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int recipients;
+
+    @Setup
+    public void setUp() throws IOException {
+        ClientRegistry.clear();
+        for (int i = 0; i < recipients; i++) {
+            ClientRegistry.put("bench-" + i, new DiscardingObjectStream());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        ClientRegistry.clear();
+    }
+
+    /** Системне повідомлення всім (вхід чи вихід користувача); чекає, доки всі скриньки допишуть. */
+    @Benchmark
+    public void systemMessage() throws InterruptedException {
+        ClientManager.broadcastSystemMessage("User bench-0 joined the chat.");
+        ClientManager.awaitDeliveries();
+    }
+
+    /** Список онлайн-користувачів усім: розмір списку теж росте з кількістю клієнтів. */
+    @Benchmark
+    public void userList() throws IOException, InterruptedException {
+        ClientManager.broadcastUserList();
+        ClientManager.awaitDeliveries();
+    }
+}
@@ -0,0 +1,78 @@
+package nure.ua.bench;
+
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import nure.ua.server.ClientManager;
+import nure.ua.server.ConnectionMailbox;
+import nure.ua.server.GroupChats;
+
+/**
+ * Доступ до шардів підключених клієнтів {@link ClientManager} для бенчмарків.
+ * Дозволяє "підключити" симульованих клієнтів без сокетів і без входу через БД.
+ */
+final class ClientRegistry {
+
+    private ClientRegistry() {}
+
+    /**
+     * Реєструє симульованого клієнта в його шарді.
+     *
+     * @param username ім'я користувача
+     * @param out потік клієнта
+     * @return вихідна скринька клієнта
+     */
+    static ConnectionMailbox put(String username, ObjectOutputStream out) {
+        ConnectionMailbox mailbox = new ConnectionMailbox(out);
+        Object shard = shard(username);
+        invoke(shard.getClass(), shard, "put", new Class<?>[] {String.class, ConnectionMailbox.class}, username, mailbox);
+        return mailbox;
+    }
+
+    /**
+     * Кладе склад групи в кеш {@link GroupChats}, щоб розсилка в групу не зверталася до БД.
+     *
+     * @param groupId ідентифікатор групи
+     * @param members учасники
+     */
+    @SuppressWarnings("unchecked")
+    static void putGroup(long groupId, Collection<String> members) {
+        try {
+            Field field = GroupChats.class.getDeclaredField("members");
+            field.setAccessible(true);
+            Set<String> group = ConcurrentHashMap.newKeySet();
+            group.addAll(members);
+            ((Map<Long, Set<String>>) field.get(null)).put(groupId, group);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("GroupChats internals are not accessible: members", e);
+        }
+    }
+
+    /**
+     * Відключає всіх клієнтів усіх шардів.
+     */
+    static void clear() {
+        for (String username : ClientManager.getActiveUsers()) {
+            invoke(shard(username).getClass(), shard(username), "remove", new Class<?>[] {String.class}, username);
+        }
+    }
+
+    private static Object shard(String username) {
+        return invoke(ClientManager.class, null, "shardOf", new Class<?>[] {String.class}, username);
+    }
+
+    private static Object invoke(Class<?> type, Object target, String name, Class<?>[] params, Object... args) {
+        try {
+            Method method = type.getDeclaredMethod(name, params);
+            method.setAccessible(true);
+            return method.invoke(target, args);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("ClientManager internals are not accessible: " + name, e);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package nure.ua.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import nure.ua.server.ClientObjectStream;
+
+/**
+ * Потік об'єктів, що серіалізує в нікуди — замінник сокета клієнта в бенчмарках.
+ * Як і потік справжнього з'єднання, приймає вже серіалізовані об'єкти.
+ *
+ * Сервер ніколи не скидає свої ObjectOutputStream, тож таблиця посилань потоку
+ * росте з кожним новим об'єктом. У бенчмарку з мільйонами записів це призвело б
+ * до нестачі пам'яті, тому таблиця скидається раз на {@link #RESET_EVERY} записів:
+ * вартість повторного опису класів розподіляється майже непомітно.
+ */
+class DiscardingObjectStream extends ClientObjectStream {
+    private static final int RESET_EVERY = 1024;
+
+    private int flushes;
+
+    DiscardingObjectStream() throws IOException {
+        super(OutputStream.nullOutputStream());
+    }
+
+    @Override
+    public void flush() throws IOException {
+        super.flush();
+        if (++flushes == RESET_EVERY) {
+            flushes = 0;
+            reset();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package nure.ua.bench;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nure.ua.common.Message;
+import nure.ua.common.MessageType;
+import nure.ua.database.MessageEntity;
+
+/**
+ * Перетворення сторінки історії з {@link MessageEntity} у {@link Message}
+ * (мкс на сторінку) — частина кожної відповіді на запит історії після читання з БД.
+ * stream — так, як це зроблено в MessageManager; loop — простий цикл
+ * у список потрібного розміру для порівняння.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntityMappingBenchmark {
+
+    @Param({"20", "200"})
+    private int pageSize;
+
+    private List<MessageEntity> page;
+
+    @Setup
+    public void setUp() {
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 12, 0);
+        page = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            MessageEntity entity = new MessageEntity(i % 2 == 0 ? "alice" : "bob", i % 2 == 0 ? "bob" : "alice",
+                "history message " + i, start.plusSeconds(i), MessageType.TEXT, true);
+            entity.setId((long) i + 1);
+            entity.setSeq((long) i + 1);
+            entity.setClientKey("key-" + i);
+            page.add(entity);
+        }
+    }
+
+    @Benchmark
+    public List<Message> stream() {
+        return page.stream().map(MessageEntity::toMessage).toList();
+    }
+
+    @Benchmark
+    public List<Message> loop() {
+        List<Message> result = new ArrayList<>(page.size());
+        for (MessageEntity entity : page) {
+            result.add(entity.toMessage());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,97 @@
+package nure.ua.bench;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nure.ua.common.Message;
+import nure.ua.common.MessageType;
+import nure.ua.server.ClientManager;
+import nure.ua.server.ConnectionMailbox;
+import nure.ua.server.GroupChats;
+
+/**
+ * Розсилка повідомлення групи всім онлайн-учасникам залежно від розміру групи
+ * (мкс на одне повідомлення до завершення запису всіма скриньками).
+ * {@link GroupChats#fanOut} серіалізує повідомлення один раз і копіює готові байти
+ * в потік кожного учасника; для порівняння — та сама розсилка з серіалізацією
+ * для кожного учасника окремо. Збереження в БД не входить у вимірювання.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GroupFanOutBenchmark {
+    private static final long GROUP = 1;
+
+    @Param({"10", "100", "1000", "5000"})
+    private int members;
+
+    private final List<ConnectionMailbox> boxes = new ArrayList<>();
+    private long seq;
+
+    @Setup
+    public void setUp() throws IOException {
+        ClientRegistry.clear();
+        boxes.clear();
+        List<String> names = new ArrayList<>(members);
+        for (int i = 0; i < members; i++) {
+            String name = "bench-" + i;
+            names.add(name);
+            boxes.add(ClientRegistry.put(name, new DiscardingObjectStream()));
+        }
+        ClientRegistry.putGroup(GROUP, names);
+    }
+
+    @TearDown
+    public void tearDown() {
+        ClientRegistry.clear();
+    }
+
+    /** Розсилка групи: одна серіалізація на повідомлення. */
+    @Benchmark
+    public void encodedOnce() throws InterruptedException {
+        GroupChats.fanOut(GROUP, nextMessage());
+        ClientManager.awaitDeliveries();
+    }
+
+    /** Та сама розсилка, але кожна скринька серіалізує повідомлення сама. */
+    @Benchmark
+    public void serializedPerMember() throws InterruptedException {
+        Message message = nextMessage();
+        for (ConnectionMailbox box : boxes) {
+            box.send(message);
+        }
+        ClientManager.awaitDeliveries();
+    }
+
+    /**
+     * Кожна розсилка — новий об'єкт, як на сервері: інакше потік кожного учасника
+     * записав би повторно лише посилання на вже надісланий об'єкт.
+     */
+    private Message nextMessage() {
+        Message message = new Message("bench-0", null, "Meeting moved to 15:00, room 204.", LocalDateTime.now());
+        message.setType(MessageType.GROUP_TEXT);
+        message.setGroupId(GROUP);
+        message.setId(++seq);
+        message.setSeq(seq);
+        return message;
+    }
+}
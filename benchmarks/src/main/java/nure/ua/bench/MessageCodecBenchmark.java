@@ -0,0 +1,121 @@
+package nure.ua.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nure.ua.common.Message;
+import nure.ua.common.MessageType;
+
+/**
+ * Вартість кодування та декодування одного {@link Message} (нс на операцію).
+ *
+ * javaSerialize/javaDeserialize — стандартна серіалізація Java, як у протоколі:
+ * окремий потік на кожне повідомлення, тобто з описом класу (перше повідомлення
+ * в з'єднанні). dataEncode/dataDecode — ручний бінарний кодек через
+ * DataOutputStream як орієнтир для порівняння; у протоколі він не використовується.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageCodecBenchmark {
+    private static final LocalDateTime FIXED_TIME = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+    @Param({"32", "1024"})
+    private int textLength;
+
+    private Message message;
+    private byte[] javaBytes;
+    private byte[] dataBytes;
+
+    @Setup
+    public void setUp() throws IOException {
+        message = new Message("alice", "bob", "x".repeat(textLength), FIXED_TIME);
+        message.setType(MessageType.TEXT);
+        message.setId(123_456);
+        message.setSeq(42);
+        message.setClientKey("3f2b1c9e-7d4a-4e8b-9a61-0c5d2e7f8a90");
+        javaBytes = javaSerialize();
+        dataBytes = dataEncode();
+    }
+
+    @Benchmark
+    public byte[] javaSerialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + textLength);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Message javaDeserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(javaBytes))) {
+            return (Message) in.readObject();
+        }
+    }
+
+    @Benchmark
+    public byte[] dataEncode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + textLength);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeString(out, message.getSender());
+            writeString(out, message.getReceiver());
+            writeString(out, message.getText());
+            out.writeLong(message.getTimestamp().toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(message.getTimestamp().getNano());
+            out.writeByte(message.getType().ordinal());
+            out.writeLong(message.getId());
+            out.writeLong(message.getSeq());
+            writeString(out, message.getClientKey());
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Message dataDecode() throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(dataBytes))) {
+            String sender = readString(in);
+            String receiver = readString(in);
+            String text = readString(in);
+            LocalDateTime timestamp = LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+            Message msg = new Message(sender, receiver, text, timestamp);
+            msg.setType(MessageType.values()[in.readByte()]);
+            msg.setId(in.readLong());
+            msg.setSeq(in.readLong());
+            msg.setClientKey(readString(in));
+            return msg;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
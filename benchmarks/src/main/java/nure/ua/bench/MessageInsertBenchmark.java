@@ -0,0 +1,95 @@
+package nure.ua.bench;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nure.ua.common.MessageType;
+import nure.ua.database.HibernateUtil;
+import nure.ua.database.MessageEntity;
+import nure.ua.database.MessageWriter;
+
+/**
+ * Порівняння швидкості вставки повідомлень (вставок за секунду):
+ * stateful Session на кожне повідомлення (попередній шлях) проти MessageWriter.
+ *
+ * Потребує запущеної PostgreSQL з налаштувань hibernate.cfg.xml.
+ * Рядки, створені бенчмарком, видаляються після завершення.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MessageInsertBenchmark {
+    private static final String SENDER = "bench-sender";
+    private static final String RECEIVER = "bench-receiver";
+    private static final int BATCH = 50;
+
+    private MessageWriter writer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        writer = new MessageWriter();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        writer.close();
+        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+            session.beginTransaction();
+            session.createMutationQuery("DELETE FROM MessageEntity m WHERE m.sender = :sender")
+                .setParameter("sender", SENDER)
+                .executeUpdate();
+            session.getTransaction().commit();
+        }
+    }
+
+    /** Попередній шлях: окрема stateful-сесія з контекстом персистентності на кожну вставку. */
+    @Benchmark
+    public void statefulSession() {
+        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+            session.beginTransaction();
+            session.persist(newMessage());
+            session.getTransaction().commit();
+        }
+    }
+
+    /** Одна вставка на транзакцію через StatelessSession. */
+    @Benchmark
+    public void statelessInsert() {
+        writer.insert(newMessage());
+    }
+
+    /** Пакет вставок в одній транзакції — JDBC-батч завдяки послідовності з пулом. */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void statelessBatch() {
+        List<MessageEntity> batch = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            batch.add(newMessage());
+        }
+        writer.insertAll(batch);
+    }
+
+    private static MessageEntity newMessage() {
+        return new MessageEntity(SENDER, RECEIVER, "benchmark message", LocalDateTime.now(), MessageType.TEXT, false);
+    }
+}
@@ -0,0 +1,126 @@
+package nure.ua.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import nure.ua.common.Message;
+import nure.ua.common.MessageType;
+import nure.ua.database.HibernateUtil;
+import nure.ua.server.ClientManager;
+import nure.ua.server.service.MessageProcessor;
+
+/**
+ * Повний шлях обробки запиту клієнта через {@link MessageProcessor#process(Message)}
+ * для основних типів повідомлень (мкс на запит): диспетчеризація, робота з БД,
+ * серіалізація відповіді. Обидва співрозмовники "підключені" через потоки, що
+ * серіалізують в нікуди, тому пересилання та ACK теж входять у вимірювання.
+ *
+ * Потребує запущеної PostgreSQL з налаштувань hibernate.cfg.xml.
+ * Рядки, створені бенчмарком, видаляються після завершення.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MessageProcessorBenchmark {
+    private static final String SENDER = "bench-proc-sender";
+    private static final String RECEIVER = "bench-proc-receiver";
+    private static final int HISTORY_ROWS = 500;
+
+    private MessageProcessor processor;
+    private Message historyAfter;
+    private Message historyPage;
+    private Message typing;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        System.setProperty("chat.mailbox.dir", Files.createTempDirectory("bench-mailbox").toString());
+        ClientManager.initialize();
+
+        ClientRegistry.put(RECEIVER, new DiscardingObjectStream());
+        processor = new MessageProcessor(SENDER, ClientRegistry.put(SENDER, new DiscardingObjectStream()));
+
+        for (int i = 0; i < HISTORY_ROWS; i++) {
+            processor.process(newText());
+        }
+        try {
+            ClientManager.awaitDeliveries();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        historyAfter = request(MessageType.HISTORY_REQUEST, HISTORY_ROWS - 20);
+        historyPage = request(MessageType.HISTORY_PAGE_REQUEST, HISTORY_ROWS);
+        typing = request(MessageType.TYPING, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ClientRegistry.clear();
+        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+            session.beginTransaction();
+            session.createMutationQuery("DELETE FROM MessageEntity m WHERE m.sender = :sender")
+                .setParameter("sender", SENDER)
+                .executeUpdate();
+            session.getTransaction().commit();
+        }
+    }
+
+    /** Нове текстове повідомлення: seq, вставка, пересилання отримувачу, ACK. */
+    @Benchmark
+    public void text() throws IOException, InterruptedException {
+        processor.process(newText());
+        ClientManager.awaitDeliveries();
+    }
+
+    /** Дозавантаження новіших за відомий seq (повторне відкриття чату). */
+    @Benchmark
+    public void historyAfterSeq() throws IOException {
+        processor.process(historyAfter);
+    }
+
+    /** Сторінка старішої історії (прокручування вгору). */
+    @Benchmark
+    public void historyPage() throws IOException {
+        processor.process(historyPage);
+    }
+
+    /** Індикатор набору під час друку: повтор того самого стану, який сервер поглинає. */
+    @Benchmark
+    public void typing() throws IOException {
+        processor.process(typing);
+    }
+
+    private static Message newText() {
+        Message msg = new Message(SENDER, RECEIVER, "benchmark message", LocalDateTime.now());
+        msg.setType(MessageType.TEXT);
+        msg.setClientKey(UUID.randomUUID().toString());
+        return msg;
+    }
+
+    private static Message request(MessageType type, long seq) {
+        Message msg = new Message(SENDER, RECEIVER, "", LocalDateTime.now());
+        msg.setType(type);
+        msg.setSeq(seq);
+        return msg;
+    }
+}
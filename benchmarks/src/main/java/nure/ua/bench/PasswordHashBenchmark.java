@@ -0,0 +1,54 @@
+package nure.ua.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mindrot.jbcrypt.BCrypt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Вартість BCrypt залежно від коефіцієнта складності (мс на операцію).
+ * UserManager використовує BCrypt.gensalt() (коефіцієнт 10): hash — реєстрація,
+ * check — кожен вхід і кожне перепідключення. Сіль фіксована, щоб результати
+ * були відтворюваними.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordHashBenchmark {
+    private static final String PASSWORD = "correct horse battery staple";
+
+    @Param({"4", "8", "10", "12"})
+    private int cost;
+
+    private String salt;
+    private String hash;
+
+    @Setup
+    public void setUp() {
+        salt = String.format("$2a$%02d$abcdefghijklmnopqrstuu", cost);
+        hash = BCrypt.hashpw(PASSWORD, salt);
+    }
+
+    @Benchmark
+    public String hash() {
+        return BCrypt.hashpw(PASSWORD, salt);
+    }
+
+    @Benchmark
+    public boolean check() {
+        return BCrypt.checkpw(PASSWORD, hash);
+    }
+}
@@ -0,0 +1,363 @@
+package nure.ua.loadgen;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import nure.ua.client.core.ChatConnection;
+import nure.ua.client.core.ConnectionListener;
+import nure.ua.client.core.OutboundQueue;
+import nure.ua.common.Message;
+import nure.ua.common.MessageType;
+import nure.ua.metrics.LatencyHistogram;
+
+/**
+ * Генератор навантаження: відкриває N з'єднань симульованих користувачів
+ * (load-0 … load-N-1, пароль "load"; при першому вході сервер їх реєструє)
+ * і надсилає повідомлення за заданим графом розмов із цільовою частотою.
+ *
+ * Вимірюються дві затримки (мкс): доставка отримувачу та підтвердження (ACK)
+ * відправнику. Відлік іде від запланованого, а не фактичного моменту
+ * надсилання, тому відставання самого генератора теж потрапляє в результат
+ * (без "coordinated omission").
+ *
+ * Працює лише проти локального сервера (адреса має бути loopback).
+ *
+ * Параметри:
+ * <pre>
+ *   --host localhost   --port 8000
+ *   --users 100        кількість з'єднань
+ *   --graph ring       ring | pairs | star | random
+ *   --degree 1         кількість співрозмовників для ring і random
+ *   --rate 1000        повідомлень за секунду (сумарно)
+ *   --duration 60      тривалість вимірювання, с
+ *   --warmup 10        прогрів перед вимірюванням, с
+ *   --size 64          розмір тексту повідомлення, байт
+ *   --ramp 50          нових з'єднань за секунду
+ *   --seed 1           зерно для графа random
+ * </pre>
+ */
+public class LoadGenerator {
+    private static final String USER_PREFIX = "load-";
+    private static final String PASSWORD = "load";
+    private static final String MARK = "lg|";                  // Префікс тексту з запланованим часом надсилання
+    private static final int OUTBOX_CAPACITY = 10_000;
+    private static final int SEND_QUEUE_CAPACITY = 4096;
+    private static final long DRAIN_MILLIS = 3000;
+
+    private String host = "localhost";
+    private int port = 8000;
+    private int users = 100;
+    private String graph = "ring";
+    private int degree = 1;
+    private double rate = 1000;
+    private int durationSeconds = 60;
+    private int warmupSeconds = 10;
+    private int size = 64;
+    private double ramp = 50;
+    private long seed = 1;
+
+    private final List<ChatConnection> connections = new ArrayList<>();
+    private int[][] peers;
+    private String padding;
+    private long runStartNanos;
+
+    private final LatencyHistogram deliveryInterval = new LatencyHistogram();
+    private final LatencyHistogram ackInterval = new LatencyHistogram();
+    private final LatencyHistogram deliveryTotal = new LatencyHistogram();
+    private final LatencyHistogram ackTotal = new LatencyHistogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder acked = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+
+    private volatile boolean running = true;
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        generator.parse(args);
+        generator.run();
+        System.exit(0);
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String key = args[i];
+            if (i + 1 >= args.length) usage("Missing value for " + key);
+            String value = args[++i];
+            switch (key) {
+                case "--host" -> host = value;
+                case "--port" -> port = Integer.parseInt(value);
+                case "--users" -> users = Integer.parseInt(value);
+                case "--graph" -> graph = value;
+                case "--degree" -> degree = Integer.parseInt(value);
+                case "--rate" -> rate = Double.parseDouble(value);
+                case "--duration" -> durationSeconds = Integer.parseInt(value);
+                case "--warmup" -> warmupSeconds = Integer.parseInt(value);
+                case "--size" -> size = Integer.parseInt(value);
+                case "--ramp" -> ramp = Double.parseDouble(value);
+                case "--seed" -> seed = Long.parseLong(value);
+                default -> usage("Unknown option " + key);
+            }
+        }
+        if (users < 2) usage("--users must be at least 2");
+        if (rate <= 0 || ramp <= 0) usage("--rate and --ramp must be positive");
+        degree = Math.max(1, Math.min(degree, users - 1));
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("Usage: java -jar loadgen.jar [--host localhost] [--port 8000] [--users N]"
+            + " [--graph ring|pairs|star|random] [--degree k] [--rate msgs/s] [--duration s]"
+            + " [--warmup s] [--size bytes] [--ramp conns/s] [--seed n]");
+        System.exit(2);
+    }
+
+    private void run() throws InterruptedException {
+        requireLoopback(host);
+        peers = buildGraph();
+        padding = "x".repeat(size);
+        runStartNanos = System.nanoTime();
+
+        connectAll();
+        System.out.printf("Connected %d users, graph=%s degree=%d, rate=%.0f msg/s, warmup=%ds, duration=%ds%n",
+            connectedCount(), graph, degree, rate, warmupSeconds, durationSeconds);
+
+        Thread pacer = new Thread(this::pace, "loadgen-pacer");
+        pacer.start();
+
+        for (int second = 1; second <= warmupSeconds + durationSeconds; second++) {
+            Thread.sleep(1000);
+            report(second, second <= warmupSeconds);
+            if (second == warmupSeconds) {
+                resetTotals();
+            }
+        }
+
+        running = false;
+        pacer.join();
+        Thread.sleep(DRAIN_MILLIS);
+        summary();
+
+        for (ChatConnection connection : connections) {
+            if (connection != null) connection.close();
+        }
+    }
+
+    /**
+     * Перевіряє, що адреса сервера локальна.
+     *
+     * @param host адреса сервера
+     */
+    private static void requireLoopback(String host) {
+        try {
+            if (!InetAddress.getByName(host).isLoopbackAddress()) {
+                usage("Refusing to run against non-local host " + host);
+            }
+        } catch (UnknownHostException e) {
+            usage("Unknown host " + host);
+        }
+    }
+
+    /**
+     * Будує граф розмов: для кожного користувача — список його співрозмовників.
+     *
+     * @return індекси співрозмовників для кожного користувача
+     */
+    private int[][] buildGraph() {
+        int[][] result = new int[users][];
+        Random random = new Random(seed);
+        for (int i = 0; i < users; i++) {
+            result[i] = switch (graph) {
+                case "ring" -> {
+                    int[] targets = new int[degree];
+                    for (int d = 0; d < degree; d++) targets[d] = (i + d + 1) % users;
+                    yield targets;
+                }
+                case "pairs" -> new int[] { (i ^ 1) < users ? i ^ 1 : i - 1 };
+                case "star" -> {
+                    if (i != 0) yield new int[] { 0 };
+                    int[] targets = new int[users - 1];
+                    for (int t = 1; t < users; t++) targets[t - 1] = t;
+                    yield targets;
+                }
+                case "random" -> {
+                    Set<Integer> targets = new LinkedHashSet<>();
+                    while (targets.size() < degree) {
+                        int t = random.nextInt(users);
+                        if (t != i) targets.add(t);
+                    }
+                    yield targets.stream().mapToInt(Integer::intValue).toArray();
+                }
+                default -> {
+                    usage("Unknown graph " + graph);
+                    yield new int[0];
+                }
+            };
+        }
+        return result;
+    }
+
+    /**
+     * Підключає користувачів із заданою швидкістю. Користувачі, які не змогли
+     * увійти, пропускаються.
+     */
+    private void connectAll() {
+        ThreadFactory threads = Thread.ofVirtual().name("loadgen-", 0).factory();
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / ramp);
+        long next = System.nanoTime();
+        for (int i = 0; i < users; i++) {
+            LockSupport.parkNanos(next - System.nanoTime());
+            next += interval;
+
+            String username = USER_PREFIX + i;
+            ChatConnection connection = new ChatConnection(host, port,
+                new OutboundQueue(OUTBOX_CAPACITY), SEND_QUEUE_CAPACITY, threads);
+            if (!connection.connect(username, PASSWORD)) {
+                System.err.println("Login failed for " + username + ": " + connection.getInitialResponse());
+                connections.add(null);
+                continue;
+            }
+            connection.start(listenerFor(username));
+            connections.add(connection);
+        }
+        if (connectedCount() == 0) {
+            usage("No users could log in to " + host + ":" + port);
+        }
+    }
+
+    private long connectedCount() {
+        return connections.stream().filter(c -> c != null).count();
+    }
+
+    private ConnectionListener listenerFor(String username) {
+        return new ConnectionListener() {
+            @Override
+            public void onMessage(Message msg) {
+                if (msg.getType() != MessageType.TEXT || !username.equals(msg.getReceiver())) return;
+                long intended = intendedTime(msg.getText());
+                if (intended < runStartNanos) return;   // Недоставлені повідомлення з попередніх запусків
+                long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intended);
+                deliveryInterval.record(micros);
+                delivered.increment();
+            }
+
+            @Override
+            public void onUsers(List<String> users) {
+            }
+
+            @Override
+            public void onConnectionLost(String reason) {
+                reconnects.increment();
+            }
+        };
+    }
+
+    /**
+     * Надсилає повідомлення за розкладом. Відправники чергуються по колу,
+     * кожен по черзі пише своїм співрозмовникам. Якщо генератор відстав від
+     * розкладу, прострочені повідомлення надсилаються одразу.
+     */
+    private void pace() {
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime();
+        for (long n = 0; running; n++) {
+            long intended = start + n * interval;
+            long wait = intended - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+
+            int senderIndex = (int) (n % users);
+            ChatConnection sender = connections.get(senderIndex);
+            if (sender == null) continue;
+            int[] targets = peers[senderIndex];
+            int receiverIndex = targets[(int) ((n / users) % targets.length)];
+
+            Message msg = new Message(sender.getUsername(), USER_PREFIX + receiverIndex,
+                MARK + intended + "|" + padding, LocalDateTime.now());
+            msg.setType(MessageType.TEXT);
+            msg.setClientKey(UUID.randomUUID().toString());
+            sent.increment();
+            sender.sendText(msg).whenComplete((ack, error) -> {
+                if (error != null) {
+                    failed.increment();
+                    return;
+                }
+                ackInterval.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intended));
+                acked.increment();
+            });
+        }
+    }
+
+    /**
+     * @param text текст повідомлення
+     * @return запланований час надсилання (System.nanoTime) або Long.MIN_VALUE для чужих повідомлень
+     */
+    private static long intendedTime(String text) {
+        if (text == null || !text.startsWith(MARK)) return Long.MIN_VALUE;
+        int end = text.indexOf('|', MARK.length());
+        try {
+            return Long.parseLong(text.substring(MARK.length(), end < 0 ? text.length() : end));
+        } catch (NumberFormatException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private long lastSent;
+    private long lastDelivered;
+    private long lastAcked;
+
+    private void report(int second, boolean warmup) {
+        LatencyHistogram delivery = deliveryInterval.snapshotAndReset();
+        LatencyHistogram ack = ackInterval.snapshotAndReset();
+        deliveryTotal.add(delivery);
+        ackTotal.add(ack);
+
+        long s = sent.sum(), d = delivered.sum(), a = acked.sum();
+        System.out.printf("%s%4ds sent %6d/s delivered %6d/s acked %6d/s | delivery p50 %s p99 %s p999 %s | ack p99 %s | failed %d reconnects %d%n",
+            warmup ? "[warmup] " : "", second, s - lastSent, d - lastDelivered, a - lastAcked,
+            millis(delivery.percentile(50)), millis(delivery.percentile(99)), millis(delivery.percentile(99.9)),
+            millis(ack.percentile(99)), failed.sum(), reconnects.sum());
+        lastSent = s;
+        lastDelivered = d;
+        lastAcked = a;
+    }
+
+    private void resetTotals() {
+        deliveryTotal.reset();
+        ackTotal.reset();
+    }
+
+    private void summary() {
+        deliveryTotal.add(deliveryInterval.snapshotAndReset());
+        ackTotal.add(ackInterval.snapshotAndReset());
+        System.out.println();
+        System.out.printf("Summary over %ds (after %ds warmup), %d users, target %.0f msg/s%n",
+            durationSeconds, warmupSeconds, connectedCount(), rate);
+        System.out.printf("  throughput: %.1f delivered/s%n", (double) deliveryTotal.getCount() / durationSeconds);
+        printLatency("delivery", deliveryTotal);
+        printLatency("ack", ackTotal);
+        System.out.printf("  sent %d, delivered %d, acked %d, failed %d, reconnects %d%n",
+            sent.sum(), delivered.sum(), acked.sum(), failed.sum(), reconnects.sum());
+    }
+
+    private static void printLatency(String name, LatencyHistogram h) {
+        System.out.printf("  %-8s n=%d mean %s p50 %s p90 %s p99 %s p999 %s max %s%n", name, h.getCount(),
+            millis((long) h.getMean()), millis(h.percentile(50)), millis(h.percentile(90)),
+            millis(h.percentile(99)), millis(h.percentile(99.9)), millis(h.getMax()));
+    }
+
+    private static String millis(long micros) {
+        return String.format("%.2fms", micros / 1000.0);
+    }
+}
@@ -1,155 +1,189 @@
 package nure.ua.client;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 import javafx.application.Platform;
-import nure.ua.client.model.LoginRequest;
+import nure.ua.client.core.ChatConnection;
+import nure.ua.client.core.ConnectionListener;
+import nure.ua.client.core.OutboundQueue;
 import nure.ua.common.Message;
 import nure.ua.common.MessageType;
 
 /**
- * Клас для керування з'єднанням з сервером чату.
- * Відповідає за встановлення сокет-з'єднання, автентифікацію,
- * надсилання та отримання повідомлень.
+ * Клас для керування з'єднанням з сервером чату в графічному клієнті.
+ * Мережева частина (автентифікація, черга надсилання, підтвердження,
+ * перепідключення) винесена в {@link ChatConnection}; цей клас лише
+ * передає отримані дані в інтерфейс через {@link UiUpdatePump}.
  */
 public class ChatClient {
-    private Socket socket;
-    private ObjectOutputStream out;
-    private ObjectInputStream in;
+    private static final String HOST = System.getProperty("chat.server.host", "localhost");
+    private static final int PORT = Integer.getInteger("chat.server.port", 8000);
+    private static final int SEND_QUEUE_CAPACITY = Integer.getInteger("chat.client.sendQueue", 1024);
+
+    private final ChatConnection connection;
+    private UiUpdatePump pump;
+    private Runnable onReconnect = () -> {};
     private String username;
-    private Thread listenerThread;
 
-    private String initialResponse = "";
     private List<String> knownUsers = List.of();
-    private boolean allUsersReceived = false; 
+    private boolean allUsersReceived = false;
+
+    /**
+     * @param outbox черга непідтверджених вихідних повідомлень
+     */
+    public ChatClient(OutboundQueue outbox) {
+        this.connection = new ChatConnection(HOST, PORT, outbox, SEND_QUEUE_CAPACITY, task -> {
+            Thread t = new Thread(task, "chat-connection");
+            t.setDaemon(true);
+            return t;
+        });
+    }
 
     /**
      * Підключається до сервера та виконує автентифікацію користувача.
-     * 
+     *
      * @param username ім'я користувача
      * @param password пароль користувача
      * @return true, якщо підключення та автентифікація успішні, інакше false
      */
     public boolean connect(String username, String password) {
-        
-        try {
-            this.username = username;
-            socket = new Socket("localhost", 8000);
-            out = new ObjectOutputStream(socket.getOutputStream());
-            out.flush();
-            in = new ObjectInputStream(socket.getInputStream());
-
-            out.writeObject(new LoginRequest(username, password, false));
-            out.flush();
-
-            Object response = in.readObject();
-            if (response instanceof String str && str.startsWith("ERROR:")) {
-                initialResponse = str;
-                return false;
-            }
-            return true;
-
-        } catch (IOException | ClassNotFoundException e) {
-            initialResponse = "Connection error: " + e.getMessage();
-            return false;
-        }
+        this.username = username;
+        return connection.connect(username, password);
     }
 
     /**
-     * Запускає окремий потік для прослуховування вхідних повідомлень
-     * і оновлення списку користувачів.
-     * 
+     * Запускає прослуховування вхідних повідомлень і оновлення списку користувачів.
+     * Отримані дані передаються в інтерфейс пакетами через {@link UiUpdatePump},
+     * тому колбеки виконуються в потоці JavaFX.
+     *
      * @param onMessage колбек для обробки отриманих повідомлень
      * @param onUsers колбек для оновлення списку користувачів
      */
     public void listen(Consumer<Message> onMessage, Consumer<List<String>> onUsers) {
-        listenerThread = new Thread(() -> {
-            try {
-                while (true) {
-                    Object input = in.readObject();
-                    if (input instanceof Message msg) {
-                        Platform.runLater(() -> onMessage.accept(msg));
-                        if (msg.getType() == MessageType.DELETE_ACCOUNT_CONFIRMATION) {
-                            Platform.runLater(() -> {
-                                System.out.println("Account deletion confirmed.");
-                            });
-                        }
-                    } else if (input instanceof List<?> list && !list.isEmpty() && list.get(0) instanceof String) {
-                        @SuppressWarnings("unchecked")
-                        List<String> users = (List<String>) list;
-                        if (!allUsersReceived) {
-                            knownUsers = users;
-                            Platform.runLater(() -> onUsers.accept(users));
-                            allUsersReceived = true;
-                        } else {
-                            Platform.runLater(() -> onUsers.accept(users));
-                        }
-                    }
+        pump = new UiUpdatePump(onMessage, onUsers);
+        pump.start();
+        connection.start(new ConnectionListener() {
+            @Override
+            public void onMessage(Message msg) {
+                pump.submit(msg);
+                if (msg.getType() == MessageType.DELETE_ACCOUNT_CONFIRMATION) {
+                    System.out.println("Account deletion confirmed.");
                 }
-            } catch (IOException | ClassNotFoundException e) {
-                System.err.println("Listener error: " + e.getMessage());
+            }
+
+            @Override
+            public void onUsers(List<String> users) {
+                if (!allUsersReceived) {
+                    knownUsers = users;
+                    allUsersReceived = true;
+                }
+                pump.submitUsers(users);
+            }
+
+            @Override
+            public void onConnectionLost(String reason) {
+                System.err.println("Listener error: " + reason);
+                pump.submit(systemNote("Connection lost. Reconnecting..."));
+            }
+
+            @Override
+            public void onReconnected() {
+                pump.submit(systemNote("Reconnected."));
+                Platform.runLater(onReconnect);
+            }
+
+            @Override
+            public void onReconnectFailed(String reason) {
+                pump.submit(systemNote("Reconnect failed: " + reason));
             }
         });
-        listenerThread.setDaemon(true);
-        listenerThread.start();
+    }
+
+    /**
+     * Ставить текстове повідомлення в чергу на надсилання і одразу повертає керування.
+     *
+     * @param msg повідомлення з ключем ідемпотентності
+     * @return future, що завершується підтвердженням сервера (ACK) або помилкою
+     * @see ChatConnection#sendText(Message)
+     */
+    public CompletableFuture<Message> sendText(Message msg) {
+        return connection.sendText(msg);
+    }
+
+    /**
+     * Ставить службовий запит в чергу на надсилання.
+     *
+     * @param msg запит
+     * @throws IOException якщо черга надсилання заповнена
+     */
+    public void post(Message msg) throws IOException {
+        connection.post(msg);
     }
 
     /**
      * Надсилає текстове повідомлення до сервера.
-     * 
+     *
      * @param from відправник
      * @param to отримувач
      * @param text текст повідомлення
-     * @throws IOException у випадку проблем з мережею
+     * @return future, що завершується підтвердженням сервера
      */
-    public void sendMessage(String from, String to, String text) throws IOException {
+    public CompletableFuture<Message> sendMessage(String from, String to, String text) {
         Message msg = new Message(from, to, text, LocalDateTime.now());
         msg.setType(MessageType.TEXT);
-        out.writeObject(msg);
-        out.flush();
+        msg.setClientKey(UUID.randomUUID().toString());
+        return sendText(msg);
     }
 
     /**
-     * Закриває всі відкриті ресурси та припиняє з'єднання.
+     * Закриває всі відкриті ресурси та припиняє з'єднання без перепідключення.
      */
     public void close() {
-        try {
-            if (listenerThread != null && listenerThread.isAlive()) {
-                listenerThread.interrupt();
-            }
-            if (in != null) in.close();
-            if (out != null) out.close();
-            if (socket != null && !socket.isClosed()) socket.close();
-        } catch (IOException e) {
-            System.err.println("Failed to close connection: " + e.getMessage());
+        connection.close();
+        if (pump != null) {
+            pump.stop();
         }
     }
 
+    private Message systemNote(String text) {
+        Message note = new Message("System", username, text, LocalDateTime.now());
+        note.setType(MessageType.SYSTEM);
+        return note;
+    }
+
+    /**
+     * Встановлює дію, яка виконується в потоці JavaFX після відновлення з'єднання.
+     *
+     * @param onReconnect дія після перепідключення
+     */
+    public void setOnReconnect(Runnable onReconnect) {
+        this.onReconnect = onReconnect;
+    }
+
+    /** @return true, якщо з'єднання з сервером зараз встановлене */
+    public boolean isConnected() {
+        return connection.isConnected();
+    }
+
+    /** @return буфер оновлень інтерфейсу (null до виклику listen) */
+    public UiUpdatePump getPump() {
+        return pump;
+    }
+
     /** @return початкову відповідь сервера після підключення */
     public String getInitialResponse() {
-        return initialResponse;
+        return connection.getInitialResponse();
     }
 
     /** @return список відомих користувачів */
     public List<String> getAllKnownUsers() {
         return new ArrayList<>(knownUsers);
-    }  
-
-    /** @return об'єкт ObjectOutputStream для відправки повідомлень */
-    public ObjectOutputStream getOut() {
-       return out;
-    }
-
-    /** @return об'єкт ObjectInputStream для отримання повідомлень */
-    public ObjectInputStream getIn() {
-       return in;
     }
 
     public String getUsername() {
@@ -160,4 +194,3 @@ public class ChatClient {
         this.username = username;
     }
 }
-
@@ -0,0 +1,157 @@
+package nure.ua.client;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import nure.ua.common.Message;
+
+/**
+ * Буфер вхідних оновлень інтерфейсу.
+ * Потік читання лише кладе повідомлення в чергу, а потік JavaFX забирає їх
+ * пакетами один раз на кадр (pulse) і не довше за бюджет кадру. Залишок
+ * переходить на наступний кадр, тому навіть великий потік історії не
+ * блокує вікно. Списки користувачів проходять через ту саму чергу, щоб
+ * зберігався порядок відносно повідомлень.
+ *
+ * Відставання інтерфейсу вимірюється як вік найстаріших необроблених
+ * повідомлень на початку кадру.
+ */
+public class UiUpdatePump {
+    private static final long FRAME_BUDGET_NANOS =
+        TimeUnit.MILLISECONDS.toNanos(Long.getLong("chat.client.uiFrameBudgetMillis", 8));
+    private static final long LAG_WARN_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private final Consumer<Message> onMessage;
+    private final Consumer<List<String>> onUsers;
+    private final Queue<Pending> inbound = new ConcurrentLinkedQueue<>();
+    private final AnimationTimer timer;
+
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder overrunFrames = new LongAdder();
+    private volatile long lastLagNanos;
+    private volatile long maxLagNanos;
+    private long lastWarnAt;
+
+    /**
+     * @param onMessage обробник повідомлень (викликається в потоці JavaFX)
+     * @param onUsers обробник списку користувачів (викликається в потоці JavaFX)
+     */
+    public UiUpdatePump(Consumer<Message> onMessage, Consumer<List<String>> onUsers) {
+        this.onMessage = onMessage;
+        this.onUsers = onUsers;
+        this.timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                drain();
+            }
+        };
+    }
+
+    /**
+     * Запускає обробку черги на кожному кадрі JavaFX.
+     */
+    public void start() {
+        Platform.runLater(timer::start);
+    }
+
+    /**
+     * Зупиняє обробку черги.
+     */
+    public void stop() {
+        Platform.runLater(timer::stop);
+    }
+
+    /**
+     * Додає повідомлення до черги. Може викликатися з будь-якого потоку.
+     *
+     * @param msg отримане повідомлення
+     */
+    public void submit(Message msg) {
+        inbound.add(new Pending(System.nanoTime(), msg, null));
+    }
+
+    /**
+     * Додає список користувачів до черги. Може викликатися з будь-якого потоку.
+     *
+     * @param users список користувачів
+     */
+    public void submitUsers(List<String> users) {
+        inbound.add(new Pending(System.nanoTime(), null, users));
+    }
+
+    /**
+     * Обробляє чергу в межах бюджету кадру.
+     */
+    private void drain() {
+        Pending head = inbound.peek();
+        if (head == null) {
+            lastLagNanos = 0;
+            return;
+        }
+
+        long start = System.nanoTime();
+        recordLag(start - head.enqueuedAt());
+
+        long deadline = start + FRAME_BUDGET_NANOS;
+        Pending next;
+        while ((next = inbound.poll()) != null) {
+            if (next.msg() != null) {
+                onMessage.accept(next.msg());
+            } else {
+                onUsers.accept(next.users());
+            }
+            delivered.increment();
+            if (System.nanoTime() >= deadline) {
+                break;
+            }
+        }
+        if (!inbound.isEmpty()) {
+            overrunFrames.increment();
+        }
+    }
+
+    private void recordLag(long lagNanos) {
+        lastLagNanos = lagNanos;
+        if (lagNanos > maxLagNanos) {
+            maxLagNanos = lagNanos;
+        }
+        long now = System.currentTimeMillis();
+        if (lagNanos > LAG_WARN_NANOS && now - lastWarnAt > 1000) {
+            lastWarnAt = now;
+            System.out.println("UI lag: " + TimeUnit.NANOSECONDS.toMillis(lagNanos) + " ms, backlog " + inbound.size());
+        }
+    }
+
+    /** @return кількість повідомлень і списків користувачів, переданих в інтерфейс */
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    /** @return кількість кадрів, після яких у черзі лишилися повідомлення */
+    public long getOverrunFrames() {
+        return overrunFrames.sum();
+    }
+
+    /** @return відставання інтерфейсу на останньому кадрі, мс */
+    public long getLagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastLagNanos);
+    }
+
+    /** @return найбільше зафіксоване відставання інтерфейсу, мс */
+    public long getMaxLagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLagNanos);
+    }
+
+    /** @return кількість повідомлень, що очікують обробки */
+    public int getBacklog() {
+        return inbound.size();
+    }
+
+    private record Pending(long enqueuedAt, Message msg, List<String> users) {}
+}
@@ -2,7 +2,6 @@ package nure.ua.client.controller;
 
 import java.io.IOException;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -19,6 +18,8 @@ import javafx.scene.control.TabPane;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
 import javafx.stage.Stage;
+import nure.ua.client.model.PresenceStore;
+import nure.ua.client.model.UserPresence;
 import nure.ua.client.service.ClientService;
 import nure.ua.common.Message;
 import nure.ua.common.MessageType;
@@ -31,7 +32,8 @@ import nure.ua.server.ClientManager;
  */
 public class ChatController {
     @FXML private TextArea messagesArea;           // Загальна область для виводу повідомлень
-    @FXML private ListView<String> usersList;      // Список відомих користувачів
+    @FXML private ListView<UserPresence> usersList;  // Список відомих користувачів
+    @FXML private TextField userFilterInput;        // Поле пошуку у списку користувачів
     @FXML private TextField usernameInput;          // Поле для введення імені користувача
     @FXML private TextField passwordInput;          // Поле для введення пароля
     @FXML private Button connectButton;              // Кнопка підключення до сервера
@@ -46,8 +48,7 @@ public class ChatController {
     private final Map<String, Stage> privateChats = new HashMap<>();   // Вікна приватних чатів (неактивне)
     private final Map<String, PrivateChatController> chatControllers = new HashMap<>();  // Контролери приватних чатів
 
-    private final List<String> knownUsers = new ArrayList<>();    // Відомі користувачі (онлайн і офлайн)
-    private final List<String> onlineUsers = new ArrayList<>();   // Користувачі, які зараз онлайн
+    private final PresenceStore presence = new PresenceStore();   // Відомі користувачі (онлайн і офлайн) та їхній статус
 
     /**
      * Ініціалізація GUI-компонентів і налаштування обробників подій.
@@ -57,23 +58,22 @@ public class ChatController {
     public void initialize() {
          // Ініціалізує сервіс клієнта, встановлює обробники кнопок і списку користувачів
         client = new ClientService();
+        client.setOnReconnect(this::resyncOpenChats);
 
         connectButton.setOnAction(e -> connect());
         disconnectButton.setOnAction(e -> disconnect());
         disconnectButton.setDisable(true);
         deleteAccountButton.setOnAction(e -> deleteAccount());
+        usersList.setItems(presence.getVisibleRows());
+        userFilterInput.textProperty().addListener((obs, oldQuery, query) -> presence.setFilter(query));
         usersList.setOnMouseClicked(event -> {
-            String selected = usersList.getSelectionModel().getSelectedItem();
+            UserPresence selected = usersList.getSelectionModel().getSelectedItem();
             if (selected != null) {
-                String peerUsername = extractPureUsername(selected);
+                String peerUsername = selected.getUsername();
 
                 if (!peerUsername.equals(usernameInput.getText().trim())) {
+                    // Історія підвантажується з локального кешу та синхронізується під час відкриття вкладки
                     openPrivateChat(peerUsername);
-                    try {
-                        client.requestHistoryWith(peerUsername);
-                    } catch (IOException ex) {
-                        showAlert("Error", "Failed to retrieve message history: " + ex.getMessage());
-                    }
                 } else {
                     messagesArea.clear();
                     messagesArea.appendText("System log:\n");
@@ -91,6 +91,7 @@ public class ChatController {
         String username = usernameInput.getText().trim();
         String password = passwordInput.getText().trim();
         myUsername = username;
+        presence.setSelf(username);
         if (username.isEmpty()) {
             showAlert("Username required", "Please enter your username before connecting.");
             return;
@@ -102,6 +103,7 @@ public class ChatController {
                 showAlert("Connection Error", client.getInitialResponse());
                 client.close();
                 client = new ClientService();
+                client.setOnReconnect(this::resyncOpenChats);
                 return;
             }
             appendMessage("Connected as " + username);
@@ -118,96 +120,110 @@ public class ChatController {
     /**
      * Обробник отримання повідомлень від сервера.
      * Розподіляє повідомлення за типом і оновлює відповідні UI-компоненти.
+     * Викликається в потоці JavaFX буфером оновлень інтерфейсу.
      * @param msg повідомлення, отримане від сервера
      */
     @SuppressWarnings("UnnecessaryReturnStatement")
     private void onMessageReceived(Message msg) {
-            Platform.runLater(() -> {
-                if (msg.getType() == MessageType.DELETE_ACCOUNT_REQUEST) {                    
-                    String deletedUserRow = msg.getText().trim();
-                    String deletedUserMas[] = deletedUserRow.split(" ");
-                    String deletedUser = deletedUserMas[1];
-
-                    knownUsers.remove(deletedUser);
-                    onlineUsers.remove(deletedUser);     
-
-                    Tab removedTab = openedChatTabs.remove(deletedUser);
-                    if (removedTab != null) {
-                        privateChatsTabPane.getTabs().remove(removedTab);
-                    }
-                    chatControllers.remove(deletedUser);
-
-
-                    PrivateChatController controller = chatControllers.get(deletedUser);
-                    if (controller != null) {
-                        Message systemMsg = new Message("", deletedUser, deletedUser, LocalDateTime.now());
-                        systemMsg.setType(MessageType.DELETE_ACCOUNT_REQUEST);
-                        if (!chatControllers.containsKey(deletedUser)) {
-                             openPrivateChat(deletedUser);
-                        }
-                            
-                        controller.receiveMessage(systemMsg);
-                    }
-
-                    updateUsersList();
-                    appendSystemLog("[System] User " + deletedUser + " has been deleted.");
-                    return;
-                }  
-
-                if (msg.getType() == MessageType.SYSTEM) {
-                    appendSystemLog("[" + msg.getTimestamp() + "] " + msg.getText());
-                    return;
-                }
+        if (msg.getType() == MessageType.DELETE_ACCOUNT_REQUEST) {                    
+            String deletedUserRow = msg.getText().trim();
+            String deletedUserMas[] = deletedUserRow.split(" ");
+            String deletedUser = deletedUserMas[1];
 
-                String currentUser = usernameInput.getText().trim();
-                String peer = msg.getSender().equals(currentUser) ? msg.getReceiver() : msg.getSender();
+            presence.remove(deletedUser);
 
-                if (!privateChats.containsKey(peer)) {
-                    openPrivateChat(peer);
-                }
+            Tab removedTab = openedChatTabs.remove(deletedUser);
+            if (removedTab != null) {
+                privateChatsTabPane.getTabs().remove(removedTab);
+            }
+            chatControllers.remove(deletedUser);
 
-                PrivateChatController controller = chatControllers.get(peer);
-                if (controller != null) {
-                    controller.receiveMessage(msg);
-                } else {
-                    System.err.println("Controller for " + peer + " not found.");
+
+            PrivateChatController controller = chatControllers.get(deletedUser);
+            if (controller != null) {
+                Message systemMsg = new Message("", deletedUser, deletedUser, LocalDateTime.now());
+                systemMsg.setType(MessageType.DELETE_ACCOUNT_REQUEST);
+                if (!chatControllers.containsKey(deletedUser)) {
+                     openPrivateChat(deletedUser);
                 }
-              
-            });
+
+                controller.receiveMessage(systemMsg);
+            }
+
+            appendSystemLog("[System] User " + deletedUser + " has been deleted.");
+            return;
+        }  
+
+        if (msg.getType() == MessageType.SYSTEM) {
+            appendSystemLog("[" + msg.getTimestamp() + "] " + msg.getText());
+            return;
+        }
+
+        if (msg.getGroupId() > 0) {
+            // Групові чати інтерфейс поки не відображає: не відкривати для них особисту вкладку
+            return;
+        }
+
+        String currentUser = usernameInput.getText().trim();
+        String peer = msg.getSender().equals(currentUser) ? msg.getReceiver() : msg.getSender();
+
+        if (msg.getType() == MessageType.DELIVERED || msg.getType() == MessageType.READ) {
+            client.getReceipts().apply(msg);
+        }
+
+        if (msg.getType() == MessageType.ACK || msg.getType() == MessageType.TYPING
+                || msg.getType() == MessageType.TYPING_STOPPED
+                || msg.getType() == MessageType.DELIVERED || msg.getType() == MessageType.READ) {
+            PrivateChatController controller = chatControllers.get(peer);
+            if (controller != null) {
+                controller.receiveMessage(msg);
+            }
+            return;
+        }
+
+        if (!privateChats.containsKey(peer)) {
+            openPrivateChat(peer);
+        }
+
+        PrivateChatController controller = chatControllers.get(peer);
+        if (controller != null) {
+            controller.receiveMessage(msg);
+        } else {
+            System.err.println("Controller for " + peer + " not found.");
+        }
     }
 
     /**
-     * Оновлення списку користувачів, які онлайн та офлайн.
-     * Відображає статус поруч з іменем користувача.
+     * Після перепідключення дозавантажує повідомлення, пропущені відкритими чатами.
+     */
+    private void resyncOpenChats() {
+        appendSystemLog("[System] Connection restored.");
+        for (PrivateChatController controller : chatControllers.values()) {
+            controller.resync();
+        }
+    }
+
+    /**
+     * Оновлення статусів користувачів, які онлайн та офлайн.
+     * Зміни застосовуються інкрементально: оновлюються лише рядки списку
+     * та вкладки тих користувачів, чий статус змінився.
      * @param users список імен користувачів, які зараз онлайн
      */
     private void onUsersListReceived(List<String> users) {
-        Platform.runLater(() -> {
-            for (String user : users) {
-               if (!knownUsers.contains(user)) {
-                   knownUsers.add(user);
-                }
+        for (String user : presence.applyOnline(users)) {
+            Tab tab = openedChatTabs.get(user);
+            if (tab != null) {
+                tab.setText(tabTitle(user));
             }
-                onlineUsers.clear();
-                onlineUsers.addAll(users);
-
-                usersList.getItems().clear();
-                for (String user : knownUsers) {
-                    if (user.equals(myUsername)) continue;
-                    boolean isOnline = onlineUsers.contains(user);
-                    String display = user + (isOnline ? " (online)" : " (offline)");
-                    usersList.getItems().add(display);
-                }
+        }
+    }
 
-                for (Map.Entry<String, Tab> entry : openedChatTabs.entrySet()) {
-                    String peerUsername = entry.getKey();
-                    Tab tab = entry.getValue();
-                    boolean isOnline = onlineUsers.contains(peerUsername);
-                    String newTabName = peerUsername + (isOnline ? " (online)" : " (offline)");
-                    tab.setText(newTabName);
-                }
-            
-        });
+    /**
+     * @param peerUsername ім'я співрозмовника
+     * @return назва вкладки з поточним статусом
+     */
+    private String tabTitle(String peerUsername) {
+        return peerUsername + (presence.isOnline(peerUsername) ? " (online)" : " (offline)");
     }
 
     /**
@@ -229,30 +245,7 @@ public class ChatController {
             }
         });
     }
- 
-    /**
-     * Оновлення UI списку користувачів та вкладок приватних чатів при зміні статусу.
-     */
-    private void updateUsersList() {
-        Platform.runLater(() -> {
-            usersList.getItems().clear();
-            for (String user : knownUsers) {
-                if (user.equals(myUsername)) continue;
-                boolean isOnline = onlineUsers.contains(user);
-                String display = user + (isOnline ? " (online)" : " (offline)");
-                usersList.getItems().add(display);
-            }
 
-            for (Map.Entry<String, Tab> entry : openedChatTabs.entrySet()) {
-                String peerUsername = entry.getKey();
-                Tab tab = entry.getValue();
-                boolean isOnline = onlineUsers.contains(peerUsername);
-                String newTabName = peerUsername + (isOnline ? " (online)" : " (offline)");
-                tab.setText(newTabName);
-            }
-        });
-    }
-    
     /**
      * Відключення від сервера, очищення UI та відновлення стану кнопок.
      */
@@ -305,13 +298,12 @@ public class ChatController {
             PrivateChatController controller = loader.getController();
             controller.initializeData(client, myUsername, peerUsername);
 
-            boolean isOnline = onlineUsers.contains(peerUsername);
-            String tabName = peerUsername + (isOnline ? " (online)" : " (offline)");
-            Tab tab = new Tab(tabName);
+            Tab tab = new Tab(tabTitle(peerUsername));
 
             openedChatTabs.put(peerUsername, tab);
 
             tab.setContent(root);
+            tab.setOnSelectionChanged(e -> controller.setActive(tab.isSelected()));
             tab.setOnClosed(e -> {
                 chatControllers.remove(peerUsername);
                 openedChatTabs.remove(peerUsername);
@@ -327,15 +319,6 @@ public class ChatController {
         }
     }
 
-    /**
-     * Допоміжний метод для вилучення імені користувача без статусу (online/offline).
-     * @param displayedName рядок з іменем та статусом
-     * @return чисте ім'я користувача без статусу
-     */
-    private String extractPureUsername(String displayName) {
-        return displayName.replace(" (online)", "").replace(" (offline)", "").trim();
-    }
-
     /**
      * Показує діалогове вікно з повідомленням.
      * @param title заголовок діалогу
@@ -357,9 +340,8 @@ public class ChatController {
         usernameInput.clear();
         passwordInput.clear();
 
-        usersList.getItems().clear();
-        knownUsers.clear();
-        onlineUsers.clear();
+        presence.clear();
+        userFilterInput.clear();
 
         privateChatsTabPane.getTabs().clear();
         openedChatTabs.clear();
@@ -374,7 +356,7 @@ public class ChatController {
     
     /** @return всіх користувачів */
     private List<String> getAllKnownUsers() {
-       return new ArrayList<>(knownUsers);
+       return presence.getUsernames();
     }
 
         /** @return приватні чати між користувачами */
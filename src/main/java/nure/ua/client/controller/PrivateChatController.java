@@ -3,35 +3,107 @@ package nure.ua.client.controller;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
-import javafx.scene.control.TextArea;
+import javafx.geometry.Orientation;
+import javafx.scene.Node;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.ScrollBar;
 import javafx.scene.control.TextField;
 import nure.ua.client.service.ClientService;
+import nure.ua.client.service.HistoryCache;
+import nure.ua.client.service.ReceiptTracker;
+import nure.ua.client.service.SeqWindow;
 import nure.ua.common.Message;
 import nure.ua.common.MessageType;
 
 /**
  * Контролер для вкладки приватного чату між двома користувачами.
  * Забезпечує надсилання та прийом повідомлень, а також відображення історії чату.
+ *
+ * Повідомлення відображаються у віртуалізованому списку: розмітка створюється лише
+ * для видимих рядків, у пам'яті тримається не більше {@link #MAX_ROWS} повідомлень,
+ * а старіші сторінки підвантажуються з кешу або сервера під час прокручування вгору.
  */
 public class PrivateChatController {
 
-    @FXML private TextArea chatArea;       // Область для виведення повідомлень
-    @FXML private TextField inputField;    // Поле для введення тексту повідомлення
+    @FXML private ListView<Message> chatList;   // Віртуалізований список повідомлень
+    @FXML private TextField inputField;         // Поле для введення тексту повідомлення
+    @FXML private Label typingLabel;            // Індикатор набору тексту співрозмовником
 
     private String myUsername;             // Ім’я поточного користувача
     private String peerUsername;           // Ім’я співрозмовника
     private ClientService client;          // Сервіс клієнта для взаємодії з сервером
+    private HistoryCache history;          // Локальний кеш історії повідомлень
 
-    private final Set<String> displayedMessages = new HashSet<>(); // Унікальні ідентифікатори отриманих повідомлень для запобігання дублювання
+    private static final int CACHED_PAGE_SIZE = 200;   // Скільки останніх повідомлень показується з кешу
+    private static final int OLDER_PAGE_SIZE = 100;    // Розмір сторінки старішої історії
+    private static final int MAX_ROWS = Integer.getInteger("chat.client.maxRows", 1000);  // Межа повідомлень у пам'яті вкладки
+    private static final int SEEN_WINDOW = 1024;       // Розмір вікна фільтра дублікатів (у номерах)
+    private static final int MAX_GAPS = 8;             // Скільки запитаних пропусків відстежується одночасно
+    private static final long TYPING_REFRESH_MILLIS = 3000;  // Як часто підтверджувати серверу, що набір триває
+
+    private final ObservableList<Message> rows = FXCollections.observableArrayList();  // Модель списку повідомлень
+    private final SeqWindow seen = new SeqWindow(SEEN_WINDOW);  // Уже отримані порядкові номери для запобігання дублювання
+    private final Deque<Gap> gaps = new ArrayDeque<>();         // Пропуски в номерах, запитані з сервера і ще не заповнені
+    private final Map<String, Message> pendingSends = new HashMap<>();  // Надіслані повідомлення, ще не підтверджені сервером
+    private long lastSeq;                                     // Найбільший відомий порядковий номер у розмові
+    private long requestedBeforeSeq;                          // Межа останнього запиту старішої історії з сервера (0 — запиту не було)
+    private boolean tailTrimmed;                              // Найновіші повідомлення вивантажені під час перегляду старих
+    private ScrollBar verticalBar;                            // Вертикальна смуга прокручування списку
+    private boolean typingSent;                               // Чи повідомлено серверу, що користувач друкує
+    private long typingSentAt;                                // Коли стан набору востаннє надіслано
+    private long lastPeerSeq;                                 // Найбільший отриманий номер повідомлення співрозмовника
+    private boolean active;                                   // Вкладка чату зараз вибрана
     private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"); // Формат дати і часу
 
+    /**
+     * Пропуск у номерах між after і before (не включно), запитаний з сервера.
+     * Основне вікно могло позначити ці номери побаченими, зсуваючись через великий стрибок,
+     * тому повідомлення пропуску відсіюються власним вікном пропуску.
+     */
+    private static final class Gap {
+        final long after;
+        final long before;
+        final SeqWindow filled = new SeqWindow(SEEN_WINDOW);
+
+        Gap(long after, long before) {
+            this.after = after;
+            this.before = before;
+            filled.advanceTo(after);
+        }
+
+        boolean covers(long seq) {
+            return seq > after && seq < before;
+        }
+    }
+
+    /**
+     * Налаштовує список повідомлень після завантаження FXML.
+     */
+    @FXML
+    public void initialize() {
+        chatList.setItems(rows);
+        chatList.setFocusTraversable(false);
+        chatList.setCellFactory(list -> new MessageCell());
+        chatList.skinProperty().addListener((obs, oldSkin, newSkin) -> attachScrollHandler());
+    }
+
     /**
      * Ініціалізує приватний чат з переданими даними.
-     * Завантажує історію повідомлень з обраним користувачем.
+     * Одразу показує останні повідомлення з локального кешу, після чого
+     * запитує з сервера лише повідомлення, новіші за останнє закешоване.
      *
      * @param client сервіс для взаємодії з сервером
      * @param myUsername ім’я поточного користувача
@@ -41,16 +113,13 @@ public class PrivateChatController {
         this.client = client;
         this.myUsername = myUsername;
         this.peerUsername = peerUsername;
+        this.history = client.getHistoryCache();
+        inputField.textProperty().addListener((obs, oldText, text) -> onInputChanged(text));
 
-        if (!peerUsername.equals(this.peerUsername)) {
-            chatArea.clear();
-            displayedMessages.clear();
-            appendMessage("Chat with " + peerUsername + " opened.");
-        }       
+        showTail();
 
-        
         try {
-            client.requestHistoryWith(peerUsername);
+            client.requestHistoryWith(peerUsername, history.lastSeq(peerUsername));
         } catch (IOException e) {
             appendMessage("Failed to load history.");
         }
@@ -59,58 +128,395 @@ public class PrivateChatController {
     /**
      * Отримує повідомлення (історію або нове) та додає його до чату,
      * уникаючи повторного відображення вже отриманих повідомлень.
+     * Дублікати відсіюються за порядковим номером, призначеним сервером,
+     * а пропуски в порядкових номерах дозавантажуються з сервера і відсіюються вікном пропуску.
+     * Відповіді на запит старішої сторінки фільтр дублікатів оминають:
+     * вони завжди старіші за все, що показано.
      *
      * @param msg повідомлення, яке потрібно обробити
      */
     public void receiveMessage(Message msg) {
-        String timeKey = msg.getTimestamp().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+        if (msg.getType() == MessageType.DELIVERED || msg.getType() == MessageType.READ) {
+            chatList.refresh();
+            return;
+        }
+        if (msg.getType() == MessageType.TYPING || msg.getType() == MessageType.TYPING_STOPPED) {
+            typingLabel.setText(msg.getType() == MessageType.TYPING ? peerUsername + " is typing..." : "");
+            return;
+        }
+        if (msg.getType() == MessageType.TEXT && peerUsername.equals(msg.getSender())) {
+            typingLabel.setText("");
+        }
 
-        String uniqueId = msg.getSender() + "|" + timeKey + "|" + msg.getText();
-        if (displayedMessages.contains(uniqueId)) {
-            return; 
+        if (msg.getType() == MessageType.ACK) {
+            Message sent = pendingSends.remove(msg.getClientKey());
+            markSeen(msg.getSeq());
+            if (sent != null) {
+                confirm(sent, msg);
+            }
+            advanceSeq(msg.getSeq(), true);
+            return;
         }
-        displayedMessages.add(uniqueId);
 
-        String time = msg.getTimestamp().format(TIME_FORMATTER);
-        String sender = msg.getSender();
-        String text = msg.getText();
-        MessageType mt = msg.getType();
-        String displaySender = sender.equals(myUsername) ? "ME" : sender;
+        if (msg.getSeq() > 0) {
+            boolean olderPage = msg.getType() == MessageType.HISTORY_RESPONSE && msg.getSeq() < requestedBeforeSeq;
+            if (!olderPage && !markSeen(msg.getSeq())) {
+                return;
+            }
+            history.add(peerUsername, msg);
+            if (peerUsername.equals(msg.getSender())) {
+                acknowledge(msg.getSeq());
+            }
+            Message shownLocally = msg.getClientKey() != null ? pendingSends.remove(msg.getClientKey()) : null;
+            advanceSeq(msg.getSeq(), msg.getType() == MessageType.TEXT);
+            if (shownLocally != null) {
+                confirm(shownLocally, msg);
+                return;
+            }
+        }
+
+        insertRow(msg);
+    }
+
+    /**
+     * Позначає номер отриманим. Номер із запитаного пропуску перевіряється вікном пропуску,
+     * а пропуск забувається, щойно всі його номери отримано.
+     *
+     * @param seq порядковий номер
+     * @return true, якщо номер ще не зустрічався
+     */
+    private boolean markSeen(long seq) {
+        for (Iterator<Gap> it = gaps.iterator(); it.hasNext(); ) {
+            Gap gap = it.next();
+            if (gap.covers(seq)) {
+                seen.add(seq);
+                boolean fresh = gap.filled.add(seq);
+                if (gap.filled.getHighWater() >= gap.before - 1) it.remove();
+                return fresh;
+            }
+        }
+        return seen.add(seq);
+    }
+
+    /**
+     * Позначає повідомлення співрозмовника отриманим, а якщо вкладка відкрита — й прочитаним.
+     * Позначки накопичуються і надсилаються серверу пакетом.
+     *
+     * @param seq порядковий номер повідомлення співрозмовника
+     */
+    private void acknowledge(long seq) {
+        lastPeerSeq = Math.max(lastPeerSeq, seq);
+        if (active) {
+            receipts().markRead(peerUsername, seq);
+        } else {
+            receipts().markDelivered(peerUsername, seq);
+        }
+    }
 
-        switch (mt) {
-            case HISTORY_RESPONSE, TEXT -> appendMessage("[" + time + "]\t" + displaySender + ": " + text + "\n");
-            case SYSTEM -> appendMessage("[System]: " + text + "    [" + time + "]");
-            default -> appendMessage("[" + time + "]\t" + sender + ": " + text + "\n");
+    /**
+     * Викликається, коли вкладка чату стає видимою чи прихованою.
+     * Під час показу вкладки все отримане від співрозмовника вважається прочитаним.
+     *
+     * @param active true, якщо вкладка вибрана
+     */
+    public void setActive(boolean active) {
+        this.active = active;
+        if (active && lastPeerSeq > 0) {
+            receipts().markRead(peerUsername, lastPeerSeq);
         }
     }
 
     /**
-     * Додає повідомлення до вікна чату.
+     * Переводить локально показане повідомлення зі стану "надсилається" у підтверджене:
+     * призначає йому id та seq від сервера і переставляє рядок на його місце за seq.
+     *
+     * @param sent локально показане повідомлення
+     * @param confirmation ACK або копія повідомлення від сервера
+     */
+    private void confirm(Message sent, Message confirmation) {
+        sent.setId(confirmation.getId());
+        sent.setSeq(confirmation.getSeq());
+        history.add(peerUsername, sent);
+        if (rows.remove(sent)) {
+            insertRow(sent);
+        }
+    }
+
+    /**
+     * Позначає повідомлення, яке не вдалося поставити в чергу надсилання.
+     *
+     * @param sent повідомлення
+     * @param error причина
+     */
+    private void sendFailed(Message sent, Throwable error) {
+        if (pendingSends.remove(sent.getClientKey()) != null) {
+            rows.remove(sent);
+            appendMessage("Failed to send message \"" + sent.getText() + "\": " + error.getMessage());
+        }
+    }
+
+    /**
+     * Запитує повідомлення, новіші за останнє закешоване (після відновлення з'єднання).
+     */
+    public void resync() {
+        try {
+            client.requestHistoryWith(peerUsername, history.lastSeq(peerUsername));
+        } catch (IOException e) {
+            appendMessage("Failed to load missed messages.");
+        }
+    }
+
+    /**
+     * Оновлює найбільший відомий порядковий номер. Якщо нове повідомлення
+     * пропускає номери, запитує з сервера пропущені повідомлення і запам'ятовує пропуск.
+     *
+     * @param seq порядковий номер отриманого повідомлення
+     * @param live true, якщо повідомлення надійшло в реальному часі (не з історії)
+     */
+    private void advanceSeq(long seq, boolean live) {
+        if (seq <= lastSeq) return;
+        if (live && lastSeq > 0 && seq > lastSeq + 1) {
+            if (gaps.size() == MAX_GAPS) gaps.removeFirst();
+            gaps.addLast(new Gap(lastSeq, seq));
+            try {
+                client.requestHistoryWith(peerUsername, lastSeq);
+            } catch (IOException e) {
+                appendMessage("Failed to load missed messages.");
+            }
+        }
+        lastSeq = seq;
+    }
+
+    /**
+     * Вставляє повідомлення у список відповідно до його порядкового номера.
+     * Нові повідомлення йдуть у кінець; якщо користувач гортав до низу,
+     * список прокручується за ними, а найстаріші рядки вивантажуються.
+     *
+     * @param msg повідомлення
+     */
+    private void insertRow(Message msg) {
+        boolean follow = isAtBottom();
+        int index = rows.size();
+        if (msg.getSeq() > 0) {
+            // Непідтверджені та системні рядки (без seq) залишаються в кінці списку
+            while (index > 0 && (rows.get(index - 1).getSeq() == 0 || rows.get(index - 1).getSeq() > msg.getSeq())) {
+                index--;
+            }
+        }
+        rows.add(index, msg);
+
+        if (follow) {
+            trimHead();
+            chatList.scrollTo(rows.size() - 1);
+        }
+    }
+
+    /**
+     * Показує останні повідомлення розмови з локального кешу.
+     */
+    private void showTail() {
+        rows.clear();
+        tailTrimmed = false;
+        requestedBeforeSeq = 0;
+        long cachedUpTo = history.lastSeq(peerUsername);
+        seen.advanceTo(cachedUpTo);
+        lastSeq = Math.max(lastSeq, cachedUpTo);
+        rows.addAll(history.loadTail(peerUsername, CACHED_PAGE_SIZE));
+        rows.addAll(pendingSends.values());
+        chatList.scrollTo(Math.max(rows.size() - 1, 0));
+    }
+
+    /**
+     * Підвантажує сторінку старіших повідомлень: спочатку з кешу, а якщо
+     * кеш вичерпано — запитом до сервера (відповідь вставиться за порядковими номерами).
+     */
+    private void loadOlder() {
+        long oldestSeq = oldestSeq();
+        if (oldestSeq <= 1) return;
+
+        List<Message> page = history.loadBefore(peerUsername, oldestSeq, OLDER_PAGE_SIZE);
+        if (!page.isEmpty()) {
+            rows.addAll(0, page);
+            trimTail();
+            chatList.scrollTo(page.size());
+            return;
+        }
+
+        if (requestedBeforeSeq == 0 || oldestSeq < requestedBeforeSeq) {
+            requestedBeforeSeq = oldestSeq;
+            try {
+                client.requestHistoryBefore(peerUsername, oldestSeq);
+            } catch (IOException e) {
+                appendMessage("Failed to load older messages.");
+            }
+        }
+    }
+
+    /**
+     * Вивантажує найстаріші рядки понад межу пам'яті; їх можна знову підвантажити прокручуванням.
+     */
+    private void trimHead() {
+        int excess = rows.size() - MAX_ROWS;
+        if (excess <= 0) return;
+        rows.remove(0, excess);
+    }
+
+    /**
+     * Вивантажує найновіші закешовані рядки понад межу пам'яті під час перегляду старої історії.
+     * Непідтверджені й системні рядки не вивантажуються.
+     */
+    private void trimTail() {
+        long cachedUpTo = history.lastSeq(peerUsername);
+        while (rows.size() > MAX_ROWS) {
+            Message last = rows.get(rows.size() - 1);
+            if (last.getSeq() <= 0 || last.getSeq() > cachedUpTo) break;
+            rows.remove(rows.size() - 1);
+            tailTrimmed = true;
+        }
+    }
+
+    /** @return найменший порядковий номер серед показаних повідомлень або 0 */
+    private long oldestSeq() {
+        for (Message row : rows) {
+            if (row.getSeq() > 0) return row.getSeq();
+        }
+        return 0;
+    }
+
+    /**
+     * Знаходить вертикальну смугу прокручування після створення скіна списку та
+     * підвантажує сторінки при досягненні верхнього чи нижнього краю.
+     */
+    private void attachScrollHandler() {
+        for (Node node : chatList.lookupAll(".scroll-bar")) {
+            if (node instanceof ScrollBar bar && bar.getOrientation() == Orientation.VERTICAL) {
+                verticalBar = bar;
+                bar.valueProperty().addListener((obs, oldValue, value) -> {
+                    if (value.doubleValue() <= bar.getMin() && oldValue.doubleValue() > bar.getMin()) {
+                        loadOlder();
+                    } else if (tailTrimmed && value.doubleValue() >= bar.getMax()) {
+                        showTail();
+                    }
+                });
+            }
+        }
+    }
+
+    /** @return true, якщо список прокручено до останнього повідомлення */
+    private boolean isAtBottom() {
+        return verticalBar == null || !verticalBar.isVisible() || verticalBar.getValue() >= verticalBar.getMax();
+    }
+
+    /**
+     * Додає системний рядок до вікна чату.
      *
      * @param text текст для відображення
      */
     private void appendMessage(String text) {
-        chatArea.appendText(text + "\n");
+        Message note = new Message("System", myUsername, text, LocalDateTime.now());
+        note.setType(MessageType.SYSTEM);
+        insertRow(note);
     }
 
     /**
      * Надсилає нове повідомлення на сервер та додає його до чату локально.
      * Викликається при натисканні кнопки "Надіслати" або клавіші Enter.
+     * Запис у мережу виконується поза потоком інтерфейсу; до підтвердження
+     * сервером повідомлення показується як таке, що надсилається.
      */
     @FXML
     private void sendMessage() {
         String text = inputField.getText().trim();
         if (!text.isEmpty()) {
-            try {
-                client.sendMessage(myUsername, peerUsername, text);
-                Message localMsg = new Message(myUsername, peerUsername, text, LocalDateTime.now());
-                localMsg.setType(MessageType.TEXT);
-                receiveMessage(localMsg);
-                inputField.clear();
-            } catch (IOException e) {
-                appendMessage("Failed to send message.");
+            Message sent = new Message(myUsername, peerUsername, text, LocalDateTime.now());
+            client.sendMessage(sent).whenComplete((ack, error) -> {
+                if (error != null) {
+                    Platform.runLater(() -> sendFailed(sent, error));
+                }
+            });
+            pendingSends.put(sent.getClientKey(), sent);
+            receiveMessage(sent);
+            chatList.scrollTo(rows.size() - 1);
+            inputField.clear();
+        }
+    }
+
+    /**
+     * Надсилає стан набору, коли поле введення стає порожнім чи непорожнім,
+     * а поки користувач друкує — не частіше ніж раз на {@link #TYPING_REFRESH_MILLIS}.
+     *
+     * @param text поточний текст поля введення
+     */
+    private void onInputChanged(String text) {
+        boolean typing = !text.isBlank();
+        long now = System.currentTimeMillis();
+        if (typing == typingSent && (!typing || now - typingSentAt < TYPING_REFRESH_MILLIS)) return;
+        typingSent = typing;
+        typingSentAt = now;
+        client.sendTyping(peerUsername, typing);
+    }
+
+    /**
+     * Комірка списку: форматує повідомлення лише в момент показу рядка.
+     */
+    private final class MessageCell extends ListCell<Message> {
+        MessageCell() {
+            setWrapText(true);
+            prefWidthProperty().bind(chatList.widthProperty().subtract(20));
+            setMaxWidth(USE_PREF_SIZE);
+        }
+
+        @Override
+        protected void updateItem(Message msg, boolean empty) {
+            super.updateItem(msg, empty);
+            boolean pending = !empty && msg != null && isPending(msg);
+            setText(empty || msg == null ? null : pending ? format(msg) + "   (sending...)" : format(msg) + receiptSuffix(msg));
+            if (pending) {
+                if (!getStyleClass().contains("pending")) getStyleClass().add("pending");
+            } else {
+                getStyleClass().remove("pending");
             }
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * @param msg повідомлення
+     * @return true, якщо це власне повідомлення, ще не підтверджене сервером
+     */
+    private boolean isPending(Message msg) {
+        return msg.getSeq() == 0 && msg.getClientKey() != null && pendingSends.containsKey(msg.getClientKey());
+    }
+
+    /**
+     * @param msg повідомлення
+     * @return позначка отримання чи прочитання співрозмовником для власного підтвердженого повідомлення
+     */
+    private String receiptSuffix(Message msg) {
+        if (msg.getSeq() == 0 || !myUsername.equals(msg.getSender())) return "";
+        if (msg.getSeq() <= receipts().peerReadSeq(peerUsername)) return "   (read)";
+        if (msg.getSeq() <= receipts().peerDeliveredSeq(peerUsername)) return "   (delivered)";
+        return "";
+    }
+
+    private ReceiptTracker receipts() {
+        return client.getReceipts();
+    }
+
+    /**
+     * Форматує повідомлення для відображення.
+     *
+     * @param msg повідомлення
+     * @return рядок для комірки списку
+     */
+    private String format(Message msg) {
+        String time = msg.getTimestamp().format(TIME_FORMATTER);
+        String sender = msg.getSender();
+        String displaySender = sender.equals(myUsername) ? "ME" : sender;
+
+        return switch (msg.getType()) {
+            case HISTORY_RESPONSE, TEXT -> "[" + time + "]\t" + displaySender + ": " + msg.getText();
+            case SYSTEM -> "[System]: " + msg.getText() + "    [" + time + "]";
+            default -> "[" + time + "]\t" + sender + ": " + msg.getText();
+        };
+    }
+}
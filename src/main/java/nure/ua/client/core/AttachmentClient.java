@@ -0,0 +1,151 @@
+package nure.ua.client.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import nure.ua.common.AttachmentProtocol;
+
+/**
+ * Клієнт бічного каналу вкладень ({@link AttachmentProtocol}).
+ *
+ * Квиток отримується основним з'єднанням повідомленням ATTACHMENT_TICKET.
+ * Обидві операції можна просто повторити після обриву: завантаження продовжується
+ * з того, що сервер уже має, а отримання — з поточного розміру цільового файлу.
+ */
+public class AttachmentClient {
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+    private final String host;
+    private final int port;
+
+    /**
+     * @param host адреса сервера
+     * @param port порт бічного каналу (chat.attachments.port)
+     */
+    public AttachmentClient(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Завантажує файл на сервер. Якщо такий вміст уже збережено, байти не передаються.
+     *
+     * @param file файл
+     * @param ticket квиток доступу
+     * @return ідентифікатор вкладення для поля attachmentId повідомлення
+     * @throws IOException якщо з'єднання обірвалося або сервер відхилив файл
+     */
+    public String upload(Path file, String ticket) throws IOException {
+        byte[] hash = hash(file);
+        long size = Files.size(file);
+        try (Socket socket = connect()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), AttachmentProtocol.CHUNK_BYTES + 4));
+            AttachmentProtocol.writeHello(out, ticket, AttachmentProtocol.UPLOAD);
+            out.write(hash);
+            out.writeLong(size);
+            out.flush();
+
+            long offset = expect(in, "upload");
+            try (InputStream source = Files.newInputStream(file)) {
+                source.skipNBytes(offset);
+                byte[] chunk = new byte[AttachmentProtocol.CHUNK_BYTES];
+                while (offset < size) {
+                    int length = source.readNBytes(chunk, 0, (int) Math.min(chunk.length, size - offset));
+                    if (length == 0) throw new IOException("File changed during upload: " + file);
+                    out.writeInt(length);
+                    out.write(chunk, 0, length);
+                    offset += length;
+                }
+            }
+            out.flush();
+            expect(in, "upload");
+            return AttachmentProtocol.idOf(hash);
+        }
+    }
+
+    /**
+     * Отримує вкладення у файл, дописуючи його, якщо частина вже отримана раніше.
+     *
+     * @param id ідентифікатор вкладення
+     * @param target цільовий файл
+     * @param ticket квиток доступу
+     * @throws IOException якщо з'єднання обірвалося або вкладення немає
+     */
+    public void download(String id, Path target, String ticket) throws IOException {
+        long offset = Files.exists(target) ? Files.size(target) : 0;
+        try (Socket socket = connect()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), AttachmentProtocol.CHUNK_BYTES));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            AttachmentProtocol.writeHello(out, ticket, AttachmentProtocol.DOWNLOAD);
+            out.write(AttachmentProtocol.hashOf(id));
+            out.writeLong(offset);
+            out.flush();
+
+            long size = expect(in, "download");
+            try (OutputStream sink = Files.newOutputStream(target, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                byte[] chunk = new byte[AttachmentProtocol.CHUNK_BYTES];
+                while (offset < size) {
+                    int length = in.read(chunk, 0, (int) Math.min(chunk.length, size - offset));
+                    if (length < 0) throw new IOException("Connection closed at " + offset + " of " + size + " bytes");
+                    sink.write(chunk, 0, length);
+                    offset += length;
+                }
+            }
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+        return socket;
+    }
+
+    /**
+     * Читає відповідь сервера.
+     *
+     * @return зміщення або розмір з відповіді
+     * @throws IOException якщо сервер повернув помилку
+     */
+    private static long expect(DataInputStream in, String operation) throws IOException {
+        byte status = in.readByte();
+        long value = in.readLong();
+        if (status != AttachmentProtocol.OK) {
+            throw new IOException("Attachment " + operation + " failed: " + statusName(status));
+        }
+        return value;
+    }
+
+    private static String statusName(byte status) {
+        return switch (status) {
+            case AttachmentProtocol.DENIED -> "ticket rejected";
+            case AttachmentProtocol.NOT_FOUND -> "not found";
+            case AttachmentProtocol.TOO_LARGE -> "file too large";
+            case AttachmentProtocol.BUSY -> "same file is being uploaded";
+            case AttachmentProtocol.CORRUPT -> "content does not match its hash";
+            default -> "bad request";
+        };
+    }
+
+    private static byte[] hash(Path file) throws IOException {
+        try (DigestInputStream in = new DigestInputStream(Files.newInputStream(file), MessageDigest.getInstance("SHA-256"))) {
+            in.transferTo(OutputStream.nullOutputStream());
+            return in.getMessageDigest().digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
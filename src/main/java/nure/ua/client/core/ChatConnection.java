@@ -0,0 +1,371 @@
+package nure.ua.client.core;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+
+import nure.ua.client.model.LoginRequest;
+import nure.ua.common.Message;
+import nure.ua.common.MessageType;
+
+/**
+ * Клієнтське з'єднання з сервером чату без залежності від інтерфейсу користувача.
+ * Відповідає за автентифікацію, потік читання, потік-записувач з обмеженою чергою,
+ * підтвердження надісланих повідомлень та перепідключення.
+ *
+ * Після обриву з'єднання клієнт перепідключається з експоненційною затримкою
+ * та випадковим розкидом (щоб клієнти не поверталися на сервер одночасно),
+ * продовжує прийом з останнього отриманого ідентифікатора та повторно надсилає
+ * непідтверджені повідомлення з {@link OutboundQueue}.
+ *
+ * Потоки створюються переданою фабрикою: графічний клієнт використовує
+ * звичайні фонові потоки, а генератор навантаження — віртуальні.
+ */
+public class ChatConnection {
+    private static final long BACKOFF_BASE_MILLIS = 500;
+    private static final long BACKOFF_MAX_MILLIS = 30_000;
+    private static final long CLOSE_DRAIN_MILLIS = 1000;
+    private static final Message STOP = new Message(null, null, null, null);  // Сигнал завершення потоку-записувача
+
+    private final String host;
+    private final int port;
+    private final OutboundQueue outbox;
+    private final ThreadFactory threads;
+    private final BlockingQueue<Message> outgoing;
+    private final Map<String, CompletableFuture<Message>> confirmations = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+
+    private volatile Socket socket;
+    private volatile ObjectOutputStream out;
+    private ObjectInputStream in;
+    private String username;
+    private String password;
+    private Thread readerThread;
+    private Thread writerThread;
+    private ConnectionListener listener;
+
+    private volatile boolean closed;
+    private final Map<String, Long> lastReceivedSeqs = new ConcurrentHashMap<>();  // Співрозмовник -> найбільший отриманий seq
+    private Object firstInbound;
+    private volatile String initialResponse = "";
+
+    /**
+     * @param host адреса сервера
+     * @param port порт сервера
+     * @param outbox черга непідтверджених вихідних повідомлень
+     * @param sendQueueCapacity місткість черги потоку-записувача
+     * @param threads фабрика потоків читання та запису
+     */
+    public ChatConnection(String host, int port, OutboundQueue outbox, int sendQueueCapacity, ThreadFactory threads) {
+        this.host = host;
+        this.port = port;
+        this.outbox = outbox;
+        this.outgoing = new ArrayBlockingQueue<>(sendQueueCapacity);
+        this.threads = threads;
+    }
+
+    /**
+     * Підключається до сервера та виконує автентифікацію користувача.
+     *
+     * @param username ім'я користувача
+     * @param password пароль користувача
+     * @return true, якщо підключення та автентифікація успішні, інакше false
+     */
+    public boolean connect(String username, String password) {
+        this.username = username;
+        this.password = password;
+        return handshake(null);
+    }
+
+    /**
+     * Відкриває з'єднання та надсилає запит на вхід.
+     * Перший об'єкт після успішного входу зберігається і передається обробнику.
+     *
+     * @param resumeSeqs номери в розмовах, після яких сервер має повторити доставку, або null
+     * @return true, якщо вхід успішний
+     */
+    private boolean handshake(Map<String, Long> resumeSeqs) {
+        try {
+            Socket s = new Socket(host, port);
+            s.setTcpNoDelay(true);
+            ObjectOutputStream o = new ObjectOutputStream(s.getOutputStream());
+            o.flush();
+            ObjectInputStream i = new ObjectInputStream(s.getInputStream());
+
+            LoginRequest login = new LoginRequest(username, password, false);
+            if (resumeSeqs != null) login.setResumeSeqs(resumeSeqs);
+            o.writeObject(login);
+            o.flush();
+
+            Object response = i.readObject();
+            if (response instanceof String str && str.startsWith("ERROR:")) {
+                initialResponse = str;
+                s.close();
+                return false;
+            }
+            socket = s;
+            in = i;
+            firstInbound = response;
+            initialResponse = "";
+            out = o;
+            return true;
+
+        } catch (IOException | ClassNotFoundException e) {
+            initialResponse = "Connection error: " + e.getMessage();
+            return false;
+        }
+    }
+
+    /**
+     * Запускає потоки читання та запису. Потік читання також відповідає
+     * за перепідключення після обриву з'єднання.
+     *
+     * @param listener обробник подій з'єднання
+     */
+    public void start(ConnectionListener listener) {
+        this.listener = listener;
+        writerThread = threads.newThread(this::writeLoop);
+        writerThread.start();
+        readerThread = threads.newThread(this::readLoop);
+        readerThread.start();
+    }
+
+    private void readLoop() {
+        while (!closed) {
+            try {
+                dispatch(firstInbound);
+                firstInbound = null;
+                resendPending();
+                while (true) {
+                    dispatch(in.readObject());
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                if (closed) break;
+                listener.onConnectionLost(e.getMessage());
+                if (!reconnect()) break;
+                listener.onReconnected();
+            }
+        }
+    }
+
+    /**
+     * Передає отриманий об'єкт обробнику, попередньо оновивши стан з'єднання:
+     * підтверджені повідомлення видаляються з черги, для кожного співрозмовника запам'ятовується
+     * найбільший отриманий порядковий номер.
+     *
+     * @param input об'єкт, отриманий від сервера
+     */
+    private void dispatch(Object input) {
+        if (input instanceof Message msg) {
+            if (msg.getType() == MessageType.ACK) {
+                outbox.remove(msg.getClientKey());
+                CompletableFuture<Message> confirmation = confirmations.remove(msg.getClientKey());
+                if (confirmation != null) {
+                    confirmation.complete(msg);
+                }
+            } else if (msg.getType() == MessageType.TEXT && username.equals(msg.getReceiver())) {
+                if (msg.getSeq() > 0) lastReceivedSeqs.merge(msg.getSender(), msg.getSeq(), Math::max);
+            }
+            listener.onMessage(msg);
+        } else if (input instanceof List<?> list && !list.isEmpty() && list.get(0) instanceof String) {
+            @SuppressWarnings("unchecked")
+            List<String> users = (List<String>) list;
+            listener.onUsers(users);
+        }
+    }
+
+    /**
+     * Перепідключається до сервера, доки це не вдасться або з'єднання не буде закрито.
+     * Затримка між спробами зростає вдвічі до межі, а фактичне значення
+     * вибирається випадково з верхньої половини інтервалу.
+     *
+     * @return true, якщо з'єднання відновлено
+     */
+    private boolean reconnect() {
+        closeConnection();
+        for (int attempt = 0; !closed; attempt++) {
+            try {
+                Thread.sleep(backoffDelay(attempt));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            if (closed) return false;
+            if (handshake(lastReceivedSeqs)) {
+                System.out.println("Reconnected as " + username + " after " + (attempt + 1) + " attempt(s)");
+                return true;
+            }
+            if (initialResponse.contains("Invalid credentials")) {
+                listener.onReconnectFailed(initialResponse);
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param attempt номер спроби, починаючи з 0
+     * @return затримка перед спробою, мс
+     */
+    static long backoffDelay(int attempt) {
+        long ceiling = Math.min(BACKOFF_MAX_MILLIS, BACKOFF_BASE_MILLIS << Math.min(attempt, 16));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    /**
+     * Повторно надсилає всі непідтверджені повідомлення (після входу чи перепідключення).
+     * Сервер розпізнає вже збережені за ключем ідемпотентності та лише підтверджує їх.
+     * Повідомлення, що не вмістилися в чергу запису, будуть надіслані при наступному перепідключенні.
+     */
+    private void resendPending() {
+        for (Message msg : outbox.snapshot()) {
+            if (!outgoing.offer(msg)) return;
+        }
+    }
+
+    /**
+     * Ставить текстове повідомлення в чергу на надсилання і одразу повертає керування.
+     * Повідомлення зберігається в черзі непідтверджених, тому за відсутності з'єднання
+     * воно не губиться, а буде надіслане після перепідключення.
+     *
+     * @param msg повідомлення з ключем ідемпотентності
+     * @return future, що завершується підтвердженням сервера (ACK) або помилкою,
+     *         якщо черга надсилання чи непідтверджених повідомлень заповнена
+     */
+    public CompletableFuture<Message> sendText(Message msg) {
+        CompletableFuture<Message> confirmation = new CompletableFuture<>();
+        confirmations.put(msg.getClientKey(), confirmation);
+        if (!outgoing.offer(msg)) {
+            confirmations.remove(msg.getClientKey());
+            confirmation.completeExceptionally(new IOException("Send queue is full"));
+        }
+        return confirmation;
+    }
+
+    /**
+     * Ставить службовий запит (історія, відключення тощо) в чергу на надсилання.
+     * Без з'єднання такі запити не зберігаються: після перепідключення вони повторюються заново.
+     *
+     * @param msg запит
+     * @throws IOException якщо черга надсилання заповнена
+     */
+    public void post(Message msg) throws IOException {
+        if (!outgoing.offer(msg)) {
+            throw new IOException("Send queue is full");
+        }
+    }
+
+    /**
+     * Цикл потоку-записувача: зберігає текстові повідомлення в черзі непідтверджених
+     * і записує все в поточне з'єднання.
+     */
+    private void writeLoop() {
+        try {
+            while (true) {
+                Message msg = outgoing.take();
+                if (msg == STOP) return;
+                if (msg.getType() == MessageType.TEXT) {
+                    try {
+                        outbox.add(msg);
+                    } catch (IOException e) {
+                        CompletableFuture<Message> confirmation = confirmations.remove(msg.getClientKey());
+                        if (confirmation != null) confirmation.completeExceptionally(e);
+                        continue;
+                    }
+                }
+                write(msg);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Записує повідомлення в поточне з'єднання. Помилка запису закриває сокет,
+     * щоб потік читання почав перепідключення.
+     *
+     * @param msg повідомлення
+     * @return true, якщо запис вдався
+     */
+    private boolean write(Message msg) {
+        synchronized (writeLock) {
+            ObjectOutputStream o = out;
+            if (o == null) return false;
+            try {
+                o.writeObject(msg);
+                o.flush();
+                return true;
+            } catch (IOException e) {
+                System.err.println("Send failed, message kept for retry: " + e.getMessage());
+                closeConnection();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Закриває з'єднання без перепідключення.
+     * Перед закриттям потік-записувач коротко дописує вже поставлені в чергу запити.
+     */
+    public void close() {
+        if (writerThread != null && writerThread.isAlive()) {
+            if (outgoing.offer(STOP)) {
+                try {
+                    writerThread.join(CLOSE_DRAIN_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            writerThread.interrupt();
+        }
+        closed = true;
+        if (readerThread != null && readerThread.isAlive()) {
+            readerThread.interrupt();
+        }
+        closeConnection();
+    }
+
+    /**
+     * Закриває поточний сокет; потоки закриваються разом з ним.
+     */
+    private void closeConnection() {
+        synchronized (writeLock) {
+            out = null;
+        }
+        try {
+            Socket s = socket;
+            if (s != null && !s.isClosed()) s.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close connection: " + e.getMessage());
+        }
+    }
+
+    /** @return true, якщо з'єднання з сервером зараз встановлене */
+    public boolean isConnected() {
+        return out != null;
+    }
+
+    /** @return відповідь сервера на останню спробу входу (порожня при успіху) */
+    public String getInitialResponse() {
+        return initialResponse;
+    }
+
+    /** @return ім'я користувача */
+    public String getUsername() {
+        return username;
+    }
+
+    /** @return кількість повідомлень, що очікують підтвердження сервера */
+    public int getUnconfirmedCount() {
+        return outbox.size();
+    }
+}
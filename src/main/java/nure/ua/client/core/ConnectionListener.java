@@ -0,0 +1,46 @@
+package nure.ua.client.core;
+
+import java.util.List;
+
+import nure.ua.common.Message;
+
+/**
+ * Обробник подій з'єднання {@link ChatConnection}.
+ * Методи викликаються в потоці читання з'єднання, тому мають швидко
+ * повертати керування (наприклад, передавати дані в чергу інтерфейсу).
+ */
+public interface ConnectionListener {
+
+    /**
+     * Отримано повідомлення від сервера.
+     *
+     * @param msg повідомлення
+     */
+    void onMessage(Message msg);
+
+    /**
+     * Отримано список користувачів.
+     *
+     * @param users імена користувачів
+     */
+    void onUsers(List<String> users);
+
+    /**
+     * З'єднання обірвалося; починаються спроби перепідключення.
+     *
+     * @param reason причина обриву
+     */
+    default void onConnectionLost(String reason) {}
+
+    /**
+     * З'єднання відновлено.
+     */
+    default void onReconnected() {}
+
+    /**
+     * Перепідключення припинено (наприклад, через відхилені облікові дані).
+     *
+     * @param reason відповідь сервера
+     */
+    default void onReconnectFailed(String reason) {}
+}
@@ -0,0 +1,134 @@
+package nure.ua.client.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nure.ua.common.Message;
+
+/**
+ * Обмежена черга вихідних текстових повідомлень, ще не підтверджених сервером.
+ * Повідомлення лишається в черзі до отримання ACK з його ключем ідемпотентності,
+ * тому після обриву з'єднання чи перезапуску клієнта його можна надіслати
+ * повторно — сервер не збереже дублікат.
+ *
+ * Вміст черги зберігається у файлі облікового запису і перезаписується
+ * атомарно при кожній зміні; розмір черги обмежений. Черга без каталогу
+ * (наприклад, для симульованих клієнтів) живе лише в пам'яті.
+ */
+public class OutboundQueue {
+    private static final String FILE_SUFFIX = ".outbox";
+
+    private final Path file;             // null — черга лише в пам'яті
+    private final int capacity;
+    private final Map<String, Message> pending = new LinkedHashMap<>();
+
+    /**
+     * Створює чергу та відновлює непідтверджені повідомлення з попереднього запуску.
+     *
+     * @param dir каталог для файлів черги
+     * @param account ім'я облікового запису
+     * @param capacity максимальна кількість непідтверджених повідомлень
+     */
+    public OutboundQueue(Path dir, String account, int capacity) {
+        this.file = dir.resolve(HexFormat.of().formatHex(account.getBytes(StandardCharsets.UTF_8)) + FILE_SUFFIX);
+        this.capacity = capacity;
+        load();
+    }
+
+    /**
+     * Створює чергу лише в пам'яті, без збереження між запусками.
+     *
+     * @param capacity максимальна кількість непідтверджених повідомлень
+     */
+    public OutboundQueue(int capacity) {
+        this.file = null;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Додає повідомлення до черги.
+     *
+     * @param msg повідомлення з ключем ідемпотентності
+     * @throws IOException якщо черга заповнена
+     */
+    public synchronized void add(Message msg) throws IOException {
+        if (pending.containsKey(msg.getClientKey())) return;
+        if (pending.size() >= capacity) {
+            throw new IOException("Outbound queue is full (" + capacity + " unconfirmed messages)");
+        }
+        pending.put(msg.getClientKey(), msg);
+        persist();
+    }
+
+    /**
+     * Видаляє підтверджене сервером повідомлення.
+     *
+     * @param clientKey ключ ідемпотентності з ACK
+     */
+    public synchronized void remove(String clientKey) {
+        if (clientKey != null && pending.remove(clientKey) != null) {
+            persist();
+        }
+    }
+
+    /** @return копія непідтверджених повідомлень у порядку надсилання */
+    public synchronized List<Message> snapshot() {
+        return new ArrayList<>(pending.values());
+    }
+
+    /** @return кількість непідтверджених повідомлень */
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Очищає чергу та видаляє її файл (наприклад, після видалення акаунта).
+     */
+    public synchronized void clear() {
+        pending.clear();
+        if (file == null) return;
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {}
+    }
+
+    @SuppressWarnings("unchecked")
+    private void load() {
+        if (!Files.exists(file)) return;
+        try (InputStream raw = Files.newInputStream(file);
+             ObjectInputStream in = new ObjectInputStream(raw)) {
+            for (Message msg : (List<Message>) in.readObject()) {
+                pending.put(msg.getClientKey(), msg);
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            System.err.println("Failed to restore outbound queue: " + e.getMessage());
+        }
+    }
+
+    private void persist() {
+        if (file == null) return;
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (OutputStream raw = Files.newOutputStream(tmp);
+                 ObjectOutputStream out = new ObjectOutputStream(raw)) {
+                out.writeObject(new ArrayList<>(pending.values()));
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Failed to persist outbound queue: " + e.getMessage());
+        }
+    }
+}
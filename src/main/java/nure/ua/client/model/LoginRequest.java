@@ -1,6 +1,8 @@
 package nure.ua.client.model;
 
 import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Клас для запиту на логін або реєстрацію користувача.
@@ -10,6 +12,7 @@ public class LoginRequest implements Serializable {
     private final String username;
     private final String password;
     private boolean isRegistration;
+    private HashMap<String, Long> resumeSeqs;    // null — звичайний (не повторний) вхід
 
     /**
      * Конструктор для створення запиту на логін або реєстрацію.
@@ -33,6 +36,20 @@ public class LoginRequest implements Serializable {
     /** @return true, якщо це реєстрація, інакше false */
     public boolean isRegistration() { return isRegistration; }
 
+    /** @return останні отримані порядкові номери за співрозмовниками при перепідключенні або null */
+    public Map<String, Long> getResumeSeqs() { return resumeSeqs; }
+
+    /** @return true, якщо це перепідключення після обриву з'єднання */
+    public boolean isResume() { return resumeSeqs != null; }
+
+    /**
+     * Позначає запит як перепідключення.
+     * @param resumeSeqs співрозмовник -> найбільший отриманий від нього порядковий номер у розмові
+     */
+    public void setResumeSeqs(Map<String, Long> resumeSeqs) {
+        this.resumeSeqs = new HashMap<>(resumeSeqs);
+    }
+
     /**
      * Встановлює статус запиту як реєстрації або логіну.
      * @param isRegistration true для реєстрації, false для логіну
@@ -0,0 +1,128 @@
+package nure.ua.client.model;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javafx.beans.Observable;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
+
+/**
+ * Індексоване сховище присутності користувачів для списку в інтерфейсі.
+ * Користувачі індексуються за іменем у хеш-таблиці, а зміни зі списку
+ * онлайн-користувачів застосовуються інкрементально: додаються лише нові
+ * рядки, а статус змінюється лише в тих, чия присутність справді змінилася.
+ * Список для ListView — відфільтроване представлення з пошуком за іменем.
+ *
+ * Методи викликаються в потоці JavaFX.
+ */
+public class PresenceStore {
+    private final Map<String, UserPresence> index = new HashMap<>();
+    private final Set<String> online = new HashSet<>();
+    private final ObservableList<UserPresence> rows =
+        FXCollections.observableArrayList(row -> new Observable[] { row.onlineProperty() });
+    private final FilteredList<UserPresence> visible = new FilteredList<>(rows);
+    private String self;
+
+    /**
+     * Застосовує новий список онлайн-користувачів. Невідомі користувачі додаються,
+     * решта лише змінюють статус, якщо він відрізняється.
+     *
+     * @param onlineUsers користувачі, які зараз онлайн
+     * @return імена користувачів, чий статус змінився
+     */
+    public Set<String> applyOnline(Collection<String> onlineUsers) {
+        Set<String> now = new HashSet<>(onlineUsers);
+        Set<String> changed = new LinkedHashSet<>();
+
+        for (String user : online) {
+            if (!now.contains(user)) {
+                UserPresence row = index.get(user);
+                if (row != null) row.setOnline(false);
+                changed.add(user);
+            }
+        }
+        for (String user : onlineUsers) {
+            if (online.contains(user)) continue;
+            UserPresence row = index.get(user);
+            if (row == null) {
+                if (user.equals(self)) continue;
+                row = new UserPresence(user, true);
+                index.put(user, row);
+                rows.add(row);
+            } else {
+                row.setOnline(true);
+            }
+            changed.add(user);
+        }
+
+        online.clear();
+        online.addAll(now);
+        return changed;
+    }
+
+    /**
+     * Видаляє користувача (наприклад, після видалення його акаунта).
+     *
+     * @param username ім'я користувача
+     */
+    public void remove(String username) {
+        online.remove(username);
+        UserPresence row = index.remove(username);
+        if (row != null) rows.remove(row);
+    }
+
+    /**
+     * Встановлює пошуковий запит: показуються лише користувачі, ім'я яких його містить.
+     *
+     * @param query текст запиту (порожній — показати всіх)
+     */
+    public void setFilter(String query) {
+        String needle = query == null ? "" : query.trim().toLowerCase(Locale.ROOT);
+        visible.setPredicate(needle.isEmpty() ? null : row -> row.getUsername().toLowerCase(Locale.ROOT).contains(needle));
+    }
+
+    /**
+     * Задає ім'я поточного користувача, яке не показується у списку.
+     *
+     * @param self ім'я поточного користувача
+     */
+    public void setSelf(String self) {
+        this.self = self;
+        remove(self);
+    }
+
+    /**
+     * @param username ім'я користувача
+     * @return true, якщо користувач онлайн
+     */
+    public boolean isOnline(String username) {
+        return online.contains(username);
+    }
+
+    /** @return відфільтрований список рядків для ListView */
+    public ObservableList<UserPresence> getVisibleRows() {
+        return visible;
+    }
+
+    /** @return імена всіх відомих користувачів */
+    public List<String> getUsernames() {
+        return rows.stream().map(UserPresence::getUsername).toList();
+    }
+
+    /**
+     * Очищає сховище.
+     */
+    public void clear() {
+        index.clear();
+        online.clear();
+        rows.clear();
+    }
+}
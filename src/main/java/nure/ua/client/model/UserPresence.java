@@ -0,0 +1,40 @@
+package nure.ua.client.model;
+
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.SimpleBooleanProperty;
+
+/**
+ * Рядок списку користувачів: ім'я та поточний статус присутності.
+ * Статус є властивістю JavaFX, тому його зміна оновлює лише цей рядок списку.
+ */
+public class UserPresence {
+    private final String username;
+    private final BooleanProperty online = new SimpleBooleanProperty();
+
+    /**
+     * @param username ім'я користувача
+     * @param online true, якщо користувач онлайн
+     */
+    public UserPresence(String username, boolean online) {
+        this.username = username;
+        this.online.set(online);
+    }
+
+    /** @return ім'я користувача */
+    public String getUsername() { return username; }
+
+    /** @return true, якщо користувач онлайн */
+    public boolean isOnline() { return online.get(); }
+
+    /** @param online новий статус присутності */
+    public void setOnline(boolean online) { this.online.set(online); }
+
+    /** @return властивість статусу присутності */
+    public BooleanProperty onlineProperty() { return online; }
+
+    /** @return ім'я зі статусом для відображення */
+    @Override
+    public String toString() {
+        return username + (isOnline() ? " (online)" : " (offline)");
+    }
+}
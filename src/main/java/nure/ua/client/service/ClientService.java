@@ -1,13 +1,16 @@
 package nure.ua.client.service;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 import nure.ua.client.ChatClient;
+import nure.ua.client.UiUpdatePump;
+import nure.ua.client.core.OutboundQueue;
 import nure.ua.common.Message;
 import nure.ua.common.MessageType;
 
@@ -17,16 +20,23 @@ import nure.ua.common.MessageType;
  * а також запити на історію та видалення акаунту.
  */
 public class ClientService {
-    private ObjectOutputStream out;
-    private ObjectInputStream in;
+    private static final Path DATA_DIR = Path.of(
+        System.getProperty("chat.client.dataDir", Path.of(System.getProperty("user.home"), ".icq-messenger").toString()));
+    private static final int OUTBOX_CAPACITY = 500;
+
     private String username;
     private String initialResponse = "";
 
     private ChatClient chatClient;
+    private HistoryCache historyCache;
+    private OutboundQueue outbox;
+    private ReceiptTracker receipts;
+    private Runnable onReconnect = () -> {};
 
     /**
      * Запускає з'єднання з сервером, автентифікує користувача.
-     * Після успішного підключення починає слухати вхідні повідомлення і оновлення списку користувачів.
+     * Після успішного підключення починає слухати вхідні повідомлення і оновлення списку користувачів
+     * та повторно надсилає повідомлення, не підтверджені сервером у попередньому сеансі.
      * 
      * @param username ім'я користувача
      * @param password пароль користувача
@@ -39,7 +49,8 @@ public class ClientService {
                             Consumer<List<String>> onUsers) throws IOException {
 
         this.username = username;
-        this.chatClient = new ChatClient();
+        this.outbox = new OutboundQueue(DATA_DIR.resolve("outbox"), username, OUTBOX_CAPACITY);
+        this.chatClient = new ChatClient(outbox);
 
         boolean success = chatClient.connect(username, password);
         this.initialResponse = chatClient.getInitialResponse();
@@ -47,36 +58,34 @@ public class ClientService {
             return;
         }        
 
-        this.out = chatClient.getOut();
-        this.in = chatClient.getIn();
-
-        out.flush();
-
-        try {
-            Object response = in.readObject();
-            if (response instanceof String str && str.startsWith("ERROR:")) {
-                initialResponse = str;
-                return;
-            }
-        } catch (ClassNotFoundException e) {
-            throw new IOException("Invalid response from server", e);
-        }
-
-         chatClient.listen(onMessage, onUsers);
+        historyCache = new HistoryCache(DATA_DIR.resolve("history"), username);
+        receipts = new ReceiptTracker(username, marker -> {
+            try {
+                chatClient.post(marker);
+            } catch (IOException ignored) {}    // Накопичувальна позначка: наступна її замінить
+        });
+        receipts.start();
+        chatClient.setOnReconnect(() -> {
+            receipts.resend();
+            onReconnect.run();
+        });
+        chatClient.listen(onMessage, onUsers);
     }
 
     /**
-     * Надсилає текстове повідомлення від користувача до іншого користувача.
+     * Надсилає текстове повідомлення без блокування викликача: запис у мережу
+     * виконує окремий потік. Повідомленню призначається ключ ідемпотентності,
+     * за яким сервер підтверджує прийом. Без з'єднання повідомлення чекає
+     * в черзі й надсилається після перепідключення.
      * 
-     * @param from відправник
-     * @param to отримувач
-     * @param text текст повідомлення
-     * @throws IOException у випадку проблем з мережею
+     * @param msg повідомлення
+     * @return future, що завершується підтвердженням сервера (ACK) або помилкою
      */
-    public void sendMessage(String from, String to, String text) throws IOException {
-        Message msg = new Message(from, to, text, LocalDateTime.now());
-        out.writeObject(msg);
-        out.flush();
+    public CompletableFuture<Message> sendMessage(Message msg) {
+        if (msg.getClientKey() == null) {
+            msg.setClientKey(UUID.randomUUID().toString());
+        }
+        return chatClient.sendText(msg);
     }
     
     /**
@@ -86,23 +95,65 @@ public class ClientService {
      * @throws IOException у випадку проблем з мережею
      */
     public void requestHistoryWith(String peerUsername) throws IOException {
+        requestHistoryWith(peerUsername, 0);
+    }
+
+    /**
+     * Запитує повідомлення з певним користувачем, новіші за заданий порядковий номер.
+     * 
+     * @param peerUsername ім'я користувача, з яким запитуємо історію
+     * @param afterSeq останній відомий порядковий номер (0 — уся історія)
+     * @throws IOException у випадку проблем з мережею
+     */
+    public void requestHistoryWith(String peerUsername, long afterSeq) throws IOException {
         Message request = new Message(username, peerUsername, "", LocalDateTime.now());
         request.setType(MessageType.HISTORY_REQUEST);
-        out.writeObject(request);
-        out.flush();
+        request.setSeq(afterSeq);
+        chatClient.post(request);
     }
 
+    /**
+     * Запитує сторінку повідомлень з певним користувачем, старіших за заданий порядковий номер.
+     * 
+     * @param peerUsername ім'я користувача, з яким запитуємо історію
+     * @param beforeSeq найменший уже відомий порядковий номер
+     * @throws IOException у випадку проблем з мережею
+     */
+    public void requestHistoryBefore(String peerUsername, long beforeSeq) throws IOException {
+        Message request = new Message(username, peerUsername, "", LocalDateTime.now());
+        request.setType(MessageType.HISTORY_PAGE_REQUEST);
+        request.setSeq(beforeSeq);
+        chatClient.post(request);
+    }
+
+
+    /**
+     * Повідомляє співрозмовнику, що користувач почав або припинив друкувати.
+     * Індикатор не важливий: якщо черга надсилання заповнена, він просто не надсилається.
+     *
+     * @param peerUsername співрозмовник
+     * @param typing true — друкує
+     */
+    public void sendTyping(String peerUsername, boolean typing) {
+        Message indicator = new Message(username, peerUsername, "", LocalDateTime.now());
+        indicator.setType(typing ? MessageType.TYPING : MessageType.TYPING_STOPPED);
+        try {
+            chatClient.post(indicator);
+        } catch (IOException ignored) {}
+    }
 
     /**
      * Закриває з'єднання та звільняє ресурси.
      */
     public void close() {
+    if (receipts != null) {
+        receipts.close();       // Накопичені позначки йдуть до повідомлення про відключення
+    }
     try {
-        if (out != null) {
+        if (chatClient != null && chatClient.isConnected()) {
             Message disconnectMsg = new Message(username, null, "User disconnected", LocalDateTime.now());
             disconnectMsg.setType(MessageType.DISCONNECT_NOTIFICATION);
-            out.writeObject(disconnectMsg);
-            out.flush();
+            chatClient.post(disconnectMsg);
         }
     } catch (IOException e) {
         System.err.println("Failed to send disconnect notification: " + e.getMessage());
@@ -120,8 +171,23 @@ public class ClientService {
     public void deleteAccount() throws IOException {
         Message deleteRequest = new Message(username, null, "", LocalDateTime.now());
         deleteRequest.setType(MessageType.DELETE_ACCOUNT_REQUEST);
-        out.writeObject(deleteRequest);
-        out.flush();    
+        chatClient.post(deleteRequest);
+        if (historyCache != null) {
+            historyCache.clear();
+        }
+        if (outbox != null) {
+            outbox.clear();
+        }
+    }
+
+    /**
+     * Встановлює дію, що виконується в потоці JavaFX після відновлення з'єднання
+     * (наприклад, дозавантаження пропущеної історії відкритих чатів).
+     *
+     * @param onReconnect дія після перепідключення
+     */
+    public void setOnReconnect(Runnable onReconnect) {
+        this.onReconnect = onReconnect;
     }
 
     /** @return початкову відповідь сервера після підключення */
@@ -129,6 +195,21 @@ public class ClientService {
         return initialResponse;
     }
 
+    /** @return квитанції особистих розмов або null без з'єднання */
+    public ReceiptTracker getReceipts() {
+        return receipts;
+    }
+
+    /** @return локальний кеш історії повідомлень поточного облікового запису */
+    public HistoryCache getHistoryCache() {
+        return historyCache;
+    }
+
+    /** @return буфер оновлень інтерфейсу з лічильниками відставання або null без з'єднання */
+    public UiUpdatePump getUiPump() {
+        return chatClient != null ? chatClient.getPump() : null;
+    }
+
     /** @return ім'я користувача */
     public String getUsername() {
         return username;
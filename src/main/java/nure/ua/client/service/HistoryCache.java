@@ -0,0 +1,316 @@
+package nure.ua.client.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import nure.ua.common.Message;
+import nure.ua.common.MessageType;
+
+/**
+ * Локальний дисковий кеш історії повідомлень для одного облікового запису.
+ * Для кожної розмови ведеться окремий файл, упорядкований за порядковими номерами (seq).
+ * Кожен запис обрамлений своєю довжиною з обох боків, тому хвіст файлу читається
+ * з кінця без перегляду всієї розмови — вартість відкриття чату не залежить від її довжини.
+ * Записи синхронізуються з диском; хвіст, обірваний збоєм посеред запису, обрізається
+ * при відкритті розмови.
+ *
+ * Кеш зберігає лише неперервну послідовність номерів: повідомлення, що надійшли з
+ * пропуском, чекають у пам'яті, доки пропуск не заповнить відповідь сервера.
+ */
+public class HistoryCache {
+    private static final String FILE_SUFFIX = ".history";
+    private static final int MAX_PENDING = 1000;
+    private static final int FRAME_BYTES = 2 * Integer.BYTES;  // Довжина запису на початку та в кінці
+
+    private final Path accountDir;
+    private final Map<String, Conversation> conversations = new HashMap<>();
+
+    /**
+     * @param baseDir базовий каталог кешу
+     * @param account ім'я облікового запису
+     */
+    public HistoryCache(Path baseDir, String account) {
+        this.accountDir = baseDir.resolve(hex(account));
+    }
+
+    /**
+     * Зчитує останні повідомлення розмови з кешу.
+     *
+     * @param peer співрозмовник
+     * @param limit максимальна кількість повідомлень
+     * @return повідомлення в порядку зростання seq
+     */
+    public synchronized List<Message> loadTail(String peer, int limit) {
+        return conversation(peer).readBefore(Long.MAX_VALUE, limit);
+    }
+
+    /**
+     * Зчитує сторінку повідомлень, старіших за заданий порядковий номер.
+     *
+     * @param peer співрозмовник
+     * @param beforeSeq верхня межа (не включно)
+     * @param limit максимальна кількість повідомлень
+     * @return повідомлення в порядку зростання seq
+     */
+    public synchronized List<Message> loadBefore(String peer, long beforeSeq, int limit) {
+        return conversation(peer).readBefore(beforeSeq, limit);
+    }
+
+    /**
+     * @param peer співрозмовник
+     * @return найбільший порядковий номер, до якого кеш неперервний (0 — кеш порожній)
+     */
+    public synchronized long lastSeq(String peer) {
+        return conversation(peer).lastSeq;
+    }
+
+    /**
+     * Додає підтверджене сервером повідомлення до кешу.
+     *
+     * @param peer співрозмовник
+     * @param msg повідомлення з призначеним seq
+     */
+    public synchronized void add(String peer, Message msg) {
+        if (msg.getSeq() <= 0) return;
+        try {
+            conversation(peer).add(msg);
+        } catch (IOException e) {
+            System.err.println("Failed to update history cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Видаляє весь кеш облікового запису (наприклад, після видалення акаунта).
+     */
+    public synchronized void clear() {
+        conversations.clear();
+        try (var files = Files.list(accountDir)) {
+            for (Path file : files.toList()) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(accountDir);
+        } catch (IOException ignored) {}
+    }
+
+    private Conversation conversation(String peer) {
+        return conversations.computeIfAbsent(peer, p -> new Conversation(accountDir.resolve(hex(p) + FILE_SUFFIX)));
+    }
+
+    /**
+     * Файл однієї розмови та повідомлення, що очікують заповнення пропуску.
+     */
+    private static final class Conversation {
+        private final Path file;
+        private final TreeMap<Long, Message> pending = new TreeMap<>();
+        private long lastSeq;
+
+        Conversation(Path file) {
+            this.file = file;
+            this.lastSeq = recover();
+        }
+
+        /**
+         * Перевіряє останній запис файлу. Якщо його дописування обірвалося, шукає від початку
+         * файлу кінець останнього цілого запису й обрізає файл до нього.
+         *
+         * @return порядковий номер останнього цілого запису (0 — кеш порожній)
+         */
+        private long recover() {
+            if (!Files.exists(file)) return 0;
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                long length = raf.length();
+                if (length == 0) return 0;
+                long start = frameStart(raf, length);
+                Message last = start >= 0 ? readFrame(raf, start, length) : null;
+                if (last != null) return last.getSeq();
+
+                long end = 0;
+                long seq = 0;
+                while (end + FRAME_BYTES <= length) {
+                    raf.seek(end);
+                    long next = end + FRAME_BYTES + raf.readInt();
+                    if (next < end + FRAME_BYTES || next > length || frameStart(raf, next) != end) break;
+                    Message msg = readFrame(raf, end, next);
+                    if (msg == null) break;
+                    seq = msg.getSeq();
+                    end = next;
+                }
+                raf.setLength(end);
+                System.err.println("Truncated damaged history cache tail: " + file);
+                return seq;
+            } catch (IOException e) {
+                System.err.println("Failed to read history cache: " + e.getMessage());
+                return 0;
+            }
+        }
+
+        void add(Message msg) throws IOException {
+            long seq = msg.getSeq();
+            if (seq <= lastSeq || pending.containsKey(seq)) return;
+
+            if (msg.getType() == MessageType.HISTORY_RESPONSE) {
+                // Відповідь сервера впорядкована та повна: пропуски перед нею вже не заповняться
+                List<Message> earlier = new ArrayList<>(pending.headMap(seq).values());
+                pending.headMap(seq).clear();
+                earlier.add(msg);
+                append(earlier);
+            } else {
+                pending.put(seq, msg);
+            }
+
+            List<Message> contiguous = new ArrayList<>();
+            long next = lastSeq + 1;
+            while (!pending.isEmpty() && pending.firstKey() == next + contiguous.size()) {
+                contiguous.add(pending.pollFirstEntry().getValue());
+            }
+            append(contiguous);
+
+            if (pending.size() > MAX_PENDING) {
+                pending.clear();
+            }
+        }
+
+        private void append(List<Message> messages) throws IOException {
+            if (messages.isEmpty()) return;
+            Files.createDirectories(file.getParent());
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                raf.seek(raf.length());
+                for (Message msg : messages) {
+                    byte[] record = encode(msg);
+                    raf.writeInt(record.length);
+                    raf.write(record);
+                    raf.writeInt(record.length);
+                    lastSeq = msg.getSeq();
+                }
+                raf.getFD().sync();
+            }
+        }
+
+        List<Message> readBefore(long beforeSeq, int limit) {
+            if (!Files.exists(file)) return List.of();
+            List<Message> page = new ArrayList<>(limit);
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+                long end = raf.length();
+                while (end > 0 && page.size() < limit) {
+                    long start = frameStart(raf, end);
+                    Message msg = start >= 0 ? readFrame(raf, start, end) : null;
+                    if (msg == null) {
+                        System.err.println("Damaged history cache: " + file);
+                        break;
+                    }
+                    if (msg.getSeq() < beforeSeq) {
+                        page.add(msg);
+                    }
+                    end = start;
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to read history cache: " + e.getMessage());
+            }
+            Collections.reverse(page);
+            return page;
+        }
+    }
+
+    /**
+     * @param raf файл розмови
+     * @param end кінець запису
+     * @return початок запису, що закінчується в end, або -1, якщо довжини на його краях некоректні
+     * @throws IOException якщо читання файлу не вдалося
+     */
+    private static long frameStart(RandomAccessFile raf, long end) throws IOException {
+        if (end < FRAME_BYTES) return -1;
+        raf.seek(end - Integer.BYTES);
+        int length = raf.readInt();
+        if (length < 0 || length > end - FRAME_BYTES) return -1;
+        long start = end - FRAME_BYTES - length;
+        raf.seek(start);
+        return raf.readInt() == length ? start : -1;
+    }
+
+    /**
+     * @param raf файл розмови
+     * @param start початок запису
+     * @param end кінець запису
+     * @return повідомлення запису або null, якщо його вміст пошкоджений
+     * @throws IOException якщо читання файлу не вдалося
+     */
+    private static Message readFrame(RandomAccessFile raf, long start, long end) throws IOException {
+        byte[] record = new byte[(int) (end - start - FRAME_BYTES)];
+        raf.seek(start + Integer.BYTES);
+        raf.readFully(record);
+        try {
+            return decode(record);
+        } catch (IOException | DateTimeException e) {
+            return null;
+        }
+    }
+
+    private static byte[] encode(Message msg) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(msg.getId());
+            out.writeLong(msg.getSeq());
+            out.writeUTF(msg.getSender());
+            out.writeUTF(msg.getReceiver());
+            writeString(out, msg.getText());
+            writeString(out, msg.getClientKey() != null ? msg.getClientKey() : "");
+            out.writeLong(msg.getTimestamp().toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(msg.getTimestamp().getNano());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Message decode(byte[] record) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+            long id = in.readLong();
+            long seq = in.readLong();
+            String sender = in.readUTF();
+            String receiver = in.readUTF();
+            String text = readString(in);
+            String clientKey = readString(in);
+            LocalDateTime timestamp = LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+
+            Message msg = new Message(sender, receiver, text, timestamp);
+            msg.setType(MessageType.HISTORY_RESPONSE);
+            msg.setId(id);
+            msg.setSeq(seq);
+            msg.setClientKey(clientKey.isEmpty() ? null : clientKey);
+            return msg;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) throw new IOException("Invalid string length: " + length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String hex(String name) {
+        return HexFormat.of().formatHex(name.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,147 @@
+package nure.ua.client.service;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import nure.ua.common.Message;
+import nure.ua.common.MessageType;
+
+/**
+ * Квитанції особистих розмов на боці клієнта.
+ *
+ * Власні позначки (отримав / прочитав до seq) накопичуються і надсилаються
+ * раз на {@link #FLUSH_MILLIS} — щонайбільше по одній кожного виду на розмову,
+ * скільки б повідомлень не надійшло за цей час. Квитанції співрозмовників
+ * зберігаються як найбільші отримані номери, за якими вікно чату позначає
+ * власні повідомлення як отримані чи прочитані.
+ */
+public class ReceiptTracker {
+    private static final long FLUSH_MILLIS = 500;
+
+    private final String username;
+    private final Consumer<Message> post;
+    private final Map<String, Long> delivered = new HashMap<>();        // Співрозмовник -> отримано до seq
+    private final Map<String, Long> read = new HashMap<>();             // Співрозмовник -> прочитано до seq
+    private final Map<String, Long> sentDelivered = new HashMap<>();    // Уже надіслано серверу
+    private final Map<String, Long> sentRead = new HashMap<>();
+    private final Map<String, Long> peerDelivered = new ConcurrentHashMap<>();  // Співрозмовник отримав мої до seq
+    private final Map<String, Long> peerRead = new ConcurrentHashMap<>();       // Співрозмовник прочитав мої до seq
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * Створює трекер; періодичне надсилання запускається методом {@link #start()}.
+     *
+     * @param username поточний користувач
+     * @param post надсилання запиту серверу
+     */
+    public ReceiptTracker(String username, Consumer<Message> post) {
+        this.username = username;
+        this.post = post;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "receipt-tracker");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Запускає періодичне надсилання накопичених позначок. Викликається після створення,
+     * щоб потік надсилання не отримав посилання на ще не створений об'єкт.
+     */
+    public void start() {
+        flusher.scheduleWithFixedDelay(this::flush, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param peer співрозмовник
+     * @param seq порядковий номер отриманого повідомлення співрозмовника
+     */
+    public synchronized void markDelivered(String peer, long seq) {
+        delivered.merge(peer, seq, Math::max);
+    }
+
+    /**
+     * @param peer співрозмовник
+     * @param seq порядковий номер останнього показаного повідомлення співрозмовника
+     */
+    public synchronized void markRead(String peer, long seq) {
+        delivered.merge(peer, seq, Math::max);
+        read.merge(peer, seq, Math::max);
+    }
+
+    /**
+     * Запам'ятовує квитанцію співрозмовника (DELIVERED або READ).
+     *
+     * @param receipt квитанція від сервера
+     */
+    public void apply(Message receipt) {
+        String peer = receipt.getSender();
+        peerDelivered.merge(peer, receipt.getSeq(), Math::max);
+        if (receipt.getType() == MessageType.READ) {
+            peerRead.merge(peer, receipt.getSeq(), Math::max);
+        }
+    }
+
+    /**
+     * @param peer співрозмовник
+     * @return до якого порядкового номера співрозмовник отримав мої повідомлення
+     */
+    public long peerDeliveredSeq(String peer) {
+        return peerDelivered.getOrDefault(peer, 0L);
+    }
+
+    /**
+     * @param peer співрозмовник
+     * @return до якого порядкового номера співрозмовник прочитав мої повідомлення
+     */
+    public long peerReadSeq(String peer) {
+        return peerRead.getOrDefault(peer, 0L);
+    }
+
+    /**
+     * Після перепідключення надсилає всі позначки заново: надіслані під час обриву могли загубитися.
+     */
+    public synchronized void resend() {
+        sentDelivered.clear();
+        sentRead.clear();
+    }
+
+    /**
+     * Надсилає позначки, що змінилися з попереднього разу.
+     */
+    synchronized void flush() {
+        for (Map.Entry<String, Long> entry : delivered.entrySet()) {
+            String peer = entry.getKey();
+            long readSeq = read.getOrDefault(peer, 0L);
+            if (readSeq > sentRead.getOrDefault(peer, 0L)) {
+                post.accept(marker(MessageType.READ, peer, readSeq));
+                sentRead.put(peer, readSeq);
+            }
+            if (entry.getValue() > Math.max(sentDelivered.getOrDefault(peer, 0L), readSeq)) {
+                post.accept(marker(MessageType.DELIVERED, peer, entry.getValue()));
+            }
+            sentDelivered.put(peer, entry.getValue());
+        }
+    }
+
+    /**
+     * Зупиняє періодичне надсилання, надіславши накопичене.
+     */
+    public void close() {
+        flusher.shutdown();
+        flush();
+    }
+
+    private Message marker(MessageType type, String peer, long seq) {
+        Message msg = new Message(username, peer, "", LocalDateTime.now());
+        msg.setType(type);
+        msg.setSeq(seq);
+        return msg;
+    }
+}
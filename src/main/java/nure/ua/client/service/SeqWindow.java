@@ -0,0 +1,91 @@
+package nure.ua.client.service;
+
+/**
+ * Компактний фільтр дублікатів за порядковими номерами (seq) однієї розмови.
+ * Усі номери до позначки {@code highWater} включно вважаються вже побаченими,
+ * а номери над нею зберігаються у кільцевому бітовому вікні фіксованого розміру.
+ * Коли номери надходять без пропусків, позначка просто зсувається вперед,
+ * тому пам'ять не залежить від довжини розмови чи часу роботи.
+ *
+ * Номер, що відстав від найновішого більше ніж на розмір вікна, вважається
+ * побаченим. Такі пропуски заповнюються запитом історії, тож номери запитаного
+ * пропуску власник вікна має відсіювати окремо (наприклад, окремим вікном пропуску).
+ */
+public class SeqWindow {
+    private final int size;
+    private final long[] bits;
+    private long highWater;
+
+    /**
+     * @param size розмір вікна в бітах (округлюється вгору до кратного 64)
+     */
+    public SeqWindow(int size) {
+        int words = Math.max(1, (size + 63) / 64);
+        this.size = words * 64;
+        this.bits = new long[words];
+    }
+
+    /**
+     * Позначає номер побаченим.
+     *
+     * @param seq порядковий номер
+     * @return true, якщо номер ще не зустрічався
+     */
+    public boolean add(long seq) {
+        if (seq <= highWater) return false;
+        if (seq > highWater + size) {
+            advanceTo(seq - size);
+        }
+        int index = (int) (seq % size);
+        long mask = 1L << index;
+        if ((bits[index >>> 6] & mask) != 0) return false;
+        bits[index >>> 6] |= mask;
+        compact();
+        return true;
+    }
+
+    /**
+     * @param seq порядковий номер
+     * @return true, якщо номер уже зустрічався
+     */
+    public boolean contains(long seq) {
+        if (seq <= highWater) return true;
+        if (seq > highWater + size) return false;
+        int index = (int) (seq % size);
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Позначає побаченими всі номери до заданого включно.
+     *
+     * @param seq новий рівень позначки
+     */
+    public void advanceTo(long seq) {
+        if (seq <= highWater) return;
+        long clearUpTo = Math.min(seq, highWater + size);
+        for (long s = highWater + 1; s <= clearUpTo; s++) {
+            int index = (int) (s % size);
+            bits[index >>> 6] &= ~(1L << index);
+        }
+        highWater = seq;
+        compact();
+    }
+
+    /** @return найбільший номер, до якого включно всі номери вважаються побаченими */
+    public long getHighWater() {
+        return highWater;
+    }
+
+    /**
+     * Зсуває позначку над неперервним початком вікна.
+     */
+    private void compact() {
+        while (true) {
+            int index = (int) ((highWater + 1) % size);
+            long mask = 1L << index;
+            if ((bits[index >>> 6] & mask) == 0) return;
+            bits[index >>> 6] &= ~mask;
+            highWater++;
+        }
+    }
+}
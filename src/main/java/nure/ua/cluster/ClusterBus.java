@@ -0,0 +1,81 @@
+package nure.ua.cluster;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Шина між вузлами кластера: доставка конвертів конкретному вузлу або всім.
+ *
+ * Реалізація має зберігати порядок конвертів між двома вузлами та повідомляти
+ * слухача про появу і зникнення сусідів. Вбудована реалізація — {@link TcpClusterBus}
+ * (TCP між процесами, зокрема на одній машині); іншу шину (брокер повідомлень тощо)
+ * можна підключити, реалізувавши цей інтерфейс.
+ */
+public interface ClusterBus {
+
+    /**
+     * Отримувач подій шини. Конверти від одного вузла передаються по черзі,
+     * в порядку надсилання.
+     */
+    interface Listener {
+        /**
+         * @param envelope конверт від іншого вузла
+         */
+        void onEnvelope(ClusterEnvelope envelope);
+
+        /**
+         * Вузол встановив з'єднання з цим вузлом (зокрема після свого перезапуску).
+         *
+         * @param node ідентифікатор вузла
+         */
+        void onPeerUp(String node);
+
+        /**
+         * З'єднання від вузла втрачено.
+         *
+         * @param node ідентифікатор вузла
+         */
+        void onPeerDown(String node);
+    }
+
+    /** @return ідентифікатор цього вузла */
+    String nodeId();
+
+    /** @return ідентифікатори всіх інших вузлів кластера з конфігурації */
+    Set<String> peers();
+
+    /**
+     * @param node ідентифікатор вузла
+     * @return true, якщо з'єднання з вузлом зараз встановлене
+     */
+    boolean isConnected(String node);
+
+    /**
+     * Починає приймати конверти та з'єднуватися з іншими вузлами.
+     *
+     * @param listener отримувач подій
+     * @throws IOException якщо не вдалося відкрити порт шини
+     */
+    void start(Listener listener) throws IOException;
+
+    /**
+     * Надсилає конверт одному вузлу без очікування запису.
+     *
+     * @param node ідентифікатор вузла
+     * @param envelope конверт
+     * @return false, якщо вузол зараз недосяжний і конверт відкинуто
+     */
+    boolean send(String node, ClusterEnvelope envelope);
+
+    /**
+     * Надсилає конверт усім досяжним вузлам.
+     *
+     * @param envelope конверт
+     */
+    void publish(ClusterEnvelope envelope);
+
+    /**
+     * Закриває з'єднання шини.
+     */
+    void close();
+}
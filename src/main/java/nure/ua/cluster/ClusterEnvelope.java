@@ -0,0 +1,100 @@
+package nure.ua.cluster;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * Конверт, яким вузли кластера обмінюються через шину.
+ *
+ * Крім вмісту конверт несе час надсилання за годинником відправника
+ * (для затримки одного переходу між вузлами) та відлуння: відправник кладе
+ * свій System.nanoTime, а отримувач повертає його в квитанції, тож час
+ * обороту вимірюється одним годинником.
+ */
+public class ClusterEnvelope implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Види конвертів.
+     */
+    public enum Kind {
+        /** Перший конверт з'єднання: ідентифікатор вузла-відправника. */
+        HELLO,
+        /** Повний список користувачів, підключених до вузла-відправника. */
+        PRESENCE_SNAPSHOT,
+        /** Користувач підключився до вузла-відправника. */
+        JOIN,
+        /** Користувач відключився від вузла-відправника. */
+        LEAVE,
+        /** Повідомлення для збереження вузлом, що володіє розмовою. */
+        SUBMIT,
+        /** Збережене повідомлення для запису отримувачу, підключеному до вузла. */
+        DELIVER,
+        /** Квитанція про запис повідомлення, надісланого конвертом DELIVER. */
+        DELIVERED,
+        /** Підтвердження (ACK) для відправника, підключеного до вузла. */
+        ACK,
+        /** Об'єкт для розсилки всім клієнтам вузла. */
+        BROADCAST,
+        /** Акаунт користувача видалено. */
+        ACCOUNT_DELETED,
+        /** Закрити з'єднання користувача, який перепідключився до іншого вузла. */
+        EVICT,
+        /** Повідомлення групи для збереження вузлом, що володіє групою. */
+        GROUP_SUBMIT,
+        /** Повідомлення групи для запису учасникам, підключеним до вузла. */
+        GROUP_DELIVER,
+        /** Склад групи змінився: закешований склад слід перечитати. */
+        GROUP_CHANGED,
+        /** Ефемерне повідомлення для користувача, підключеного до вузла; не зберігається. */
+        RELAY
+    }
+
+    private final Kind kind;
+    private final String node;              // Вузол-відправник
+    private final String user;              // Користувач, якого стосується конверт, або null
+    private final Serializable payload;     // Повідомлення, список користувачів тощо
+    private final long sentAtMicros;        // Годинник відправника, мкс від епохи
+    private long echoNanos;                 // System.nanoTime вузла, що чекає на квитанцію
+
+    /**
+     * @param kind вид конверта
+     * @param node вузол-відправник
+     * @param user користувач або null
+     * @param payload вміст (серіалізований) або null
+     */
+    public ClusterEnvelope(Kind kind, String node, String user, Serializable payload) {
+        this.kind = kind;
+        this.node = node;
+        this.user = user;
+        this.payload = payload;
+        Instant now = Instant.now();
+        this.sentAtMicros = now.getEpochSecond() * 1_000_000 + now.getNano() / 1000;
+    }
+
+    public Kind getKind() { return kind; }
+
+    public String getNode() { return node; }
+
+    public String getUser() { return user; }
+
+    public Serializable getPayload() { return payload; }
+
+    public long getSentAtMicros() { return sentAtMicros; }
+
+    public long getEchoNanos() { return echoNanos; }
+
+    /**
+     * @param echoNanos значення, яке отримувач поверне в квитанції
+     * @return цей конверт
+     */
+    public ClusterEnvelope withEcho(long echoNanos) {
+        this.echoNanos = echoNanos;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return kind + " from " + node + (user != null ? " for " + user : "");
+    }
+}
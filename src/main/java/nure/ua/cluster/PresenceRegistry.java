@@ -0,0 +1,74 @@
+package nure.ua.cluster;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Реєстр присутності: до якого вузла кластера підключений кожен користувач інших вузлів.
+ *
+ * Наповнюється знімками та змінами (JOIN/LEAVE), які вузли розсилають шиною.
+ * Зміна застосовується лише від того вузла, за яким зараз записаний користувач,
+ * тож запізніле LEAVE старого вузла не стирає підключення до нового.
+ */
+public class PresenceRegistry {
+    private final Map<String, String> nodes = new ConcurrentHashMap<>();    // користувач -> вузол
+
+    /**
+     * @param node вузол
+     * @param user користувач, що підключився до вузла
+     */
+    public void join(String node, String user) {
+        nodes.put(user, node);
+    }
+
+    /**
+     * @param node вузол
+     * @param user користувач, що відключився від вузла
+     */
+    public void leave(String node, String user) {
+        nodes.remove(user, node);
+    }
+
+    /**
+     * Замінює всіх користувачів вузла його знімком.
+     *
+     * @param node вузол
+     * @param users користувачі, підключені до вузла
+     */
+    public void replace(String node, Collection<String> users) {
+        dropNode(node);
+        for (String user : users) {
+            nodes.put(user, node);
+        }
+    }
+
+    /**
+     * Забуває всіх користувачів вузла (вузол зник).
+     *
+     * @param node вузол
+     */
+    public void dropNode(String node) {
+        nodes.values().removeIf(node::equals);
+    }
+
+    /**
+     * @param user користувач
+     * @return вузол, до якого підключений користувач, або null
+     */
+    public String nodeOf(String user) {
+        return nodes.get(user);
+    }
+
+    /** @return користувачі, підключені до інших вузлів */
+    public List<String> users() {
+        return new ArrayList<>(nodes.keySet());
+    }
+
+    /** @return кількість користувачів інших вузлів */
+    public int size() {
+        return nodes.size();
+    }
+}
@@ -0,0 +1,341 @@
+package nure.ua.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import nure.ua.metrics.Counter;
+import nure.ua.metrics.LatencyHistogram;
+import nure.ua.metrics.Metrics;
+import nure.ua.server.ConnectionMailbox;
+
+/**
+ * Шина кластера поверх TCP: кожен вузол слухає свій порт і тримає по одному
+ * вихідному з'єднанню до кожного сусіда з конфігурації.
+ *
+ * Вихідні конверти записуються через {@link ConnectionMailbox}, як і повідомлення
+ * клієнтам, тож надсилання не блокує викликача, а порядок конвертів до одного вузла
+ * зберігається. Вхідне з'єднання читає окремий віртуальний потік і передає
+ * конверти слухачу по черзі. Розірване вихідне з'єднання відновлюється не частіше
+ * ніж раз на reconnectMillis; поки його немає, конверти до вузла відкидаються.
+ *
+ * Підходить для кількох серверів на одній машині (loopback) і для невеликого кластера в мережі.
+ */
+public class TcpClusterBus implements ClusterBus {
+    private static final int CONNECT_TIMEOUT_MILLIS = 1_000;
+    private static final int RESET_EVERY = 256;         // Конвертів між скиданнями таблиці посилань потоку
+    private static final ObjectInputFilter FILTER =
+        ObjectInputFilter.Config.createFilter("nure.ua.**;java.lang.*;java.util.*;java.time.*;!*");
+
+    private static final Counter sendFailures =
+        Metrics.counter("chat_cluster_send_failures_total", "Envelopes dropped because a peer was unreachable");
+    private static final Counter[] envelopesOut = kindCounters("chat_cluster_envelopes_out_total", "Envelopes sent to other nodes");
+    private static final Counter[] envelopesIn = kindCounters("chat_cluster_envelopes_in_total", "Envelopes received from other nodes");
+
+    private final String nodeId;
+    private final int port;
+    private final long reconnectMillis;
+    private final Map<String, Link> links = new LinkedHashMap<>();              // Незмінна після конструктора
+    private final Map<String, Socket> inbound = new ConcurrentHashMap<>();      // вузол -> поточне вхідне з'єднання
+    private final Map<String, Long> lostAt = new ConcurrentHashMap<>();         // вузол -> коли втрачено вхідне з'єднання
+    private final Map<String, LatencyHistogram> hops = new ConcurrentHashMap<>();
+    private volatile Listener listener;
+    private volatile boolean closed;
+    private ServerSocket server;
+
+    /**
+     * @param nodeId ідентифікатор цього вузла
+     * @param port порт, на якому вузол приймає з'єднання шини
+     * @param peers адреси інших вузлів за їх ідентифікаторами
+     * @param reconnectMillis мінімальний інтервал між спробами з'єднання з вузлом
+     */
+    public TcpClusterBus(String nodeId, int port, Map<String, InetSocketAddress> peers, long reconnectMillis) {
+        this.nodeId = nodeId;
+        this.port = port;
+        this.reconnectMillis = reconnectMillis;
+        for (Map.Entry<String, InetSocketAddress> peer : peers.entrySet()) {
+            links.put(peer.getKey(), new Link(peer.getKey(), peer.getValue()));
+        }
+        Metrics.gauge("chat_cluster_peers_connected", "Peers with an established outbound link", this::connectedCount);
+    }
+
+    /**
+     * Розбирає список вузлів виду "b@localhost:9102,c@10.0.0.3:9101".
+     *
+     * @param spec список вузлів
+     * @return адреси за ідентифікаторами вузлів
+     */
+    public static Map<String, InetSocketAddress> parsePeers(String spec) {
+        Map<String, InetSocketAddress> peers = new LinkedHashMap<>();
+        if (spec == null || spec.isBlank()) return peers;
+        for (String entry : spec.split(",")) {
+            String item = entry.trim();
+            int at = item.indexOf('@');
+            int colon = item.lastIndexOf(':');
+            if (at <= 0 || colon < at) {
+                throw new IllegalArgumentException("Invalid cluster peer: " + item);
+            }
+            peers.put(item.substring(0, at),
+                InetSocketAddress.createUnresolved(item.substring(at + 1, colon), Integer.parseInt(item.substring(colon + 1))));
+        }
+        return peers;
+    }
+
+    @Override
+    public String nodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public Set<String> peers() {
+        return links.keySet();
+    }
+
+    @Override
+    public boolean isConnected(String node) {
+        Link link = links.get(node);
+        return link != null && link.isUp();
+    }
+
+    @Override
+    public void start(Listener listener) throws IOException {
+        this.listener = listener;
+        server = new ServerSocket(port);
+        Thread.ofVirtual().name("cluster-accept").start(this::acceptLoop);
+        Thread.ofVirtual().name("cluster-connect").start(this::connectLoop);
+        System.out.println("Cluster node " + nodeId + " listening on port " + port);
+    }
+
+    @Override
+    public boolean send(String node, ClusterEnvelope envelope) {
+        Link link = links.get(node);
+        ConnectionMailbox mailbox = link != null ? link.connect() : null;
+        if (mailbox == null) {
+            sendFailures.inc();
+            return false;
+        }
+        envelopesOut[envelope.getKind().ordinal()].inc();
+        mailbox.execute(out -> link.write(out, envelope), sendFailures::inc);
+        return true;
+    }
+
+    @Override
+    public void publish(ClusterEnvelope envelope) {
+        for (String node : links.keySet()) {
+            send(node, envelope);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            if (server != null) server.close();
+        } catch (IOException ignored) {}
+        for (Link link : links.values()) {
+            link.disconnect();
+        }
+        for (Socket socket : inbound.values()) {
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Періодично з'єднується з вузлами, з якими з'єднання немає, щоб вони
+     * якнайшвидше дізналися про цей вузол (навіть якщо йому поки нічого надсилати).
+     */
+    private void connectLoop() {
+        while (!closed) {
+            for (Link link : links.values()) {
+                link.connect();
+            }
+            try {
+                Thread.sleep(reconnectMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                Thread.ofVirtual().name("cluster-in").start(() -> readLoop(socket));
+            } catch (IOException e) {
+                if (!closed) System.err.println("Cluster accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Читає конверти вхідного з'єднання. Перший конверт — HELLO з ідентифікатором вузла;
+     * з'єднання від вузлів, яких немає в конфігурації, закриваються.
+     *
+     * Якщо вузол повернувся після втрати з'єднання (наприклад, перезапустився), вихідне
+     * з'єднання до нього, встановлене раніше, могло ще не помітити розриву: воно
+     * відкривається заново, щоб знімок присутності не загубився в мертвому сокеті.
+     */
+    private void readLoop(Socket socket) {
+        String peer = null;
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            in.setObjectInputFilter(FILTER);
+            while (!closed) {
+                ClusterEnvelope envelope = (ClusterEnvelope) in.readObject();
+                envelopesIn[envelope.getKind().ordinal()].inc();
+                hop(envelope.getNode()).record(Math.max(0, nowMicros() - envelope.getSentAtMicros()));
+
+                if (envelope.getKind() == ClusterEnvelope.Kind.HELLO) {
+                    if (!links.containsKey(envelope.getNode())) {
+                        System.err.println("Rejected cluster link from unknown node " + envelope.getNode());
+                        return;
+                    }
+                    peer = envelope.getNode();
+                    Socket previous = inbound.put(peer, socket);
+                    if (previous != null) closeQuietly(previous);
+                    Long lost = lostAt.remove(peer);
+                    if (lost != null) links.get(peer).dropIfOlderThan(lost);
+                    listener.onPeerUp(peer);
+                } else if (peer != null) {
+                    dispatch(envelope);
+                }
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            // З'єднання закрито або отримано неочікуваний об'єкт
+        } finally {
+            closeQuietly(socket);
+            if (peer != null && inbound.remove(peer, socket) && !closed) {
+                lostAt.put(peer, System.currentTimeMillis());
+                links.get(peer).disconnect();       // Вихідне з'єднання, ймовірно, теж мертве
+                System.out.println("Cluster link from " + peer + " lost");
+                listener.onPeerDown(peer);
+            }
+        }
+    }
+
+    private void dispatch(ClusterEnvelope envelope) {
+        try {
+            listener.onEnvelope(envelope);
+        } catch (RuntimeException e) {
+            System.err.println("Failed to handle cluster envelope " + envelope + ": " + e.getMessage());
+        }
+    }
+
+    private LatencyHistogram hop(String node) {
+        return hops.computeIfAbsent(node, peer ->
+            Metrics.timer("chat_cluster_hop_seconds", "One-way envelope latency between nodes (sender wall clock)", "peer", peer));
+    }
+
+    private long connectedCount() {
+        return links.values().stream().filter(Link::isUp).count();
+    }
+
+    private static long nowMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000 + now.getNano() / 1000;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
+    }
+
+    private static Counter[] kindCounters(String name, String help) {
+        ClusterEnvelope.Kind[] kinds = ClusterEnvelope.Kind.values();
+        Counter[] counters = new Counter[kinds.length];
+        for (ClusterEnvelope.Kind kind : kinds) {
+            counters[kind.ordinal()] = Metrics.counter(name, help, "kind", kind.name());
+        }
+        return counters;
+    }
+
+    /**
+     * Вихідне з'єднання до одного вузла.
+     */
+    private final class Link {
+        private final String node;
+        private final InetSocketAddress address;
+        private volatile Socket socket;
+        private volatile ConnectionMailbox mailbox;
+        private long connectedAt;
+        private long lastAttempt;
+        private int sinceReset;         // Доступний лише виконавцю скриньки
+
+        Link(String node, InetSocketAddress address) {
+            this.node = node;
+            this.address = address;
+        }
+
+        boolean isUp() {
+            ConnectionMailbox box = mailbox;
+            return box != null && !box.isBroken();
+        }
+
+        /**
+         * @return скринька живого з'єднання або null, якщо вузол недосяжний
+         */
+        synchronized ConnectionMailbox connect() {
+            if (isUp()) return mailbox;
+            long now = System.currentTimeMillis();
+            if (closed || now - lastAttempt < reconnectMillis) return null;
+            lastAttempt = now;
+            disconnect();
+            try {
+                Socket s = new Socket();
+                s.connect(new InetSocketAddress(address.getHostString(), address.getPort()), CONNECT_TIMEOUT_MILLIS);
+                s.setTcpNoDelay(true);
+                ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                ConnectionMailbox box = new ConnectionMailbox(out);
+                box.send(new ClusterEnvelope(ClusterEnvelope.Kind.HELLO, nodeId, null, null));
+                envelopesOut[ClusterEnvelope.Kind.HELLO.ordinal()].inc();
+                socket = s;
+                mailbox = box;
+                connectedAt = now;
+                System.out.println("Cluster link to " + node + " established");
+                return box;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        void write(ObjectOutputStream out, ClusterEnvelope envelope) throws IOException {
+            out.writeObject(envelope);
+            if (++sinceReset >= RESET_EVERY) {
+                out.reset();
+                sinceReset = 0;
+            }
+        }
+
+        /**
+         * Закриває з'єднання, встановлене до заданого моменту, і дозволяє одразу з'єднатися знову.
+         *
+         * @param millis момент, мс від епохи
+         */
+        synchronized void dropIfOlderThan(long millis) {
+            if (mailbox != null && connectedAt < millis) {
+                disconnect();
+                lastAttempt = 0;
+            }
+        }
+
+        synchronized void disconnect() {
+            if (mailbox != null) mailbox.closeNow();
+            if (socket != null) closeQuietly(socket);
+            mailbox = null;
+            socket = null;
+        }
+    }
+}
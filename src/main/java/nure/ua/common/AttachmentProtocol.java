@@ -0,0 +1,109 @@
+package nure.ua.common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+
+/**
+ * Протокол бічного каналу вкладень: окреме TCP-з'єднання, щоб файли не затримували
+ * повідомлення чату в основному потоці об'єктів.
+ *
+ * Усі числа — big-endian. Вкладення адресується своїм вмістом: ідентифікатор —
+ * SHA-256 файлу (64 шістнадцяткові символи), тож однакові файли зберігаються один раз.
+ *
+ * Привітання клієнта: int {@link #MAGIC}, byte {@link #VERSION}, short довжина + UTF-8 квиток, byte команда.
+ * <ul>
+ *   <li>{@link #UPLOAD}: byte[32] SHA-256, long розмір. Відповідь: byte статус, long зміщення —
+ *       скільки байтів сервер уже має (дорівнює розміру, якщо файл уже збережено).
+ *       Далі клієнт надсилає решту фрагментами: int довжина (до {@link #CHUNK_BYTES}), байти.
+ *       Після останнього фрагмента (або одразу, якщо надсилати нічого) сервер перевіряє хеш
+ *       і відповідає: byte статус, long розмір.
+ *       Обірване завантаження продовжується з повернутого зміщення.</li>
+ *   <li>{@link #DOWNLOAD}: byte[32] SHA-256, long зміщення. Відповідь: byte статус, long розмір,
+ *       далі байти файлу від зміщення до кінця.</li>
+ * </ul>
+ */
+public final class AttachmentProtocol {
+    public static final int MAGIC = 0x49435141;         // "ICQA"
+    public static final byte VERSION = 1;
+    public static final int CHUNK_BYTES = 64 * 1024;    // Найбільший фрагмент завантаження
+    public static final int HASH_BYTES = 32;
+
+    public static final byte UPLOAD = 1;
+    public static final byte DOWNLOAD = 2;
+
+    public static final byte OK = 0;
+    public static final byte DENIED = 1;                // Квиток недійсний або прострочений
+    public static final byte NOT_FOUND = 2;
+    public static final byte TOO_LARGE = 3;
+    public static final byte BUSY = 4;                  // Той самий файл саме завантажується
+    public static final byte CORRUPT = 5;               // Хеш отриманого вмісту не збігся
+    public static final byte BAD_REQUEST = 6;
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private AttachmentProtocol() {}
+
+    /**
+     * Записує привітання з квитком і командою.
+     *
+     * @param out потік з'єднання
+     * @param ticket квиток, виданий сервером чату
+     * @param command {@link #UPLOAD} або {@link #DOWNLOAD}
+     * @throws IOException якщо запис не вдався
+     */
+    public static void writeHello(DataOutputStream out, String ticket, byte command) throws IOException {
+        byte[] encoded = ticket.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeShort(encoded.length);
+        out.write(encoded);
+        out.writeByte(command);
+    }
+
+    /**
+     * Читає квиток із привітання (після MAGIC і VERSION).
+     *
+     * @param in потік з'єднання
+     * @return квиток
+     * @throws IOException якщо читання не вдалося
+     */
+    public static String readTicket(DataInputStream in) throws IOException {
+        byte[] encoded = new byte[in.readUnsignedShort()];
+        in.readFully(encoded);
+        return new String(encoded, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param hash SHA-256 вмісту
+     * @return ідентифікатор вкладення
+     */
+    public static String idOf(byte[] hash) {
+        return HEX.formatHex(hash);
+    }
+
+    /**
+     * @param id ідентифікатор вкладення
+     * @return SHA-256 вмісту
+     * @throws IllegalArgumentException якщо ідентифікатор має неправильний формат
+     */
+    public static byte[] hashOf(String id) {
+        if (!isValidId(id)) throw new IllegalArgumentException("Invalid attachment id: " + id);
+        return HEX.parseHex(id);
+    }
+
+    /**
+     * @param id рядок
+     * @return true, якщо рядок — 64 малі шістнадцяткові символи
+     */
+    public static boolean isValidId(String id) {
+        if (id == null || id.length() != HASH_BYTES * 2) return false;
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+        }
+        return true;
+    }
+}
@@ -17,6 +17,13 @@ public class Message implements Serializable {
     private String text;                    // Текст повідомлення
     private LocalDateTime timestamp;        // Час надсилання повідомлення
     private MessageType type;               // Тип повідомлення (наприклад, текстове, системне тощо)
+    private long id;                        // Ідентифікатор, призначений сервером (0 — ще не призначено)
+    private long seq;                       // Порядковий номер у межах розмови (0 — невідомий)
+    private String clientKey;               // Ключ ідемпотентності, згенерований клієнтом для повторних надсилань
+    private long groupId;                   // Ідентифікатор групового чату (0 — особиста розмова)
+    private String attachmentId;            // Вкладення (SHA-256 вмісту) або null
+    private String attachmentName;          // Ім'я файлу вкладення для показу
+    private long attachmentSize;            // Розмір вкладення в байтах
 
     /**
      * Конструктор для створення текстового повідомлення.
@@ -89,13 +96,94 @@ public class Message implements Serializable {
      */
     public void setType(MessageType type) { this.type = type; }
 
+    /**
+     * @return ідентифікатор повідомлення, призначений сервером
+     */
+    public long getId() { return id; }
+
+    /**
+     * Встановлює ідентифікатор повідомлення.
+     * @param id ідентифікатор
+     */
+    public void setId(long id) { this.id = id; }
+
+    /**
+     * @return порядковий номер повідомлення в розмові
+     */
+    public long getSeq() { return seq; }
+
+    /**
+     * Встановлює порядковий номер повідомлення в розмові.
+     * @param seq порядковий номер
+     */
+    public void setSeq(long seq) { this.seq = seq; }
+
+    /**
+     * @return ключ ідемпотентності клієнта
+     */
+    public String getClientKey() { return clientKey; }
+
+    /**
+     * Встановлює ключ ідемпотентності клієнта.
+     * @param clientKey ключ
+     */
+    public void setClientKey(String clientKey) { this.clientKey = clientKey; }
+
+    /**
+     * @return ідентифікатор групового чату або 0 для особистої розмови
+     */
+    public long getGroupId() { return groupId; }
+
+    /**
+     * Встановлює ідентифікатор групового чату.
+     * @param groupId ідентифікатор групи
+     */
+    public void setGroupId(long groupId) { this.groupId = groupId; }
+
+    /**
+     * @return ідентифікатор вкладення (завантаженого бічним каналом) або null
+     */
+    public String getAttachmentId() { return attachmentId; }
+
+    /**
+     * Встановлює ідентифікатор вкладення.
+     * @param attachmentId ідентифікатор, отриманий після завантаження
+     */
+    public void setAttachmentId(String attachmentId) { this.attachmentId = attachmentId; }
+
+    /**
+     * @return ім'я файлу вкладення
+     */
+    public String getAttachmentName() { return attachmentName; }
+
+    /**
+     * Встановлює ім'я файлу вкладення.
+     * @param attachmentName ім'я файлу
+     */
+    public void setAttachmentName(String attachmentName) { this.attachmentName = attachmentName; }
+
+    /**
+     * @return розмір вкладення в байтах
+     */
+    public long getAttachmentSize() { return attachmentSize; }
+
+    /**
+     * Встановлює розмір вкладення.
+     * @param attachmentSize розмір у байтах
+     */
+    public void setAttachmentSize(long attachmentSize) { this.attachmentSize = attachmentSize; }
+
     /**
      * @return рядкове представлення об’єкта Message
      */
     @Override
     public String toString() {
         return "Message{" +
-               "from='" + sender + '\'' +
+               "id=" + id +
+               ", seq=" + seq +
+               (groupId != 0 ? ", group=" + groupId : "") +
+               (attachmentId != null ? ", attachment=" + attachmentName + " (" + attachmentSize + " B)" : "") +
+               ", from='" + sender + '\'' +
                ", to='" + receiver + '\'' +
                ", text='" + text + '\'' +
                ", timestamp=" + timestamp +
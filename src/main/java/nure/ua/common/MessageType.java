@@ -11,10 +11,15 @@ public enum MessageType {
     TEXT,
 
     /**
-     * Запит на історію повідомлень з певним користувачем.
+     * Запит на історію повідомлень з певним користувачем (або групою, якщо задано groupId).
      */
     HISTORY_REQUEST,
 
+    /**
+     * Запит сторінки історії, старішої за вказаний порядковий номер.
+     */
+    HISTORY_PAGE_REQUEST,
+
     /**
      * Відповідь на запит історії повідомлень.
      */
@@ -38,5 +43,66 @@ public enum MessageType {
     /**
      * Повідомлення про тимчасове відключення від серверу облікового запису.
      */
-    DISCONNECT_NOTIFICATION
+    DISCONNECT_NOTIFICATION,
+
+    /**
+     * Підтвердження сервером прийому повідомлення з призначеними id та порядковим номером.
+     */
+    ACK,
+
+    /**
+     * Створення групового чату; текст — назва групи.
+     */
+    GROUP_CREATE,
+
+    /**
+     * Додавання учасника (receiver) до групи groupId.
+     */
+    GROUP_ADD_MEMBER,
+
+    /**
+     * Вихід відправника з групи groupId.
+     */
+    GROUP_LEAVE,
+
+    /**
+     * Зміна складу групи або членство в ній: текст — назва групи, receiver — учасник, якого стосується зміна.
+     */
+    GROUP_UPDATE,
+
+    /**
+     * Текстове повідомлення групового чату groupId.
+     */
+    GROUP_TEXT,
+
+    /**
+     * Учасник прочитав повідомлення групи groupId до порядкового номера seq включно.
+     */
+    GROUP_READ,
+
+    /**
+     * Запит квитка для бічного каналу вкладень; у відповіді текст — квиток.
+     */
+    ATTACHMENT_TICKET,
+
+    /**
+     * Відправник друкує повідомлення отримувачу. Ефемерне: не зберігається і не доставляється офлайн.
+     */
+    TYPING,
+
+    /**
+     * Відправник припинив друкувати.
+     */
+    TYPING_STOPPED,
+
+    /**
+     * Квитанція отримання: відправник отримав повідомлення розмови з receiver до порядкового номера seq включно.
+     * Клієнт надсилає її серверу, сервер пересилає автору повідомлень.
+     */
+    DELIVERED,
+
+    /**
+     * Квитанція прочитання: відправник прочитав повідомлення розмови з receiver до порядкового номера seq включно.
+     */
+    READ
 }
@@ -0,0 +1,72 @@
+package nure.ua.database;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+
+/**
+ * Сутність, що представляє квитанції користувача в особистій розмові: до якого
+ * порядкового номера він отримав і прочитав повідомлення співрозмовника.
+ *
+ * Один рядок на користувача й розмову замість позначок у кожному повідомленні,
+ * тож прочитання сотні повідомлень змінює один рядок.
+ */
+@Entity
+@Table(name = "conversation_cursors",
+    uniqueConstraints = @UniqueConstraint(name = "uk_conversation_cursors", columnNames = {"username", "peer"}),
+    indexes = @Index(name = "idx_conversation_cursors_peer", columnList = "peer"))
+public class ConversationCursorEntity {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "conversation_cursors_seq")
+    @SequenceGenerator(name = "conversation_cursors_seq", sequenceName = "conversation_cursors_seq", allocationSize = 50)
+    @Column(name = "id", nullable = false)
+    private Long id;
+
+    @Column(nullable = false)
+    private String username;
+    @Column(nullable = false)
+    private String peer;
+    @Column(name = "delivered_seq", nullable = false)
+    private long deliveredSeq;
+    @Column(name = "read_seq", nullable = false)
+    private long readSeq;
+
+    /**
+     * Конструктор без параметрів для Hibernate.
+     */
+    public ConversationCursorEntity() {}
+
+    /**
+     * @param username користувач, що отримує повідомлення
+     * @param peer співрозмовник, чиї повідомлення отримано
+     * @param deliveredSeq порядковий номер останнього отриманого повідомлення
+     * @param readSeq порядковий номер останнього прочитаного повідомлення
+     */
+    public ConversationCursorEntity(String username, String peer, long deliveredSeq, long readSeq) {
+        this.username = username;
+        this.peer = peer;
+        this.deliveredSeq = deliveredSeq;
+        this.readSeq = readSeq;
+    }
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public String getUsername() { return username; }
+    public void setUsername(String username) { this.username = username; }
+
+    public String getPeer() { return peer; }
+    public void setPeer(String peer) { this.peer = peer; }
+
+    public long getDeliveredSeq() { return deliveredSeq; }
+    public void setDeliveredSeq(long deliveredSeq) { this.deliveredSeq = deliveredSeq; }
+
+    public long getReadSeq() { return readSeq; }
+    public void setReadSeq(long readSeq) { this.readSeq = readSeq; }
+}
@@ -0,0 +1,60 @@
+package nure.ua.database;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+
+/**
+ * Сутність, що представляє груповий чат: назву, автора та час створення.
+ * Склад групи зберігається окремо ({@link GroupMemberEntity}).
+ */
+@Entity
+@Table(name = "chat_groups")
+public class GroupEntity {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "chat_groups_seq")
+    @SequenceGenerator(name = "chat_groups_seq", sequenceName = "chat_groups_seq", allocationSize = 1)
+    @Column(name = "id", nullable = false)
+    private Long id;
+
+    @Column(nullable = false)
+    private String name;
+    @Column(name = "created_by")
+    private String createdBy;
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    /**
+     * Конструктор без параметрів для Hibernate.
+     */
+    public GroupEntity() {}
+
+    /**
+     * @param name назва групи
+     * @param createdBy автор групи
+     * @param createdAt час створення
+     */
+    public GroupEntity(String name, String createdBy, LocalDateTime createdAt) {
+        this.name = name;
+        this.createdBy = createdBy;
+        this.createdAt = createdAt;
+    }
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+
+    public String getCreatedBy() { return createdBy; }
+    public void setCreatedBy(String createdBy) { this.createdBy = createdBy; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
@@ -0,0 +1,414 @@
+package nure.ua.database;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.Session;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+
+import nure.ua.common.Message;
+import nure.ua.database.QueryProfiler.Operation;
+import nure.ua.database.QueryProfiler.Shape;
+
+/**
+ * Клас, який відповідає за групові чати в базі даних: групи, їх склад,
+ * повідомлення (один рядок на повідомлення) та курсори доставки й прочитання учасників.
+ */
+public class GroupManager {
+    private static final Shape GROUP_CREATE = QueryProfiler.shape("group_create",
+        "session.persist(GroupEntity); session.persist(GroupMemberEntity)");
+    private static final Shape GROUP_GET = QueryProfiler.shape("group_get", "session.get(GroupEntity, :group)");
+    private static final Shape MEMBER_ADD = QueryProfiler.shape("group_member_add",
+        "SELECT COUNT(*) FROM GroupMemberEntity WHERE groupId = :group AND username = :username; session.persist(GroupMemberEntity)");
+    private static final Shape MEMBER_REMOVE = QueryProfiler.shape("group_member_remove",
+        "DELETE FROM GroupMemberEntity WHERE groupId = :group AND username = :username");
+    private static final Shape MEMBERS = QueryProfiler.shape("group_members",
+        "SELECT username FROM GroupMemberEntity WHERE groupId = :group");
+    private static final Shape USER_GROUPS = QueryProfiler.shape("user_groups",
+        "SELECT g FROM GroupEntity g, GroupMemberEntity m WHERE m.groupId = g.id AND m.username = :username ORDER BY g.id");
+    private static final Shape INSERT = QueryProfiler.shape("group_insert",
+        "INSERT INTO group_messages ... ON CONFLICT DO NOTHING");
+    private static final Shape BY_CLIENT_KEY = QueryProfiler.shape("group_by_client_key",
+        "FROM GroupMessageEntity WHERE sender = :sender AND clientKey = :key");
+    private static final Shape UNDELIVERED = QueryProfiler.shape("group_undelivered",
+        "SELECT g FROM GroupMessageEntity g, GroupMemberEntity m WHERE m.username = :username" +
+        " AND g.groupId = m.groupId AND g.seq > m.deliveredSeq ORDER BY g.groupId, g.seq");
+    private static final Shape AFTER = QueryProfiler.shape("group_after",
+        "FROM GroupMessageEntity WHERE groupId = :group AND seq > :after ORDER BY seq");
+    private static final Shape RECENT = QueryProfiler.shape("group_recent",
+        "FROM GroupMessageEntity WHERE groupId = :group ORDER BY seq DESC");
+    private static final Shape BEFORE = QueryProfiler.shape("group_before",
+        "FROM GroupMessageEntity WHERE groupId = :group AND seq < :before ORDER BY seq DESC");
+    private static final Shape MAX_SEQ = QueryProfiler.shape("group_max_seq",
+        "SELECT MAX(seq) FROM GroupMessageEntity WHERE groupId = :group");
+    private static final Shape ADVANCE_DELIVERED = QueryProfiler.shape("group_advance_delivered",
+        "UPDATE GroupMemberEntity SET deliveredSeq = :seq WHERE groupId = :group AND username = :username AND deliveredSeq < :seq");
+    private static final Shape ADVANCE_READ = QueryProfiler.shape("group_advance_read",
+        "UPDATE GroupMemberEntity SET readSeq = :seq WHERE groupId = :group AND username = :username AND readSeq < :seq");
+    private static final String INSERT_IF_ABSENT_SQL =
+        "INSERT INTO group_messages (id, group_id, sender, message, timestamp, seq, client_key, " +
+        "attachment_id, attachment_name, attachment_size) " +
+        "VALUES (:id, :group, :sender, :text, :timestamp, :seq, :clientKey, " +
+        ":attachmentId, :attachmentName, :attachmentSize) " +
+        "ON CONFLICT DO NOTHING";
+    private static final Shape DELETE_USER = QueryProfiler.shape("group_delete_user",
+        "DELETE FROM GroupMemberEntity WHERE username = :username; DELETE FROM GroupMessageEntity WHERE sender = :username");
+
+    /**
+     * Створює групу; автор стає її першим учасником.
+     *
+     * @param name назва групи
+     * @param creator автор
+     * @return збережена група або null, якщо збереження не вдалося
+     */
+    @SuppressWarnings("CallToPrintStackTrace")
+    public GroupEntity createGroup(String name, String creator) {
+        try (Operation op = QueryProfiler.begin(GROUP_CREATE).bind("name", name);
+             Session session = HibernateUtil.getSessionFactory().openSession()) {
+            Transaction tx = session.beginTransaction();
+            LocalDateTime now = LocalDateTime.now();
+            GroupEntity group = new GroupEntity(name, creator, now);
+            session.persist(group);
+            session.persist(new GroupMemberEntity(group.getId(), creator, now, 0));
+            tx.commit();
+            HibernateUtil.recordWrite(creator);
+            op.done(2);
+            return group;
+        } catch (Exception e) {
+            System.err.println("Error creating group: " + e.getMessage());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * @param groupId ідентифікатор групи
+     * @return група або null, якщо її немає
+     */
+    public GroupEntity getGroup(long groupId) {
+        try (Operation op = QueryProfiler.begin(GROUP_GET).bind("group", groupId);
+             Session session = HibernateUtil.openReadSession(null)) {
+            GroupEntity group = session.get(GroupEntity.class, groupId);
+            op.done(group != null ? 1 : 0);
+            return group;
+        }
+    }
+
+    /**
+     * Додає учасника до групи. Повідомлення, збережені до вступу, не вважаються
+     * недоставленими новому учаснику — він може отримати їх запитом історії.
+     *
+     * @param groupId ідентифікатор групи
+     * @param username новий учасник
+     * @param startSeq поточний найбільший порядковий номер групи
+     * @return false, якщо користувач уже є учасником
+     */
+    public boolean addMember(long groupId, String username, long startSeq) {
+        try (Operation op = QueryProfiler.begin(MEMBER_ADD).bind("group", groupId).bind("username", username);
+             Session session = HibernateUtil.getSessionFactory().openSession()) {
+            Transaction tx = session.beginTransaction();
+            Long existing = session.createQuery(
+                "SELECT COUNT(*) FROM GroupMemberEntity WHERE groupId = :group AND username = :username", Long.class)
+                .setParameter("group", groupId)
+                .setParameter("username", username)
+                .getSingleResult();
+            if (existing > 0) {
+                tx.rollback();
+                op.done(0);
+                return false;
+            }
+            session.persist(new GroupMemberEntity(groupId, username, LocalDateTime.now(), startSeq));
+            tx.commit();
+            HibernateUtil.recordWrite(username);
+            op.done(1);
+            return true;
+        }
+    }
+
+    /**
+     * Видаляє учасника з групи.
+     *
+     * @param groupId ідентифікатор групи
+     * @param username учасник
+     * @return true, якщо користувач був учасником
+     */
+    public boolean removeMember(long groupId, String username) {
+        try (Operation op = QueryProfiler.begin(MEMBER_REMOVE).bind("group", groupId).bind("username", username);
+             Session session = HibernateUtil.getSessionFactory().openSession()) {
+            Transaction tx = session.beginTransaction();
+            int removed = session.createMutationQuery(MEMBER_REMOVE.statement())
+                .setParameter("group", groupId)
+                .setParameter("username", username)
+                .executeUpdate();
+            tx.commit();
+            HibernateUtil.recordWrite(username);
+            op.done(removed);
+            return removed > 0;
+        }
+    }
+
+    /**
+     * Читає склад групи з основної БД (склад кешується сервером, тож відставання репліки неприпустиме).
+     *
+     * @param groupId ідентифікатор групи
+     * @return імена учасників
+     */
+    public List<String> getMembers(long groupId) {
+        try (Operation op = QueryProfiler.begin(MEMBERS).bind("group", groupId);
+             Session session = HibernateUtil.getSessionFactory().openSession()) {
+            List<String> members = session.createQuery(MEMBERS.statement(), String.class)
+                .setParameter("group", groupId)
+                .list();
+            op.done(members.size());
+            return members;
+        }
+    }
+
+    /**
+     * @param username ім'я користувача
+     * @return групи, учасником яких є користувач
+     */
+    public List<GroupEntity> getGroupsOf(String username) {
+        try (Operation op = QueryProfiler.begin(USER_GROUPS).bind("username", username);
+             Session session = HibernateUtil.openReadSession(username)) {
+            List<GroupEntity> groups = session.createQuery(USER_GROUPS.statement(), GroupEntity.class)
+                .setParameter("username", username)
+                .list();
+            op.done(groups.size());
+            return groups;
+        }
+    }
+
+    /**
+     * Зберігає повідомлення групи одним рядком без контексту персистентності.
+     * Якщо відправник уже має повідомлення з тим самим ключем ідемпотентності або порядковий
+     * номер у групі вже зайнятий (групою тим часом володів інший вузол), рядок не вставляється.
+     *
+     * @param msg повідомлення з призначеним порядковим номером
+     * @return результат збереження
+     */
+    @SuppressWarnings("CallToPrintStackTrace")
+    public SaveResult saveMessage(GroupMessageEntity msg) {
+        try (Operation op = QueryProfiler.begin(INSERT);
+             StatelessSession session = HibernateUtil.getSessionFactory().openStatelessSession()) {
+            Transaction tx = session.beginTransaction();
+            msg.setId(HibernateUtil.nextId(session, msg));
+            int inserted = session.createNativeMutationQuery(INSERT_IF_ABSENT_SQL)
+                .setParameter("id", msg.getId())
+                .setParameter("group", msg.getGroupId())
+                .setParameter("sender", msg.getSender())
+                .setParameter("text", msg.getText())
+                .setParameter("timestamp", msg.getTimestamp())
+                .setParameter("seq", msg.getSeq())
+                .setParameter("clientKey", msg.getClientKey(), String.class)
+                .setParameter("attachmentId", msg.getAttachmentId(), String.class)
+                .setParameter("attachmentName", msg.getAttachmentName(), String.class)
+                .setParameter("attachmentSize", msg.getAttachmentSize(), Long.class)
+                .executeUpdate();
+            tx.commit();
+            op.done(inserted);
+            if (inserted == 0) {
+                msg.setId(null);
+                return SaveResult.CONFLICT;
+            }
+            HibernateUtil.recordWrite(msg.getSender());
+            return SaveResult.SAVED;
+        } catch (Exception e) {
+            System.err.println("Error saving group message: " + e.getMessage());
+            e.printStackTrace();
+            msg.setId(null);
+            return SaveResult.FAILED;
+        }
+    }
+
+    /**
+     * Шукає збережене повідомлення групи за ключем ідемпотентності відправника.
+     * Читає з основної БД, бо рядок міг щойно записати інший вузол кластера.
+     *
+     * @param sender відправник
+     * @param clientKey ключ ідемпотентності
+     * @return збережене повідомлення або null
+     */
+    public Message findByClientKey(String sender, String clientKey) {
+        if (clientKey == null) return null;
+        try (Operation op = QueryProfiler.begin(BY_CLIENT_KEY).bind("sender", sender).bind("key", clientKey);
+             Session session = HibernateUtil.getSessionFactory().openSession()) {
+            GroupMessageEntity stored = session.createQuery(BY_CLIENT_KEY.statement(), GroupMessageEntity.class)
+                .setParameter("sender", sender)
+                .setParameter("key", clientKey)
+                .uniqueResult();
+            op.done(stored != null ? 1 : 0);
+            return stored != null ? stored.toMessage() : null;
+        }
+    }
+
+    /**
+     * Повертає повідомлення всіх груп користувача, новіші за його курсор доставки,
+     * одним запитом з основної БД.
+     *
+     * @param username учасник
+     * @param limit максимальна кількість повідомлень
+     * @return повідомлення, упорядковані за групою та порядковим номером
+     */
+    public List<Message> getUndelivered(String username, int limit) {
+        try (Operation op = QueryProfiler.begin(UNDELIVERED).bind("username", username);
+             Session session = HibernateUtil.getSessionFactory().openSession()) {
+            List<Message> undelivered = session.createQuery(UNDELIVERED.statement(), GroupMessageEntity.class)
+                .setParameter("username", username)
+                .setMaxResults(limit)
+                .list().stream().map(GroupMessageEntity::toMessage).toList();
+            op.done(undelivered.size());
+            return undelivered;
+        }
+    }
+
+    /**
+     * @param groupId ідентифікатор групи
+     * @param principal користувач, що читає історію
+     * @param afterSeq останній відомий клієнту порядковий номер
+     * @param limit максимальна кількість повідомлень
+     * @return повідомлення, упорядковані за порядковим номером
+     */
+    public List<Message> getMessagesAfter(long groupId, String principal, long afterSeq, int limit) {
+        try (Operation op = QueryProfiler.begin(AFTER).bind("group", groupId).bind("after", afterSeq);
+             Session session = HibernateUtil.openReadSession(principal)) {
+            List<Message> newer = session.createQuery(AFTER.statement(), GroupMessageEntity.class)
+                .setParameter("group", groupId)
+                .setParameter("after", afterSeq)
+                .setMaxResults(limit)
+                .list().stream().map(GroupMessageEntity::toMessage).toList();
+            op.done(newer.size());
+            return newer;
+        }
+    }
+
+    /**
+     * @param groupId ідентифікатор групи
+     * @param principal користувач, що читає історію
+     * @param limit максимальна кількість повідомлень
+     * @return останні повідомлення, упорядковані за порядковим номером
+     */
+    public List<Message> getRecentMessages(long groupId, String principal, int limit) {
+        try (Operation op = QueryProfiler.begin(RECENT).bind("group", groupId);
+             Session session = HibernateUtil.openReadSession(principal)) {
+            List<Message> recent = new ArrayList<>(session.createQuery(RECENT.statement(), GroupMessageEntity.class)
+                .setParameter("group", groupId)
+                .setMaxResults(limit)
+                .list().stream().map(GroupMessageEntity::toMessage).toList());
+            Collections.reverse(recent);
+            op.done(recent.size());
+            return recent;
+        }
+    }
+
+    /**
+     * @param groupId ідентифікатор групи
+     * @param principal користувач, що читає історію
+     * @param beforeSeq верхня межа порядкового номера (не включно)
+     * @param limit максимальна кількість повідомлень
+     * @return сторінка повідомлень, упорядкована за порядковим номером
+     */
+    public List<Message> getMessagesBefore(long groupId, String principal, long beforeSeq, int limit) {
+        try (Operation op = QueryProfiler.begin(BEFORE).bind("group", groupId).bind("before", beforeSeq);
+             Session session = HibernateUtil.openReadSession(principal)) {
+            List<Message> page = new ArrayList<>(session.createQuery(BEFORE.statement(), GroupMessageEntity.class)
+                .setParameter("group", groupId)
+                .setParameter("before", beforeSeq)
+                .setMaxResults(limit)
+                .list().stream().map(GroupMessageEntity::toMessage).toList());
+            Collections.reverse(page);
+            op.done(page.size());
+            return page;
+        }
+    }
+
+    /**
+     * @param groupId ідентифікатор групи
+     * @return найбільший порядковий номер групи або 0
+     */
+    public long maxSeq(long groupId) {
+        try (Operation op = QueryProfiler.begin(MAX_SEQ).bind("group", groupId);
+             Session session = HibernateUtil.getSessionFactory().openSession()) {
+            Long max = session.createQuery(MAX_SEQ.statement(), Long.class)
+                .setParameter("group", groupId)
+                .getSingleResult();
+            op.done(1);
+            return max != null ? max : 0;
+        }
+    }
+
+    /**
+     * Пересуває курсори доставки користувача в кількох групах однією транзакцією.
+     * Курсор лише зростає: менше значення нічого не змінює.
+     *
+     * @param username учасник
+     * @param delivered група -> порядковий номер останнього доставленого повідомлення
+     */
+    public void advanceDelivered(String username, Map<Long, Long> delivered) {
+        if (delivered.isEmpty()) return;
+        try (Operation op = QueryProfiler.begin(ADVANCE_DELIVERED).bind("username", username);
+             Session session = HibernateUtil.getSessionFactory().openSession()) {
+            Transaction tx = session.beginTransaction();
+            int updated = 0;
+            for (Map.Entry<Long, Long> cursor : delivered.entrySet()) {
+                updated += session.createMutationQuery(ADVANCE_DELIVERED.statement())
+                    .setParameter("seq", cursor.getValue())
+                    .setParameter("group", cursor.getKey())
+                    .setParameter("username", username)
+                    .executeUpdate();
+            }
+            tx.commit();
+            HibernateUtil.recordWrite(username);
+            op.done(updated);
+        }
+    }
+
+    /**
+     * Пересуває курсор прочитання учасника (лише вперед).
+     *
+     * @param groupId ідентифікатор групи
+     * @param username учасник
+     * @param seq порядковий номер останнього прочитаного повідомлення
+     * @return true, якщо курсор змінився
+     */
+    public boolean advanceRead(long groupId, String username, long seq) {
+        try (Operation op = QueryProfiler.begin(ADVANCE_READ).bind("group", groupId).bind("username", username);
+             Session session = HibernateUtil.getSessionFactory().openSession()) {
+            Transaction tx = session.beginTransaction();
+            int updated = session.createMutationQuery(ADVANCE_READ.statement())
+                .setParameter("seq", seq)
+                .setParameter("group", groupId)
+                .setParameter("username", username)
+                .executeUpdate();
+            tx.commit();
+            HibernateUtil.recordWrite(username);
+            op.done(updated);
+            return updated > 0;
+        }
+    }
+
+    /**
+     * Видаляє членства та повідомлення груп, надіслані користувачем (видалення акаунта).
+     *
+     * @param username ім'я користувача
+     */
+    public void deleteUser(String username) {
+        try (Operation op = QueryProfiler.begin(DELETE_USER).bind("username", username);
+             Session session = HibernateUtil.getSessionFactory().openSession()) {
+            Transaction tx = session.beginTransaction();
+            int deleted = session.createMutationQuery("DELETE FROM GroupMemberEntity WHERE username = :username")
+                .setParameter("username", username)
+                .executeUpdate();
+            deleted += session.createMutationQuery("DELETE FROM GroupMessageEntity WHERE sender = :username")
+                .setParameter("username", username)
+                .executeUpdate();
+            tx.commit();
+            HibernateUtil.recordWrite(username);
+            op.done(deleted);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package nure.ua.database;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+
+/**
+ * Сутність, що представляє членство користувача в групі.
+ *
+ * Замість позначки доставки в кожному повідомленні учасник має два курсори —
+ * порядкові номери останнього доставленого та останнього прочитаного повідомлення групи.
+ * Тож одне повідомлення групи зберігається одним рядком незалежно від кількості учасників.
+ */
+@Entity
+@Table(name = "group_members",
+    uniqueConstraints = @UniqueConstraint(name = "uk_group_members", columnNames = {"group_id", "username"}),
+    indexes = @Index(name = "idx_group_members_user", columnList = "username"))
+public class GroupMemberEntity {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "group_members_seq")
+    @SequenceGenerator(name = "group_members_seq", sequenceName = "group_members_seq", allocationSize = 50)
+    @Column(name = "id", nullable = false)
+    private Long id;
+
+    @Column(name = "group_id", nullable = false)
+    private long groupId;
+    @Column(nullable = false)
+    private String username;
+    @Column(name = "joined_at")
+    private LocalDateTime joinedAt;
+    @Column(name = "delivered_seq", nullable = false)
+    private long deliveredSeq;
+    @Column(name = "read_seq", nullable = false)
+    private long readSeq;
+
+    /**
+     * Конструктор без параметрів для Hibernate.
+     */
+    public GroupMemberEntity() {}
+
+    /**
+     * @param groupId ідентифікатор групи
+     * @param username учасник
+     * @param joinedAt час вступу
+     * @param startSeq порядковий номер, з якого учаснику доставляються повідомлення (не включно)
+     */
+    public GroupMemberEntity(long groupId, String username, LocalDateTime joinedAt, long startSeq) {
+        this.groupId = groupId;
+        this.username = username;
+        this.joinedAt = joinedAt;
+        this.deliveredSeq = startSeq;
+        this.readSeq = startSeq;
+    }
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public long getGroupId() { return groupId; }
+    public void setGroupId(long groupId) { this.groupId = groupId; }
+
+    public String getUsername() { return username; }
+    public void setUsername(String username) { this.username = username; }
+
+    public LocalDateTime getJoinedAt() { return joinedAt; }
+    public void setJoinedAt(LocalDateTime joinedAt) { this.joinedAt = joinedAt; }
+
+    public long getDeliveredSeq() { return deliveredSeq; }
+    public void setDeliveredSeq(long deliveredSeq) { this.deliveredSeq = deliveredSeq; }
+
+    public long getReadSeq() { return readSeq; }
+    public void setReadSeq(long readSeq) { this.readSeq = readSeq; }
+}
@@ -0,0 +1,122 @@
+package nure.ua.database;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import nure.ua.common.Message;
+import nure.ua.common.MessageType;
+
+/**
+ * Сутність, що представляє повідомлення групового чату — один рядок на повідомлення
+ * для всіх учасників групи. Статус доставки кожного учасника визначається його курсором
+ * ({@link GroupMemberEntity}), а не полем рядка.
+ */
+@Entity
+@Table(name = "group_messages",
+    indexes = @Index(name = "uk_group_messages_group_seq", columnList = "group_id, seq", unique = true),
+    uniqueConstraints = @UniqueConstraint(name = "uk_group_messages_client_key", columnNames = {"sender", "client_key"}))
+public class GroupMessageEntity {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "group_messages_seq")
+    @SequenceGenerator(name = "group_messages_seq", sequenceName = "group_messages_seq", allocationSize = 50)
+    @Column(name = "id", nullable = false)
+    private Long id;
+
+    @Column(name = "group_id", nullable = false)
+    private long groupId;
+    private String sender;
+    @Column(name = "message")
+    private String text;
+    private LocalDateTime timestamp;
+    private long seq;
+    @Column(name = "client_key")
+    private String clientKey;
+    @Column(name = "attachment_id", length = 64)
+    private String attachmentId;
+    @Column(name = "attachment_name")
+    private String attachmentName;
+    @Column(name = "attachment_size")
+    private Long attachmentSize;
+
+    /**
+     * Конструктор без параметрів для Hibernate.
+     */
+    public GroupMessageEntity() {}
+
+    /**
+     * @param groupId ідентифікатор групи
+     * @param sender відправник
+     * @param text текст
+     * @param timestamp час прийому сервером
+     * @param seq порядковий номер у групі
+     */
+    public GroupMessageEntity(long groupId, String sender, String text, LocalDateTime timestamp, long seq) {
+        this.groupId = groupId;
+        this.sender = sender;
+        this.text = text;
+        this.timestamp = timestamp;
+        this.seq = seq;
+    }
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public long getGroupId() { return groupId; }
+    public void setGroupId(long groupId) { this.groupId = groupId; }
+
+    public String getSender() { return sender; }
+    public void setSender(String sender) { this.sender = sender; }
+
+    public String getText() { return text; }
+    public void setText(String text) { this.text = text; }
+
+    public LocalDateTime getTimestamp() { return timestamp; }
+    public void setTimestamp(LocalDateTime timestamp) { this.timestamp = timestamp; }
+
+    public long getSeq() { return seq; }
+    public void setSeq(long seq) { this.seq = seq; }
+
+    public String getClientKey() { return clientKey; }
+    public void setClientKey(String clientKey) { this.clientKey = clientKey; }
+
+    public String getAttachmentId() { return attachmentId; }
+    public String getAttachmentName() { return attachmentName; }
+    public Long getAttachmentSize() { return attachmentSize; }
+
+    /**
+     * Копіює посилання на вкладення з повідомлення клієнта.
+     *
+     * @param msg повідомлення
+     */
+    public void setAttachmentOf(Message msg) {
+        this.attachmentId = msg.getAttachmentId();
+        this.attachmentName = msg.getAttachmentId() != null ? msg.getAttachmentName() : null;
+        this.attachmentSize = msg.getAttachmentId() != null ? msg.getAttachmentSize() : null;
+    }
+
+    /**
+     * Перетворює сутність на повідомлення групи для передачі клієнту.
+     *
+     * @return повідомлення типу GROUP_TEXT з ідентифікатором групи та порядковим номером
+     */
+    public Message toMessage() {
+        Message msg = new Message(sender, null, text, timestamp);
+        msg.setType(MessageType.GROUP_TEXT);
+        msg.setGroupId(groupId);
+        msg.setId(id != null ? id : 0);
+        msg.setSeq(seq);
+        msg.setClientKey(clientKey);
+        msg.setAttachmentId(attachmentId);
+        msg.setAttachmentName(attachmentName);
+        msg.setAttachmentSize(attachmentSize != null ? attachmentSize : 0);
+        return msg;
+    }
+}
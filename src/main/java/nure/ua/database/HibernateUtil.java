@@ -1,15 +1,48 @@
 package nure.ua.database;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 import org.hibernate.HibernateException;
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.generator.BeforeExecutionGenerator;
+import org.hibernate.generator.EventType;
 
 /**
  * Утилітний клас для створення та управління SessionFactory Hibernate.
  * Відповідає за ініціалізацію Hibernate за конфігураційним файлом.
+ *
+ * Якщо задано властивість chat.db.replicaUrl, додатково створюється SessionFactory
+ * для репліки лише для читання, а запити на читання маршрутизуються політикою
+ * {@link ReadRoutingPolicy}.
  */
 public class HibernateUtil {
+    private static final String CONFIG = "nure/ua/hibernate.cfg.xml";
+    private static final String REPLICA_URL = System.getProperty("chat.db.replicaUrl");
+    private static final boolean SHOW_SQL = Boolean.getBoolean("chat.db.showSql");      // Виводити SQL у консоль (для налагодження)
+    private static final long REPLICA_MAX_LAG_MILLIS = Long.getLong("chat.db.replicaMaxLagMillis", 2000);
+    private static final long LAG_PROBE_MILLIS = Long.getLong("chat.db.replicaLagProbeMillis", 1000);
+    // Репліка, що відтворила все отримане, не відстає, навіть якщо основна БД давно нічого не записувала
+    private static final String LAG_QUERY =
+        "SELECT CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0"
+        + " ELSE COALESCE(EXTRACT(EPOCH FROM (now() - pg_last_xact_replay_timestamp())) * 1000, 0) END";
+
     private static final SessionFactory sessionFactory = buildSessionFactory();
+    private static final SessionFactory replicaSessionFactory = buildReplicaSessionFactory();
+    // Вимір відставання старіший за вікно read-your-writes уже нічого не гарантує
+    private static final ReadRoutingPolicy readPolicy =
+        new ReadRoutingPolicy(REPLICA_MAX_LAG_MILLIS, Math.min(LAG_PROBE_MILLIS * 3, REPLICA_MAX_LAG_MILLIS));
+
+    static {
+        if (replicaSessionFactory != null) {
+            startLagProbe();
+        }
+    }
 
     /**
      * Створює інстанцію SessionFactory, використовуючи конфігураційний файл.
@@ -19,12 +52,67 @@ public class HibernateUtil {
      */
     private static SessionFactory buildSessionFactory() {
         try {
-            return new Configuration().configure("nure/ua/hibernate.cfg.xml").buildSessionFactory();
+            return configuration().buildSessionFactory();
         } catch (HibernateException ex) {
             throw new ExceptionInInitializerError(ex);
         }
     }
 
+    /**
+     * Читає конфігураційний файл. Виведення SQL у консоль вимкнене в конфігурації
+     * і вмикається властивістю chat.db.showSql.
+     *
+     * @return конфігурація Hibernate
+     */
+    private static Configuration configuration() {
+        Configuration configuration = new Configuration().configure(CONFIG);
+        if (SHOW_SQL) {
+            configuration.setProperty("hibernate.show_sql", "true");
+            configuration.setProperty("hibernate.format_sql", "true");
+        }
+        return configuration;
+    }
+
+    /**
+     * Створює SessionFactory для репліки на основі основної конфігурації з іншим URL.
+     * Схема репліки не змінюється, а помилка підключення лише вимикає маршрутизацію.
+     *
+     * @return SessionFactory репліки або null, якщо репліка не налаштована чи недоступна
+     */
+    private static SessionFactory buildReplicaSessionFactory() {
+        if (REPLICA_URL == null || REPLICA_URL.isBlank()) return null;
+        try {
+            return configuration()
+                .setProperty("hibernate.connection.url", REPLICA_URL)
+                .setProperty("hibernate.hbm2ddl.auto", "none")
+                .buildSessionFactory();
+        } catch (HibernateException ex) {
+            System.err.println("Read replica disabled: " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Запускає фоновий потік, що періодично вимірює відставання репліки.
+     */
+    private static void startLagProbe() {
+        ScheduledExecutorService probe = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "replica-lag-probe");
+            t.setDaemon(true);
+            return t;
+        });
+        probe.scheduleWithFixedDelay(HibernateUtil::probeReplicaLag, 0, LAG_PROBE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private static void probeReplicaLag() {
+        try (Session session = replicaSessionFactory.openSession()) {
+            Number lag = (Number) session.createNativeQuery(LAG_QUERY, Object.class).getSingleResult();
+            readPolicy.updateReplicaLag(lag.longValue());
+        } catch (RuntimeException ex) {
+            readPolicy.updateReplicaLag(Long.MAX_VALUE);
+        }
+    }
+
     /**
      * Повертає SessionFactory для створення сесій.
      *
@@ -34,10 +122,55 @@ public class HibernateUtil {
         return sessionFactory;
     }
 
+    /**
+     * Відкриває сесію лише для читання: на репліці, якщо це дозволяє політика, інакше на основній БД.
+     *
+     * @param principal користувач, для якого виконується читання (null — довідкові запити)
+     * @return сесія з режимом read-only за замовчуванням
+     */
+    public static Session openReadSession(String principal) {
+        SessionFactory factory = replicaSessionFactory != null && readPolicy.useReplica(principal)
+            ? replicaSessionFactory
+            : sessionFactory;
+        Session session = factory.openSession();
+        session.setDefaultReadOnly(true);
+        return session;
+    }
+
+    /**
+     * Фіксує запис, що стосується користувача, для гарантії read-your-writes.
+     *
+     * @param principal ім'я користувача
+     */
+    public static void recordWrite(String principal) {
+        readPolicy.recordWrite(principal);
+    }
+
+    /**
+     * Бере ідентифікатор для сутності з її генератора (пулу значень послідовності),
+     * не вставляючи рядок — для умовних вставок нативним запитом.
+     *
+     * @param session сесія, у якій буде вставка
+     * @param entity сутність
+     * @return новий ідентифікатор
+     */
+    static Long nextId(StatelessSession session, Object entity) {
+        SharedSessionContractImplementor s = (SharedSessionContractImplementor) session;
+        BeforeExecutionGenerator ids = (BeforeExecutionGenerator) s.getFactory()
+            .getMappingMetamodel().getEntityDescriptor(entity.getClass()).getGenerator();
+        return (Long) ids.generate(s, entity, null, EventType.INSERT);
+    }
+
+    /** @return політика маршрутизації читань */
+    public static ReadRoutingPolicy getReadPolicy() {
+        return readPolicy;
+    }
+
     /**
      * Закриває поточну SessionFactory.
      */
     public static void shutdown() {
         getSessionFactory().close();
+        if (replicaSessionFactory != null) replicaSessionFactory.close();
     }
 }
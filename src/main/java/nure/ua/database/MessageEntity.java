@@ -9,7 +9,11 @@ import jakarta.persistence.Enumerated;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import nure.ua.common.Message;
 import nure.ua.common.MessageType;
 
 /**
@@ -17,10 +21,13 @@ import nure.ua.common.MessageType;
  * Містить інформацію про відправника, отримувача, текст, час відправлення, тип та статус доставки.
  */
 @Entity
-@Table(name = "messages")
+@Table(name = "messages",
+    indexes = @Index(name = "idx_messages_conversation", columnList = "sender, receiver, seq"),
+    uniqueConstraints = @UniqueConstraint(name = "uk_messages_client_key", columnNames = {"sender", "client_key"}))
 public class MessageEntity {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "messages_seq")
+    @SequenceGenerator(name = "messages_seq", sequenceName = "messages_seq", allocationSize = 50)
     @Column(name = "id", nullable = false)
     private Long id;
     
@@ -33,6 +40,15 @@ public class MessageEntity {
     private boolean delivered = false;
     @Enumerated(EnumType.STRING)
     private MessageType type;
+    private Long seq;
+    @Column(name = "client_key")
+    private String clientKey;
+    @Column(name = "attachment_id", length = 64)
+    private String attachmentId;
+    @Column(name = "attachment_name")
+    private String attachmentName;
+    @Column(name = "attachment_size")
+    private Long attachmentSize;
 
     /**
      * Конструктор без параметрів для Hibernate.
@@ -71,5 +87,42 @@ public class MessageEntity {
 
     public MessageType getType() { return type; }
     public void setType(MessageType type) { this.type = type; }
+
+    public Long getSeq() { return seq; }
+    public void setSeq(Long seq) { this.seq = seq; }
+
+    public String getClientKey() { return clientKey; }
+    public void setClientKey(String clientKey) { this.clientKey = clientKey; }
+
+    public String getAttachmentId() { return attachmentId; }
+    public String getAttachmentName() { return attachmentName; }
+    public Long getAttachmentSize() { return attachmentSize; }
+
+    /**
+     * Копіює посилання на вкладення з повідомлення клієнта.
+     *
+     * @param msg повідомлення
+     */
+    public void setAttachmentOf(Message msg) {
+        this.attachmentId = msg.getAttachmentId();
+        this.attachmentName = msg.getAttachmentId() != null ? msg.getAttachmentName() : null;
+        this.attachmentSize = msg.getAttachmentId() != null ? msg.getAttachmentSize() : null;
+    }
+
+    /**
+     * Перетворює сутність на повідомлення для передачі клієнту.
+     *
+     * @return повідомлення з ідентифікатором та порядковим номером
+     */
+    public Message toMessage() {
+        Message msg = new Message(sender, receiver, text, timestamp);
+        msg.setId(id != null ? id : 0);
+        msg.setSeq(seq != null ? seq : 0);
+        msg.setClientKey(clientKey);
+        msg.setAttachmentId(attachmentId);
+        msg.setAttachmentName(attachmentName);
+        msg.setAttachmentSize(attachmentSize != null ? attachmentSize : 0);
+        return msg;
+    }
 }
 
@@ -1,7 +1,10 @@
 package nure.ua.database;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.hibernate.Session;
 import org.hibernate.Transaction;
@@ -9,31 +12,94 @@ import org.hibernate.query.Query;
 
 import nure.ua.common.Message;
 import nure.ua.common.MessageType;
+import nure.ua.database.QueryProfiler.Operation;
+import nure.ua.database.QueryProfiler.Shape;
 
 /**
  * Клас, який відповідає за збереження, отримання та оновлення повідомлень у базі даних.
  * Використовує Hibernate для взаємодії з таблицею повідомлень.
  */
 public class MessageManager {
+    private static final String CONVERSATION =
+        "(sender = :u1 AND receiver = :u2) OR (sender = :u2 AND receiver = :u1)";
 
-    public MessageManager() {}
+    private static final Shape INSERT = QueryProfiler.shape("insert",
+        "INSERT INTO messages ... ON CONFLICT DO NOTHING");
+    private static final Shape BY_CLIENT_KEY = QueryProfiler.shape("by_client_key",
+        "FROM MessageEntity WHERE sender = :sender AND clientKey = :key");
+    private static final Shape UNDELIVERED = QueryProfiler.shape("undelivered",
+        "FROM MessageEntity WHERE receiver = :username AND delivered = false");
+    private static final Shape MARK_DELIVERED = QueryProfiler.shape("mark_delivered",
+        "UPDATE MessageEntity SET delivered = true WHERE id IN (:ids)");
+    private static final Shape USER_HISTORY = QueryProfiler.shape("user_history",
+        "FROM MessageEntity WHERE sender = :username OR recipient = :username ORDER BY timestamp");
+    private static final Shape CONVERSATION_ALL = QueryProfiler.shape("conversation",
+        "FROM MessageEntity WHERE " + CONVERSATION + " ORDER BY timestamp");
+    private static final Shape CONVERSATION_AFTER = QueryProfiler.shape("conversation_after",
+        "FROM MessageEntity WHERE (" + CONVERSATION + ") AND seq > :after ORDER BY seq");
+    private static final Shape CONVERSATION_RECENT = QueryProfiler.shape("conversation_recent",
+        "FROM MessageEntity WHERE " + CONVERSATION + " ORDER BY seq DESC");
+    private static final Shape RESUME_CONVERSATION = QueryProfiler.shape("resume_conversation",
+        "FROM MessageEntity WHERE sender = :peer AND receiver = :username AND seq > :after ORDER BY seq");
+    private static final Shape RESUME_OTHERS = QueryProfiler.shape("resume_others",
+        "FROM MessageEntity WHERE receiver = :username AND delivered = false AND sender NOT IN (:peers) ORDER BY sender, seq");
+    private static final Shape CONVERSATION_BEFORE = QueryProfiler.shape("conversation_before",
+        "FROM MessageEntity WHERE (" + CONVERSATION + ") AND seq < :before ORDER BY seq DESC");
+    private static final Shape INIT_SEQ = QueryProfiler.shape("init_seq",
+        "SELECT MAX(seq) FROM MessageEntity WHERE " + CONVERSATION + ", numbering rows without seq after it");
+
+    private final MessageWriter writer;
+
+    public MessageManager() {
+        this.writer = new MessageWriter();
+    }
 
     /**
-     * Зберігає повідомлення у базі даних.
+     * Зберігає повідомлення у базі даних через швидкий шлях вставки без контексту персистентності.
+     * Якщо відправник уже має повідомлення з тим самим ключем ідемпотентності або порядковий
+     * номер у розмові вже зайнятий, рядок не вставляється.
      *
      * @param msg екземпляр повідомлення
+     * @return результат збереження
      */
     @SuppressWarnings("CallToPrintStackTrace")
-    public void saveMessage(MessageEntity msg) {
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            session.beginTransaction();
+    public SaveResult saveMessage(MessageEntity msg) {
+        try (Operation op = QueryProfiler.begin(INSERT)) {
             msg.setDelivered(false);
             msg.setType(MessageType.TEXT);
-            session.persist(msg);
-            session.getTransaction().commit();
+            boolean inserted = writer.insert(msg);
+            if (inserted) {
+                HibernateUtil.recordWrite(msg.getSender());
+                HibernateUtil.recordWrite(msg.getReceiver());
+            }
+            op.done(inserted ? 1 : 0);
+            return inserted ? SaveResult.SAVED : SaveResult.CONFLICT;
         } catch (Exception e) {
             System.err.println("Error saving message: " + e.getMessage());
             e.printStackTrace();
+            msg.setId(null);
+            return SaveResult.FAILED;
+        }
+    }
+
+    /**
+     * Шукає збережене повідомлення відправника за ключем ідемпотентності.
+     * Читає з основної БД, бо рядок міг щойно записати інший вузол кластера.
+     *
+     * @param sender відправник
+     * @param clientKey ключ ідемпотентності
+     * @return збережене повідомлення або null
+     */
+    public Message findByClientKey(String sender, String clientKey) {
+        if (clientKey == null) return null;
+        try (Operation op = QueryProfiler.begin(BY_CLIENT_KEY).bind("sender", sender).bind("key", clientKey);
+             Session session = HibernateUtil.getSessionFactory().openSession()) {
+            MessageEntity stored = session.createQuery(BY_CLIENT_KEY.statement(), MessageEntity.class)
+                .setParameter("sender", sender)
+                .setParameter("key", clientKey)
+                .uniqueResult();
+            op.done(stored != null ? 1 : 0);
+            return stored != null ? stored.toMessage() : null;
         }
     }
 
@@ -44,11 +110,13 @@ public class MessageManager {
      * @return список недоставлених повідомлень
      */
     public List<MessageEntity> getUndeliveredMessages(String username) {
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            Query<MessageEntity> query = session.createQuery(
-                "FROM MessageEntity WHERE receiver = :username AND delivered = false", MessageEntity.class);
+        try (Operation op = QueryProfiler.begin(UNDELIVERED).bind("username", username);
+             Session session = HibernateUtil.openReadSession(username)) {
+            Query<MessageEntity> query = session.createQuery(UNDELIVERED.statement(), MessageEntity.class);
             query.setParameter("username", username);
-            return query.list();
+            List<MessageEntity> undelivered = query.list();
+            op.done(undelivered.size());
+            return undelivered;
         }
     }
 
@@ -58,15 +126,27 @@ public class MessageManager {
      * @param messages список повідомлень
      */    
     public void markMessagesAsDelivered(List<MessageEntity> messages) {
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+        if (messages.isEmpty()) return;
+        markDeliveredByIds(messages.get(0).getReceiver(), messages.stream().map(MessageEntity::getId).toList());
+    }
+
+    /**
+     * Відмічає повідомлення з заданими ідентифікаторами як доставлені одним запитом.
+     *
+     * @param receiver отримувач повідомлень
+     * @param ids ідентифікатори повідомлень
+     */
+    public void markDeliveredByIds(String receiver, Collection<Long> ids) {
+        if (ids.isEmpty()) return;
+        try (Operation op = QueryProfiler.begin(MARK_DELIVERED).bind("ids", ids);
+             Session session = HibernateUtil.getSessionFactory().openSession()) {
             Transaction tx = session.beginTransaction();
-            for (MessageEntity msg : messages) {
-                MessageEntity m = session.find(MessageEntity.class, msg.getId());
-                if (m != null) {
-                    m.setDelivered(true);
-                }
-            }
+            int updated = session.createMutationQuery(MARK_DELIVERED.statement())
+                .setParameterList("ids", ids)
+                .executeUpdate();
             tx.commit();
+            HibernateUtil.recordWrite(receiver);
+            op.done(updated);
         }
     }
 
@@ -79,21 +159,15 @@ public class MessageManager {
     @SuppressWarnings("CallToPrintStackTrace")
     public List<Message> getMessagesForUser(String username) {
         List<Message> messages = new ArrayList<>();
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            String hql = "FROM MessageEntity WHERE sender = :username OR recipient = :username ORDER BY timestamp";
-            Query<MessageEntity> query = session.createQuery(hql, MessageEntity.class);
+        try (Operation op = QueryProfiler.begin(USER_HISTORY).bind("username", username);
+             Session session = HibernateUtil.openReadSession(username)) {
+            Query<MessageEntity> query = session.createQuery(USER_HISTORY.statement(), MessageEntity.class);
             query.setParameter("username", username);
             List<MessageEntity> results = query.list();
             for (MessageEntity entity : results) {
-                messages.add(new Message(
-                        entity.getSender(),
-                        entity.getReceiver(),
-                        entity.getText(),
-                        entity.getTimestamp()
-                ));
-
+                messages.add(entity.toMessage());
             }        
-
+            op.done(results.size());
         } catch (Exception e) {
             System.err.println("Error fetching message history: " + e.getMessage());
             e.printStackTrace();
@@ -109,16 +183,164 @@ public class MessageManager {
      * @return список повідомлень
      */
     public List<Message> getConversationBetween(String user1, String user2) {
+        try (Operation op = QueryProfiler.begin(CONVERSATION_ALL).bind("u1", user1).bind("u2", user2);
+             Session session = HibernateUtil.openReadSession(user1)) {
+            Query<MessageEntity> query = session.createQuery(CONVERSATION_ALL.statement(), MessageEntity.class);
+            query.setParameter("u1", user1);
+            query.setParameter("u2", user2);
+            List<Message> conversation = query.list().stream().map(MessageEntity::toMessage).toList();
+            op.done(conversation.size());
+            return conversation;
+        }
+    }
+
+    /**
+     * Отримує повідомлення розмови з порядковим номером більшим за заданий.
+     *
+     * @param user1 перший користувач
+     * @param user2 другий користувач
+     * @param afterSeq останній відомий клієнту порядковий номер
+     * @return список повідомлень, упорядкований за порядковим номером
+     */
+    public List<Message> getConversationAfter(String user1, String user2, long afterSeq) {
+        try (Operation op = QueryProfiler.begin(CONVERSATION_AFTER).bind("u1", user1).bind("u2", user2).bind("after", afterSeq);
+             Session session = HibernateUtil.openReadSession(user1)) {
+            Query<MessageEntity> query = session.createQuery(CONVERSATION_AFTER.statement(), MessageEntity.class);
+            query.setParameter("u1", user1);
+            query.setParameter("u2", user2);
+            query.setParameter("after", afterSeq);
+            List<Message> newer = query.list().stream().map(MessageEntity::toMessage).toList();
+            op.done(newer.size());
+            return newer;
+        }
+    }
+
+    /**
+     * Отримує останні повідомлення розмови.
+     *
+     * @param user1 перший користувач
+     * @param user2 другий користувач
+     * @param limit максимальна кількість повідомлень
+     * @return список повідомлень, упорядкований за порядковим номером
+     */
+    public List<Message> getRecentConversation(String user1, String user2, int limit) {
+        try (Operation op = QueryProfiler.begin(CONVERSATION_RECENT).bind("u1", user1).bind("u2", user2);
+             Session session = HibernateUtil.openReadSession(user1)) {
+            Query<MessageEntity> query = session.createQuery(CONVERSATION_RECENT.statement(), MessageEntity.class);
+            query.setParameter("u1", user1);
+            query.setParameter("u2", user2);
+            query.setMaxResults(limit);
+            List<Message> recent = new ArrayList<>(query.list().stream().map(MessageEntity::toMessage).toList());
+            Collections.reverse(recent);
+            op.done(recent.size());
+            return recent;
+        }
+    }
+
+    /**
+     * Отримує повідомлення, адресовані користувачу, які він міг не отримати через обрив з'єднання:
+     * у розмовах, звідки клієнт уже щось отримав, — новіші за його останній порядковий номер,
+     * від решти співрозмовників — ще не доставлені. Ідентифікатори видаються пулами і не
+     * відповідають порядку фіксації, тож продовження йде за порядковими номерами розмов.
+     * Читання йде на основну БД: репліка може ще не мати найновіших рядків.
+     *
+     * @param username отримувач
+     * @param lastSeqs співрозмовник -> найбільший отриманий від нього порядковий номер
+     * @param limit максимальна кількість повідомлень
+     * @return список повідомлень, упорядкований за порядковим номером у межах розмови
+     */
+    public List<Message> getResumable(String username, Map<String, Long> lastSeqs, int limit) {
+        List<Message> missed = new ArrayList<>();
         try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            String hql = "FROM MessageEntity WHERE " +
-                         " (sender = :u1 AND receiver = :u2) OR (sender = :u2 AND receiver = :u1) " +
-                         "ORDER BY timestamp";                    
-            Query<MessageEntity> query = session.createQuery(hql, MessageEntity.class);
+            for (Map.Entry<String, Long> last : lastSeqs.entrySet()) {
+                if (missed.size() >= limit) return missed;
+                try (Operation op = QueryProfiler.begin(RESUME_CONVERSATION).bind("peer", last.getKey()).bind("after", last.getValue())) {
+                    List<MessageEntity> newer = session.createQuery(RESUME_CONVERSATION.statement(), MessageEntity.class)
+                        .setParameter("peer", last.getKey())
+                        .setParameter("username", username)
+                        .setParameter("after", last.getValue())
+                        .setMaxResults(limit - missed.size())
+                        .list();
+                    newer.forEach(entity -> missed.add(entity.toMessage()));
+                    op.done(newer.size());
+                }
+            }
+            if (missed.size() >= limit) return missed;
+
+            try (Operation op = QueryProfiler.begin(RESUME_OTHERS).bind("username", username)) {
+                // Порожній список у NOT IN недопустимий: без відомих розмов беруться всі недоставлені
+                String statement = lastSeqs.isEmpty() ? UNDELIVERED.statement() + " ORDER BY sender, seq" : RESUME_OTHERS.statement();
+                Query<MessageEntity> query = session.createQuery(statement, MessageEntity.class);
+                query.setParameter("username", username);
+                if (!lastSeqs.isEmpty()) query.setParameterList("peers", lastSeqs.keySet());
+                query.setMaxResults(limit - missed.size());
+                List<MessageEntity> undelivered = query.list();
+                undelivered.forEach(entity -> missed.add(entity.toMessage()));
+                op.done(undelivered.size());
+            }
+        }
+        return missed;
+    }
+
+    /**
+     * Отримує сторінку повідомлень розмови, старіших за заданий порядковий номер.
+     *
+     * @param user1 перший користувач
+     * @param user2 другий користувач
+     * @param beforeSeq верхня межа порядкового номера (не включно)
+     * @param limit максимальна кількість повідомлень
+     * @return список повідомлень, упорядкований за порядковим номером
+     */
+    public List<Message> getConversationBefore(String user1, String user2, long beforeSeq, int limit) {
+        try (Operation op = QueryProfiler.begin(CONVERSATION_BEFORE).bind("u1", user1).bind("u2", user2).bind("before", beforeSeq);
+             Session session = HibernateUtil.openReadSession(user1)) {
+            Query<MessageEntity> query = session.createQuery(CONVERSATION_BEFORE.statement(), MessageEntity.class);
             query.setParameter("u1", user1);
             query.setParameter("u2", user2);
-            return query.list().stream().map(e -> new Message(
-                    e.getSender(), e.getReceiver(), e.getText(), e.getTimestamp()
-            )).toList();
+            query.setParameter("before", beforeSeq);
+            query.setMaxResults(limit);
+            List<Message> page = new ArrayList<>(query.list().stream().map(MessageEntity::toMessage).toList());
+            Collections.reverse(page);
+            op.done(page.size());
+            return page;
+        }
+    }
+
+    /**
+     * Готує розмову до видачі порядкових номерів: повідомлення, збережені до появи
+     * порядкових номерів, отримують номери після найбільшого наявного (за часом).
+     * Уже призначені номери не змінюються. Читання та оновлення завжди йдуть на основну БД.
+     *
+     * @param user1 перший користувач
+     * @param user2 другий користувач
+     * @return найбільший порядковий номер або 0, якщо повідомлень немає
+     */
+    public long initConversationSeq(String user1, String user2) {
+        try (Operation op = QueryProfiler.begin(INIT_SEQ).bind("u1", user1).bind("u2", user2);
+             Session session = HibernateUtil.getSessionFactory().openSession()) {
+            Transaction tx = session.beginTransaction();
+            Long max = session.createQuery(
+                "SELECT MAX(seq) FROM MessageEntity WHERE " + CONVERSATION, Long.class)
+                .setParameter("u1", user1)
+                .setParameter("u2", user2)
+                .getSingleResult();
+            long seq = max != null ? max : 0;
+
+            List<MessageEntity> unnumbered = session.createQuery(
+                "FROM MessageEntity WHERE (" + CONVERSATION + ") AND seq IS NULL ORDER BY timestamp, id", MessageEntity.class)
+                .setParameter("u1", user1)
+                .setParameter("u2", user2)
+                .list();
+            for (MessageEntity entity : unnumbered) {
+                entity.setSeq(++seq);
+            }
+            tx.commit();
+            if (!unnumbered.isEmpty()) {
+                HibernateUtil.recordWrite(user1);
+                HibernateUtil.recordWrite(user2);
+            }
+            op.done(unnumbered.size() + 1);
+            return seq;
         }
     }
 
@@ -0,0 +1,163 @@
+package nure.ua.database;
+
+import java.util.List;
+
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+
+/**
+ * Швидкий шлях вставки повідомлень у БД.
+ * Використовує одну довготривалу StatelessSession: без контексту персистентності
+ * та перевірки "брудних" полів. Ідентифікатори беруться з послідовності з
+ * пулом значень, тому вставки групуються в JDBC-батчі, а оператор INSERT
+ * готується драйвером один раз на з'єднання та перевикористовується.
+ *
+ * Окремі повідомлення та повідомлення з ключем ідемпотентності вставляються умовно
+ * (ON CONFLICT DO NOTHING): рядок не вставляється, якщо відправник уже має повідомлення
+ * з тим самим ключем (повторне надсилання після перезапуску чи на іншому вузлі кластера)
+ * або якщо порядковий номер у розмові вже зайнятий (два вузли вважали себе власниками розмови).
+ */
+public class MessageWriter {
+    private static final int ALLOCATION_SIZE = 50;   // Має збігатися з allocationSize у MessageEntity
+    private static final String ALIGN_SEQUENCE_SQL =
+        "SELECT setval('messages_seq', (SELECT COALESCE(MAX(id), 0) FROM messages) + " + (ALLOCATION_SIZE + 1) + ", false) " +
+        "WHERE (SELECT last_value FROM messages_seq) <= (SELECT COALESCE(MAX(id), 0) FROM messages)";
+    private static final String INSERT_IF_ABSENT_SQL =
+        "INSERT INTO messages (id, sender, receiver, message, timestamp, delivered, type, seq, client_key, " +
+        "attachment_id, attachment_name, attachment_size) " +
+        "VALUES (:id, :sender, :receiver, :text, :timestamp, :delivered, :type, :seq, :clientKey, " +
+        ":attachmentId, :attachmentName, :attachmentSize) " +
+        "ON CONFLICT DO NOTHING";
+    private static final String CONVERSATION_SEQ_INDEX_SQL =
+        "CREATE UNIQUE INDEX IF NOT EXISTS uk_messages_conversation_seq " +
+        "ON messages (LEAST(sender, receiver), GREATEST(sender, receiver), seq)";
+
+    private StatelessSession session;
+
+    /**
+     * Створює шлях вставки, вирівнює послідовність ідентифікаторів з уже наявними рядками
+     * (таблиця могла заповнюватися раніше через IDENTITY-стовпець) і створює унікальний
+     * індекс номерів розмов (JPA не описує індекси за виразами, тож hbm2ddl його не створить).
+     */
+    public MessageWriter() {
+        alignSequence();
+        ensureConversationSeqIndex();
+    }
+
+    /**
+     * Вставляє одне повідомлення в окремій транзакції.
+     *
+     * @param msg повідомлення
+     * @return false, якщо ключ ідемпотентності відправника або порядковий номер уже зайнятий
+     */
+    public synchronized boolean insert(MessageEntity msg) {
+        StatelessSession s = session();
+        Transaction tx = s.beginTransaction();
+        try {
+            int inserted = insertIfAbsent(s, msg);
+            tx.commit();
+            return inserted == 1;
+        } catch (RuntimeException e) {
+            if (tx.isActive()) tx.rollback();
+            reset();
+            throw e;
+        }
+    }
+
+    /**
+     * Вставляє кілька повідомлень однією транзакцією; Hibernate групує їх у JDBC-батч.
+     * Повідомленням, ключ яких уже зайнятий, ідентифікатор не призначається;
+     * конфлікт номера в повідомленні без ключа перериває всю транзакцію.
+     *
+     * @param messages повідомлення
+     * @return кількість вставлених рядків
+     */
+    public synchronized int insertAll(List<MessageEntity> messages) {
+        StatelessSession s = session();
+        Transaction tx = s.beginTransaction();
+        try {
+            int inserted = 0;
+            for (MessageEntity msg : messages) {
+                if (msg.getClientKey() == null) {
+                    s.insert(msg);
+                    inserted++;
+                } else {
+                    inserted += insertIfAbsent(s, msg);
+                }
+            }
+            tx.commit();
+            return inserted;
+        } catch (RuntimeException e) {
+            if (tx.isActive()) tx.rollback();
+            reset();
+            throw e;
+        }
+    }
+
+    /**
+     * Закриває сесію та звільняє з'єднання.
+     */
+    public synchronized void close() {
+        reset();
+    }
+
+    /**
+     * Вставляє повідомлення, якщо його ключ ідемпотентності та порядковий номер ще вільні.
+     * Ідентифікатор береться з того самого генератора з пулом значень, що й для звичайних вставок.
+     *
+     * @return 1, якщо рядок вставлено, інакше 0
+     */
+    private static int insertIfAbsent(StatelessSession s, MessageEntity msg) {
+        msg.setId(HibernateUtil.nextId(s, msg));
+        int inserted = s.createNativeMutationQuery(INSERT_IF_ABSENT_SQL)
+            .setParameter("id", msg.getId())
+            .setParameter("sender", msg.getSender())
+            .setParameter("receiver", msg.getReceiver())
+            .setParameter("text", msg.getText())
+            .setParameter("timestamp", msg.getTimestamp())
+            .setParameter("delivered", msg.isDelivered())
+            .setParameter("type", msg.getType().name())
+            .setParameter("seq", msg.getSeq(), Long.class)
+            .setParameter("clientKey", msg.getClientKey())
+            .setParameter("attachmentId", msg.getAttachmentId(), String.class)
+            .setParameter("attachmentName", msg.getAttachmentName(), String.class)
+            .setParameter("attachmentSize", msg.getAttachmentSize(), Long.class)
+            .executeUpdate();
+        if (inserted == 0) msg.setId(null);
+        return inserted;
+    }
+
+    private StatelessSession session() {
+        if (session == null || !session.isOpen()) {
+            session = HibernateUtil.getSessionFactory().openStatelessSession();
+        }
+        return session;
+    }
+
+    private void reset() {
+        if (session != null && session.isOpen()) {
+            session.close();
+        }
+        session = null;
+    }
+
+    private static void ensureConversationSeqIndex() {
+        try (StatelessSession s = HibernateUtil.getSessionFactory().openStatelessSession()) {
+            Transaction tx = s.beginTransaction();
+            s.createNativeMutationQuery(CONVERSATION_SEQ_INDEX_SQL).executeUpdate();
+            tx.commit();
+        } catch (RuntimeException e) {
+            System.err.println("Failed to create unique conversation seq index: " + e.getMessage());
+        }
+    }
+
+    private static void alignSequence() {
+        try (StatelessSession s = HibernateUtil.getSessionFactory().openStatelessSession()) {
+            Transaction tx = s.beginTransaction();
+            s.createNativeQuery(ALIGN_SEQUENCE_SQL, Object.class).list();
+            tx.commit();
+        } catch (RuntimeException e) {
+            System.err.println("Failed to align message id sequence: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package nure.ua.database;
+
+import java.util.Collection;
+
+import nure.ua.jfr.DbOperationEvent;
+import nure.ua.metrics.Counter;
+import nure.ua.metrics.LatencyHistogram;
+import nure.ua.metrics.Metrics;
+
+/**
+ * Профілювання операцій з БД за формою запиту.
+ *
+ * Кожна операція описується сталою формою ({@link Shape}): назвою та текстом запиту
+ * з іменованими параметрами. Для форми ведуться гістограма тривалості
+ * (chat_db_op_seconds), гістограма кількості рядків (chat_db_rows) та лічильник
+ * помилок (chat_db_errors_total); також записується подія JFR {@link DbOperationEvent}.
+ *
+ * Операції, довші за chat.db.slowMillis, виводяться в лог разом із текстом запиту.
+ * Значення параметрів у лог не потрапляють: замість них виводиться лише тип
+ * (і довжина для рядків та списків), бо там можуть бути імена користувачів і тексти.
+ */
+public final class QueryProfiler {
+    private static final long SLOW_MICROS = Long.getLong("chat.db.slowMillis", 200) * 1000;   // Від'ємне — без логу
+    private static final int MAX_BINDS = 4;
+
+    private QueryProfiler() {}
+
+    /**
+     * Реєструє форму запиту. Викликається один раз для статичного поля.
+     *
+     * @param name коротка назва операції (мітка op у метриках)
+     * @param statement текст запиту з іменованими параметрами
+     * @return форма запиту
+     */
+    public static Shape shape(String name, String statement) {
+        return new Shape(name, statement);
+    }
+
+    /**
+     * Починає вимірювання операції. Використовується в try-with-resources;
+     * операція, для якої не викликано {@link Operation#done(int)}, рахується як помилка.
+     *
+     * @param shape форма запиту
+     * @return операція
+     */
+    public static Operation begin(Shape shape) {
+        return new Operation(shape);
+    }
+
+    /**
+     * Форма запиту: назва, текст і зібрані для неї метрики.
+     */
+    public static final class Shape {
+        private final String name;
+        private final String statement;
+        private final LatencyHistogram latency;
+        private final LatencyHistogram rows;
+        private final Counter errors;
+
+        private Shape(String name, String statement) {
+            this.name = name;
+            this.statement = statement;
+            this.latency = Metrics.timer("chat_db_op_seconds", "Database operation latency", "op", name);
+            this.rows = Metrics.distribution("chat_db_rows", "Rows returned or affected by a database operation", "op", name);
+            this.errors = Metrics.counter("chat_db_errors_total", "Failed database operations", "op", name);
+        }
+
+        /** @return текст запиту */
+        public String statement() {
+            return statement;
+        }
+
+        /** @return назва операції */
+        public String name() {
+            return name;
+        }
+    }
+
+    /**
+     * Одна операція з БД у межах форми.
+     */
+    public static final class Operation implements AutoCloseable {
+        private final Shape shape;
+        private final long start = System.nanoTime();
+        private final DbOperationEvent event = new DbOperationEvent();
+        private final String[] bindNames = new String[MAX_BINDS];
+        private final Object[] bindValues = new Object[MAX_BINDS];
+        private int binds;
+        private int rows = -1;                  // -1 — операцію не завершено (виняток)
+
+        private Operation(Shape shape) {
+            this.shape = shape;
+            event.begin();
+        }
+
+        /**
+         * Запам'ятовує параметр для логу повільних операцій (у лог потрапляє лише його тип).
+         *
+         * @param name назва параметра
+         * @param value значення
+         * @return ця операція
+         */
+        public Operation bind(String name, Object value) {
+            if (binds < MAX_BINDS) {
+                bindNames[binds] = name;
+                bindValues[binds] = value;
+                binds++;
+            }
+            return this;
+        }
+
+        /**
+         * Позначає операцію успішною.
+         *
+         * @param rows кількість повернених або змінених рядків
+         */
+        public void done(int rows) {
+            this.rows = Math.max(0, rows);
+        }
+
+        @Override
+        public void close() {
+            long micros = (System.nanoTime() - start) / 1000;
+            shape.latency.record(micros);
+            if (rows >= 0) {
+                shape.rows.record(rows);
+            } else {
+                shape.errors.inc();
+            }
+            event.finish(shape.name);
+            if (SLOW_MICROS >= 0 && micros >= SLOW_MICROS) {
+                System.out.println(describe(micros));
+            }
+        }
+
+        private String describe(long micros) {
+            StringBuilder sb = new StringBuilder("Slow DB operation ").append(shape.name)
+                .append(String.format(": %.1f ms, ", micros / 1000.0))
+                .append(rows >= 0 ? rows + " rows" : "failed")
+                .append("; ").append(shape.statement);
+            if (binds > 0) {
+                sb.append(" [");
+                for (int i = 0; i < binds; i++) {
+                    if (i > 0) sb.append(", ");
+                    sb.append(bindNames[i]).append('=').append(redact(bindValues[i]));
+                }
+                sb.append(']');
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * @param value значення параметра
+     * @return опис значення без самого значення
+     */
+    static String redact(Object value) {
+        if (value == null) return "null";
+        if (value instanceof CharSequence s) return "string(" + s.length() + ")";
+        if (value instanceof Collection<?> c) return "list(" + c.size() + ")";
+        return value.getClass().getSimpleName().toLowerCase();
+    }
+}
@@ -0,0 +1,79 @@
+package nure.ua.database;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Політика маршрутизації запитів на читання між основною БД та реплікою.
+ * Читання йде на репліку лише тоді, коли її відставання відоме й не перевищує
+ * допустимого, а користувач (principal) не записував нічого протягом цього
+ * проміжку — так зберігається гарантія "read-your-writes".
+ *
+ * Клас не залежить від Hibernate, тому його можна перевіряти з будь-якими
+ * двома екземплярами БД або зі штучними значеннями відставання.
+ */
+public class ReadRoutingPolicy {
+    private static final int PRUNE_THRESHOLD = 10_000;
+
+    private final long maxLagMillis;
+    private final long lagStaleAfterMillis;
+    private final Map<String, Long> lastWrites = new ConcurrentHashMap<>();
+
+    private volatile long replicaLagMillis = Long.MAX_VALUE;
+    private volatile long lagMeasuredAt;
+
+    /**
+     * @param maxLagMillis максимально допустиме відставання репліки, мс
+     * @param lagStaleAfterMillis через скільки мс вимір відставання вважається застарілим
+     */
+    public ReadRoutingPolicy(long maxLagMillis, long lagStaleAfterMillis) {
+        this.maxLagMillis = maxLagMillis;
+        this.lagStaleAfterMillis = lagStaleAfterMillis;
+    }
+
+    /**
+     * Фіксує запис, що стосується користувача: його читання тимчасово йдуть на основну БД.
+     *
+     * @param principal ім'я користувача
+     */
+    public void recordWrite(String principal) {
+        if (principal == null) return;
+        long now = System.currentTimeMillis();
+        lastWrites.put(principal, now);
+        if (lastWrites.size() > PRUNE_THRESHOLD) {
+            lastWrites.values().removeIf(time -> now - time > maxLagMillis);
+        }
+    }
+
+    /**
+     * Оновлює виміряне відставання репліки.
+     *
+     * @param lagMillis відставання в мс (Long.MAX_VALUE — невідоме)
+     */
+    public void updateReplicaLag(long lagMillis) {
+        this.replicaLagMillis = lagMillis;
+        this.lagMeasuredAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Визначає, чи можна виконати читання для користувача на репліці.
+     *
+     * @param principal ім'я користувача або null для загальних довідкових запитів
+     * @return true, якщо читання можна направити на репліку
+     */
+    public boolean useReplica(String principal) {
+        long now = System.currentTimeMillis();
+        if (replicaLagMillis > maxLagMillis || now - lagMeasuredAt > lagStaleAfterMillis) {
+            return false;
+        }
+        if (principal == null) return true;
+
+        Long lastWrite = lastWrites.get(principal);
+        return lastWrite == null || now - lastWrite > maxLagMillis;
+    }
+
+    /** @return останнє виміряне відставання репліки, мс */
+    public long getReplicaLagMillis() {
+        return replicaLagMillis;
+    }
+}
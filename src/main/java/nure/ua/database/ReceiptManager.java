@@ -0,0 +1,87 @@
+package nure.ua.database;
+
+import java.util.List;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+import nure.ua.database.QueryProfiler.Operation;
+import nure.ua.database.QueryProfiler.Shape;
+
+/**
+ * Клас, який відповідає за квитанції особистих розмов у базі даних:
+ * по одному курсору отримання та прочитання на користувача й розмову.
+ */
+public class ReceiptManager {
+    private static final Shape SAVE = QueryProfiler.shape("receipt_save",
+        "INSERT INTO conversation_cursors (id, username, peer, delivered_seq, read_seq)" +
+        " VALUES (nextval('conversation_cursors_seq'), :username, :peer, :delivered, :read)" +
+        " ON CONFLICT (username, peer) DO UPDATE SET" +
+        " delivered_seq = GREATEST(conversation_cursors.delivered_seq, EXCLUDED.delivered_seq)," +
+        " read_seq = GREATEST(conversation_cursors.read_seq, EXCLUDED.read_seq)");
+    private static final Shape OF_PEER = QueryProfiler.shape("receipts_of_peer",
+        "FROM ConversationCursorEntity WHERE peer = :username");
+    private static final Shape DELETE_USER = QueryProfiler.shape("receipts_delete_user",
+        "DELETE FROM ConversationCursorEntity WHERE username = :username OR peer = :username");
+
+    /**
+     * Записує курсори однією транзакцією. Курсори лише пересуваються вперед,
+     * тож запізнілий запис не відкотить новіше значення.
+     *
+     * @param cursors курсори, що змінилися
+     */
+    public void saveCursors(List<ConversationCursorEntity> cursors) {
+        if (cursors.isEmpty()) return;
+        try (Operation op = QueryProfiler.begin(SAVE).bind("cursors", cursors.size());
+             Session session = HibernateUtil.getSessionFactory().openSession()) {
+            Transaction tx = session.beginTransaction();
+            int updated = 0;
+            for (ConversationCursorEntity cursor : cursors) {
+                updated += session.createNativeMutationQuery(SAVE.statement())
+                    .setParameter("username", cursor.getUsername())
+                    .setParameter("peer", cursor.getPeer())
+                    .setParameter("delivered", cursor.getDeliveredSeq())
+                    .setParameter("read", cursor.getReadSeq())
+                    .executeUpdate();
+            }
+            tx.commit();
+            for (ConversationCursorEntity cursor : cursors) {
+                HibernateUtil.recordWrite(cursor.getPeer());    // Курсори читає співрозмовник під час входу
+            }
+            op.done(updated);
+        }
+    }
+
+    /**
+     * @param username користувач
+     * @return курсори співрозмовників користувача — наскільки вони отримали та прочитали його повідомлення
+     */
+    public List<ConversationCursorEntity> getCursorsOf(String username) {
+        try (Operation op = QueryProfiler.begin(OF_PEER).bind("username", username);
+             Session session = HibernateUtil.openReadSession(username)) {
+            List<ConversationCursorEntity> cursors = session.createQuery(OF_PEER.statement(), ConversationCursorEntity.class)
+                .setParameter("username", username)
+                .list();
+            op.done(cursors.size());
+            return cursors;
+        }
+    }
+
+    /**
+     * Видаляє курсори розмов користувача (видалення акаунта).
+     *
+     * @param username ім'я користувача
+     */
+    public void deleteUser(String username) {
+        try (Operation op = QueryProfiler.begin(DELETE_USER).bind("username", username);
+             Session session = HibernateUtil.getSessionFactory().openSession()) {
+            Transaction tx = session.beginTransaction();
+            int deleted = session.createMutationQuery(DELETE_USER.statement())
+                .setParameter("username", username)
+                .executeUpdate();
+            tx.commit();
+            HibernateUtil.recordWrite(username);
+            op.done(deleted);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package nure.ua.database;
+
+/**
+ * Результат умовного збереження повідомлення.
+ */
+public enum SaveResult {
+    /** Рядок вставлено. */
+    SAVED,
+    /** Рядок не вставлено: ключ ідемпотентності відправника або порядковий номер уже зайнятий. */
+    CONFLICT,
+    /** Збереження не вдалося (помилка БД). */
+    FAILED
+}
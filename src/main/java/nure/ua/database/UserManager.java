@@ -6,11 +6,22 @@ import java.util.List;
 import org.hibernate.Session;
 import org.mindrot.jbcrypt.BCrypt;
 
+import nure.ua.database.QueryProfiler.Operation;
+import nure.ua.database.QueryProfiler.Shape;
+import nure.ua.jfr.PasswordHashEvent;
+
 /**
  * Клас, що відповідає за автентифікацію та управління користувачами.
  * Дозволяє реєстрацію, перевірку існування користувача, отримання списку користувачів та їх видалення.
  */
 public class UserManager {
+    private static final Shape USER_GET = QueryProfiler.shape("user_get", "session.get(UserEntity, :username)");
+    private static final Shape USER_INSERT = QueryProfiler.shape("user_insert",
+        "session.get(UserEntity, :username); session.persist(UserEntity)");
+    private static final Shape USER_EXISTS = QueryProfiler.shape("user_exists", "session.get(UserEntity, :username)");
+    private static final Shape USER_LIST = QueryProfiler.shape("user_list", "SELECT u.username FROM UserEntity u");
+    private static final Shape USER_DELETE = QueryProfiler.shape("user_delete",
+        "session.get(UserEntity, :username); session.remove(UserEntity)");
 
     /**
      * Перевіряє правильність логіну та паролю користувача.
@@ -20,10 +31,13 @@ public class UserManager {
      * @return true, якщо автентифікація успішна, інакше false
      */   
     public static boolean authenticate(String username, String password) {
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            UserEntity user = session.get(UserEntity.class, username);
-            return user != null && BCrypt.checkpw(password, user.getPasswordHash());
+        UserEntity user;
+        try (Operation op = QueryProfiler.begin(USER_GET).bind("username", username);
+             Session session = HibernateUtil.openReadSession(username)) {
+            user = session.get(UserEntity.class, username);
+            op.done(user != null ? 1 : 0);
         }
+        return user != null && checkPassword(password, user.getPasswordHash());
     }
 
     /**
@@ -35,22 +49,77 @@ public class UserManager {
      */
     @SuppressWarnings("CallToPrintStackTrace")
     public static boolean register(String username, String password) {
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+        String hash = hashPassword(password);
+        try (Operation op = QueryProfiler.begin(USER_INSERT).bind("username", username);
+             Session session = HibernateUtil.getSessionFactory().openSession()) {
             session.beginTransaction();
             UserEntity existing = session.get(UserEntity.class, username);
-            if (existing != null) return false;
-
-            String hash = BCrypt.hashpw(password, BCrypt.gensalt());
+            if (existing != null) {
+                op.done(0);
+                return false;
+            }
 
             session.persist(new UserEntity(username, hash, LocalDateTime.now()));
 
             session.getTransaction().commit();
+            HibernateUtil.recordWrite(username);
+            op.done(1);
             return true;
         } catch (Exception e) {
             e.printStackTrace();
             return false;
-        }   
-    
+        }
+    }
+
+    /**
+     * Перевіряє пароль за BCrypt-хешем і записує тривалість перевірки подією JFR.
+     *
+     * @param password пароль
+     * @param hash збережений хеш
+     * @return true, якщо пароль збігається
+     */
+    private static boolean checkPassword(String password, String hash) {
+        PasswordHashEvent event = new PasswordHashEvent();
+        event.begin();
+        boolean matches = BCrypt.checkpw(password, hash);
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = "check";
+            event.cost = costOf(hash);
+            event.commit();
+        }
+        return matches;
+    }
+
+    /**
+     * Обчислює BCrypt-хеш нового пароля і записує тривалість подією JFR.
+     *
+     * @param password пароль
+     * @return хеш пароля
+     */
+    private static String hashPassword(String password) {
+        PasswordHashEvent event = new PasswordHashEvent();
+        event.begin();
+        String hash = BCrypt.hashpw(password, BCrypt.gensalt());
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = "hash";
+            event.cost = costOf(hash);
+            event.commit();
+        }
+        return hash;
+    }
+
+    /**
+     * @param hash хеш у форматі $2a$NN$...
+     * @return кількість раундів (log2) або -1, якщо формат невідомий
+     */
+    private static int costOf(String hash) {
+        try {
+            return Integer.parseInt(hash.substring(4, 6));
+        } catch (RuntimeException e) {
+            return -1;
+        }
     }
 
     /**
@@ -60,8 +129,10 @@ public class UserManager {
      * @return true, якщо користувач існує
      */
     public static boolean userExists(String username) {
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+        try (Operation op = QueryProfiler.begin(USER_EXISTS).bind("username", username);
+             Session session = HibernateUtil.openReadSession(username)) {
             UserEntity user = session.get(UserEntity.class, username);
+            op.done(user != null ? 1 : 0);
             return user != null;
         }
     }
@@ -72,9 +143,11 @@ public class UserManager {
      * @return список імен користувачів
      */
     public static List<String> getAllUsernames() {
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-           return session.createQuery("SELECT u.username FROM UserEntity u", String.class)
-                         .getResultList();
+        try (Operation op = QueryProfiler.begin(USER_LIST);
+             Session session = HibernateUtil.openReadSession(null)) {
+            List<String> usernames = session.createQuery(USER_LIST.statement(), String.class).getResultList();
+            op.done(usernames.size());
+            return usernames;
         }
     }
 
@@ -84,11 +157,14 @@ public class UserManager {
      * @param username ім’я користувача
      */
     public static void deleteUser(String username) {
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+        try (Operation op = QueryProfiler.begin(USER_DELETE).bind("username", username);
+             Session session = HibernateUtil.getSessionFactory().openSession()) {
             session.beginTransaction();
             UserEntity user = session.get(UserEntity.class, username);
             if (user != null) session.remove(user);
             session.getTransaction().commit();
+            HibernateUtil.recordWrite(username);
+            op.done(user != null ? 1 : 0);
         }
     }
 }
\ No newline at end of file
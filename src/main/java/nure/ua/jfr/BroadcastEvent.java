@@ -0,0 +1,27 @@
+package nure.ua.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Подія JFR: додавання одного об'єкта до вихідних скриньок усіх підключених клієнтів.
+ * Самі записи виконуються скриньками пізніше; їхні помилки рахує chat_write_failures_total.
+ */
+@Name("nure.ua.Broadcast")
+@Label("Broadcast")
+@Category({"Chat", "Server"})
+@Description("Queueing one object to the outbound mailbox of every client")
+@StackTrace(false)
+public class BroadcastEvent extends Event {
+
+    @Label("Kind")
+    @Description("system, user_list or deleted")
+    public String kind;
+
+    @Label("Recipients")
+    public int recipients;
+}
@@ -0,0 +1,53 @@
+package nure.ua.jfr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+/**
+ * Запуск запису JFR з профілем сервера чату (ресурс chat.jfc).
+ * Запис зберігається у файл під час зупинки сервера; у ньому лишаються
+ * події за останні maxAge, щоб тривалий запуск не заповнював диск.
+ */
+public final class ChatRecording {
+    private static final String PROFILE = "/nure/ua/jfr/chat.jfc";
+
+    private ChatRecording() {}
+
+    /**
+     * Запускає запис.
+     *
+     * @param file файл, у який буде записано результат
+     * @param maxAge скільки часу зберігати події
+     */
+    public static void start(Path file, Duration maxAge) {
+        try (InputStream in = ChatRecording.class.getResourceAsStream(PROFILE)) {
+            if (in == null) {
+                System.err.println("JFR profile " + PROFILE + " not found");
+                return;
+            }
+            Configuration configuration;
+            try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+                configuration = Configuration.create(reader);
+            }
+            Recording recording = new Recording(configuration);
+            recording.setName("chat");
+            recording.setToDisk(true);
+            recording.setMaxAge(maxAge);
+            recording.setDestination(file);
+            recording.setDumpOnExit(true);
+            recording.start();
+            System.out.println("JFR recording started, will be written to " + file.toAbsolutePath());
+        } catch (IOException | ParseException | IllegalStateException | SecurityException e) {
+            System.err.println("Failed to start JFR recording: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package nure.ua.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Подія JFR: одна операція з базою даних у MessageManager або UserManager.
+ * Поля заповнюються лише тоді, коли подію справді буде записано,
+ * тож вимкнена подія коштує лише перевірки прапорця.
+ */
+@Name("nure.ua.DbOperation")
+@Label("Database Operation")
+@Category({"Chat", "Database"})
+@Description("Hibernate or JDBC operation issued by the chat server")
+public class DbOperationEvent extends Event {
+
+    @Label("Operation")
+    public String operation;
+
+    /**
+     * Завершує подію та записує її, якщо вона увімкнена і перевищує поріг.
+     *
+     * @param operation назва операції
+     */
+    public void finish(String operation) {
+        end();
+        if (shouldCommit()) {
+            this.operation = operation;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package nure.ua.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Подія JFR: обробка запиту історії розмови, включно з надсиланням відповіді.
+ */
+@Name("nure.ua.HistoryRequest")
+@Label("History Request")
+@Category({"Chat", "Server"})
+@Description("Loading a conversation page and writing it to the client")
+@StackTrace(false)
+public class HistoryRequestEvent extends Event {
+
+    @Label("Username")
+    public String username;
+
+    @Label("Peer")
+    public String peer;
+
+    @Label("Kind")
+    @Description("after, recent or before")
+    public String kind;
+
+    @Label("Rows")
+    public int rows;
+}
@@ -0,0 +1,28 @@
+package nure.ua.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Подія JFR: обробка запиту на вхід від отримання до відповіді клієнту.
+ * Час перевірки пароля записується окремою подією {@link PasswordHashEvent}
+ * у тому ж потоці, аналізатор віднімає її від загального часу входу.
+ */
+@Name("nure.ua.Login")
+@Label("Login")
+@Category({"Chat", "Server"})
+@Description("Authentication, registration and delivery of pending messages on login")
+@StackTrace(false)
+public class LoginEvent extends Event {
+
+    @Label("Username")
+    public String username;
+
+    @Label("Result")
+    @Description("ok, resumed, taken, invalid or register_failed")
+    public String result;
+}
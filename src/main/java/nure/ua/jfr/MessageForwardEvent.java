@@ -0,0 +1,38 @@
+package nure.ua.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Подія JFR: збереження та пересилання одного текстового повідомлення.
+ */
+@Name("nure.ua.MessageForward")
+@Label("Message Forward")
+@Category({"Chat", "Server"})
+@Description("Persisting a text message and writing it to its recipients")
+@StackTrace(false)
+public class MessageForwardEvent extends Event {
+
+    @Label("Sender")
+    public String sender;
+
+    @Label("Receiver")
+    public String receiver;
+
+    @Label("Fan-out")
+    @Description("Recipient connections the message was written to")
+    public int fanOut;
+
+    @Label("Deferred")
+    @Description("Recipient was offline and the message went to the mailbox")
+    public boolean deferred;
+
+    @Label("Text Size")
+    @DataAmount
+    public int bytes;
+}
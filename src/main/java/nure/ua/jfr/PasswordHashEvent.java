@@ -0,0 +1,27 @@
+package nure.ua.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Подія JFR: обчислення BCrypt-хеша під час перевірки пароля або реєстрації.
+ */
+@Name("nure.ua.PasswordHash")
+@Label("Password Hash")
+@Category({"Chat", "Server"})
+@Description("BCrypt hashing while checking or registering a password")
+@StackTrace(false)
+public class PasswordHashEvent extends Event {
+
+    @Label("Operation")
+    @Description("check or hash")
+    public String operation;
+
+    @Label("Cost")
+    @Description("BCrypt log2 rounds")
+    public int cost;
+}
@@ -0,0 +1,190 @@
+package nure.ua.jfr;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Зведення запису JFR сервера чату в таблиці затримок за операціями.
+ *
+ * Для кожної події сервера виводяться кількість, середнє, p50, p90, p99 та максимум
+ * окремо за видом (операція БД, результат входу, вид розсилки тощо).
+ * Для входів додатково показується, яку частку часу забрала перевірка пароля:
+ * події PasswordHash зіставляються з подією Login того ж потоку за часом.
+ *
+ * Запуск: java -cp target/classes nure.ua.jfr.RecordingAnalyzer chat.jfr
+ */
+public final class RecordingAnalyzer {
+    private static final String PREFIX = "nure.ua.";
+
+    private final Map<String, Samples> latency = new TreeMap<>();
+    private final Map<Long, List<RecordedEvent>> hashesByThread = new HashMap<>();
+    private final List<RecordedEvent> logins = new ArrayList<>();
+    private long forwards;
+    private long forwardBytes;
+    private long forwardFanOut;
+    private long forwardDeferred;
+    private long broadcasts;
+    private long broadcastRecipients;
+
+    private RecordingAnalyzer() {}
+
+    /**
+     * @param args шлях до файлу запису .jfr
+     * @throws IOException якщо файл не вдалося прочитати
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: RecordingAnalyzer <recording.jfr>");
+            System.exit(2);
+        }
+        RecordingAnalyzer analyzer = new RecordingAnalyzer();
+        try (RecordingFile file = new RecordingFile(Path.of(args[0]))) {
+            while (file.hasMoreEvents()) {
+                analyzer.accept(file.readEvent());
+            }
+        }
+        analyzer.print();
+    }
+
+    private void accept(RecordedEvent event) {
+        String name = event.getEventType().getName();
+        if (!name.startsWith(PREFIX)) return;
+        String shortName = name.substring(PREFIX.length());
+
+        String key = switch (shortName) {
+            case "Login" -> event.getString("result");
+            case "PasswordHash", "DbOperation" -> event.getString("operation");
+            case "HistoryRequest", "Broadcast" -> event.getString("kind");
+            default -> "";
+        };
+        latency.computeIfAbsent(shortName + (key == null || key.isEmpty() ? "" : " " + key), k -> new Samples())
+            .add(event.getDuration().toNanos());
+
+        switch (shortName) {
+            case "Login" -> logins.add(event);
+            case "PasswordHash" -> hashesByThread.computeIfAbsent(threadId(event), k -> new ArrayList<>()).add(event);
+            case "MessageForward" -> {
+                forwards++;
+                forwardBytes += event.getInt("bytes");
+                forwardFanOut += event.getInt("fanOut");
+                if (event.getBoolean("deferred")) forwardDeferred++;
+            }
+            case "Broadcast" -> {
+                broadcasts++;
+                broadcastRecipients += event.getInt("recipients");
+            }
+            default -> {}
+        }
+    }
+
+    private static long threadId(RecordedEvent event) {
+        RecordedThread thread = event.getThread();
+        return thread != null ? thread.getJavaThreadId() : -1;
+    }
+
+    private void print() {
+        if (latency.isEmpty()) {
+            System.out.println("No chat server events in the recording.");
+            return;
+        }
+        System.out.printf("%-32s %8s %10s %10s %10s %10s %10s%n", "operation", "count", "mean ms", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        for (Map.Entry<String, Samples> entry : latency.entrySet()) {
+            Samples s = entry.getValue();
+            System.out.printf("%-32s %8d %10.3f %10.3f %10.3f %10.3f %10.3f%n", entry.getKey(), s.count(),
+                s.mean() / 1e6, s.percentile(50) / 1e6, s.percentile(90) / 1e6, s.percentile(99) / 1e6, s.max() / 1e6);
+        }
+        printLoginBreakdown();
+        if (forwards > 0) {
+            System.out.printf("%nForwards: %d, mean text %.1f B, mean fan-out %.2f, to mailbox %.1f%%%n",
+                forwards, (double) forwardBytes / forwards, (double) forwardFanOut / forwards, 100.0 * forwardDeferred / forwards);
+        }
+        if (broadcasts > 0) {
+            System.out.printf("Broadcasts: %d, mean recipients %.1f%n",
+                broadcasts, (double) broadcastRecipients / broadcasts);
+        }
+    }
+
+    /**
+     * Виводить для кожного результату входу середній час входу та середній час BCrypt у ньому.
+     */
+    private void printLoginBreakdown() {
+        if (logins.isEmpty()) return;
+        Map<String, long[]> byResult = new TreeMap<>();      // результат -> {кількість, час входу, час BCrypt}
+        for (RecordedEvent login : logins) {
+            long hashNanos = 0;
+            for (RecordedEvent hash : hashesByThread.getOrDefault(threadId(login), List.of())) {
+                if (within(hash.getStartTime(), login.getStartTime(), login.getEndTime())) {
+                    hashNanos += hash.getDuration().toNanos();
+                }
+            }
+            long[] totals = byResult.computeIfAbsent(String.valueOf(login.getString("result")), k -> new long[3]);
+            totals[0]++;
+            totals[1] += login.getDuration().toNanos();
+            totals[2] += hashNanos;
+        }
+        System.out.printf("%n%-16s %8s %12s %12s %8s%n", "login result", "count", "mean ms", "bcrypt ms", "bcrypt %");
+        for (Map.Entry<String, long[]> entry : byResult.entrySet()) {
+            long[] t = entry.getValue();
+            System.out.printf("%-16s %8d %12.3f %12.3f %7.1f%%%n", entry.getKey(), t[0],
+                t[1] / 1e6 / t[0], t[2] / 1e6 / t[0], t[1] > 0 ? 100.0 * t[2] / t[1] : 0);
+        }
+    }
+
+    private static boolean within(Instant time, Instant from, Instant to) {
+        return !time.isBefore(from) && !time.isAfter(to);
+    }
+
+    /**
+     * Тривалості однієї операції в наносекундах.
+     */
+    private static final class Samples {
+        private long[] values = new long[64];
+        private int size;
+        private boolean sorted;
+
+        void add(long nanos) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = nanos;
+            sorted = false;
+        }
+
+        int count() {
+            return size;
+        }
+
+        double mean() {
+            long sum = 0;
+            for (int i = 0; i < size; i++) sum += values[i];
+            return (double) sum / size;
+        }
+
+        long percentile(double p) {
+            sort();
+            int index = (int) Math.ceil(p / 100 * size) - 1;
+            return values[Math.max(0, Math.min(size - 1, index))];
+        }
+
+        long max() {
+            sort();
+            return values[size - 1];
+        }
+
+        private void sort() {
+            if (!sorted) {
+                Arrays.sort(values, 0, size);
+                sorted = true;
+            }
+        }
+    }
+}
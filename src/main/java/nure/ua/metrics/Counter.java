@@ -0,0 +1,30 @@
+package nure.ua.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Лічильник, що лише зростає. Запис без блокувань і без спільної кеш-лінії
+ * між потоками (LongAdder), тому його можна оновлювати на кожному повідомленні.
+ */
+public class Counter {
+    private final LongAdder value = new LongAdder();
+
+    /** Збільшує лічильник на 1. */
+    public void inc() {
+        value.increment();
+    }
+
+    /**
+     * Збільшує лічильник на задану величину.
+     *
+     * @param amount приріст (невід'ємний)
+     */
+    public void add(long amount) {
+        value.add(amount);
+    }
+
+    /** @return поточне значення */
+    public long get() {
+        return value.sum();
+    }
+}
@@ -0,0 +1,180 @@
+package nure.ua.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Гістограма затримок з логарифмічно-лінійними кошиками (за зразком HdrHistogram).
+ * Значення до 128 зберігаються точно, більші — у кошиках з відносною похибкою
+ * не більше 1/64 (~1.6%). Пам'ять фіксована (2048 лічильників), запис без блокувань,
+ * тому гістограму можна оновлювати з багатьох потоків одночасно.
+ *
+ * Одиниці вимірювання визначає викликач (зазвичай мікросекунди).
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;         // 128
+    private static final int HALF = SUB_BUCKETS / 2;                     // 64
+    private static final int MAX_SHIFT = 30;                            // значення до ~2^37
+    private static final int BUCKETS = (MAX_SHIFT + 2) * HALF;
+    private static final long MAX_TRACKABLE = ((long) SUB_BUCKETS << MAX_SHIFT) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Записує одне значення. Від'ємні значення вважаються нулем,
+     * занадто великі — обмежуються верхньою межею гістограми.
+     *
+     * @param value значення
+     */
+    public void record(long value) {
+        long v = Math.min(Math.max(value, 0), MAX_TRACKABLE);
+        counts.incrementAndGet(indexOf(v));
+        total.incrementAndGet();
+        sum.addAndGet(v);
+        long current;
+        while (v > (current = max.get()) && !max.compareAndSet(current, v)) {
+            // повтор до успішного оновлення максимуму
+        }
+    }
+
+    /**
+     * Записує час, що минув від заданого моменту, у мікросекундах.
+     *
+     * @param startNanos момент початку (System.nanoTime)
+     */
+    public void recordMicrosSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    /**
+     * Повертає значення заданого перцентиля (верхню межу відповідного кошика).
+     *
+     * @param percentile перцентиль від 0 до 100
+     * @return значення або 0, якщо гістограма порожня
+     */
+    public long percentile(double percentile) {
+        long count = total.get();
+        if (count == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestEquivalent(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /** @return кількість записаних значень */
+    public long getCount() {
+        return total.get();
+    }
+
+    /** @return середнє значення або 0 */
+    public double getMean() {
+        long count = total.get();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    /** @return сума записаних значень */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /** @return найбільше записане значення */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Додає до цієї гістограми значення іншої.
+     *
+     * @param other інша гістограма
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) counts.addAndGet(i, c);
+        }
+        total.addAndGet(other.total.get());
+        sum.addAndGet(other.sum.get());
+        long otherMax = other.max.get();
+        long current;
+        while (otherMax > (current = max.get()) && !max.compareAndSet(current, otherMax)) {
+            // повтор до успішного оновлення максимуму
+        }
+    }
+
+    /**
+     * Переносить накопичені значення в нову гістограму й обнуляє цю
+     * (для звітів за інтервал). Значення, записані під час перенесення,
+     * потрапляють або в знімок, або в наступний інтервал.
+     *
+     * @return знімок значень за інтервал
+     */
+    public LatencyHistogram snapshotAndReset() {
+        LatencyHistogram snapshot = new LatencyHistogram();
+        long moved = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = counts.getAndSet(i, 0);
+            if (c != 0) {
+                snapshot.counts.set(i, c);
+                moved += c;
+            }
+        }
+        total.addAndGet(-moved);
+        snapshot.total.set(moved);
+        snapshot.sum.set(sum.getAndSet(0));
+        snapshot.max.set(max.getAndSet(0));
+        return snapshot;
+    }
+
+    /**
+     * Обнуляє гістограму.
+     */
+    public void reset() {
+        snapshotAndReset();
+    }
+
+    /**
+     * Передає ненульові кошики у вигляді пар (верхня межа, кількість) у порядку зростання.
+     *
+     * @param consumer отримувач кошиків
+     */
+    public void forEachBucket(BucketConsumer consumer) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = counts.get(i);
+            if (c != 0) consumer.accept(highestEquivalent(i), c);
+        }
+    }
+
+    /**
+     * Отримувач кошиків гістограми.
+     */
+    @FunctionalInterface
+    public interface BucketConsumer {
+        /**
+         * @param upperBound верхня межа кошика (включно)
+         * @param count кількість значень у кошику
+         */
+        void accept(long upperBound, long count);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    static long highestEquivalent(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = index / HALF - 1;
+        long mantissa = index - (long) shift * HALF;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
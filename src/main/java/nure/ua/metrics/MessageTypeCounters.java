@@ -0,0 +1,38 @@
+package nure.ua.metrics;
+
+import nure.ua.common.MessageType;
+
+/**
+ * Набір лічильників однієї метрики з міткою type для кожного {@link MessageType}.
+ * Лічильники отримуються з реєстру один раз, тому оновлення — це лише звернення до масиву.
+ */
+public class MessageTypeCounters {
+    private final Counter[] counters;
+
+    /**
+     * @param name назва метрики
+     * @param help опис метрики
+     */
+    public MessageTypeCounters(String name, String help) {
+        MessageType[] types = MessageType.values();
+        counters = new Counter[types.length];
+        for (MessageType type : types) {
+            counters[type.ordinal()] = Metrics.counter(name, help, "type", type.name());
+        }
+    }
+
+    /**
+     * @param type тип повідомлення
+     */
+    public void inc(MessageType type) {
+        if (type != null) counters[type.ordinal()].inc();
+    }
+
+    /**
+     * @param type тип повідомлення
+     * @param amount приріст
+     */
+    public void add(MessageType type, long amount) {
+        if (type != null) counters[type.ordinal()].add(amount);
+    }
+}
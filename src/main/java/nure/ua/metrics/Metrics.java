@@ -0,0 +1,181 @@
+package nure.ua.metrics;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Реєстр метрик сервера: лічильники, датчики (gauge) та гістограми затримок.
+ *
+ * Метрика визначається назвою та набором міток (пари ключ-значення); повторна
+ * реєстрація з тими самими мітками повертає вже наявний об'єкт, тому класи можуть
+ * отримувати метрики в статичних полях незалежно один від одного.
+ * Оновлення метрик не блокують потоки; реєстр блокується лише при створенні нових.
+ *
+ * Вміст реєстру віддається у текстовому форматі Prometheus (див. {@link MetricsServer}).
+ * Гістограми експортуються як summary з квантилями 0.5/0.9/0.99/0.999
+ * за весь час роботи сервера.
+ */
+public final class Metrics {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final double MICROS_TO_SECONDS = 1e-6;
+
+    private static final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    private Metrics() {}
+
+    /**
+     * Повертає лічильник з заданою назвою та мітками, створюючи його за потреби.
+     *
+     * @param name назва метрики (зазвичай із суфіксом _total)
+     * @param help опис метрики
+     * @param labels пари ключ-значення міток
+     * @return лічильник
+     */
+    public static Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, Kind.COUNTER, 1).series.computeIfAbsent(labelString(labels), k -> new Counter());
+    }
+
+    /**
+     * Повертає гістограму затримок. Значення записуються в мікросекундах,
+     * а експортуються в секундах, тому назва має закінчуватися на _seconds.
+     *
+     * @param name назва метрики
+     * @param help опис метрики
+     * @param labels пари ключ-значення міток
+     * @return гістограма
+     */
+    public static LatencyHistogram timer(String name, String help, String... labels) {
+        return (LatencyHistogram) family(name, help, Kind.SUMMARY, MICROS_TO_SECONDS)
+            .series.computeIfAbsent(labelString(labels), k -> new LatencyHistogram());
+    }
+
+    /**
+     * Повертає гістограму довільних величин (наприклад, кількості отримувачів розсилки).
+     *
+     * @param name назва метрики
+     * @param help опис метрики
+     * @param labels пари ключ-значення міток
+     * @return гістограма
+     */
+    public static LatencyHistogram distribution(String name, String help, String... labels) {
+        return (LatencyHistogram) family(name, help, Kind.SUMMARY, 1)
+            .series.computeIfAbsent(labelString(labels), k -> new LatencyHistogram());
+    }
+
+    /**
+     * Реєструє датчик, значення якого обчислюється під час зчитування метрик.
+     * Повторна реєстрація замінює попереднє джерело значення.
+     *
+     * @param name назва метрики
+     * @param help опис метрики
+     * @param value джерело значення
+     * @param labels пари ключ-значення міток
+     */
+    public static void gauge(String name, String help, LongSupplier value, String... labels) {
+        family(name, help, Kind.GAUGE, 1).series.put(labelString(labels), value);
+    }
+
+    private static Family family(String name, String help, Kind kind, double scale) {
+        Family family = families.computeIfAbsent(name, n -> new Family(n, help, kind, scale));
+        if (family.kind != kind) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as " + family.kind);
+        }
+        return family;
+    }
+
+    private static String labelString(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be key-value pairs");
+        }
+        if (labels.length == 0) return "";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) sb.append(',');
+            sb.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+        return sb.toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Формує знімок усіх метрик у текстовому форматі Prometheus (версія 0.0.4).
+     *
+     * @return текст для відповіді на запит /metrics
+     */
+    public static String scrape() {
+        StringBuilder sb = new StringBuilder(4096);
+        for (Family family : families.values()) {
+            family.writeTo(sb);
+        }
+        return sb.toString();
+    }
+
+    private enum Kind {
+        COUNTER("counter"), GAUGE("gauge"), SUMMARY("summary");
+
+        private final String prometheusType;
+
+        Kind(String prometheusType) {
+            this.prometheusType = prometheusType;
+        }
+    }
+
+    /**
+     * Метрика з однією назвою та різними наборами міток.
+     */
+    private static final class Family {
+        private final String name;
+        private final String help;
+        private final Kind kind;
+        private final double scale;                 // Множник для експорту значень гістограм
+        private final Map<String, Object> series = new ConcurrentHashMap<>();
+
+        Family(String name, String help, Kind kind, double scale) {
+            this.name = name;
+            this.help = help;
+            this.kind = kind;
+            this.scale = scale;
+        }
+
+        void writeTo(StringBuilder sb) {
+            if (series.isEmpty()) return;
+            sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            sb.append("# TYPE ").append(name).append(' ').append(kind.prometheusType).append('\n');
+            series.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(e -> {
+                String labels = e.getKey();
+                switch (kind) {
+                    case COUNTER -> line(sb, name, labels, ((Counter) e.getValue()).get());
+                    case GAUGE -> line(sb, name, labels, ((LongSupplier) e.getValue()).getAsLong());
+                    case SUMMARY -> {
+                        LatencyHistogram h = (LatencyHistogram) e.getValue();
+                        for (double q : QUANTILES) {
+                            String quantile = "quantile=\"" + q + "\"";
+                            line(sb, name, labels.isEmpty() ? quantile : labels + "," + quantile,
+                                h.percentile(q * 100) * scale);
+                        }
+                        line(sb, name + "_sum", labels, h.getSum() * scale);
+                        line(sb, name + "_count", labels, h.getCount());
+                    }
+                }
+            });
+        }
+
+        private static void line(StringBuilder sb, String name, String labels, long value) {
+            sb.append(name);
+            if (!labels.isEmpty()) sb.append('{').append(labels).append('}');
+            sb.append(' ').append(value).append('\n');
+        }
+
+        private static void line(StringBuilder sb, String name, String labels, double value) {
+            sb.append(name);
+            if (!labels.isEmpty()) sb.append('{').append(labels).append('}');
+            sb.append(' ').append(String.format(Locale.ROOT, "%.9g", value)).append('\n');
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package nure.ua.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * HTTP-ендпоінт для збору метрик (GET /metrics у текстовому форматі Prometheus).
+ * Слухає лише локальну адресу: метрики призначені для агента збору на тому самому хості.
+ */
+public final class MetricsServer {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static HttpServer server;
+
+    private MetricsServer() {}
+
+    /**
+     * Запускає ендпоінт у фоновому потоці. Порт 0 або від'ємний вимикає ендпоінт.
+     *
+     * @param port порт HTTP
+     */
+    public static synchronized void start(int port) {
+        if (port <= 0 || server != null) return;
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            server.createContext("/metrics", exchange -> {
+                try (exchange) {
+                    if (!"GET".equals(exchange.getRequestMethod())) {
+                        exchange.sendResponseHeaders(405, -1);
+                        return;
+                    }
+                    byte[] body = Metrics.scrape().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                }
+            });
+            server.setExecutor(Executors.newSingleThreadExecutor(task -> {
+                Thread t = new Thread(task, "metrics-http");
+                t.setDaemon(true);
+                return t;
+            }));
+            server.start();
+            System.out.println("Metrics available at http://localhost:" + port + "/metrics");
+        } catch (IOException e) {
+            System.err.println("Failed to start metrics endpoint: " + e.getMessage());
+            server = null;
+        }
+    }
+
+    /**
+     * Зупиняє ендпоінт.
+     */
+    public static synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package nure.ua.server;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Потік, що запам'ятовує момент надходження першого байта чергового повідомлення.
+ * Перед читанням повідомлення потік "зводиться" ({@link #arm()}); перше успішне
+ * читання після цього фіксує час. Якщо байти вже були в буфері десеріалізатора
+ * і читання з сокета не знадобилося, моментом надходження вважається момент зведення.
+ */
+class ArrivalStampingInputStream extends FilterInputStream {
+    private long armedAt;
+    private long arrivedAt;
+
+    ArrivalStampingInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Готує потік до фіксації надходження наступного повідомлення.
+     */
+    void arm() {
+        armedAt = System.nanoTime();
+        arrivedAt = 0;
+    }
+
+    /** @return момент надходження першого байта після останнього {@link #arm()} (System.nanoTime) */
+    long arrivedAt() {
+        return arrivedAt != 0 ? arrivedAt : armedAt;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) stamp();
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws IOException {
+        int n = super.read(buf, off, len);
+        if (n > 0) stamp();
+        return n;
+    }
+
+    private void stamp() {
+        if (arrivedAt == 0) arrivedAt = System.nanoTime();
+    }
+}
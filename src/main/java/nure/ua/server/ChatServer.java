@@ -1,15 +1,29 @@
 package nure.ua.server;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import nure.ua.jfr.ChatRecording;
+import nure.ua.metrics.Counter;
+import nure.ua.metrics.Metrics;
+import nure.ua.metrics.MetricsServer;
+import nure.ua.server.attachment.AttachmentServer;
 
 /**
  * Основний клас сервера, що запускає сокет і приймає підключення клієнтів.
  */
 public class ChatServer {
-    private static final int PORT = 8000;
-
+    private static final int PORT = Integer.getInteger("chat.port", 8000);
+    private static final int METRICS_PORT = Integer.getInteger("chat.metrics.port", 9400);   // 0 — без ендпоінта метрик
+    private static final int ATTACHMENTS_PORT = Integer.getInteger("chat.attachments.port", 8010);   // 0 — без вкладень
+    private static final String JFR_FILE = System.getProperty("chat.jfr.file");                // Не задано — без запису JFR
+    private static final long JFR_MAX_AGE_MINUTES = Long.getLong("chat.jfr.maxAgeMinutes", 30);
+    private static final Counter accepted =
+        Metrics.counter("chat_connections_accepted_total", "Accepted TCP connections");
 
     /**
      * Точка входу. Запускає сервер на заданому порту та слухає нові з'єднання.
@@ -19,13 +33,20 @@ public class ChatServer {
     @SuppressWarnings("CallToPrintStackTrace")
     public static void main(String[] args) {
         try {
+            if (JFR_FILE != null) {
+                ChatRecording.start(Path.of(JFR_FILE), Duration.ofMinutes(JFR_MAX_AGE_MINUTES));
+            }
             ClientManager.initialize(); 
+            registerJvmGauges();
+            MetricsServer.start(METRICS_PORT);
+            AttachmentServer.start(ATTACHMENTS_PORT);
             System.out.println("Server started...");
 
             try (ServerSocket serverSocket = new ServerSocket(PORT)) {
                 while (true) {
                     System.out.println("Waiting for client...");
                     Socket clientSocket = serverSocket.accept();
+                    accepted.inc();
                     System.out.println("Client connected: " + clientSocket.getRemoteSocketAddress());
                     new ClientHandler(clientSocket).start();
                 }
@@ -34,5 +55,15 @@ public class ChatServer {
             e.printStackTrace();
         }
     }
-    
+
+    /**
+     * Реєструє базові показники JVM: пам'ять купи та кількість потоків
+     * (на сервері кожне з'єднання має власний потік).
+     */
+    private static void registerJvmGauges() {
+        Runtime runtime = Runtime.getRuntime();
+        Metrics.gauge("jvm_heap_used_bytes", "Used heap memory", () -> runtime.totalMemory() - runtime.freeMemory());
+        Metrics.gauge("jvm_heap_max_bytes", "Maximum heap memory", runtime::maxMemory);
+        Metrics.gauge("jvm_threads_live", "Live JVM threads", () -> ManagementFactory.getThreadMXBean().getThreadCount());
+    }
 }
@@ -4,23 +4,35 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import nure.ua.client.model.LoginRequest;
 import nure.ua.client.model.RegisterRequest;
 import nure.ua.common.Message;
 import nure.ua.database.UserManager;
+import nure.ua.metrics.Metrics;
 import nure.ua.server.service.LoginService;
 import nure.ua.server.service.MessageProcessor;
 
 /**
  * Потік, який обробляє окреме з’єднання клієнта.
  * Підключається, автентифікує користувача і передає повідомлення до відповідного сервісу.
+ * Потік лише читає з сокета: усі записи клієнту проходять через його вихідну скриньку.
  */
 public class ClientHandler extends Thread {
+    private static final AtomicInteger open = new AtomicInteger();   // Відкриті з'єднання, включно з тими, що ще не увійшли
+    private static final long CLOSE_DRAIN_MILLIS = Long.getLong("chat.outbound.closeDrainMillis", 2_000);
+
+    static {
+        Metrics.gauge("chat_connections_open", "Open client connections", open::get);
+    }
+
     private final Socket socket;
     private String username;
     private ObjectOutputStream out;
+    private ConnectionMailbox mailbox;
     private ObjectInputStream in;
+    private ArrivalStampingInputStream arrivals;
 
     /**
      * Конструктор для створення обробника клієнта.
@@ -36,24 +48,27 @@ public class ClientHandler extends Thread {
      */
     @Override
     public void run() {
+        open.incrementAndGet();
         try {
             setupStreams();
 
             Object inputObj = in.readObject();
             if (!processInitialRequest(inputObj)) return;
 
-            MessageProcessor processor = new MessageProcessor(username, out);
+            MessageProcessor processor = new MessageProcessor(username, mailbox);
 
             while (true) {
+                arrivals.arm();
                 Object obj = in.readObject();
                 if (obj instanceof Message msg) {
-                    processor.process(msg);
+                    processor.process(msg, arrivals.arrivedAt());
                 }
             }
         } catch (IOException | ClassNotFoundException e) {
             System.out.println("Client disconnected: " + username);
         } finally {
             disconnectClient();
+            open.decrementAndGet();
         }
     }
 
@@ -63,9 +78,11 @@ public class ClientHandler extends Thread {
      * @throws IOException при помилках відкриття потоків
      */
     private void setupStreams() throws IOException {
-        out = new ObjectOutputStream(socket.getOutputStream());
+        out = new ClientObjectStream(socket.getOutputStream());
         out.flush();
-        in = new ObjectInputStream(socket.getInputStream());
+        mailbox = new ConnectionMailbox(out);
+        arrivals = new ArrivalStampingInputStream(socket.getInputStream());
+        in = new ObjectInputStream(arrivals);
     }
 
     /**
@@ -73,24 +90,21 @@ public class ClientHandler extends Thread {
      *
      * @param inputObj Об'єкт, отриманий від клієнта
      * @return true, якщо вхід успішний; false — інакше
-     * @throws IOException при помилках зв'язку
      */
-    private boolean processInitialRequest(Object inputObj) throws IOException {
+    private boolean processInitialRequest(Object inputObj) {
         switch (inputObj) {
             case LoginRequest login -> {
-                boolean success = LoginService.login(login, out);
+                boolean success = LoginService.login(login, mailbox);
                 if (success) {
                     this.username = login.getUsername();  
                 }
                 return success;
             }       case RegisterRequest reg -> {
                 boolean success = UserManager.register(reg.getUsername(), reg.getPassword());
-                out.writeObject(success ? "OK: Registration successful." : "ERROR: Username already exists.");
-                out.flush();
+                mailbox.send(success ? "OK: Registration successful." : "ERROR: Username already exists.");
                 return false;
             }       default -> {
-                out.writeObject("ERROR: Expected login request.");
-                out.flush();
+                mailbox.send("ERROR: Expected login request.");
                 return false;
             }  
         }
@@ -98,8 +112,21 @@ public class ClientHandler extends Thread {
 
     /**
      * Завершує підключення клієнта та очищає ресурси.
+     * Якщо клієнт зник без повідомлення про відключення, він видаляється зі списку онлайн.
+     * Перед закриттям потоку вихідна скринька дописує те, що в ній залишилося
+     * (наприклад, відповідь про помилку входу), але не довше за chat.outbound.closeDrainMillis.
      */
     private void disconnectClient() {
+        if (username != null) {
+            ClientManager.dropConnection(username, mailbox);
+        }
+        if (mailbox != null && !mailbox.isBroken()) {
+            try {
+                mailbox.awaitIdle(CLOSE_DRAIN_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         try {
             if (in != null) in.close();
             if (out != null) out.close();
@@ -2,69 +2,252 @@ package nure.ua.server;
 
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.hibernate.Session;
-import org.hibernate.query.Query;
 
+import nure.ua.cluster.TcpClusterBus;
 import nure.ua.common.Message;
 import nure.ua.common.MessageType;
 import nure.ua.database.HibernateUtil;
 import nure.ua.database.MessageEntity;
 import nure.ua.database.MessageManager;
+import nure.ua.database.QueryProfiler;
+import nure.ua.database.QueryProfiler.Operation;
+import nure.ua.database.QueryProfiler.Shape;
+import nure.ua.database.SaveResult;
+import nure.ua.database.UserManager;
+import nure.ua.jfr.BroadcastEvent;
+import nure.ua.jfr.MessageForwardEvent;
+import nure.ua.metrics.Counter;
+import nure.ua.metrics.LatencyHistogram;
+import nure.ua.metrics.MessageTypeCounters;
+import nure.ua.metrics.Metrics;
 
 /**
  * Менеджер клієнтів, що керує активними підключеннями, повідомленнями та широкомовними подіями.
+ *
+ * Підключені клієнти розподілені між шардами ({@link ClientShard}) за хешем імені;
+ * шард тримає лише реєстр з'єднань, а повідомлення всіх шардів зберігає спільний менеджер повідомлень.
+ * Усі записи в з'єднання клієнта (пересилання, підтвердження, розсилки, історія)
+ * проходять через його вихідну скриньку ({@link ConnectionMailbox}): потік, що обробляє
+ * запит, лише додає запис у скриньку отримувача і не чекає на мережу.
+ *
+ * У режимі кластера (chat.cluster.node) сервер є одним з вузлів ({@link ClusterNode}):
+ * повідомлення зберігає вузол-власник розмови, отримувачам на інших вузлах вони
+ * передаються шиною, а список онлайн-користувачів охоплює весь кластер. Офлайн-скринька
+ * в цьому режимі не використовується: недоставлені повідомлення беруться зі спільної БД.
+ *
+ * Групові чати обслуговує {@link GroupChats}, квитанції особистих розмов — {@link ReadReceipts};
+ * менеджер лише повідомляє їм про вхід, відключення та видалення користувачів.
  */
 public class ClientManager {
-    private static final Map<String, ObjectOutputStream> clients = new ConcurrentHashMap<>();
+    private static final int SHARDS = shardCount(Integer.getInteger("chat.shards", Runtime.getRuntime().availableProcessors()));
+    private static final ClientShard[] shards = createShards();
     private static MessageManager db;
-    private static final List<String> connectionLog = new ArrayList<>();
+    private static OfflineMailbox mailbox;
+    private static ConversationSequencer sequencer;
+    private static ClusterNode cluster;
+    private static final Shape DELETE_MESSAGES = QueryProfiler.shape("delete_messages",
+        "DELETE FROM MessageEntity m WHERE m.sender = :user OR m.receiver = :user");
+    private static final EventJournal journal = new EventJournal(Integer.getInteger("chat.journal.capacity", 4096));
+
+    private static final String MAILBOX_DIR = System.getProperty("chat.mailbox.dir", "mailbox");
+    private static final long MAILBOX_MEMORY_BYTES = Long.getLong("chat.mailbox.memoryBytes", 256 * 1024);
+    private static final String JOURNAL_DIR = System.getProperty("chat.journal.dir");       // Не задано — без архіву
+    private static final String CLUSTER_NODE = System.getProperty("chat.cluster.node");     // Не задано — один сервер
+    private static final int CLUSTER_PORT = Integer.getInteger("chat.cluster.port", 9100);
+    private static final String CLUSTER_PEERS = System.getProperty("chat.cluster.peers");
+    private static final long CLUSTER_RECONNECT_MILLIS = Long.getLong("chat.cluster.reconnectMillis", 1_000);
+    private static final long JOURNAL_FLUSH_MILLIS = Long.getLong("chat.journal.flushMillis", 5_000);
+    private static final long JOURNAL_ROLL_BYTES = Long.getLong("chat.journal.rollBytes", 16L * 1024 * 1024);
+    private static final int IDEMPOTENCY_KEYS_PER_SENDER = 256;
+    private static final int RESUME_LIMIT = 500;
+    private static final int SEQ_RETRIES = 3;              // Скільки разів перечитати номер після конфлікту
+    private static final long AWAIT_MILLIS = 10_000;
+    private static final IdempotencyCache idempotency = new IdempotencyCache(IDEMPOTENCY_KEYS_PER_SENDER);
+
+    private static final MessageTypeCounters messagesOut =
+        new MessageTypeCounters("chat_messages_out_total", "Messages written to client connections");
+    private static final Counter userListsOut =
+        Metrics.counter("chat_user_lists_out_total", "User lists written to client connections");
+    private static final Counter duplicates =
+        Metrics.counter("chat_duplicate_messages_total", "Resent messages answered with the already stored message");
+    private static final Counter seqConflicts =
+        Metrics.counter("chat_seq_conflicts_total", "Inserts rejected because another node already used the seq", "kind", "private");
+    private static final LatencyHistogram systemFanOut =
+        Metrics.distribution("chat_broadcast_recipients", "Recipients per broadcast", "kind", "system");
+    private static final LatencyHistogram userListFanOut =
+        Metrics.distribution("chat_broadcast_recipients", "Recipients per broadcast", "kind", "user_list");
+    private static final LatencyHistogram deletedFanOut =
+        Metrics.distribution("chat_broadcast_recipients", "Recipients per broadcast", "kind", "user_deleted");
 
     /**
-     * Ініціалізує менеджер повідомлень.
+     * Ініціалізує менеджер повідомлень, поштову скриньку офлайн-користувачів
+     * та лічильники порядкових номерів розмов.
      */
     public static void initialize() {
         db = new MessageManager();
+        mailbox = new OfflineMailbox(Path.of(MAILBOX_DIR), MAILBOX_MEMORY_BYTES);
+        sequencer = new ConversationSequencer(db);
+        GroupChats.initialize();
+        ReadReceipts.initialize();
+
+        Metrics.gauge("chat_clients_online", "Logged in clients", ClientManager::onlineCount);
+        Metrics.gauge("chat_mailbox_queued_messages", "Messages waiting in offline mailboxes", mailbox::getQueuedCount);
+        Metrics.gauge("chat_mailbox_boxes", "Non-empty offline mailboxes", mailbox::getBoxCount);
+        Metrics.gauge("chat_journal_events_total", "Connection events recorded in the journal", journal::getRecordedCount);
+
+        if (JOURNAL_DIR != null) {
+            journal.startArchiving(Path.of(JOURNAL_DIR), JOURNAL_FLUSH_MILLIS, JOURNAL_ROLL_BYTES);
+        }
+        if (CLUSTER_NODE != null) {
+            startCluster();
+        }
+    }
+
+    /**
+     * Приєднує сервер до кластера через TCP-шину.
+     */
+    private static void startCluster() {
+        ClusterNode node = new ClusterNode(new TcpClusterBus(CLUSTER_NODE, CLUSTER_PORT,
+            TcpClusterBus.parsePeers(CLUSTER_PEERS), CLUSTER_RECONNECT_MILLIS));
+        try {
+            node.start();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to start cluster node " + CLUSTER_NODE, e);
+        }
+        cluster = node;
+    }
+
+    /**
+     * Округлює кількість шардів до степеня двійки, щоб шард обирався маскою.
+     *
+     * @param requested бажана кількість шардів
+     * @return кількість шардів
+     */
+    private static int shardCount(int requested) {
+        int count = Integer.highestOneBit(Math.max(1, requested));
+        return count < requested ? count << 1 : count;
+    }
+
+    private static ClientShard[] createShards() {
+        ClientShard[] created = new ClientShard[SHARDS];
+        for (int i = 0; i < SHARDS; i++) {
+            created[i] = new ClientShard(i);
+        }
+        return created;
     }
 
     /**
-     * Перевіряє, чи вже зайняте ім'я користувача серед підключених клієнтів.
+     * Повертає шард, якому належить користувач.
+     *
+     * @param username Ім'я користувача
+     * @return Шард користувача
+     */
+    private static ClientShard shardOf(String username) {
+        int h = username.hashCode();
+        return shards[(h ^ (h >>> 16)) & (SHARDS - 1)];
+    }
+
+    /**
+     * @param username Ім'я користувача
+     * @return Вихідна скринька користувача, підключеного до цього сервера, або null
+     */
+    static ConnectionMailbox mailboxOf(String username) {
+        return shardOf(username).get(username);
+    }
+
+    /**
+     * @return Вузол кластера або null, якщо сервер працює сам
+     */
+    static ClusterNode cluster() {
+        return cluster;
+    }
+
+    private static int onlineCount() {
+        int count = 0;
+        for (ClientShard shard : shards) {
+            count += shard.size();
+        }
+        return count;
+    }
+
+    /**
+     * Чекає, доки вихідні скриньки всіх клієнтів виконають додані до них записи
+     * (розсилки, пересилання, підтвердження). Потрібно, коли викликачу важливо,
+     * щоб запис уже відбувся, наприклад у бенчмарках.
+     *
+     * @throws InterruptedException якщо очікування перервано
+     */
+    public static void awaitDeliveries() throws InterruptedException {
+        List<ConnectionMailbox> boxes = new ArrayList<>(onlineCount());
+        for (ClientShard shard : shards) {
+            boxes.addAll(shard.mailboxes());
+        }
+        CountDownLatch done = new CountDownLatch(boxes.size());
+        for (ConnectionMailbox box : boxes) {
+            box.execute(out -> done.countDown(), done::countDown);
+        }
+        done.await(AWAIT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Перевіряє, чи вже зайняте ім'я користувача серед підключених клієнтів (усього кластера).
      *
      * @param username Ім'я користувача
      * @return true, якщо ім'я вже зайняте
      */
     public static boolean isUsernameTaken(String username) {
-        return clients.containsKey(username);
+        return shardOf(username).contains(username) || (cluster != null && cluster.nodeOf(username) != null);
     }
 
     /**
      * Додає нового клієнта до списку активних, надсилає недоставлені повідомлення, оновлює логи.
+     * Якщо офлайн-скринька користувача авторитетна, повідомлення беруться з неї без читання БД.
+     * Повідомлення з БД відмічаються доставленими лише після того, як вихідна скринька
+     * записала їх і виштовхнула в сокет; якщо запис не вдався, вони лишаються недоставленими,
+     * а скринька втрачає авторитетність, щоб наступне підключення знову прочитало їх з БД.
      *
      * @param username Ім'я користувача
-     * @param out Потік для надсилання об'єктів
-     * @throws IOException якщо виникла помилка передачі
+     * @param box Вихідна скринька з'єднання користувача
      */
-    public static void addClient(String username, ObjectOutputStream out) throws IOException {
-        clients.put(username, out);
+    public static void addClient(String username, ConnectionMailbox box) {
+        ClientShard shard = shardOf(username);
+        shard.put(username, box);
 
-        List<MessageEntity> undelivered = db.getUndeliveredMessages(username);
-        for (MessageEntity entity : undelivered) {
-            Message msg = new Message(entity.getSender(), entity.getReceiver(), entity.getText(), entity.getTimestamp());
-            out.writeObject(msg);
-            out.flush();
+        if (cluster == null && mailbox.isAuthoritative(username)) {
+            box.execute(out -> drainMailbox(username, out));
+        } else {
+            List<MessageEntity> undelivered = db.getUndeliveredMessages(username);
+            for (MessageEntity entity : undelivered) {
+                box.send(entity.toMessage());
+            }
+            // Позначка ставиться до запису, щоб невдача запису гарантовано її зняла
+            if (cluster == null) mailbox.markAuthoritative(username);
+            box.execute(out -> {
+                out.flush();
+                messagesOut.add(MessageType.TEXT, undelivered.size());
+                db.markMessagesAsDelivered(undelivered);
+            }, () -> {
+                if (cluster == null) mailbox.revokeAuthority(username);
+            });
         }
-        db.markMessagesAsDelivered(undelivered);
+        GroupChats.onLogin(username, box);
+        ReadReceipts.onLogin(username, box);
 
-        connectionLog.add("User " + username + " connected at " + LocalDateTime.now());
+        journal.record(EventJournal.Type.CONNECTED, username, null);
+        if (cluster != null) cluster.announceJoin(username);
         broadcastSystemMessage("User " + username + " joined the chat.");
-        broadcastUserList();
+        broadcastOnlineUsers();
     }
 
     /**
@@ -73,10 +256,21 @@ public class ClientManager {
      * @param username Ім'я користувача
      */
     public static void removeClient(String username, boolean isAccountDeleted) {
-        clients.remove(username);
+        ConnectionMailbox removed = shardOf(username).remove(username);
+        journal.record(isAccountDeleted ? EventJournal.Type.ACCOUNT_DELETED : EventJournal.Type.DISCONNECTED, username, null);
+        if (cluster != null && removed != null) cluster.announceLeave(username);
+        TypingIndicators.forget(username);
         if (isAccountDeleted) {            
+            mailbox.discard(username);
+            GroupChats.forget(username);
+            ReadReceipts.forget(username);
+            sequencer.forget(username);
+            idempotency.forget(username);
             notifyUserDeleted(username);
+            if (cluster != null) cluster.accountDeleted(username);
         } else {            
+            GroupChats.onLogout(username);
+            ReadReceipts.onLogout(username);
             broadcastSystemMessage("User " + username + " has disconnected.");
         }
 
@@ -86,48 +280,374 @@ public class ClientManager {
     }
 
     /**
-     * Зберігає повідомлення в БД та надсилає його отримувачу (або відправнику, якщо отримувач не в мережі).
+     * Видаляє з'єднання, що обірвалося без повідомлення про відключення.
+     * Нічого не робить, якщо користувач уже відключився або підключився знову через інше з'єднання.
      *
-     * @param message Повідомлення до збереження та пересилання
+     * @param username Ім'я користувача
+     * @param box Вихідна скринька обірваного з'єднання
      */
-    public static void saveAndForwardMessage(MessageEntity message) {
+    public static void dropConnection(String username, ConnectionMailbox box) {
+        if (box == null || !shardOf(username).remove(username, box)) return;
+
+        journal.record(EventJournal.Type.CONNECTION_LOST, username, null);
+        GroupChats.onLogout(username);
+        ReadReceipts.onLogout(username);
+        TypingIndicators.forget(username);
+        if (cluster != null) cluster.announceLeave(username);
+        broadcastSystemMessage("User " + username + " has disconnected.");
         try {
-            message.setTimestamp(LocalDateTime.now());
-            message.setDelivered(false);
-            message.setType(MessageType.TEXT);
-            db.saveMessage(message);
-
-            Message msg = new Message(message.getSender(), message.getReceiver(), message.getText(), message.getTimestamp());
-
-            ObjectOutputStream recipientOut = clients.get(message.getReceiver());
-            ObjectOutputStream senderOut = clients.get(message.getSender());
-
-            Set<String> notifiedUsers = new HashSet<>();
-            if (recipientOut != null && notifiedUsers.add(message.getReceiver())) {
-                recipientOut.writeObject(msg);
-                recipientOut.flush();
-            } else if (!message.getSender().equals(message.getReceiver()) && senderOut != null && notifiedUsers.add(message.getSender())) {
-                senderOut.writeObject(msg);
-                senderOut.flush();
+            broadcastUserList();
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * Закриває попереднє з'єднання користувача, який перепідключається,
+     * поки сервер ще не виявив його розрив. Якщо попереднє з'єднання належить
+     * іншому вузлу кластера, закрити його просять той вузол.
+     *
+     * @param username Ім'я користувача
+     */
+    public static void evictClient(String username) {
+        if (!evictLocal(username) && cluster != null) {
+            cluster.evict(username);
+        }
+    }
+
+    /**
+     * Закриває з'єднання користувача з цим сервером, якщо воно є.
+     *
+     * @param username Ім'я користувача
+     * @return true, якщо з'єднання було
+     */
+    static boolean evictLocal(String username) {
+        ConnectionMailbox stale = shardOf(username).remove(username);
+        if (stale == null) return false;
+        journal.record(EventJournal.Type.EVICTED, username, "reconnected");
+        GroupChats.onLogout(username);
+        ReadReceipts.onLogout(username);
+        TypingIndicators.forget(username);
+        stale.closeNow();
+        return true;
+    }
+
+    /**
+     * Повторно надсилає повідомлення, які користувач міг не отримати через обрив з'єднання:
+     * у кожній розмові — новіші за останній отриманий клієнтом порядковий номер.
+     * Дублікати клієнт відкидає за seq.
+     *
+     * @param username Ім'я користувача
+     * @param box Вихідна скринька нового з'єднання
+     * @param lastSeqs Співрозмовник -> найбільший отриманий від нього порядковий номер
+     */
+    public static void resumeDelivery(String username, ConnectionMailbox box, Map<String, Long> lastSeqs) {
+        List<Message> missed = db.getResumable(username, lastSeqs, RESUME_LIMIT);
+        for (Message msg : missed) {
+            box.send(msg);
+        }
+        messagesOut.add(MessageType.TEXT, missed.size());
+    }
+
+    /**
+     * Зберігає повідомлення в БД, призначає йому порядковий номер у розмові та додає
+     * до вихідної скриньки отримувача. Для офлайн-отримувача, а також якщо запис
+     * у з'єднання не вдався, повідомлення додається до його офлайн-скриньки.
+     * Відправник отримує підтвердження (ACK) з призначеними id та seq; повторне надсилання
+     * з тим самим ключем ідемпотентності лише повторює підтвердження.
+     * Трасування завершується після запису в з'єднання або переходу до офлайн-скриньки.
+     *
+     * У кластері повідомлення розмови, якою володіє інший вузол, передається цьому вузлу;
+     * трасування тоді не завершується, а затримку між вузлами показують метрики кластера.
+     *
+     * @param message Повідомлення до збереження та пересилання
+     * @param trace Трасування етапів обробки повідомлення
+     */
+    public static void saveAndForwardMessage(MessageEntity message, MessageTrace trace) {
+        if (cluster != null) {
+            String owner = cluster.ownerOf(message.getSender(), message.getReceiver());
+            if (!owner.equals(cluster.nodeId()) && cluster.submit(owner, message.toMessage())) {
+                return;
             }
-        } catch (IOException e) {
-            System.err.println("Failed to send message to " + message.getReceiver());
         }
+        persistAndForward(message, trace, null);
+    }
+
+    /**
+     * Приймає повідомлення, передане іншим вузлом кластера, бо розмовою володіє цей вузол.
+     *
+     * @param msg Повідомлення відправника
+     * @param from Вузол, до якого підключений відправник
+     */
+    static void acceptSubmitted(Message msg, String from) {
+        MessageTrace trace = new MessageTrace();
+        trace.start(System.nanoTime());
+        trace.mark(MessageTrace.Stage.DECODED);
+        MessageEntity entity = new MessageEntity(
+            msg.getSender(), msg.getReceiver(), msg.getText(), msg.getTimestamp(), MessageType.TEXT, false
+        );
+        entity.setClientKey(msg.getClientKey());
+        entity.setAttachmentOf(msg);
+        persistAndForward(entity, trace, from);
+    }
+
+    /**
+     * Зберігає повідомлення, пересилає отримувачу (на цьому чи іншому вузлі) і підтверджує відправнику.
+     * Повідомлення з тим самим ключем ідемпотентності обробляються по одному; повторне
+     * надсилання вже збереженого повідомлення лише повторює підтвердження.
+     *
+     * @param message Повідомлення до збереження та пересилання
+     * @param trace Трасування етапів обробки повідомлення
+     * @param senderNode Вузол відправника, якщо повідомлення передав інший вузол, інакше null
+     */
+    private static void persistAndForward(MessageEntity message, MessageTrace trace, String senderNode) {
+        idempotency.serialize(message.getSender(), message.getClientKey(), () -> persistOnce(message, trace, senderNode));
+    }
+
+    private static void persistOnce(MessageEntity message, MessageTrace trace, String senderNode) {
+        Message accepted = idempotency.lookup(message.getSender(), message.getClientKey());
+        if (accepted != null) {
+            duplicates.inc();
+            sendAck(message.getSender(), accepted, senderNode);
+            return;
+        }
+
+        MessageForwardEvent event = new MessageForwardEvent();
+        event.begin();
+        message.setTimestamp(LocalDateTime.now());
+        message.setDelivered(false);
+        message.setType(MessageType.TEXT);
+        for (int attempt = 0; ; attempt++) {
+            message.setSeq(sequencer.next(message.getSender(), message.getReceiver()));
+            SaveResult result = db.saveMessage(message);
+            if (result == SaveResult.SAVED) break;
+            if (result == SaveResult.FAILED) {
+                // Повідомлення не збережено: без підтвердження клієнт може надіслати його повторно
+                sequencer.release(message.getSender(), message.getReceiver(), message.getSeq());
+                return;
+            }
+
+            Message stored = db.findByClientKey(message.getSender(), message.getClientKey());
+            if (stored != null) {
+                // Ключ уже прийнято раніше: до перезапуску, на іншому вузлі або кеш його забув
+                duplicates.inc();
+                idempotency.remember(message.getSender(), message.getClientKey(), stored);
+                sendAck(message.getSender(), stored, senderNode);
+                return;
+            }
+            // Номер зайнятий: розмову тим часом обслуговував інший вузол
+            seqConflicts.inc();
+            if (attempt == SEQ_RETRIES) return;
+            sequencer.resync(message.getSender(), message.getReceiver());
+        }
+        trace.mark(MessageTrace.Stage.PERSISTED);
+        trace.describe(message.getSender(), message.getReceiver(), message.getId());
+
+        Message msg = message.toMessage();
+        idempotency.remember(message.getSender(), message.getClientKey(), msg);
+
+        ClientShard target = shardOf(message.getReceiver());
+        ConnectionMailbox recipient = target.get(message.getReceiver());
+        trace.mark(MessageTrace.Stage.ENQUEUED);
+        if (recipient != null) {
+            recipient.execute(out -> {
+                out.writeObject(msg);
+                messagesOut.inc(MessageType.TEXT);
+                finishForward(message, trace, event);
+            }, () -> {
+                System.err.println("Failed to send message to " + message.getReceiver());
+                deferToMailbox(target, message.getReceiver(), message.getId(), msg);
+                trace.markDeferred();
+                if (!trace.isComplete()) finishForward(message, trace, event);
+            });
+        } else if (forwardToNode(msg)) {
+            finishForward(message, trace, event);
+        } else {
+            deferToMailbox(target, message.getReceiver(), message.getId(), msg);
+            trace.markDeferred();
+            finishForward(message, trace, event);
+        }
+
+        sendAck(message.getSender(), msg, senderNode);
+    }
+
+    /**
+     * Передає повідомлення вузлу кластера, до якого підключений отримувач.
+     *
+     * @param msg Збережене повідомлення
+     * @return false, якщо отримувач не підключений до іншого вузла або вузол недосяжний
+     */
+    private static boolean forwardToNode(Message msg) {
+        if (cluster == null) return false;
+        String node = cluster.nodeOf(msg.getReceiver());
+        return node != null && cluster.deliver(node, msg);
+    }
+
+    /**
+     * Записує повідомлення, передане іншим вузлом, отримувачу, підключеному до цього вузла.
+     * Якщо отримувач уже відключився, повідомлення залишається недоставленим у БД.
+     *
+     * @param msg Збережене повідомлення
+     * @param onWritten Викликається після запису в з'єднання
+     */
+    static void deliverLocal(Message msg, Runnable onWritten) {
+        ConnectionMailbox box = shardOf(msg.getReceiver()).get(msg.getReceiver());
+        if (box == null) return;
+        box.execute(out -> {
+            out.writeObject(msg);
+            messagesOut.inc(MessageType.TEXT);
+            onWritten.run();
+        });
+    }
+
+    /**
+     * Завершує трасування та подію JFR пересилання.
+     *
+     * @param message Збережене повідомлення
+     * @param trace Трасування етапів обробки повідомлення
+     * @param event Подія JFR, розпочата перед збереженням
+     */
+    private static void finishForward(MessageEntity message, MessageTrace trace, MessageForwardEvent event) {
+        trace.mark(MessageTrace.Stage.WRITTEN);
+        MessageTracer.complete(trace);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.sender = message.getSender();
+            event.receiver = message.getReceiver();
+            event.deferred = trace.isDeferred();
+            event.fanOut = trace.isDeferred() ? 0 : 1;
+            event.bytes = message.getText() != null ? message.getText().getBytes(StandardCharsets.UTF_8).length : 0;
+            event.commit();
+        }
+    }
+
+    /**
+     * Надсилає відправнику підтвердження прийому повідомлення (особистого чи групового)
+     * через його вихідну скриньку або через вузол кластера, до якого він підключений.
+     *
+     * @param username Відправник
+     * @param accepted Прийняте повідомлення з призначеними id та seq
+     * @param senderNode Вузол відправника або null — шукати за присутністю
+     */
+    static void sendAck(String username, Message accepted, String senderNode) {
+        Message ack = new Message(accepted.getSender(), accepted.getReceiver(), "", accepted.getTimestamp());
+        ack.setType(MessageType.ACK);
+        ack.setId(accepted.getId());
+        ack.setSeq(accepted.getSeq());
+        ack.setClientKey(accepted.getClientKey());
+        ack.setGroupId(accepted.getGroupId());
+
+        if (!ackLocal(username, ack) && cluster != null) {
+            String node = senderNode != null ? senderNode : cluster.nodeOf(username);
+            if (node != null) cluster.ack(node, username, ack);
+        }
+    }
+
+    /**
+     * Записує підтвердження відправнику, підключеному до цього вузла.
+     *
+     * @param username Відправник
+     * @param ack Підтвердження
+     * @return false, якщо відправник не підключений до цього вузла
+     */
+    static boolean ackLocal(String username, Message ack) {
+        ConnectionMailbox box = shardOf(username).get(username);
+        if (box == null) return false;
+        box.execute(out -> {
+            out.writeObject(ack);
+            messagesOut.inc(MessageType.ACK);
+        }, () -> System.err.println("Failed to acknowledge message to " + username));
+        return true;
+    }
+
+    /**
+     * Надсилає ефемерне повідомлення користувачу, підключеному до цього чи іншого вузла.
+     * Повідомлення не зберігається: якщо користувач не онлайн, воно відкидається.
+     *
+     * @param username Отримувач
+     * @param msg Повідомлення
+     * @return false, якщо отримувач не онлайн
+     */
+    static boolean sendIfOnline(String username, Message msg) {
+        if (relayLocal(username, msg)) return true;
+        if (cluster == null) return false;
+        String node = cluster.nodeOf(username);
+        return node != null && cluster.relay(node, username, msg);
     }
 
     /**
-     * Надсилає системне повідомлення усім підключеним клієнтам.
+     * Записує ефемерне повідомлення користувачу, підключеному до цього вузла.
+     *
+     * @param username Отримувач
+     * @param msg Повідомлення
+     * @return false, якщо отримувач не підключений до цього вузла
+     */
+    static boolean relayLocal(String username, Message msg) {
+        ConnectionMailbox box = shardOf(username).get(username);
+        if (box == null) return false;
+        box.execute(out -> {
+            out.writeObject(msg);
+            messagesOut.inc(msg.getType());
+        });
+        return true;
+    }
+
+    /**
+     * Кладе повідомлення до офлайн-скриньки отримувача. Якщо отримувач тим часом
+     * підключився, скринька вивантажується через його вихідну скриньку.
+     * У кластері нічого не робить: повідомлення вже є недоставленим у спільній БД.
+     *
+     * @param shard Шард отримувача
+     * @param username Отримувач
+     * @param id Ідентифікатор збереженого повідомлення (null, якщо збереження не вдалося)
+     * @param msg Повідомлення
+     */
+    private static void deferToMailbox(ClientShard shard, String username, Long id, Message msg) {
+        if (id == null || cluster != null || !mailbox.offer(username, id, msg)) return;
+
+        ConnectionMailbox box = shard.get(username);
+        if (box != null && !box.isBroken()) {
+            box.execute(out -> drainMailbox(username, out),
+                () -> System.err.println("Failed to deliver mailbox of " + username));
+        }
+    }
+
+    /**
+     * Вивантажує офлайн-скриньку користувача у його потік та відмічає повідомлення як доставлені в БД.
+     * Виконується вихідною скринькою користувача.
+     *
+     * @param username Ім'я користувача
+     * @param out Потік користувача
+     * @throws IOException якщо запис у потік не вдався
+     */
+    private static void drainMailbox(String username, ObjectOutputStream out) throws IOException {
+        List<Long> delivered = mailbox.drainTo(username, out);
+        messagesOut.add(MessageType.TEXT, delivered.size());
+        db.markDeliveredByIds(username, delivered);
+    }
+
+    /**
+     * Надсилає системне повідомлення усім підключеним клієнтам (у кластері — клієнтам усіх вузлів).
      *
      * @param text Текст повідомлення
      */
     public static void broadcastSystemMessage(String text) {
         Message msg = new Message("System", "All", text, LocalDateTime.now());
         msg.setType(MessageType.SYSTEM);
-        for (ObjectOutputStream out : clients.values()) {
-            try {
-                out.writeObject(msg);
-                out.flush();
-            } catch (IOException ignored) {}
+        int recipients = writeToAll("system", msg);
+        systemFanOut.record(recipients);
+        messagesOut.add(MessageType.SYSTEM, recipients);
+        if (cluster != null) cluster.broadcast(msg);
+    }
+
+    /**
+     * Надсилає клієнтам цього вузла об'єкт, розісланий іншим вузлом кластера.
+     *
+     * @param obj Об'єкт для надсилання
+     */
+    static void broadcastLocal(Object obj) {
+        int recipients = writeToAll("cluster", obj);
+        if (obj instanceof Message msg) {
+            messagesOut.add(msg.getType(), recipients);
         }
     }
 
@@ -139,18 +659,47 @@ public class ClientManager {
      * @return Список повідомлень
      */
     public static List<Message> getConversationBetween(String user1, String user2) {
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            Query<MessageEntity> query = session.createQuery(
-                "FROM MessageEntity WHERE " +
-                "(sender = :u1 AND receiver = :u2) OR " +
-                "(sender = :u2 AND receiver = :u1) ORDER BY timestamp", MessageEntity.class
-            );
-            query.setParameter("u1", user1);
-            query.setParameter("u2", user2);
-            return query.list().stream().map(e -> new Message(
-                e.getSender(), e.getReceiver(), e.getText(), e.getTimestamp()
-            )).toList();
-        }
+        return db.getConversationBetween(user1, user2);
+    }
+
+    /**
+     * Повертає повідомлення між двома користувачами, новіші за заданий порядковий номер.
+     *
+     * @param user1 Перший користувач
+     * @param user2 Другий користувач
+     * @param afterSeq Останній відомий клієнту порядковий номер
+     * @return Список повідомлень
+     */
+    public static List<Message> getConversationAfter(String user1, String user2, long afterSeq) {
+        sequencer.ensure(user1, user2);
+        return db.getConversationAfter(user1, user2, afterSeq);
+    }
+
+    /**
+     * Повертає останні повідомлення між двома користувачами.
+     *
+     * @param user1 Перший користувач
+     * @param user2 Другий користувач
+     * @param limit Максимальна кількість повідомлень
+     * @return Список повідомлень
+     */
+    public static List<Message> getRecentConversation(String user1, String user2, int limit) {
+        sequencer.ensure(user1, user2);
+        return db.getRecentConversation(user1, user2, limit);
+    }
+
+    /**
+     * Повертає сторінку повідомлень між двома користувачами, старіших за заданий номер.
+     *
+     * @param user1 Перший користувач
+     * @param user2 Другий користувач
+     * @param beforeSeq Найменший уже відомий клієнту порядковий номер
+     * @param limit Максимальна кількість повідомлень
+     * @return Список повідомлень
+     */
+    public static List<Message> getConversationBefore(String user1, String user2, long beforeSeq, int limit) {
+        sequencer.ensure(user1, user2);
+        return db.getConversationBefore(user1, user2, beforeSeq, limit);
     }
 
     /**
@@ -169,13 +718,10 @@ public class ClientManager {
      * @throws IOException якщо передача не вдалася
      */
     public static void broadcastUserList() throws IOException {
-        List<String> users = new ArrayList<>(clients.keySet());
-        for (ObjectOutputStream out : clients.values()) {
-            try {
-                out.writeObject(users);
-                out.flush();
-            } catch (IOException ignored) {}
-        }
+        List<String> users = getActiveUsers();
+        int recipients = writeToAll("user_list", users);
+        userListFanOut.record(recipients);
+        userListsOut.add(recipients);
     }
 
     /**
@@ -185,12 +731,15 @@ public class ClientManager {
      */
     @SuppressWarnings("deprecation")
     public static void deleteMessagesOf(String username) {
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+        try (Operation op = QueryProfiler.begin(DELETE_MESSAGES).bind("user", username);
+             Session session = HibernateUtil.getSessionFactory().openSession()) {
             session.beginTransaction();
-            session.createQuery("DELETE FROM MessageEntity m WHERE m.sender = :user OR m.receiver = :user")
+            int deleted = session.createQuery(DELETE_MESSAGES.statement())
                 .setParameter("user", username)
                 .executeUpdate();
             session.getTransaction().commit();
+            HibernateUtil.recordWrite(username);
+            op.done(deleted);
         }
     }
 
@@ -200,7 +749,7 @@ public class ClientManager {
      * @return Список імен користувачів
      */
     public static List<String> getUsernames() {
-        return new ArrayList<>(clients.keySet());
+        return getActiveUsers();
     }
 
     /**
@@ -215,12 +764,40 @@ public class ClientManager {
     }
 
     /**
-     * Повертає список активних (підключених) користувачів.
+     * Повертає список активних (підключених) користувачів, у кластері — усіх вузлів.
      *
      * @return Список користувачів
      */
     public static List<String> getActiveUsers() {
-        return new ArrayList<>(clients.keySet());
+        List<String> users = getLocalUsers();
+        if (cluster != null) {
+            for (String user : cluster.remoteUsers()) {
+                if (!shardOf(user).contains(user)) users.add(user);
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Повертає список користувачів, підключених саме до цього сервера.
+     *
+     * @return Список користувачів
+     */
+    public static List<String> getLocalUsers() {
+        List<String> users = new ArrayList<>(onlineCount());
+        for (ClientShard shard : shards) {
+            users.addAll(shard.usernames());
+        }
+        return users;
+    }
+
+    /**
+     * Забуває лічильники порядкових номерів розмов: після зміни складу кластера
+     * розмова могла змінити вузол-власника, тож номери перечитуються з БД.
+     */
+    static void resetSequences() {
+        sequencer.reset();
+        GroupChats.resetSequences();
     }
 
     /**
@@ -229,7 +806,36 @@ public class ClientManager {
      * @return Строка з історією підключень
      */
     public static String getConnectionEvents() {
-        return String.join("\n", connectionLog);
+        StringBuilder sb = new StringBuilder();
+        for (EventJournal.Event event : journal.all()) {
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(event.format());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Записує подію з'єднання до журналу.
+     *
+     * @param type Тип події
+     * @param username Ім'я користувача
+     * @param detail Пояснення (сталий рядок) або null
+     */
+    public static void recordEvent(EventJournal.Type type, String username, String detail) {
+        journal.record(type, username, detail);
+    }
+
+    /**
+     * Шукає події з'єднань у журналі.
+     *
+     * @param username Ім'я користувача або null — будь-який
+     * @param type Тип події або null — будь-який
+     * @param fromMillis Початок інтервалу (включно), мс від епохи
+     * @param toMillis Кінець інтервалу (не включно), мс від епохи
+     * @return Знайдені події від старіших до новіших
+     */
+    public static List<EventJournal.Event> queryEvents(String username, EventJournal.Type type, long fromMillis, long toMillis) {
+        return journal.query(username, type, fromMillis, toMillis);
     }
     
     /**
@@ -238,9 +844,7 @@ public class ClientManager {
      * @return Список імен користувачів
      */
     public static List<String> getAllKnownUsers() {
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            return session.createQuery("SELECT u.username FROM UserEntity u", String.class).getResultList();
-        }
+        return UserManager.getAllUsernames();
     }
 
     /**
@@ -251,13 +855,49 @@ public class ClientManager {
     public static void notifyUserDeleted(String username) {
         Message msg = new Message("System", "All", "User " + username + " has been deleted", LocalDateTime.now());
         msg.setType(MessageType.DELETE_ACCOUNT_REQUEST);
-        for (ObjectOutputStream out : clients.values()) {
-            try {
-                out.writeObject(msg);
-                out.flush();
-            } catch (IOException ignored) {}
+        int recipients = writeToAll("deleted", msg);
+        deletedFanOut.record(recipients);
+        messagesOut.add(MessageType.DELETE_ACCOUNT_REQUEST, recipients);
+    }
+
+    /**
+     * Обробляє видалення акаунта, яке виконав інший вузол кластера.
+     *
+     * @param username Ім'я видаленого користувача
+     */
+    static void accountDeletedElsewhere(String username) {
+        sequencer.forget(username);
+        idempotency.forget(username);
+        GroupChats.forgetCached(username);
+        ReadReceipts.forgetCached(username);
+        notifyUserDeleted(username);
+    }
+
+    /**
+     * Додає об'єкт до вихідних скриньок усіх підключених клієнтів. Серіалізацію та
+     * запис виконують самі скриньки паралельно, тож розсилка не чекає на повільних клієнтів.
+     *
+     * @param kind Вид розсилки для події JFR
+     * @param obj Об'єкт для надсилання
+     * @return Кількість отримувачів на момент розсилки
+     */
+    private static int writeToAll(String kind, Object obj) {
+        BroadcastEvent event = new BroadcastEvent();
+        event.begin();
+        int recipients = 0;
+        for (ClientShard shard : shards) {
+            for (ConnectionMailbox box : shard.mailboxes()) {
+                box.send(obj);
+                recipients++;
+            }
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.kind = kind;
+            event.recipients = recipients;
+            event.commit();
         }
+        return recipients;
     }
 
 }
-
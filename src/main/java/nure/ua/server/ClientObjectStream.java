@@ -0,0 +1,39 @@
+package nure.ua.server;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Потік об'єктів з'єднання клієнта, у який, крім звичайних об'єктів, можна записати
+ * вже серіалізований об'єкт ({@link EncodedObject}) без повторної серіалізації.
+ *
+ * Готові байти посилаються на дескриптори класів і об'єкти за номерами, що починаються
+ * з нуля, тому перед ними та після них таблиці посилань обох сторін скидаються (TC_RESET):
+ * клієнт читає такий потік звичайним ObjectInputStream.
+ */
+public class ClientObjectStream extends ObjectOutputStream {
+    private final OutputStream raw;
+
+    /**
+     * @param raw потік сокета
+     * @throws IOException якщо не вдалося записати заголовок потоку
+     */
+    public ClientObjectStream(OutputStream raw) throws IOException {
+        super(raw);
+        this.raw = raw;
+    }
+
+    /**
+     * Записує серіалізований об'єкт у потік.
+     *
+     * @param bytes об'єкт, серіалізований окремим потоком (без заголовка)
+     * @throws IOException якщо запис не вдався
+     */
+    void writeEncoded(byte[] bytes) throws IOException {
+        reset();
+        drain();
+        raw.write(bytes);
+        reset();
+    }
+}
@@ -0,0 +1,77 @@
+package nure.ua.server;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import nure.ua.metrics.Metrics;
+
+/**
+ * Шард підключених клієнтів: частина користувачів, обрана за хешем імені.
+ *
+ * Шард володіє вихідними скриньками ({@link ConnectionMailbox}) своїх користувачів.
+ * Записи в з'єднання виконують самі скриньки на спільному планувальнику, а вставки
+ * в БД — спільний менеджер повідомлень (усі вони йдуть через одну фабрику сесій
+ * і один пул з'єднань), тож шард лише знаходить скриньку отримувача
+ * й показує своє навантаження в метриках.
+ */
+class ClientShard {
+    private final int index;
+    private final Map<String, ConnectionMailbox> connections = new ConcurrentHashMap<>();
+
+    /**
+     * @param index номер шарду
+     */
+    ClientShard(int index) {
+        this.index = index;
+        String shard = Integer.toString(index);
+        Metrics.gauge("chat_shard_clients", "Clients connected to a shard", connections::size, "shard", shard);
+        Metrics.gauge("chat_shard_queue_depth", "Writes waiting in the mailboxes of a shard", this::pendingWrites, "shard", shard);
+    }
+
+    /** @return номер шарду */
+    int index() {
+        return index;
+    }
+
+    ConnectionMailbox get(String username) {
+        return connections.get(username);
+    }
+
+    boolean contains(String username) {
+        return connections.containsKey(username);
+    }
+
+    void put(String username, ConnectionMailbox mailbox) {
+        connections.put(username, mailbox);
+    }
+
+    ConnectionMailbox remove(String username) {
+        return connections.remove(username);
+    }
+
+    boolean remove(String username, ConnectionMailbox mailbox) {
+        return connections.remove(username, mailbox);
+    }
+
+    int size() {
+        return connections.size();
+    }
+
+    Set<String> usernames() {
+        return connections.keySet();
+    }
+
+    Collection<ConnectionMailbox> mailboxes() {
+        return connections.values();
+    }
+
+    private long pendingWrites() {
+        long pending = 0;
+        for (ConnectionMailbox mailbox : connections.values()) {
+            pending += mailbox.pending();
+        }
+        return pending;
+    }
+}
@@ -0,0 +1,268 @@
+package nure.ua.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import nure.ua.cluster.ClusterBus;
+import nure.ua.cluster.ClusterEnvelope;
+import nure.ua.cluster.ClusterEnvelope.Kind;
+import nure.ua.cluster.PresenceRegistry;
+import nure.ua.common.Message;
+import nure.ua.metrics.LatencyHistogram;
+import nure.ua.metrics.Metrics;
+
+/**
+ * Участь сервера в кластері: присутність користувачів інших вузлів, маршрутизація
+ * повідомлень між вузлами та обробка конвертів, що надходять шиною.
+ *
+ * Кожна розмова (особиста чи група) має вузол-власника, обраний rendezvous-хешуванням
+ * ключа розмови серед досяжних вузлів. Зазвичай лише власник зберігає повідомлення розмови
+ * та видає їм порядкові номери, навіть коли учасники підключені до різних вузлів.
+ * Після зміни складу кластера лічильники номерів перечитуються з БД.
+ *
+ * Досяжність кожен вузол визначає сам, тож під час розділення мережі чи передачі власності
+ * два вузли можуть одночасно вважати себе власниками і видати той самий номер. Тоді
+ * унікальний індекс номерів у БД відхиляє другий рядок, а вузол підтягує лічильник
+ * до найбільшого збереженого номера і повторює збереження.
+ *
+ * Зміни присутності цього вузла надсилаються під тим самим монітором, що й знімок,
+ * тож знімок не може обігнати JOIN чи LEAVE, які вже стали в чергу після нього.
+ */
+class ClusterNode implements ClusterBus.Listener {
+    private final ClusterBus bus;
+    private final List<String> nodes;           // Усі вузли кластера, включно з цим
+    private final PresenceRegistry presence = new PresenceRegistry();
+    private final LatencyHistogram forwardRtt =
+        Metrics.timer("chat_cluster_forward_rtt_seconds", "Time from handing a message to another node until it was written to the recipient");
+
+    /**
+     * @param bus шина кластера
+     */
+    ClusterNode(ClusterBus bus) {
+        this.bus = bus;
+        this.nodes = new ArrayList<>(bus.peers());
+        this.nodes.add(bus.nodeId());
+        Metrics.gauge("chat_cluster_remote_users", "Users connected to other nodes", presence::size);
+    }
+
+    /**
+     * @throws IOException якщо шину не вдалося запустити
+     */
+    void start() throws IOException {
+        bus.start(this);
+    }
+
+    /** @return ідентифікатор цього вузла */
+    String nodeId() {
+        return bus.nodeId();
+    }
+
+    /**
+     * @param username ім'я користувача
+     * @return вузол, до якого підключений користувач, або null (не підключений до інших вузлів)
+     */
+    String nodeOf(String username) {
+        return presence.nodeOf(username);
+    }
+
+    /** @return користувачі, підключені до інших вузлів */
+    List<String> remoteUsers() {
+        return presence.users();
+    }
+
+    /**
+     * Обирає вузол-власника розмови серед цього вузла та досяжних сусідів.
+     *
+     * @param user1 перший учасник
+     * @param user2 другий учасник
+     * @return ідентифікатор вузла-власника
+     */
+    String ownerOf(String user1, String user2) {
+        return ownerOfKey(ConversationSequencer.conversationKey(user1, user2));
+    }
+
+    /**
+     * Обирає вузол-власника за ключем розмови.
+     *
+     * @param key ключ розмови
+     * @return ідентифікатор вузла-власника
+     */
+    String ownerOfKey(String key) {
+        String owner = null;
+        long best = Long.MIN_VALUE;
+        for (String node : nodes) {
+            if (!node.equals(bus.nodeId()) && !bus.isConnected(node)) continue;
+            long score = mix(key.hashCode() * 31L + node.hashCode());
+            if (owner == null || score > best) {
+                owner = node;
+                best = score;
+            }
+        }
+        return owner;
+    }
+
+    private static long mix(long h) {
+        h *= 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 31);
+    }
+
+    synchronized void announceJoin(String username) {
+        bus.publish(new ClusterEnvelope(Kind.JOIN, bus.nodeId(), username, null));
+    }
+
+    synchronized void announceLeave(String username) {
+        bus.publish(new ClusterEnvelope(Kind.LEAVE, bus.nodeId(), username, null));
+    }
+
+    private synchronized void sendSnapshot(String node) {
+        bus.send(node, new ClusterEnvelope(Kind.PRESENCE_SNAPSHOT, bus.nodeId(), null, new ArrayList<>(ClientManager.getLocalUsers())));
+    }
+
+    /**
+     * Передає повідомлення вузлу-власнику розмови для збереження.
+     *
+     * @param owner вузол-власник
+     * @param msg повідомлення відправника з ключем ідемпотентності
+     * @return false, якщо вузол недосяжний
+     */
+    boolean submit(String owner, Message msg) {
+        return bus.send(owner, new ClusterEnvelope(Kind.SUBMIT, bus.nodeId(), msg.getSender(), msg));
+    }
+
+    /**
+     * Передає збережене повідомлення вузлу, до якого підключений отримувач.
+     *
+     * @param node вузол отримувача
+     * @param msg повідомлення
+     * @return false, якщо вузол недосяжний
+     */
+    boolean deliver(String node, Message msg) {
+        return bus.send(node, new ClusterEnvelope(Kind.DELIVER, bus.nodeId(), msg.getReceiver(), msg).withEcho(System.nanoTime()));
+    }
+
+    /**
+     * @param node вузол відправника
+     * @param username відправник
+     * @param ack підтвердження
+     */
+    void ack(String node, String username, Message ack) {
+        bus.send(node, new ClusterEnvelope(Kind.ACK, bus.nodeId(), username, ack));
+    }
+
+    /**
+     * Передає повідомлення групи вузлу-власнику групи для збереження.
+     *
+     * @param owner вузол-власник
+     * @param msg повідомлення відправника з ключем ідемпотентності
+     * @return false, якщо вузол недосяжний
+     */
+    boolean submitGroup(String owner, Message msg) {
+        return bus.send(owner, new ClusterEnvelope(Kind.GROUP_SUBMIT, bus.nodeId(), msg.getSender(), msg));
+    }
+
+    /**
+     * Передає повідомлення групи вузлу, до якого підключені її учасники; вузол сам
+     * розсилає його своїм учасникам, тож конверт один на вузол, а не на учасника.
+     *
+     * @param node вузол учасників
+     * @param msg повідомлення групи
+     */
+    void deliverGroup(String node, Message msg) {
+        bus.send(node, new ClusterEnvelope(Kind.GROUP_DELIVER, bus.nodeId(), null, msg));
+    }
+
+    /**
+     * Передає ефемерне повідомлення (наприклад, індикатор набору) вузлу, до якого підключений користувач.
+     *
+     * @param node вузол користувача
+     * @param username отримувач
+     * @param msg повідомлення
+     * @return false, якщо вузол недосяжний
+     */
+    boolean relay(String node, String username, Message msg) {
+        return bus.send(node, new ClusterEnvelope(Kind.RELAY, bus.nodeId(), username, msg));
+    }
+
+    /**
+     * @param groupId група, склад якої змінився
+     */
+    void groupChanged(long groupId) {
+        bus.publish(new ClusterEnvelope(Kind.GROUP_CHANGED, bus.nodeId(), null, groupId));
+    }
+
+    /**
+     * @param msg повідомлення для розсилки клієнтам інших вузлів
+     */
+    void broadcast(Message msg) {
+        bus.publish(new ClusterEnvelope(Kind.BROADCAST, bus.nodeId(), null, msg));
+    }
+
+    /**
+     * @param username користувач, чий акаунт видалено
+     */
+    void accountDeleted(String username) {
+        bus.publish(new ClusterEnvelope(Kind.ACCOUNT_DELETED, bus.nodeId(), username, null));
+    }
+
+    /**
+     * Просить вузол, до якого підключений користувач, закрити його з'єднання.
+     *
+     * @param username ім'я користувача
+     * @return true, якщо користувач був підключений до іншого вузла
+     */
+    boolean evict(String username) {
+        String node = presence.nodeOf(username);
+        if (node == null) return false;
+        presence.leave(node, username);
+        bus.send(node, new ClusterEnvelope(Kind.EVICT, bus.nodeId(), username, null));
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void onEnvelope(ClusterEnvelope envelope) {
+        String from = envelope.getNode();
+        String user = envelope.getUser();
+        switch (envelope.getKind()) {
+            case PRESENCE_SNAPSHOT -> {
+                presence.replace(from, (List<String>) envelope.getPayload());
+                ClientManager.broadcastOnlineUsers();
+            }
+            case JOIN -> {
+                presence.join(from, user);
+                ClientManager.broadcastOnlineUsers();
+            }
+            case LEAVE -> {
+                presence.leave(from, user);
+                ClientManager.broadcastOnlineUsers();
+            }
+            case SUBMIT -> ClientManager.acceptSubmitted((Message) envelope.getPayload(), from);
+            case DELIVER -> ClientManager.deliverLocal((Message) envelope.getPayload(), () ->
+                bus.send(from, new ClusterEnvelope(Kind.DELIVERED, bus.nodeId(), user, null).withEcho(envelope.getEchoNanos())));
+            case DELIVERED -> forwardRtt.recordMicrosSince(envelope.getEchoNanos());
+            case ACK -> ClientManager.ackLocal(user, (Message) envelope.getPayload());
+            case BROADCAST -> ClientManager.broadcastLocal(envelope.getPayload());
+            case ACCOUNT_DELETED -> ClientManager.accountDeletedElsewhere(user);
+            case EVICT -> ClientManager.evictLocal(user);
+            case GROUP_SUBMIT -> GroupChats.acceptSubmitted((Message) envelope.getPayload(), from);
+            case GROUP_DELIVER -> GroupChats.deliverLocal((Message) envelope.getPayload());
+            case GROUP_CHANGED -> GroupChats.invalidate((Long) envelope.getPayload());
+            case RELAY -> ClientManager.relayLocal(user, (Message) envelope.getPayload());
+            default -> {}
+        }
+    }
+
+    @Override
+    public void onPeerUp(String node) {
+        sendSnapshot(node);
+        ClientManager.resetSequences();
+    }
+
+    @Override
+    public void onPeerDown(String node) {
+        presence.dropNode(node);
+        ClientManager.resetSequences();
+        ClientManager.broadcastOnlineUsers();
+    }
+}
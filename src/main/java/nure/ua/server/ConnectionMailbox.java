@@ -0,0 +1,209 @@
+package nure.ua.server;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nure.ua.metrics.Counter;
+import nure.ua.metrics.LatencyHistogram;
+import nure.ua.metrics.Metrics;
+
+/**
+ * Вихідна скринька з'єднання (актор): єдиний шлях запису в потік клієнта.
+ *
+ * Будь-який потік може покласти запис у скриньку без блокувань; скринька
+ * виконується на спільному планувальнику віртуальних потоків і в кожен момент
+ * має не більше одного виконавця, тому записи одному клієнту не змагаються між
+ * собою і надходять у порядку додавання. За одне пробудження виконується
+ * до {@link #MAX_BATCH} записів і робиться один flush. Віртуальний потік, що
+ * чекає на повільного клієнта, не займає потік-носій, тож такий клієнт не
+ * затримує записи іншим.
+ *
+ * Після першої помилки запису з'єднання вважається розірваним: решта записів
+ * не виконується, а для кожного викликається його обробник помилки.
+ */
+public class ConnectionMailbox {
+    private static final int MAX_BATCH = Integer.getInteger("chat.outbound.maxBatch", 64);
+
+    private static final ThreadFactory scheduler = Thread.ofVirtual().name("outbound-", 0).factory();
+    private static final LatencyHistogram batchSize =
+        Metrics.distribution("chat_outbound_batch_size", "Writes executed per mailbox wake-up");
+    private static final LatencyHistogram queueWait =
+        Metrics.timer("chat_outbound_queue_wait_seconds", "Time a write waited in a connection mailbox");
+    private static final Counter writeFailures =
+        Metrics.counter("chat_write_failures_total", "Failed writes to client connections");
+
+    /**
+     * Запис, що виконується скринькою з прямим доступом до потоку клієнта.
+     */
+    @FunctionalInterface
+    public interface Write {
+        /**
+         * @param out потік клієнта
+         * @throws IOException якщо запис не вдався
+         */
+        void writeTo(ObjectOutputStream out) throws IOException;
+    }
+
+    private final ObjectOutputStream out;
+    private final ConcurrentLinkedQueue<Envelope> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final List<Envelope> batch = new ArrayList<>();     // Доступний лише виконавцю скриньки
+    private volatile boolean broken;
+
+    /**
+     * @param out потік клієнта
+     */
+    public ConnectionMailbox(ObjectOutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Додає об'єкт до надсилання.
+     *
+     * @param obj об'єкт
+     */
+    public void send(Object obj) {
+        execute(o -> o.writeObject(obj), null);
+    }
+
+    /**
+     * Додає об'єкт до надсилання з обробником помилки.
+     *
+     * @param obj об'єкт
+     * @param onFailure викликається, якщо об'єкт не вдалося записати
+     */
+    public void send(Object obj, Runnable onFailure) {
+        execute(o -> o.writeObject(obj), onFailure);
+    }
+
+    /**
+     * Додає довільний запис; він виконається після всіх раніше доданих.
+     *
+     * @param write запис
+     */
+    public void execute(Write write) {
+        execute(write, null);
+    }
+
+    /**
+     * Додає довільний запис з обробником помилки.
+     *
+     * @param write запис
+     * @param onFailure викликається, якщо запис не вдався чи з'єднання вже розірване
+     */
+    public void execute(Write write, Runnable onFailure) {
+        queue.offer(new Envelope(write, onFailure, System.nanoTime()));
+        pending.incrementAndGet();
+        schedule();
+    }
+
+    /**
+     * Чекає, доки скринька виконає всі записи, додані до цього виклику.
+     *
+     * @param timeoutMillis максимальний час очікування
+     * @return true, якщо всі записи виконано (або відкинуто через розрив)
+     * @throws InterruptedException якщо очікування перервано
+     */
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        execute(o -> done.countDown(), done::countDown);
+        return done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Негайно закриває потік, не чекаючи записів у черзі (наприклад, витіснення
+     * старого з'єднання під час перепідключення).
+     */
+    public void closeNow() {
+        broken = true;
+        try {
+            out.close();
+        } catch (IOException ignored) {}
+        schedule();
+    }
+
+    /** @return кількість записів, що очікують виконання */
+    public int pending() {
+        return pending.get();
+    }
+
+    /** @return true, якщо запис у з'єднання вже не вдався */
+    public boolean isBroken() {
+        return broken;
+    }
+
+    private void schedule() {
+        if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+            scheduler.newThread(this::drain).start();
+        }
+    }
+
+    /**
+     * Виконує пакет записів і робить один flush. Якщо після цього черга не порожня,
+     * скринька планується знову, щоб інші скриньки не чекали на неї.
+     */
+    private void drain() {
+        Envelope envelope;
+        while (batch.size() < MAX_BATCH && (envelope = queue.poll()) != null) {
+            pending.decrementAndGet();
+            queueWait.recordMicrosSince(envelope.enqueuedAt());
+            if (broken) {
+                fail(envelope);
+                continue;
+            }
+            try {
+                envelope.write().writeTo(out);
+                batch.add(envelope);
+            } catch (IOException | RuntimeException e) {
+                fail(envelope);
+                breakConnection();
+            }
+        }
+        if (!batch.isEmpty()) {
+            batchSize.record(batch.size());
+            if (!broken) {
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    breakConnection();
+                }
+            }
+            batch.clear();
+        }
+        scheduled.set(false);
+        schedule();
+    }
+
+    /**
+     * Позначає з'єднання розірваним; записи поточного пакета, що ще не дійшли до клієнта, вважаються невдалими.
+     */
+    private void breakConnection() {
+        broken = true;
+        for (Envelope written : batch) {
+            fail(written);
+        }
+        batch.clear();
+    }
+
+    private static void fail(Envelope envelope) {
+        writeFailures.inc();
+        if (envelope.onFailure() != null) {
+            try {
+                envelope.onFailure().run();
+            } catch (RuntimeException e) {
+                System.err.println("Mailbox failure handler failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private record Envelope(Write write, Runnable onFailure, long enqueuedAt) {}
+}
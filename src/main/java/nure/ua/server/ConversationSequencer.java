@@ -0,0 +1,115 @@
+package nure.ua.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nure.ua.database.MessageManager;
+
+/**
+ * Видає монотонні порядкові номери повідомлень у межах кожної розмови.
+ * Лічильник розмови ініціалізується з БД під час першого звернення
+ * (старі повідомлення без номера при цьому отримують номери після наявних),
+ * далі номери видаються без звернень до бази.
+ */
+public class ConversationSequencer {
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final MessageManager db;
+
+    /**
+     * @param db менеджер повідомлень для читання поточного максимуму
+     */
+    public ConversationSequencer(MessageManager db) {
+        this.db = db;
+    }
+
+    /**
+     * Повертає наступний порядковий номер для розмови двох користувачів.
+     *
+     * @param user1 перший користувач
+     * @param user2 другий користувач
+     * @return наступний порядковий номер
+     */
+    public long next(String user1, String user2) {
+        return counter(user1, user2).incrementAndGet();
+    }
+
+    /**
+     * Підтягує лічильник розмови до найбільшого номера в БД, якщо номер, виданий цим вузлом,
+     * уже зайнятий (розмову тим часом обслуговував інший вузол). Лічильник не зменшується.
+     *
+     * @param user1 перший користувач
+     * @param user2 другий користувач
+     */
+    public void resync(String user1, String user2) {
+        counter(user1, user2).accumulateAndGet(db.initConversationSeq(user1, user2), Math::max);
+    }
+
+    /**
+     * Повертає номер повідомлення, яке не вдалося зберегти, щоб наступне повідомлення
+     * розмови отримало його і в нумерації не лишилося пропуску. Номер повертається, лише якщо
+     * він останній виданий; якщо тим часом видано наступний, пропуск лишається
+     * (клієнт заповнить його запитом історії). БД не читається: збереження щойно не вдалося,
+     * а номери, видані іншим повідомленням, ще можуть бути не записані.
+     *
+     * @param user1 перший користувач
+     * @param user2 другий користувач
+     * @param seq номер незбереженого повідомлення
+     */
+    public void release(String user1, String user2, long seq) {
+        AtomicLong counter = counters.get(conversationKey(user1, user2));
+        if (counter != null) counter.compareAndSet(seq, seq - 1);
+    }
+
+    /**
+     * Гарантує, що всі повідомлення розмови мають порядкові номери.
+     * Викликається перед видачею історії.
+     *
+     * @param user1 перший користувач
+     * @param user2 другий користувач
+     */
+    public void ensure(String user1, String user2) {
+        counter(user1, user2);
+    }
+
+    /**
+     * Повертає лічильник розмови, за потреби читаючи його з БД. Запит виконується поза картою,
+     * щоб не блокувати інші розмови; якщо лічильник тим часом опублікував інший потік,
+     * прочитане значення відкидається.
+     */
+    private AtomicLong counter(String user1, String user2) {
+        String key = conversationKey(user1, user2);
+        AtomicLong counter = counters.get(key);
+        if (counter != null) return counter;
+        AtomicLong loaded = new AtomicLong(db.initConversationSeq(user1, user2));
+        counter = counters.putIfAbsent(key, loaded);
+        return counter != null ? counter : loaded;
+    }
+
+    /**
+     * Забуває лічильники розмов користувача (наприклад, після видалення акаунта).
+     *
+     * @param username ім'я користувача
+     */
+    public void forget(String username) {
+        counters.keySet().removeIf(key -> key.startsWith(username + "|") || key.endsWith("|" + username));
+    }
+
+    /**
+     * Забуває всі лічильники; наступне звернення до кожної розмови перечитає номер з БД.
+     */
+    public void reset() {
+        counters.clear();
+    }
+
+    /**
+     * Будує ключ розмови, що не залежить від порядку учасників.
+     *
+     * @param user1 перший користувач
+     * @param user2 другий користувач
+     * @return ключ розмови
+     */
+    public static String conversationKey(String user1, String user2) {
+        return user1.compareTo(user2) <= 0 ? user1 + "|" + user2 : user2 + "|" + user1;
+    }
+}
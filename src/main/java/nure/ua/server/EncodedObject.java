@@ -0,0 +1,63 @@
+package nure.ua.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Об'єкт, серіалізований один раз для запису багатьом клієнтам (розсилка в групу).
+ * Кожна вихідна скринька лише копіює готові байти у свій потік замість того,
+ * щоб серіалізувати той самий об'єкт заново.
+ */
+public final class EncodedObject {
+    private final Object value;
+    private final byte[] bytes;
+
+    private EncodedObject(Object value, byte[] bytes) {
+        this.value = value;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Серіалізує об'єкт.
+     *
+     * @param value об'єкт
+     * @return серіалізований об'єкт
+     */
+    public static EncodedObject of(Object value) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(512);
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.flush();
+            buffer.reset();     // Без заголовка потоку: він уже є в потоці кожного клієнта
+            out.writeObject(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode " + value.getClass().getName(), e);
+        }
+        return new EncodedObject(value, buffer.toByteArray());
+    }
+
+    /**
+     * Записує об'єкт у потік клієнта: готові байти, якщо потік це підтримує, інакше звичайною серіалізацією.
+     *
+     * @param out потік клієнта
+     * @throws IOException якщо запис не вдався
+     */
+    public void writeTo(ObjectOutputStream out) throws IOException {
+        if (out instanceof ClientObjectStream stream) {
+            stream.writeEncoded(bytes);
+        } else {
+            out.writeObject(value);
+        }
+    }
+
+    /** @return початковий об'єкт */
+    public Object value() {
+        return value;
+    }
+
+    /** @return розмір серіалізованого об'єкта в байтах */
+    public int size() {
+        return bytes.length;
+    }
+}
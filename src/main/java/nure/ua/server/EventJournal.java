@@ -0,0 +1,259 @@
+package nure.ua.server;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Журнал подій з'єднань фіксованого розміру: кільцевий буфер, у який можуть
+ * одночасно писати багато потоків без блокувань і без створення об'єктів.
+ *
+ * Кожен запис отримує номер з атомарного лічильника і займає комірку
+ * номер & (місткість - 1); поля події зберігаються в паралельних масивах.
+ * Комірка публікується записом її номера (release), а читач перевіряє номер
+ * до і після читання полів, тож події, перезаписані під час читання, пропускаються.
+ * Коли буфер заповнений, найстаріші події перезаписуються.
+ *
+ * За бажанням фоновий потік періодично дописує нові події у стиснуті файли
+ * (gzip) і відкриває новий файл після заданого обсягу.
+ */
+public class EventJournal {
+
+    /**
+     * Типи подій журналу.
+     */
+    public enum Type { CONNECTED, DISCONNECTED, CONNECTION_LOST, EVICTED, LOGIN_FAILED, REGISTERED, ACCOUNT_DELETED }
+
+    private static final Type[] TYPES = Type.values();
+    private static final long IN_PROGRESS = -1;
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong();        // Номер наступної події
+    private final AtomicLongArray published;                   // Номер події в комірці або IN_PROGRESS
+    private final long[] times;                                // Час події, мс від епохи
+    private final byte[] types;
+    private final String[] users;
+    private final String[] details;                            // Додаткове пояснення (лише сталі рядки)
+
+    private ScheduledExecutorService archiver;
+    private long archivedUpTo;                                 // Номер першої ще не заархівованої події
+    private Writer archive;
+    private long archiveBytes;
+
+    /**
+     * @param capacity кількість подій у пам'яті (округлюється до степеня двійки)
+     */
+    public EventJournal(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, IN_PROGRESS);
+        }
+        times = new long[size];
+        types = new byte[size];
+        users = new String[size];
+        details = new String[size];
+    }
+
+    /**
+     * Записує подію. Не блокує потік і не створює об'єктів, тому деталі мають
+     * бути сталими рядками, а не результатом конкатенації.
+     *
+     * @param type тип події
+     * @param user ім'я користувача
+     * @param detail пояснення або null
+     */
+    public void record(Type type, String user, String detail) {
+        long seq = cursor.getAndIncrement();
+        int slot = (int) (seq & mask);
+        published.setOpaque(slot, IN_PROGRESS);
+        VarHandle.storeStoreFence();
+        times[slot] = System.currentTimeMillis();
+        types[slot] = (byte) type.ordinal();
+        users[slot] = user;
+        details[slot] = detail;
+        published.setRelease(slot, seq);
+    }
+
+    /**
+     * Повертає події з буфера, що відповідають фільтру, від старіших до новіших.
+     *
+     * @param user ім'я користувача або null — будь-який
+     * @param type тип події або null — будь-який
+     * @param fromMillis початок інтервалу (включно), мс від епохи
+     * @param toMillis кінець інтервалу (не включно), мс від епохи
+     * @return знайдені події
+     */
+    public List<Event> query(String user, Type type, long fromMillis, long toMillis) {
+        List<Event> result = new ArrayList<>();
+        long end = cursor.get();
+        long start = Math.max(0, end - mask - 1);
+        for (long seq = start; seq < end; seq++) {
+            Event event = read(seq);
+            if (event == null) continue;
+            if (user != null && !user.equals(event.user())) continue;
+            if (type != null && type != event.type()) continue;
+            if (event.timeMillis() < fromMillis || event.timeMillis() >= toMillis) continue;
+            result.add(event);
+        }
+        return result;
+    }
+
+    /**
+     * @return усі події, що зараз є в буфері
+     */
+    public List<Event> all() {
+        return query(null, null, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /** @return загальна кількість записаних подій з моменту запуску */
+    public long getRecordedCount() {
+        return cursor.get();
+    }
+
+    /**
+     * Читає подію з заданим номером.
+     *
+     * @param seq номер події
+     * @return подія або null, якщо її вже перезаписано чи ще не опубліковано
+     */
+    private Event read(long seq) {
+        int slot = (int) (seq & mask);
+        if (published.getAcquire(slot) != seq) return null;
+        long time = times[slot];
+        Type type = TYPES[types[slot]];
+        String user = users[slot];
+        String detail = details[slot];
+        VarHandle.loadLoadFence();
+        if (published.getAcquire(slot) != seq) return null;
+        return new Event(seq, time, type, user, detail);
+    }
+
+    /**
+     * Вмикає фонове архівування подій у стиснуті файли.
+     *
+     * @param dir каталог для файлів
+     * @param flushMillis період дописування нових подій
+     * @param rollBytes обсяг (до стиснення), після якого відкривається новий файл
+     */
+    public synchronized void startArchiving(Path dir, long flushMillis, long rollBytes) {
+        if (archiver != null) return;
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            System.err.println("Failed to create journal directory " + dir + ": " + e.getMessage());
+            return;
+        }
+        archivedUpTo = cursor.get();
+        archiver = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "event-journal-archiver");
+            t.setDaemon(true);
+            return t;
+        });
+        archiver.scheduleWithFixedDelay(() -> archive(dir, rollBytes), flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            archive(dir, rollBytes);
+            closeArchive();
+        }, "event-journal-close"));
+    }
+
+    /**
+     * Дописує в поточний файл події, що з'явилися з минулого разу.
+     * Якщо буфер встиг перезаписати частину з них, у файл додається позначка про пропуск.
+     * Архівування зупиняється на першій події, яку ще не опубліковано (записувач
+     * отримав номер, але ще заповнює комірку), і продовжується з неї наступного разу.
+     */
+    private synchronized void archive(Path dir, long rollBytes) {
+        long end = cursor.get();
+        if (end == archivedUpTo) return;
+        try {
+            if (archive == null) {
+                Path file = dir.resolve("events-" + LocalDateTime.now().format(FILE_TIME) + "-" + archivedUpTo + ".log.gz");
+                archive = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(Files.newOutputStream(file), true), StandardCharsets.UTF_8));
+                archiveBytes = 0;
+            }
+            long seq = Math.max(archivedUpTo, end - mask - 1);
+            long overwritten = seq - archivedUpTo;
+            for (; seq < end; seq++) {
+                Event event = read(seq);
+                if (event == null) {
+                    if (published.getAcquire((int) (seq & mask)) > seq) {
+                        overwritten++;              // Комірку вже зайняла новіша подія
+                        continue;
+                    }
+                    break;                          // Ще не опубліковано: дочекатися наступного разу
+                }
+                if (overwritten > 0) {
+                    writeLine("... " + overwritten + " events overwritten before archiving");
+                    overwritten = 0;
+                }
+                writeLine(event.format());
+            }
+            if (overwritten > 0) {
+                writeLine("... " + overwritten + " events overwritten before archiving");
+            }
+            archivedUpTo = seq;
+            archive.flush();
+            if (archiveBytes >= rollBytes) {
+                closeArchive();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to archive journal: " + e.getMessage());
+            closeArchive();
+        }
+    }
+
+    private void writeLine(String line) throws IOException {
+        archive.write(line);
+        archive.write('\n');
+        archiveBytes += line.length() + 1;
+    }
+
+    private synchronized void closeArchive() {
+        if (archive == null) return;
+        try {
+            archive.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close journal file: " + e.getMessage());
+        }
+        archive = null;
+    }
+
+    /**
+     * Подія журналу.
+     *
+     * @param seq порядковий номер події
+     * @param timeMillis час, мс від епохи
+     * @param type тип події
+     * @param user ім'я користувача
+     * @param detail пояснення або null
+     */
+    public record Event(long seq, long timeMillis, Type type, String user, String detail) {
+
+        /** @return подія одним рядком для логу */
+        public String format() {
+            LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(timeMillis), ZoneId.systemDefault());
+            return time + " " + type + " " + user + (detail != null ? " (" + detail + ")" : "");
+        }
+    }
+}
@@ -0,0 +1,535 @@
+package nure.ua.server;
+
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nure.ua.common.Message;
+import nure.ua.common.MessageType;
+import nure.ua.database.GroupEntity;
+import nure.ua.database.GroupManager;
+import nure.ua.database.GroupMessageEntity;
+import nure.ua.database.SaveResult;
+import nure.ua.database.UserManager;
+import nure.ua.metrics.Counter;
+import nure.ua.metrics.LatencyHistogram;
+import nure.ua.metrics.MessageTypeCounters;
+import nure.ua.metrics.Metrics;
+
+/**
+ * Групові чати: склад груп, збереження повідомлень і розсилка учасникам.
+ *
+ * Повідомлення групи зберігається одним рядком і отримує порядковий номер у групі.
+ * Розсилка серіалізує його один раз ({@link EncodedObject}) і додає готові байти
+ * до вихідних скриньок усіх онлайн-учасників; скриньки записують їх паралельно
+ * на своїх віртуальних потоках, тож повільний учасник не затримує інших.
+ *
+ * Доставку кожному учаснику описує курсор — номер останнього записаного в його з'єднання
+ * повідомлення групи. Курсори накопичуються в пам'яті й записуються в БД одним запитом
+ * на групу під час відключення; під час входу учасник отримує все, що новіше за курсори.
+ * Якщо сервер аварійно зупинився, частина повідомлень буде доставлена повторно —
+ * клієнт відкидає їх за порядковим номером, як і під час відновлення з'єднання.
+ *
+ * Склад груп кешується в пам'яті. У кластері групою, як і особистою розмовою, володіє
+ * один вузол: він зберігає й нумерує її повідомлення, а іншим вузлам передає одне
+ * повідомлення на вузол, які ті розсилають своїм учасникам. Зміни складу групи
+ * вузли повідомляють один одному, щоб перечитати закешований склад.
+ */
+public class GroupChats {
+    private static final int CATCH_UP_LIMIT = Integer.getInteger("chat.groups.catchUpLimit", 1000);
+    private static final int MAX_MEMBERS = Integer.getInteger("chat.groups.maxMembers", 5000);
+    private static final int IDEMPOTENCY_KEYS_PER_SENDER = 256;
+    private static final int SEQ_RETRIES = 3;              // Скільки разів перечитати номер після конфлікту
+
+    private static GroupManager db;
+    private static final Map<Long, Set<String>> members = new ConcurrentHashMap<>();        // Кеш складу груп
+    private static final Map<Long, AtomicLong> sequences = new ConcurrentHashMap<>();       // Лічильники номерів груп цього вузла
+    private static final Map<String, Map<Long, Long>> delivered = new ConcurrentHashMap<>(); // Курсори доставки, ще не записані в БД
+    private static final IdempotencyCache idempotency = new IdempotencyCache(IDEMPOTENCY_KEYS_PER_SENDER);
+
+    private static final MessageTypeCounters messagesOut =
+        new MessageTypeCounters("chat_messages_out_total", "Messages written to client connections");
+    private static final Counter groupMessages =
+        Metrics.counter("chat_group_messages_total", "Group messages stored");
+    private static final Counter seqConflicts =
+        Metrics.counter("chat_seq_conflicts_total", "Inserts rejected because another node already used the seq", "kind", "group");
+    private static final LatencyHistogram fanOutRecipients =
+        Metrics.distribution("chat_group_fanout_recipients", "Online members a group message was enqueued for on this node");
+    private static final LatencyHistogram fanOutTime =
+        Metrics.timer("chat_group_fanout_seconds", "Time to encode a group message and enqueue it for all online members");
+    private static final LatencyHistogram encodedBytes =
+        Metrics.distribution("chat_group_encoded_bytes", "Serialized size of a group fan-out message");
+
+    /**
+     * Ініціалізує доступ до груп у БД.
+     */
+    public static void initialize() {
+        db = new GroupManager();
+        Metrics.gauge("chat_groups_cached", "Groups whose member lists are cached", members::size);
+        Metrics.gauge("chat_group_cursor_users", "Users with group delivery cursors not yet written to the DB", delivered::size);
+    }
+
+    /**
+     * Створює групу; автор стає її учасником і отримує GROUP_UPDATE з ідентифікатором групи.
+     *
+     * @param creator автор
+     * @param name назва групи
+     */
+    public static void createGroup(String creator, String name) {
+        if (name == null || name.isBlank()) {
+            notify(creator, "Group name must not be empty.");
+            return;
+        }
+        GroupEntity group = db.createGroup(name.strip(), creator);
+        if (group == null) {
+            notify(creator, "Failed to create group " + name.strip() + ".");
+            return;
+        }
+        Set<String> created = ConcurrentHashMap.newKeySet();
+        created.add(creator);
+        members.put(group.getId(), created);
+        fanOut(group.getId(), update(group.getId(), group.getName(), creator, creator));
+    }
+
+    /**
+     * Додає користувача до групи. Додавати можуть лише учасники групи;
+     * усі учасники, включно з новим, отримують GROUP_UPDATE.
+     *
+     * @param actor учасник, що додає
+     * @param groupId ідентифікатор групи
+     * @param username новий учасник
+     */
+    public static void addMember(String actor, long groupId, String username) {
+        Set<String> current = membersOf(groupId);
+        if (!current.contains(actor)) {
+            notify(actor, "You are not a member of group " + groupId + ".");
+            return;
+        }
+        if (current.size() >= MAX_MEMBERS) {
+            notify(actor, "Group " + groupId + " already has " + MAX_MEMBERS + " members.");
+            return;
+        }
+        if (username == null || !UserManager.userExists(username)) {
+            notify(actor, "User " + username + " does not exist.");
+            return;
+        }
+        if (!db.addMember(groupId, username, db.maxSeq(groupId))) {
+            notify(actor, "User " + username + " is already a member of group " + groupId + ".");
+            return;
+        }
+        current.add(username);
+        changed(groupId);
+        fanOut(groupId, update(groupId, nameOf(groupId), actor, username));
+    }
+
+    /**
+     * Виводить користувача з групи; решта учасників і сам користувач отримують GROUP_UPDATE.
+     *
+     * @param username учасник
+     * @param groupId ідентифікатор групи
+     */
+    public static void leave(String username, long groupId) {
+        Set<String> current = membersOf(groupId);
+        if (!current.contains(username) || !db.removeMember(groupId, username)) {
+            notify(username, "You are not a member of group " + groupId + ".");
+            return;
+        }
+        current.remove(username);
+        changed(groupId);
+        Map<Long, Long> cursors = delivered.get(username);
+        if (cursors != null) cursors.remove(groupId);
+
+        Message update = update(groupId, nameOf(groupId), username, username);
+        fanOut(groupId, update);
+        ConnectionMailbox box = ClientManager.mailboxOf(username);
+        if (box != null) box.send(update);
+    }
+
+    /**
+     * Приймає повідомлення групи від учасника. У кластері повідомлення групи,
+     * якою володіє інший вузол, передається цьому вузлу.
+     *
+     * @param msg повідомлення з groupId, текстом і ключем ідемпотентності
+     */
+    public static void send(Message msg) {
+        long groupId = msg.getGroupId();
+        if (!membersOf(groupId).contains(msg.getSender())) {
+            notify(msg.getSender(), "You are not a member of group " + groupId + ".");
+            return;
+        }
+        ClusterNode cluster = ClientManager.cluster();
+        if (cluster != null) {
+            String owner = cluster.ownerOfKey(groupKey(groupId));
+            if (!owner.equals(cluster.nodeId()) && cluster.submitGroup(owner, msg)) {
+                return;
+            }
+        }
+        persistAndFanOut(msg, null);
+    }
+
+    /**
+     * Приймає повідомлення групи, передане іншим вузлом кластера, бо групою володіє цей вузол.
+     *
+     * @param msg повідомлення відправника
+     * @param from вузол, до якого підключений відправник
+     */
+    static void acceptSubmitted(Message msg, String from) {
+        persistAndFanOut(msg, from);
+    }
+
+    /**
+     * Зберігає повідомлення з наступним порядковим номером групи, розсилає учасникам
+     * і підтверджує відправнику. Повідомлення з тим самим ключем ідемпотентності обробляються
+     * по одному; повторне надсилання вже збереженого повідомлення лише повторює підтвердження.
+     *
+     * @param msg повідомлення відправника
+     * @param senderNode вузол відправника, якщо повідомлення передав інший вузол, інакше null
+     */
+    private static void persistAndFanOut(Message msg, String senderNode) {
+        idempotency.serialize(msg.getSender(), msg.getClientKey(), () -> persistOnce(msg, senderNode));
+    }
+
+    private static void persistOnce(Message msg, String senderNode) {
+        Message accepted = idempotency.lookup(msg.getSender(), msg.getClientKey());
+        if (accepted != null) {
+            ClientManager.sendAck(msg.getSender(), accepted, senderNode);
+            return;
+        }
+
+        long groupId = msg.getGroupId();
+        GroupMessageEntity entity = new GroupMessageEntity(groupId, msg.getSender(), msg.getText(), LocalDateTime.now(), 0);
+        entity.setClientKey(msg.getClientKey());
+        entity.setAttachmentOf(msg);
+        for (int attempt = 0; ; attempt++) {
+            entity.setSeq(nextSeq(groupId));
+            SaveResult result = db.saveMessage(entity);
+            if (result == SaveResult.SAVED) break;
+            if (result == SaveResult.FAILED) {
+                // Повідомлення не збережено: без підтвердження клієнт може надіслати його повторно
+                releaseSeq(groupId, entity.getSeq());
+                return;
+            }
+
+            Message previous = db.findByClientKey(msg.getSender(), msg.getClientKey());
+            if (previous != null) {
+                // Ключ уже прийнято раніше: до перезапуску, на іншому вузлі або кеш його забув
+                idempotency.remember(msg.getSender(), msg.getClientKey(), previous);
+                ClientManager.sendAck(msg.getSender(), previous, senderNode);
+                return;
+            }
+            // Номер зайнятий: групою тим часом володів інший вузол
+            seqConflicts.inc();
+            if (attempt == SEQ_RETRIES) return;
+            resyncSeq(groupId);
+        }
+        groupMessages.inc();
+
+        Message stored = entity.toMessage();
+        idempotency.remember(msg.getSender(), msg.getClientKey(), stored);
+        fanOut(groupId, stored);
+        ClientManager.sendAck(msg.getSender(), stored, senderNode);
+    }
+
+    /**
+     * Розсилає повідомлення онлайн-учасникам групи без збереження: серіалізує його один раз
+     * і додає до вихідної скриньки кожного учасника, підключеного до цього вузла.
+     * У кластері учасникам інших вузлів повідомлення передається одним конвертом на вузол.
+     *
+     * @param groupId ідентифікатор групи
+     * @param msg повідомлення
+     * @return кількість учасників цього вузла, для яких повідомлення додано до скриньки
+     */
+    public static int fanOut(long groupId, Message msg) {
+        ClusterNode cluster = ClientManager.cluster();
+        Set<String> nodes = cluster != null ? new HashSet<>() : null;
+        int recipients = writeToMembers(groupId, msg, nodes);
+        if (nodes != null) {
+            for (String node : nodes) {
+                cluster.deliverGroup(node, msg);
+            }
+        }
+        return recipients;
+    }
+
+    /**
+     * Розсилає учасникам цього вузла повідомлення групи, передане вузлом-власником.
+     *
+     * @param msg повідомлення групи
+     */
+    static void deliverLocal(Message msg) {
+        writeToMembers(msg.getGroupId(), msg, null);
+    }
+
+    /**
+     * Додає серіалізоване повідомлення до скриньок онлайн-учасників цього вузла.
+     * Для повідомлень з порядковим номером курсор учасника пересувається лише після
+     * того, як запис виштовхнуто в сокет, інакше обірване з'єднання зберегло б курсор
+     * за повідомленням, якого учасник не отримав.
+     *
+     * @param groupId ідентифікатор групи
+     * @param msg повідомлення
+     * @param remoteNodes куди додати вузли учасників, підключених до інших вузлів, або null
+     * @return кількість учасників, для яких повідомлення додано до скриньки
+     */
+    private static int writeToMembers(long groupId, Message msg, Set<String> remoteNodes) {
+        long start = System.nanoTime();
+        EncodedObject encoded = EncodedObject.of(msg);
+        long seq = msg.getType() == MessageType.GROUP_TEXT ? msg.getSeq() : 0;
+        ClusterNode cluster = ClientManager.cluster();
+        int recipients = 0;
+        for (String member : membersOf(groupId)) {
+            ConnectionMailbox box = ClientManager.mailboxOf(member);
+            if (box != null) {
+                box.execute(out -> {
+                    encoded.writeTo(out);
+                    if (seq > 0) {
+                        out.flush();
+                        advance(member, groupId, seq);
+                    }
+                });
+                recipients++;
+            } else if (remoteNodes != null) {
+                String node = cluster.nodeOf(member);
+                if (node != null) remoteNodes.add(node);
+            }
+        }
+        fanOutTime.recordMicrosSince(start);
+        fanOutRecipients.record(recipients);
+        encodedBytes.record(encoded.size());
+        messagesOut.add(msg.getType(), recipients);
+        return recipients;
+    }
+
+    /**
+     * Надсилає користувачу, що увійшов, список його груп і повідомлення, новіші за курсори доставки.
+     * Виконується після реєстрації з'єднання, тож повідомлення, розіслані тим часом,
+     * можуть прийти раніше за пропущені; клієнт упорядковує їх за порядковим номером.
+     *
+     * @param username ім'я користувача
+     * @param box вихідна скринька його з'єднання
+     */
+    static void onLogin(String username, ConnectionMailbox box) {
+        flushCursors(username);
+        List<GroupEntity> groups = db.getGroupsOf(username);
+        if (groups.isEmpty()) return;
+        for (GroupEntity group : groups) {
+            box.send(update(group.getId(), group.getName(), "System", username));
+        }
+        messagesOut.add(MessageType.GROUP_UPDATE, groups.size());
+
+        List<Message> missed = db.getUndelivered(username, CATCH_UP_LIMIT);
+        if (missed.isEmpty()) return;
+        box.execute(out -> {
+            for (Message msg : missed) {
+                out.writeObject(msg);
+            }
+            out.flush(); // Курсори пересуваються лише після успішного запису
+            for (Message msg : missed) {
+                advance(username, msg.getGroupId(), msg.getSeq());
+            }
+            messagesOut.add(MessageType.GROUP_TEXT, missed.size());
+        });
+    }
+
+    /**
+     * Записує в БД курсори доставки користувача, що відключився.
+     *
+     * @param username ім'я користувача
+     */
+    static void onLogout(String username) {
+        flushCursors(username);
+    }
+
+    /**
+     * Пересуває курсор прочитання учасника групи.
+     *
+     * @param username учасник
+     * @param groupId ідентифікатор групи
+     * @param seq порядковий номер останнього прочитаного повідомлення
+     */
+    public static void markRead(String username, long groupId, long seq) {
+        if (seq > 0 && membersOf(groupId).contains(username)) {
+            db.advanceRead(groupId, username, seq);
+        }
+    }
+
+    /**
+     * @param username учасник
+     * @param groupId ідентифікатор групи
+     * @param afterSeq останній відомий клієнту порядковий номер
+     * @param limit максимальна кількість повідомлень
+     * @return новіші повідомлення групи або порожній список, якщо користувач не є учасником
+     */
+    public static List<Message> getHistoryAfter(String username, long groupId, long afterSeq, int limit) {
+        if (!membersOf(groupId).contains(username)) return List.of();
+        return db.getMessagesAfter(groupId, username, afterSeq, limit);
+    }
+
+    /**
+     * @param username учасник
+     * @param groupId ідентифікатор групи
+     * @param limit максимальна кількість повідомлень
+     * @return останні повідомлення групи або порожній список, якщо користувач не є учасником
+     */
+    public static List<Message> getRecentHistory(String username, long groupId, int limit) {
+        if (!membersOf(groupId).contains(username)) return List.of();
+        return db.getRecentMessages(groupId, username, limit);
+    }
+
+    /**
+     * @param username учасник
+     * @param groupId ідентифікатор групи
+     * @param beforeSeq найменший уже відомий клієнту порядковий номер
+     * @param limit максимальна кількість повідомлень
+     * @return сторінка старіших повідомлень або порожній список, якщо користувач не є учасником
+     */
+    public static List<Message> getHistoryBefore(String username, long groupId, long beforeSeq, int limit) {
+        if (!membersOf(groupId).contains(username)) return List.of();
+        return db.getMessagesBefore(groupId, username, beforeSeq, limit);
+    }
+
+    /**
+     * Видаляє членства й повідомлення груп користувача, чий акаунт видалено.
+     *
+     * @param username ім'я користувача
+     */
+    static void forget(String username) {
+        db.deleteUser(username);
+        forgetCached(username);
+    }
+
+    /**
+     * Прибирає користувача, чий акаунт видалив інший вузол кластера, з закешованого складу груп.
+     *
+     * @param username ім'я користувача
+     */
+    static void forgetCached(String username) {
+        delivered.remove(username);
+        for (Set<String> group : members.values()) {
+            group.remove(username);
+        }
+    }
+
+    /**
+     * Забуває закешований склад групи (його змінив інший вузол).
+     *
+     * @param groupId ідентифікатор групи
+     */
+    static void invalidate(long groupId) {
+        members.remove(groupId);
+    }
+
+    /**
+     * Забуває лічильники номерів груп: після зміни складу кластера група могла змінити вузол-власника.
+     */
+    static void resetSequences() {
+        sequences.clear();
+    }
+
+    /**
+     * Повертає склад групи з кешу, за потреби читаючи його з БД.
+     * Склад неіснуючої групи не кешується.
+     *
+     * @param groupId ідентифікатор групи
+     * @return учасники групи
+     */
+    private static Set<String> membersOf(long groupId) {
+        Set<String> cached = members.get(groupId);
+        if (cached != null) return cached;
+        List<String> loaded = db.getMembers(groupId);
+        if (loaded.isEmpty()) return Set.of();
+        Set<String> group = ConcurrentHashMap.newKeySet(loaded.size());
+        group.addAll(loaded);
+        Set<String> raced = members.putIfAbsent(groupId, group);
+        return raced != null ? raced : group;
+    }
+
+    private static long nextSeq(long groupId) {
+        return sequence(groupId).incrementAndGet();
+    }
+
+    /**
+     * Підтягує лічильник групи до найбільшого номера в БД. Лічильник не зменшується.
+     */
+    private static void resyncSeq(long groupId) {
+        sequence(groupId).accumulateAndGet(db.maxSeq(groupId), Math::max);
+    }
+
+    /**
+     * Повертає номер незбереженого повідомлення, якщо він останній виданий,
+     * щоб у нумерації групи не лишилося пропуску.
+     */
+    private static void releaseSeq(long groupId, long seq) {
+        AtomicLong counter = sequences.get(groupId);
+        if (counter != null) counter.compareAndSet(seq, seq - 1);
+    }
+
+    /**
+     * Повертає лічильник групи, за потреби читаючи найбільший номер з БД поза картою.
+     */
+    private static AtomicLong sequence(long groupId) {
+        AtomicLong counter = sequences.get(groupId);
+        if (counter != null) return counter;
+        AtomicLong loaded = new AtomicLong(db.maxSeq(groupId));
+        counter = sequences.putIfAbsent(groupId, loaded);
+        return counter != null ? counter : loaded;
+    }
+
+    private static void advance(String username, long groupId, long seq) {
+        delivered.computeIfAbsent(username, u -> new ConcurrentHashMap<>()).merge(groupId, seq, Math::max);
+    }
+
+    private static void flushCursors(String username) {
+        Map<Long, Long> cursors = delivered.remove(username);
+        if (cursors == null) return;
+        try {
+            db.advanceDelivered(username, cursors);
+        } catch (RuntimeException e) {
+            System.err.println("Failed to save group cursors of " + username + ": " + e.getMessage());
+        }
+    }
+
+    private static void changed(long groupId) {
+        ClusterNode cluster = ClientManager.cluster();
+        if (cluster != null) cluster.groupChanged(groupId);
+    }
+
+    private static String nameOf(long groupId) {
+        GroupEntity group = db.getGroup(groupId);
+        return group != null ? group.getName() : "";
+    }
+
+    /**
+     * @param groupId ідентифікатор групи
+     * @return ключ групи для вибору вузла-власника (не збігається з ключами особистих розмов)
+     */
+    private static String groupKey(long groupId) {
+        return "group:" + groupId;
+    }
+
+    private static Message update(long groupId, String name, String actor, String member) {
+        Message msg = new Message(actor, member, name, LocalDateTime.now());
+        msg.setType(MessageType.GROUP_UPDATE);
+        msg.setGroupId(groupId);
+        return msg;
+    }
+
+    /**
+     * Надсилає користувачу системне повідомлення про відхилений запит.
+     *
+     * @param username ім'я користувача
+     * @param text текст
+     */
+    private static void notify(String username, String text) {
+        ConnectionMailbox box = ClientManager.mailboxOf(username);
+        if (box == null) return;
+        Message msg = new Message("System", username, text, LocalDateTime.now());
+        msg.setType(MessageType.SYSTEM);
+        box.send(msg);
+        messagesOut.inc(MessageType.SYSTEM);
+    }
+}
@@ -0,0 +1,94 @@
+package nure.ua.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import nure.ua.common.Message;
+
+/**
+ * Пам'ятає останні прийняті повідомлення кожного відправника за ключем ідемпотентності,
+ * щоб повторне надсилання того самого повідомлення не створювало дублікат.
+ * Для кожного відправника зберігається обмежена кількість ключів; ключі, що випали
+ * з кешу або були прийняті до перезапуску чи іншим вузлом, перевіряє унікальний індекс у БД.
+ */
+public class IdempotencyCache {
+    private final int perSenderLimit;
+    private final Map<String, Map<String, Message>> accepted = new ConcurrentHashMap<>();
+    private final Map<String, Object> inFlight = new ConcurrentHashMap<>();   // "відправник\0ключ" -> монітор
+
+    /**
+     * @param perSenderLimit максимальна кількість ключів на одного відправника
+     */
+    public IdempotencyCache(int perSenderLimit) {
+        this.perSenderLimit = perSenderLimit;
+    }
+
+    /**
+     * @param sender відправник
+     * @param clientKey ключ ідемпотентності
+     * @return раніше прийняте повідомлення або null
+     */
+    public Message lookup(String sender, String clientKey) {
+        if (clientKey == null) return null;
+        Map<String, Message> recent = accepted.get(sender);
+        if (recent == null) return null;
+        synchronized (recent) {
+            return recent.get(clientKey);
+        }
+    }
+
+    /**
+     * Запам'ятовує прийняте повідомлення.
+     *
+     * @param sender відправник
+     * @param clientKey ключ ідемпотентності
+     * @param msg прийняте повідомлення з призначеними id та seq
+     */
+    public void remember(String sender, String clientKey, Message msg) {
+        if (clientKey == null) return;
+        Map<String, Message> recent = accepted.computeIfAbsent(sender, s -> new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Message> eldest) {
+                return size() > perSenderLimit;
+            }
+        });
+        synchronized (recent) {
+            recent.put(clientKey, msg);
+        }
+    }
+
+    /**
+     * Виконує прийом повідомлення, поки інші повідомлення з тим самим ключем відправника чекають.
+     * Дія має спершу перевірити {@link #lookup}: після звільнення монітора чергове повторне
+     * надсилання знайде результат у кеші, а якщо прийом не вдався — спробує ще раз.
+     *
+     * @param sender відправник
+     * @param clientKey ключ ідемпотентності або null
+     * @param action прийом повідомлення
+     */
+    public void serialize(String sender, String clientKey, Runnable action) {
+        if (clientKey == null) {
+            action.run();
+            return;
+        }
+        String key = sender + '\0' + clientKey;
+        Object lock = inFlight.computeIfAbsent(key, k -> new Object());
+        synchronized (lock) {
+            try {
+                action.run();
+            } finally {
+                inFlight.remove(key, lock);
+            }
+        }
+    }
+
+    /**
+     * Видаляє всі ключі відправника.
+     *
+     * @param sender відправник
+     */
+    public void forget(String sender) {
+        accepted.remove(sender);
+    }
+}
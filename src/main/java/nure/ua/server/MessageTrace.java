@@ -0,0 +1,93 @@
+package nure.ua.server;
+
+import java.util.Arrays;
+
+/**
+ * Позначки часу проходження одного текстового повідомлення через етапи сервера.
+ * Створюється для кожного повідомлення потоком відправника; після передачі
+ * повідомлення до вихідної скриньки отримувача трасування завершує ця скринька.
+ *
+ * Етапи: отримано перший байт (RECEIVED), повідомлення десеріалізоване (DECODED),
+ * збережене в БД (PERSISTED), додане до вихідної скриньки (ENQUEUED), записане
+ * в потік отримувача або до офлайн-скриньки (WRITTEN).
+ */
+public class MessageTrace {
+
+    /**
+     * Етапи обробки повідомлення в порядку проходження.
+     */
+    public enum Stage { RECEIVED, DECODED, PERSISTED, ENQUEUED, WRITTEN }
+
+    private final long[] stamps = new long[Stage.values().length];   // System.nanoTime, 0 — етап не пройдено
+    private String sender;
+    private String receiver;
+    private long id;
+    private boolean deferred;                                       // Отримувач офлайн, повідомлення у скриньці
+
+    /**
+     * Починає трасування нового повідомлення.
+     *
+     * @param receivedAt момент отримання першого байта (System.nanoTime)
+     */
+    public void start(long receivedAt) {
+        Arrays.fill(stamps, 0);
+        stamps[Stage.RECEIVED.ordinal()] = receivedAt;
+        sender = null;
+        receiver = null;
+        id = 0;
+        deferred = false;
+    }
+
+    /**
+     * Позначає завершення етапу поточним часом.
+     *
+     * @param stage етап
+     */
+    public void mark(Stage stage) {
+        stamps[stage.ordinal()] = System.nanoTime();
+    }
+
+    /**
+     * Запам'ятовує, до якого повідомлення належить трасування (для журналу повільних).
+     *
+     * @param sender відправник
+     * @param receiver отримувач
+     * @param id ідентифікатор у БД
+     */
+    public void describe(String sender, String receiver, long id) {
+        this.sender = sender;
+        this.receiver = receiver;
+        this.id = id;
+    }
+
+    /**
+     * Позначає, що отримувач був офлайн і повідомлення покладено до скриньки.
+     */
+    public void markDeferred() {
+        deferred = true;
+    }
+
+    /**
+     * @param stage етап
+     * @return момент завершення етапу або 0, якщо етап не пройдено
+     */
+    public long stamp(Stage stage) {
+        return stamps[stage.ordinal()];
+    }
+
+    /** @return true, якщо повідомлення пройшло всі етапи */
+    public boolean isComplete() {
+        for (long stamp : stamps) {
+            if (stamp == 0) return false;
+        }
+        return true;
+    }
+
+    public String getSender() { return sender; }
+
+    public String getReceiver() { return receiver; }
+
+    public long getId() { return id; }
+
+    public boolean isDeferred() { return deferred; }
+}
@@ -0,0 +1,121 @@
+package nure.ua.server;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import nure.ua.metrics.LatencyHistogram;
+import nure.ua.metrics.Metrics;
+import nure.ua.server.MessageTrace.Stage;
+
+/**
+ * Зведення трасувань повідомлень: гістограма тривалості кожного етапу
+ * (метрика chat_message_stage_seconds) та журнал найповільніших повідомлень.
+ *
+ * Гістограми оновлюються для кожного повідомлення. У журнал потрапляють лише
+ * {@link #SLOW_LOG_SIZE} найповільніших повідомлень за вікно {@link #SLOW_LOG_WINDOW_MILLIS};
+ * наприкінці вікна вони виводяться з розкладом за етапами, щоб було видно,
+ * де саме витрачено час.
+ */
+public final class MessageTracer {
+    private static final int SLOW_LOG_SIZE = Integer.getInteger("chat.trace.slowLogSize", 10);
+    private static final long SLOW_LOG_WINDOW_MILLIS = Long.getLong("chat.trace.slowLogWindowMillis", 60_000);
+
+    private static final String STAGE_METRIC = "chat_message_stage_seconds";
+    private static final String STAGE_HELP = "Time spent by text messages in each server stage";
+    private static final LatencyHistogram receive = Metrics.timer(STAGE_METRIC, STAGE_HELP, "stage", "receive");
+    private static final LatencyHistogram persist = Metrics.timer(STAGE_METRIC, STAGE_HELP, "stage", "persist");
+    private static final LatencyHistogram enqueue = Metrics.timer(STAGE_METRIC, STAGE_HELP, "stage", "enqueue");
+    private static final LatencyHistogram write = Metrics.timer(STAGE_METRIC, STAGE_HELP, "stage", "write");
+    private static final LatencyHistogram total = Metrics.timer(STAGE_METRIC, STAGE_HELP, "stage", "total");
+
+    private static final PriorityQueue<Sample> slowest =
+        new PriorityQueue<>(Comparator.comparingLong(Sample::totalMicros));
+    private static volatile long slowThresholdMicros;       // Найменший час у заповненому журналі
+    private static ScheduledExecutorService flusher;
+
+    private MessageTracer() {}
+
+    /**
+     * Записує тривалості етапів завершеного повідомлення. Неповні трасування
+     * (наприклад, повторне надсилання, на яке відповіли з кешу) пропускаються.
+     *
+     * @param trace трасування повідомлення
+     */
+    public static void complete(MessageTrace trace) {
+        if (!trace.isComplete()) return;
+
+        long receiveMicros = micros(trace, Stage.RECEIVED, Stage.DECODED);
+        long persistMicros = micros(trace, Stage.DECODED, Stage.PERSISTED);
+        long enqueueMicros = micros(trace, Stage.PERSISTED, Stage.ENQUEUED);
+        long writeMicros = micros(trace, Stage.ENQUEUED, Stage.WRITTEN);
+        long totalMicros = micros(trace, Stage.RECEIVED, Stage.WRITTEN);
+        receive.record(receiveMicros);
+        persist.record(persistMicros);
+        enqueue.record(enqueueMicros);
+        write.record(writeMicros);
+        total.record(totalMicros);
+
+        if (totalMicros > slowThresholdMicros) {
+            offer(new Sample(trace.getId(), trace.getSender(), trace.getReceiver(), trace.isDeferred(),
+                receiveMicros, persistMicros, enqueueMicros, writeMicros, totalMicros));
+        }
+    }
+
+    private static long micros(MessageTrace trace, Stage from, Stage to) {
+        return Math.max(0, (trace.stamp(to) - trace.stamp(from)) / 1000);
+    }
+
+    private static synchronized void offer(Sample sample) {
+        if (flusher == null) {
+            startFlusher();
+        }
+        slowest.add(sample);
+        if (slowest.size() > SLOW_LOG_SIZE) {
+            slowest.poll();
+        }
+        if (slowest.size() == SLOW_LOG_SIZE) {
+            slowThresholdMicros = slowest.peek().totalMicros();
+        }
+    }
+
+    private static void startFlusher() {
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "slow-message-log");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleAtFixedRate(MessageTracer::flush,
+            SLOW_LOG_WINDOW_MILLIS, SLOW_LOG_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Виводить найповільніші повідомлення за вікно і починає нове вікно.
+     */
+    static void flush() {
+        List<Sample> window;
+        synchronized (MessageTracer.class) {
+            if (slowest.isEmpty()) return;
+            window = new ArrayList<>(slowest);
+            slowest.clear();
+            slowThresholdMicros = 0;
+        }
+        window.sort(Comparator.comparingLong(Sample::totalMicros).reversed());
+        System.out.println("Slowest messages in the last " + SLOW_LOG_WINDOW_MILLIS / 1000 + " s:");
+        for (Sample s : window) {
+            System.out.printf("  #%d %s -> %s total %.2f ms: receive %.2f, persist %.2f, enqueue %.2f, write %.2f%s%n",
+                s.id(), s.sender(), s.receiver(), s.totalMicros() / 1000.0,
+                s.receiveMicros() / 1000.0, s.persistMicros() / 1000.0,
+                s.enqueueMicros() / 1000.0, s.writeMicros() / 1000.0,
+                s.deferred() ? " (mailbox)" : "");
+        }
+    }
+
+    private record Sample(long id, String sender, String receiver, boolean deferred,
+                          long receiveMicros, long persistMicros, long enqueueMicros,
+                          long writeMicros, long totalMicros) {}
+}
@@ -0,0 +1,290 @@
+package nure.ua.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nure.ua.common.Message;
+
+/**
+ * Поштова скринька для користувачів, що перебувають офлайн.
+ * Повідомлення спершу зберігаються в обмеженій черзі в пам'яті, а після
+ * перевищення бюджету байтів дописуються в локальний файл (append-only).
+ * При повторному підключенні скринька вивантажується прямо у вихідний потік клієнта.
+ *
+ * Скринька є основним шляхом доставки лише для "авторитетних" користувачів —
+ * тих, чиї недоставлені повідомлення з БД вже були вивантажені під час роботи
+ * поточного процесу. Для решти залишається запит до БД за прапорцем delivered.
+ */
+public class OfflineMailbox {
+    private static final String SPILL_SUFFIX = ".spill";
+    private static final int ENTRY_OVERHEAD = 64;   // Приблизні накладні витрати на один запис у пам'яті
+
+    private final Path spillDir;
+    private final long memoryBudget;
+    private final Map<String, Box> boxes = new ConcurrentHashMap<>();
+    private final Set<String> authoritative = ConcurrentHashMap.newKeySet();
+    private final AtomicLong queued = new AtomicLong();        // Повідомлень у всіх скриньках
+
+    /**
+     * Створює скриньку та очищає файли, що залишилися від попереднього запуску
+     * (після перезапуску джерелом істини знову є БД).
+     *
+     * @param spillDir каталог для файлів переповнення
+     * @param memoryBudget бюджет пам'яті на одного користувача, у байтах
+     */
+    public OfflineMailbox(Path spillDir, long memoryBudget) {
+        this.spillDir = spillDir;
+        this.memoryBudget = memoryBudget;
+        try {
+            Files.createDirectories(spillDir);
+            try (DirectoryStream<Path> stale = Files.newDirectoryStream(spillDir, "*" + SPILL_SUFFIX)) {
+                for (Path file : stale) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to prepare mailbox directory: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param username ім'я користувача
+     * @return true, якщо скринька містить усі недоставлені повідомлення користувача
+     */
+    public boolean isAuthoritative(String username) {
+        return authoritative.contains(username);
+    }
+
+    /**
+     * Позначає, що недоставлені повідомлення користувача з БД вже вивантажені
+     * і надалі його офлайн-повідомлення можна накопичувати у скриньці.
+     *
+     * @param username ім'я користувача
+     */
+    public void markAuthoritative(String username) {
+        authoritative.add(username);
+    }
+
+    /**
+     * Знімає позначку авторитетності: наступне підключення користувача знову прочитає
+     * недоставлені повідомлення з БД (наприклад, якщо їх не вдалося надіслати).
+     *
+     * @param username ім'я користувача
+     */
+    public void revokeAuthority(String username) {
+        authoritative.remove(username);
+    }
+
+    /**
+     * Додає повідомлення до скриньки офлайн-користувача.
+     *
+     * @param username отримувач
+     * @param id ідентифікатор збереженого повідомлення в БД
+     * @param msg повідомлення
+     * @return true, якщо повідомлення прийнято; false — доставку виконає резервний шлях через БД
+     */
+    public boolean offer(String username, long id, Message msg) {
+        if (!authoritative.contains(username)) {
+            return false;
+        }
+        while (true) {
+            Box box = boxes.computeIfAbsent(username, Box::new);
+            synchronized (box) {
+                if (box.closed) continue;
+                try {
+                    box.append(id, msg);
+                    return true;
+                } catch (IOException e) {
+                    System.err.println("Mailbox spill failed for " + username + ": " + e.getMessage());
+                    box.close();
+                    boxes.remove(username, box);
+                    authoritative.remove(username);
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Вивантажує всі накопичені повідомлення у вихідний потік користувача.
+     *
+     * @param username ім'я користувача
+     * @param out потік клієнта
+     * @return ідентифікатори доставлених повідомлень
+     * @throws IOException якщо запис у потік не вдався
+     */
+    public List<Long> drainTo(String username, ObjectOutputStream out) throws IOException {
+        Box box = boxes.remove(username);
+        if (box == null) return List.of();
+
+        synchronized (box) {
+            try {
+                List<Long> delivered = box.drainTo(out);
+                out.flush();
+                return delivered;
+            } catch (IOException e) {
+                // Залишок повідомлень буде доставлено з БД при наступному підключенні
+                authoritative.remove(username);
+                throw e;
+            } finally {
+                box.close();
+            }
+        }
+    }
+
+    /**
+     * Видаляє скриньку користувача разом із файлом переповнення (наприклад, при видаленні акаунта).
+     *
+     * @param username ім'я користувача
+     */
+    public void discard(String username) {
+        authoritative.remove(username);
+        Box box = boxes.remove(username);
+        if (box != null) {
+            synchronized (box) {
+                box.close();
+            }
+        }
+    }
+
+    /** @return кількість повідомлень, що очікують доставки в усіх скриньках */
+    public long getQueuedCount() {
+        return queued.get();
+    }
+
+    /** @return кількість непорожніх скриньок */
+    public int getBoxCount() {
+        return boxes.size();
+    }
+
+    /**
+     * Скринька одного користувача: черга в пам'яті та, за потреби, файл переповнення.
+     * Усі методи викликаються під монітором самого об'єкта.
+     */
+    private final class Box {
+        private final ArrayDeque<Entry> memory = new ArrayDeque<>();
+        private final Path spillFile;
+        private long memoryBytes;
+        private boolean spilled;
+        private boolean closed;
+        private int count;
+
+        Box(String username) {
+            this.spillFile = spillDir.resolve(
+                HexFormat.of().formatHex(username.getBytes(StandardCharsets.UTF_8)) + SPILL_SUFFIX);
+        }
+
+        void append(long id, Message msg) throws IOException {
+            long size = estimateSize(msg);
+            // Після першого переповнення все нове йде у файл, щоб зберегти порядок
+            if (!spilled && memoryBytes + size <= memoryBudget) {
+                memory.addLast(new Entry(id, msg));
+                memoryBytes += size;
+                counted();
+                return;
+            }
+            byte[] payload = serialize(msg);
+            try (DataOutputStream file = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(
+                    spillFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+                file.writeLong(id);
+                file.writeInt(payload.length);
+                file.write(payload);
+            }
+            spilled = true;
+            counted();
+        }
+
+        private void counted() {
+            count++;
+            queued.incrementAndGet();
+        }
+
+        List<Long> drainTo(ObjectOutputStream out) throws IOException {
+            List<Long> delivered = new ArrayList<>();
+            for (Entry entry : memory) {
+                out.writeObject(entry.msg());
+                delivered.add(entry.id());
+            }
+            if (spilled) {
+                try (DataInputStream file = new DataInputStream(new BufferedInputStream(Files.newInputStream(spillFile)))) {
+                    while (true) {
+                        long id;
+                        try {
+                            id = file.readLong();
+                        } catch (EOFException end) {
+                            break;
+                        }
+                        byte[] payload = new byte[file.readInt()];
+                        file.readFully(payload);
+                        out.writeObject(deserialize(payload));
+                        delivered.add(id);
+                    }
+                }
+            }
+            return delivered;
+        }
+
+        void close() {
+            closed = true;
+            memory.clear();
+            memoryBytes = 0;
+            queued.addAndGet(-count);
+            count = 0;
+            if (spilled) {
+                try {
+                    Files.deleteIfExists(spillFile);
+                } catch (IOException e) {
+                    System.err.println("Failed to delete mailbox file " + spillFile + ": " + e.getMessage());
+                }
+                spilled = false;
+            }
+        }
+    }
+
+    private record Entry(long id, Message msg) {}
+
+    private static long estimateSize(Message msg) {
+        return ENTRY_OVERHEAD + 2L * (length(msg.getSender()) + length(msg.getReceiver()) + length(msg.getText()));
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    private static byte[] serialize(Message msg) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(msg);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Message deserialize(byte[] payload) throws IOException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(payload))) {
+            return (Message) ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Corrupted mailbox entry", e);
+        }
+    }
+}
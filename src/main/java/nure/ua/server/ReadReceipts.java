@@ -0,0 +1,253 @@
+package nure.ua.server;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import nure.ua.common.Message;
+import nure.ua.common.MessageType;
+import nure.ua.database.ConversationCursorEntity;
+import nure.ua.database.ReceiptManager;
+import nure.ua.metrics.Counter;
+import nure.ua.metrics.LatencyHistogram;
+import nure.ua.metrics.Metrics;
+
+/**
+ * Квитанції отримання та прочитання в особистих розмовах.
+ *
+ * Клієнт надсилає накопичувальні позначки: DELIVERED чи READ з порядковим номером —
+ * "отримав (прочитав) повідомлення співрозмовника до seq включно". Сервер тримає
+ * для кожної пари "користувач — співрозмовник" один курсор, який лише пересувається вперед,
+ * і раз на chat.receipts.flushMillis записує всі змінені курсори однією транзакцією,
+ * а співрозмовнику надсилає щонайбільше одну квитанцію кожного виду на розмову.
+ * Тож вартість квитанцій залежить від кількості активних розмов, а не повідомлень,
+ * і рядки повідомлень не оновлюються.
+ *
+ * Квитанції співрозмовнику ефемерні: якщо він не онлайн, то отримає поточні курсори
+ * своїх розмов з БД під час входу.
+ */
+public final class ReadReceipts {
+    private static final long FLUSH_MILLIS = Long.getLong("chat.receipts.flushMillis", 500);
+
+    private static ReceiptManager db;
+    private static ScheduledExecutorService flusher;
+    private static final Map<String, Cursor> cursors = new ConcurrentHashMap<>();  // "користувач\0співрозмовник" -> курсор
+    private static final Set<Cursor> dirty = ConcurrentHashMap.newKeySet();        // Курсори, змінені з останнього запису
+
+    private static final String RECEIPTS_IN = "chat_receipts_in_total";
+    private static final String RECEIPTS_IN_HELP = "Receipt markers from clients by outcome";
+    private static final Counter advanced = Metrics.counter(RECEIPTS_IN, RECEIPTS_IN_HELP, "result", "advanced");
+    private static final Counter stale = Metrics.counter(RECEIPTS_IN, RECEIPTS_IN_HELP, "result", "stale");
+    private static final Counter pushed =
+        Metrics.counter("chat_receipts_pushed_total", "Coalesced receipts sent to the other side of a conversation");
+    private static final LatencyHistogram flushRows =
+        Metrics.distribution("chat_receipt_flush_rows", "Conversation cursors written per flush");
+
+    /**
+     * Курсор користувача в розмові. Поля змінюються під монітором курсора.
+     */
+    private static final class Cursor {
+        final String username;
+        final String peer;
+        long delivered;             // Отримано до seq включно
+        long read;                  // Прочитано до seq включно
+        long pushedDelivered;       // Уже повідомлено співрозмовнику
+        long pushedRead;
+
+        Cursor(String username, String peer) {
+            this.username = username;
+            this.peer = peer;
+        }
+    }
+
+    private ReadReceipts() {}
+
+    /**
+     * Створює доступ до БД і запускає періодичний запис курсорів.
+     */
+    static void initialize() {
+        db = new ReceiptManager();
+        Metrics.gauge("chat_receipt_cursors", "Conversation cursors of online users held in memory", cursors::size);
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "receipt-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(ReadReceipts::flush, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Приймає позначку клієнта. Прочитане вважається й отриманим.
+     *
+     * @param username користувач з'єднання
+     * @param peer співрозмовник
+     * @param type DELIVERED або READ
+     * @param seq порядковий номер у розмові
+     */
+    public static void update(String username, String peer, MessageType type, long seq) {
+        if (seq <= 0 || peer == null || peer.equals(username)) return;
+        Cursor cursor = cursors.computeIfAbsent(username + '\0' + peer, k -> new Cursor(username, peer));
+        boolean moved;
+        synchronized (cursor) {
+            moved = seq > cursor.delivered || (type == MessageType.READ && seq > cursor.read);
+            cursor.delivered = Math.max(cursor.delivered, seq);
+            if (type == MessageType.READ) cursor.read = Math.max(cursor.read, seq);
+        }
+        if (moved) {
+            dirty.add(cursor);
+            advanced.inc();
+        } else {
+            stale.inc();
+        }
+    }
+
+    /**
+     * Надсилає користувачу, що увійшов, поточні курсори його співрозмовників.
+     * Курсори, ще не записані в БД, беруться з пам'яті; їх знімок робиться до читання БД,
+     * тож курсор, записаний тим часом, не загубиться.
+     *
+     * @param username ім'я користувача
+     * @param box вихідна скринька користувача
+     */
+    static void onLogin(String username, ConnectionMailbox box) {
+        Map<String, long[]> latest = new HashMap<>();  // Співрозмовник -> {отримано, прочитано}
+        collectPending(username, cursors.values(), latest);
+        collectPending(username, dirty, latest);
+        for (ConversationCursorEntity cursor : db.getCursorsOf(username)) {
+            merge(latest, cursor.getUsername(), cursor.getDeliveredSeq(), cursor.getReadSeq());
+        }
+        if (latest.isEmpty()) return;
+
+        List<Message> receipts = new ArrayList<>(latest.size());
+        for (Map.Entry<String, long[]> entry : latest.entrySet()) {
+            long delivered = entry.getValue()[0];
+            long read = entry.getValue()[1];
+            if (read > 0) {
+                receipts.add(receipt(MessageType.READ, entry.getKey(), username, read));
+            }
+            if (delivered > read) {
+                receipts.add(receipt(MessageType.DELIVERED, entry.getKey(), username, delivered));
+            }
+        }
+        box.execute(out -> {
+            for (Message receipt : receipts) {
+                out.writeObject(receipt);
+            }
+        });
+    }
+
+    /**
+     * Додає курсори співрозмовників у розмовах з автором, що тримаються в пам'яті.
+     *
+     * @param author автор повідомлень, якому адресовані квитанції
+     * @param pending курсори в пам'яті
+     * @param latest куди додати курсори
+     */
+    private static void collectPending(String author, Collection<Cursor> pending, Map<String, long[]> latest) {
+        for (Cursor cursor : pending) {
+            if (!cursor.peer.equals(author)) continue;
+            synchronized (cursor) {
+                merge(latest, cursor.username, cursor.delivered, cursor.read);
+            }
+        }
+    }
+
+    private static void merge(Map<String, long[]> latest, String reader, long delivered, long read) {
+        long[] seqs = latest.computeIfAbsent(reader, r -> new long[2]);
+        seqs[0] = Math.max(seqs[0], Math.max(delivered, read));
+        seqs[1] = Math.max(seqs[1], read);
+    }
+
+    /**
+     * Прибирає з пам'яті курсори користувача, що відключився. Ще не записані
+     * зміни лишаються в черзі запису.
+     *
+     * @param username ім'я користувача
+     */
+    static void onLogout(String username) {
+        cursors.values().removeIf(cursor -> cursor.username.equals(username));
+    }
+
+    /**
+     * Видаляє курсори розмов видаленого акаунта з пам'яті та БД.
+     *
+     * @param username ім'я користувача
+     */
+    static void forget(String username) {
+        forgetCached(username);
+        db.deleteUser(username);
+    }
+
+    /**
+     * Прибирає з пам'яті курсори розмов акаунта, видаленого на іншому вузлі кластера.
+     *
+     * @param username ім'я користувача
+     */
+    static void forgetCached(String username) {
+        cursors.values().removeIf(cursor -> cursor.username.equals(username) || cursor.peer.equals(username));
+        dirty.removeIf(cursor -> cursor.username.equals(username) || cursor.peer.equals(username));
+    }
+
+    /**
+     * Записує змінені курсори однією транзакцією і надсилає співрозмовникам
+     * по одній квитанції кожного виду на розмову.
+     */
+    static void flush() {
+        if (dirty.isEmpty()) return;
+        List<Cursor> batch = new ArrayList<>();
+        for (Iterator<Cursor> it = dirty.iterator(); it.hasNext(); ) {
+            batch.add(it.next());
+            it.remove();
+        }
+
+        List<ConversationCursorEntity> rows = new ArrayList<>(batch.size());
+        List<Message> receipts = new ArrayList<>();
+        for (Cursor cursor : batch) {
+            synchronized (cursor) {
+                rows.add(new ConversationCursorEntity(cursor.username, cursor.peer, cursor.delivered, cursor.read));
+                if (cursor.read > cursor.pushedRead) {
+                    receipts.add(receipt(MessageType.READ, cursor.username, cursor.peer, cursor.read));
+                    cursor.pushedRead = cursor.read;
+                }
+                if (cursor.delivered > Math.max(cursor.pushedDelivered, cursor.read)) {
+                    receipts.add(receipt(MessageType.DELIVERED, cursor.username, cursor.peer, cursor.delivered));
+                }
+                cursor.pushedDelivered = cursor.delivered;
+            }
+        }
+
+        try {
+            db.saveCursors(rows);
+            flushRows.record(rows.size());
+        } catch (RuntimeException e) {
+            System.err.println("Failed to save " + rows.size() + " conversation cursors: " + e.getMessage());
+            dirty.addAll(batch);
+        }
+        for (Message receipt : receipts) {
+            if (ClientManager.sendIfOnline(receipt.getReceiver(), receipt)) pushed.inc();
+        }
+    }
+
+    /**
+     * @param type DELIVERED або READ
+     * @param username хто отримав (прочитав) повідомлення
+     * @param peer автор повідомлень, якому адресована квитанція
+     * @param seq порядковий номер у розмові
+     * @return квитанція
+     */
+    private static Message receipt(MessageType type, String username, String peer, long seq) {
+        Message msg = new Message(username, peer, "", LocalDateTime.now());
+        msg.setType(type);
+        msg.setSeq(seq);
+        return msg;
+    }
+}
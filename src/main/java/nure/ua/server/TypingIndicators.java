@@ -0,0 +1,199 @@
+package nure.ua.server;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import nure.ua.common.Message;
+import nure.ua.common.MessageType;
+import nure.ua.metrics.Counter;
+import nure.ua.metrics.Metrics;
+
+/**
+ * Індикатори набору тексту в особистих розмовах.
+ *
+ * Індикатор ефемерний: не зберігається в БД і не потрапляє до офлайн-скриньки, а лише
+ * пересилається співрозмовнику, якщо той онлайн (у кластері — через його вузол).
+ * Для кожної пари "відправник — отримувач" сервер пам'ятає, який стан бачить отримувач,
+ * і надсилає лише зміни стану, не частіше ніж раз на chat.typing.intervalMillis.
+ * Зміна всередині інтервалу відкладається до його кінця, а якщо стан тим часом
+ * повернувся назад, не надсилається зовсім. Повторні TYPING від клієнта лише
+ * продовжують стан і нікуди не пересилаються.
+ *
+ * Якщо відправник довше за chat.typing.ttlMillis не підтверджує набір (клієнт
+ * повторює TYPING, поки користувач друкує), або відключився, отримувач отримує TYPING_STOPPED.
+ * Пара забувається, щойно набір припинено і інтервал минув, тож пам'ять займають
+ * лише розмови, в яких зараз друкують.
+ */
+public final class TypingIndicators {
+    private static final long INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("chat.typing.intervalMillis", 1000));
+    private static final long TTL_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("chat.typing.ttlMillis", 6000));
+
+    private static final Map<String, Pair> pairs = new ConcurrentHashMap<>();   // "відправник\0отримувач" -> стан
+    private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, "typing-indicators");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final String UPDATES = "chat_typing_updates_total";
+    private static final String UPDATES_HELP = "Typing indicator updates from clients by outcome";
+    private static final Counter forwarded = Metrics.counter(UPDATES, UPDATES_HELP, "result", "forwarded");
+    private static final Counter coalesced = Metrics.counter(UPDATES, UPDATES_HELP, "result", "coalesced");
+    private static final Counter offline = Metrics.counter(UPDATES, UPDATES_HELP, "result", "offline");
+
+    static {
+        timer.setRemoveOnCancelPolicy(true);
+        Metrics.gauge("chat_typing_pairs", "Conversations with a tracked typing state", pairs::size);
+    }
+
+    /**
+     * Стан індикатора однієї пари. Усі поля змінюються під монітором пари.
+     */
+    private static final class Pair {
+        final String key;
+        final String sender;
+        final String receiver;
+        boolean wanted;             // Останній стан, повідомлений відправником
+        boolean sent;               // Стан, який бачить отримувач
+        long sentAt;                // Коли стан надіслано отримувачу (System.nanoTime)
+        long heardAt;               // Коли відправник востаннє підтвердив набір
+        boolean removed;            // Пару вже прибрано з карти
+        ScheduledFuture<?> flush;   // Відкладена перевірка стану
+
+        Pair(String key, String sender, String receiver, long now) {
+            this.key = key;
+            this.sender = sender;
+            this.receiver = receiver;
+            this.sentAt = now - INTERVAL_NANOS;
+        }
+    }
+
+    private TypingIndicators() {}
+
+    /**
+     * Приймає стан набору від клієнта.
+     *
+     * @param sender користувач з'єднання
+     * @param receiver співрозмовник
+     * @param typing true — друкує, false — припинив
+     */
+    public static void update(String sender, String receiver, boolean typing) {
+        if (receiver == null || receiver.equals(sender)) return;
+        String key = sender + '\0' + receiver;
+        while (true) {
+            long now = System.nanoTime();
+            Pair pair = typing ? pairs.computeIfAbsent(key, k -> new Pair(k, sender, receiver, now)) : pairs.get(key);
+            if (pair == null) {
+                coalesced.inc();
+                return;
+            }
+            synchronized (pair) {
+                if (pair.removed) continue;
+                if (typing) pair.heardAt = now;
+                pair.wanted = typing;
+                if (pair.wanted == pair.sent) {
+                    coalesced.inc();
+                } else {
+                    apply(pair, now);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Відправник надіслав повідомлення: отримувач сам ховає індикатор, побачивши його,
+     * тож стан скидається без окремого TYPING_STOPPED.
+     *
+     * @param sender відправник
+     * @param receiver отримувач
+     */
+    public static void messageSent(String sender, String receiver) {
+        Pair pair = pairs.get(sender + '\0' + receiver);
+        if (pair == null) return;
+        synchronized (pair) {
+            pair.wanted = false;
+            pair.sent = false;
+        }
+    }
+
+    /**
+     * Користувач відключився: співрозмовники, яким показано його набір, отримують TYPING_STOPPED.
+     *
+     * @param username ім'я користувача
+     */
+    static void forget(String username) {
+        for (Pair pair : pairs.values()) {
+            if (!pair.sender.equals(username)) continue;
+            synchronized (pair) {
+                if (pair.removed) continue;
+                pair.wanted = false;
+                if (pair.sent) emit(pair, System.nanoTime());
+            }
+        }
+    }
+
+    /**
+     * Надсилає зміну стану зараз або відкладає її до кінця інтервалу.
+     */
+    private static void apply(Pair pair, long now) {
+        long wait = pair.sentAt + INTERVAL_NANOS - now;
+        if (wait <= 0) {
+            emit(pair, now);
+        } else {
+            coalesced.inc();
+            schedule(pair, wait);
+        }
+    }
+
+    /**
+     * Надсилає отримувачу поточний стан і планує наступну перевірку: завершення
+     * терміну набору або прибирання пари після інтервалу.
+     */
+    private static void emit(Pair pair, long now) {
+        pair.sent = pair.wanted;
+        pair.sentAt = now;
+        Message msg = new Message(pair.sender, pair.receiver, "", LocalDateTime.now());
+        msg.setType(pair.sent ? MessageType.TYPING : MessageType.TYPING_STOPPED);
+        if (ClientManager.sendIfOnline(pair.receiver, msg)) {
+            forwarded.inc();
+        } else {
+            offline.inc();
+        }
+        schedule(pair, pair.sent ? pair.heardAt + TTL_NANOS - now : INTERVAL_NANOS);
+    }
+
+    /**
+     * Відкладена перевірка пари: надсилає відкладену зміну, завершує прострочений набір
+     * або прибирає пару, в якій ніхто не друкує.
+     */
+    private static void flush(Pair pair) {
+        synchronized (pair) {
+            pair.flush = null;
+            if (pair.removed) return;
+            long now = System.nanoTime();
+            if (pair.wanted && now - pair.heardAt >= TTL_NANOS) {
+                pair.wanted = false;
+            }
+            if (pair.wanted != pair.sent) {
+                apply(pair, now);
+            } else if (pair.sent) {
+                schedule(pair, pair.heardAt + TTL_NANOS - now);
+            } else if (now - pair.sentAt < INTERVAL_NANOS) {
+                schedule(pair, pair.sentAt + INTERVAL_NANOS - now);
+            } else {
+                pair.removed = true;
+                pairs.remove(pair.key, pair);
+            }
+        }
+    }
+
+    private static void schedule(Pair pair, long delayNanos) {
+        if (pair.flush != null) pair.flush.cancel(false);
+        pair.flush = timer.schedule(() -> flush(pair), Math.max(delayNanos, 0), TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,360 @@
+package nure.ua.server.attachment;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import nure.ua.common.AttachmentProtocol;
+import nure.ua.metrics.Counter;
+import nure.ua.metrics.LatencyHistogram;
+import nure.ua.metrics.Metrics;
+
+import static nure.ua.common.AttachmentProtocol.BAD_REQUEST;
+import static nure.ua.common.AttachmentProtocol.BUSY;
+import static nure.ua.common.AttachmentProtocol.CHUNK_BYTES;
+import static nure.ua.common.AttachmentProtocol.CORRUPT;
+import static nure.ua.common.AttachmentProtocol.DENIED;
+import static nure.ua.common.AttachmentProtocol.HASH_BYTES;
+import static nure.ua.common.AttachmentProtocol.NOT_FOUND;
+import static nure.ua.common.AttachmentProtocol.OK;
+import static nure.ua.common.AttachmentProtocol.TOO_LARGE;
+
+/**
+ * Бічний канал вкладень: окремий TCP-порт для завантаження та отримання файлів
+ * фрагментами ({@link AttachmentProtocol}), щоб файли не стояли в одній черзі
+ * з повідомленнями чату.
+ *
+ * Кожне з'єднання обслуговує віртуальний потік. Файл клієнту надсилається
+ * через FileChannel.transferTo прямо в сокет, тож вміст не копіюється в купу.
+ * Обірване завантаження продовжується з того зміщення, яке вже є на диску.
+ *
+ * Доступ дає квиток, який клієнт отримує основним з'єднанням (ATTACHMENT_TICKET):
+ * ім'я користувача, термін дії та HMAC. Квиток перевіряється без спільного стану,
+ * тож у кластері зі спільним ключем (chat.attachments.secret) і спільним каталогом
+ * сховища його приймає будь-який вузол.
+ */
+public final class AttachmentServer {
+    private static final String DIR = System.getProperty("chat.attachments.dir", "attachments");
+    private static final long MAX_BYTES = Long.getLong("chat.attachments.maxBytes", 100L * 1024 * 1024);
+    private static final int MAX_CONNECTIONS = Integer.getInteger("chat.attachments.maxConnections", 64);
+    private static final int IDLE_MILLIS = Integer.getInteger("chat.attachments.idleMillis", 30_000);
+    private static final long TICKET_MILLIS = Long.getLong("chat.attachments.ticketMillis", 10 * 60_000);
+    private static final String SECRET = System.getProperty("chat.attachments.secret");    // Не задано — випадковий ключ процесу
+
+    private static final String BYTES = "chat_attachment_bytes_total";
+    private static final String BYTES_HELP = "Attachment payload bytes transferred";
+    private static final Counter bytesIn = Metrics.counter(BYTES, BYTES_HELP, "direction", "in");
+    private static final Counter bytesOut = Metrics.counter(BYTES, BYTES_HELP, "direction", "out");
+    private static final String UPLOADS = "chat_attachment_uploads_total";
+    private static final String UPLOADS_HELP = "Attachment uploads by result";
+    private static final Counter uploadsStored = Metrics.counter(UPLOADS, UPLOADS_HELP, "result", "stored");
+    private static final Counter uploadsDeduplicated = Metrics.counter(UPLOADS, UPLOADS_HELP, "result", "deduplicated");
+    private static final Counter uploadsCorrupt = Metrics.counter(UPLOADS, UPLOADS_HELP, "result", "corrupt");
+    private static final Counter uploadsRejected = Metrics.counter(UPLOADS, UPLOADS_HELP, "result", "rejected");
+    private static final Counter downloads =
+        Metrics.counter("chat_attachment_downloads_total", "Attachment downloads started");
+    private static final LatencyHistogram uploadTime =
+        Metrics.timer("chat_attachment_transfer_seconds", "Duration of one attachment transfer", "direction", "in");
+    private static final LatencyHistogram downloadTime =
+        Metrics.timer("chat_attachment_transfer_seconds", "Duration of one attachment transfer", "direction", "out");
+
+    private static final Semaphore slots = new Semaphore(MAX_CONNECTIONS);
+    private static final Map<String, String> uploads = new ConcurrentHashMap<>();    // вкладення -> хто зараз завантажує
+    private static SecretKeySpec key;
+    private static AttachmentStore store;
+    private static ServerSocketChannel server;
+
+    private AttachmentServer() {}
+
+    /**
+     * Відкриває сховище та починає приймати з'єднання у фоновому потоці.
+     * Порт 0 або від'ємний вимикає вкладення.
+     *
+     * @param port порт бічного каналу
+     */
+    public static synchronized void start(int port) {
+        if (port <= 0 || server != null) return;
+        key = new SecretKeySpec(secret(), "HmacSHA256");
+        store = new AttachmentStore(Path.of(DIR));
+        Metrics.gauge("chat_attachment_connections", "Open attachment connections", () -> MAX_CONNECTIONS - slots.availablePermits());
+        try {
+            server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(port));
+        } catch (IOException e) {
+            System.err.println("Failed to start attachment channel: " + e.getMessage());
+            server = null;
+            return;
+        }
+        Thread acceptor = new Thread(AttachmentServer::acceptLoop, "attachments-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        System.out.println("Attachment channel listening on port " + port);
+    }
+
+    /** @return true, якщо бічний канал запущено */
+    public static boolean isEnabled() {
+        return server != null;
+    }
+
+    /**
+     * @param id ідентифікатор вкладення
+     * @return розмір збереженого вкладення або -1, якщо його немає (чи вкладення вимкнено)
+     */
+    public static long sizeOf(String id) {
+        return store != null ? store.size(id) : -1;
+    }
+
+    /**
+     * Видає квиток на доступ до бічного каналу.
+     *
+     * @param username користувач основного з'єднання
+     * @return квиток
+     */
+    public static String issueTicket(String username) {
+        String payload = username + ":" + (System.currentTimeMillis() + TICKET_MILLIS);
+        return payload + ":" + HexFormat.of().formatHex(sign(payload));
+    }
+
+    /**
+     * @param ticket квиток з привітання клієнта
+     * @return ім'я користувача або null, якщо квиток підроблений чи прострочений
+     */
+    static String verifyTicket(String ticket) {
+        int signature = ticket.lastIndexOf(':');
+        int expiry = signature > 0 ? ticket.lastIndexOf(':', signature - 1) : -1;
+        if (expiry <= 0) return null;
+        try {
+            byte[] actual = HexFormat.of().parseHex(ticket, signature + 1, ticket.length());
+            if (!MessageDigest.isEqual(sign(ticket.substring(0, signature)), actual)) return null;
+            if (Long.parseLong(ticket, expiry + 1, signature, 10) < System.currentTimeMillis()) return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return ticket.substring(0, expiry);
+    }
+
+    private static byte[] sign(String payload) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    private static byte[] secret() {
+        if (SECRET != null) return SECRET.getBytes(StandardCharsets.UTF_8);
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        return random;
+    }
+
+    private static void acceptLoop() {
+        while (server.isOpen()) {
+            try {
+                SocketChannel channel = server.accept();
+                if (!slots.tryAcquire()) {
+                    channel.close();
+                    continue;
+                }
+                Thread.ofVirtual().name("attachment-", 0).start(() -> {
+                    try {
+                        serve(channel);
+                    } finally {
+                        slots.release();
+                    }
+                });
+            } catch (IOException e) {
+                if (server.isOpen()) System.err.println("Attachment channel accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Обслуговує одне з'єднання: привітання, перевірка квитка та одна команда.
+     * Читання з сокета обмежене chat.attachments.idleMillis, тож завислий клієнт не тримає слот.
+     *
+     * @param channel з'єднання клієнта
+     */
+    private static void serve(SocketChannel channel) {
+        try (channel) {
+            Socket socket = channel.socket();
+            socket.setSoTimeout(IDLE_MILLIS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), CHUNK_BYTES));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64));
+            if (in.readInt() != AttachmentProtocol.MAGIC || in.readByte() != AttachmentProtocol.VERSION) return;
+            String username = verifyTicket(AttachmentProtocol.readTicket(in));
+            byte command = in.readByte();
+            if (username == null) {
+                reply(out, DENIED, 0);
+                return;
+            }
+            switch (command) {
+                case AttachmentProtocol.UPLOAD -> upload(in, out, username);
+                case AttachmentProtocol.DOWNLOAD -> download(channel, in, out);
+                default -> reply(out, BAD_REQUEST, 0);
+            }
+        } catch (IOException e) {
+            // Клієнт відключився або мовчав довше за таймаут; незавершене завантаження лишається на диску
+        }
+    }
+
+    /**
+     * Приймає файл фрагментами, дописуючи їх до незавершеного завантаження,
+     * і переносить до сховища після перевірки SHA-256. Якщо такий вміст уже є,
+     * клієнт одразу отримує повний розмір і підсумкову відповідь, нічого не надсилаючи.
+     */
+    private static void upload(DataInputStream in, DataOutputStream out, String username) throws IOException {
+        byte[] hash = new byte[HASH_BYTES];
+        in.readFully(hash);
+        long size = in.readLong();
+        String id = AttachmentProtocol.idOf(hash);
+        if (size < 0 || size > MAX_BYTES) {
+            uploadsRejected.inc();
+            reply(out, TOO_LARGE, 0);
+            return;
+        }
+        if (store.contains(id)) {
+            uploadsDeduplicated.inc();
+            reply(out, OK, size);
+            reply(out, OK, size);
+            return;
+        }
+        if (uploads.putIfAbsent(id, username) != null) {
+            reply(out, BUSY, 0);
+            return;
+        }
+
+        long start = System.nanoTime();
+        boolean verified;
+        try {
+            try (FileChannel file = FileChannel.open(store.partial(id),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long offset = file.size();
+                if (offset > size) {
+                    file.truncate(0);
+                    offset = 0;
+                }
+                MessageDigest digest = sha256();
+                digestPrefix(file, offset, digest);
+                reply(out, OK, offset);
+
+                byte[] chunk = new byte[CHUNK_BYTES];
+                while (offset < size) {
+                    int length = in.readInt();
+                    if (length <= 0 || length > CHUNK_BYTES || length > size - offset) {
+                        reply(out, BAD_REQUEST, offset);
+                        return;
+                    }
+                    in.readFully(chunk, 0, length);
+                    digest.update(chunk, 0, length);
+                    ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, length);
+                    while (buffer.hasRemaining()) {
+                        offset += file.write(buffer, offset);
+                    }
+                    bytesIn.add(length);
+                }
+                file.force(false);
+                verified = MessageDigest.isEqual(digest.digest(), hash);
+            }
+            if (verified) {
+                store.commit(id);
+                uploadsStored.inc();
+                reply(out, OK, size);
+            } else {
+                store.discard(id);
+                uploadsCorrupt.inc();
+                reply(out, CORRUPT, 0);
+            }
+        } finally {
+            uploads.remove(id);
+            uploadTime.recordMicrosSince(start);
+        }
+    }
+
+    /**
+     * Надсилає файл від зміщення клієнта фрагментами через transferTo (sendfile):
+     * вміст іде з кешу сторінок прямо в сокет.
+     */
+    private static void download(SocketChannel channel, DataInputStream in, DataOutputStream out) throws IOException {
+        byte[] hash = new byte[HASH_BYTES];
+        in.readFully(hash);
+        long offset = in.readLong();
+        String id = AttachmentProtocol.idOf(hash);
+        if (!store.contains(id)) {
+            reply(out, NOT_FOUND, 0);
+            return;
+        }
+        long start = System.nanoTime();
+        try (FileChannel file = FileChannel.open(store.object(id), StandardOpenOption.READ)) {
+            long size = file.size();
+            if (offset < 0 || offset > size) {
+                reply(out, BAD_REQUEST, size);
+                return;
+            }
+            downloads.inc();
+            reply(out, OK, size);
+            long position = offset;
+            while (position < size) {
+                long sent = file.transferTo(position, Math.min(CHUNK_BYTES, size - position), channel);
+                position += sent;
+                bytesOut.add(sent);
+            }
+        } finally {
+            downloadTime.recordMicrosSince(start);
+        }
+    }
+
+    /**
+     * Хешує вже отриману частину файлу, щоб продовжене завантаження перевірялося повністю.
+     */
+    private static void digestPrefix(FileChannel file, long length, MessageDigest digest) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_BYTES);
+        long position = 0;
+        while (position < length) {
+            buffer.clear().limit((int) Math.min(CHUNK_BYTES, length - position));
+            int read = file.read(buffer, position);
+            if (read < 0) break;
+            buffer.flip();
+            digest.update(buffer);
+            position += read;
+        }
+    }
+
+    private static void reply(DataOutputStream out, byte status, long value) throws IOException {
+        out.writeByte(status);
+        out.writeLong(value);
+        out.flush();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package nure.ua.server.attachment;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import nure.ua.common.AttachmentProtocol;
+
+/**
+ * Сховище вкладень на диску, адресоване вмістом.
+ *
+ * Готовий файл лежить у objects/xx/&lt;sha256&gt; (xx — перші два символи хешу, щоб
+ * каталоги не розросталися), тож однаковий вміст зберігається один раз незалежно від того,
+ * скільки разів і ким його надіслано. Незавершене завантаження лежить у partial/&lt;sha256&gt;.part
+ * і продовжується з його поточного розміру; після перевірки хешу файл атомарно
+ * переноситься до objects.
+ */
+public class AttachmentStore {
+    private final Path objects;
+    private final Path partial;
+
+    /**
+     * @param root кореневий каталог сховища
+     */
+    public AttachmentStore(Path root) {
+        this.objects = root.resolve("objects");
+        this.partial = root.resolve("partial");
+        try {
+            Files.createDirectories(objects);
+            Files.createDirectories(partial);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create attachment store in " + root, e);
+        }
+    }
+
+    /**
+     * @param id ідентифікатор вкладення
+     * @return true, якщо вкладення повністю збережене
+     */
+    public boolean contains(String id) {
+        return AttachmentProtocol.isValidId(id) && Files.isRegularFile(object(id));
+    }
+
+    /**
+     * @param id ідентифікатор вкладення
+     * @return розмір збереженого вкладення або -1, якщо його немає
+     */
+    public long size(String id) {
+        try {
+            return contains(id) ? Files.size(object(id)) : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param id ідентифікатор вкладення (перевірений {@link AttachmentProtocol#isValidId})
+     * @return шлях готового файлу
+     */
+    Path object(String id) {
+        return objects.resolve(id.substring(0, 2)).resolve(id);
+    }
+
+    /**
+     * @param id ідентифікатор вкладення (перевірений {@link AttachmentProtocol#isValidId})
+     * @return шлях незавершеного завантаження
+     */
+    Path partial(String id) {
+        return partial.resolve(id + ".part");
+    }
+
+    /**
+     * Переносить перевірене завантаження до готових файлів. Якщо той самий вміст
+     * тим часом уже збережено, незавершений файл просто видаляється.
+     *
+     * @param id ідентифікатор вкладення
+     * @throws IOException якщо перенесення не вдалося
+     */
+    void commit(String id) throws IOException {
+        Path target = object(id);
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(partial(id), target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            Files.deleteIfExists(partial(id));
+        }
+    }
+
+    /**
+     * Видаляє незавершене завантаження (вміст не збігся з хешем).
+     *
+     * @param id ідентифікатор вкладення
+     */
+    void discard(String id) {
+        try {
+            Files.deleteIfExists(partial(id));
+        } catch (IOException e) {
+            System.err.println("Failed to delete partial attachment " + id + ": " + e.getMessage());
+        }
+    }
+}
@@ -1,79 +1,126 @@
 package nure.ua.server.service;
 
-import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.time.LocalDateTime;
 
 import org.hibernate.Session;
 
 import nure.ua.client.model.LoginRequest;
 import nure.ua.database.HibernateUtil;
+import nure.ua.database.QueryProfiler;
+import nure.ua.database.QueryProfiler.Operation;
+import nure.ua.database.QueryProfiler.Shape;
 import nure.ua.database.UserEntity;
 import nure.ua.database.UserManager;
+import nure.ua.jfr.LoginEvent;
+import nure.ua.metrics.Counter;
+import nure.ua.metrics.LatencyHistogram;
+import nure.ua.metrics.Metrics;
 import nure.ua.server.ClientManager;
+import nure.ua.server.ConnectionMailbox;
+import nure.ua.server.EventJournal;
 
 /**
  * Сервіс для обробки запитів на вхід користувачів.
  * Відповідає за авторизацію, реєстрацію та оновлення дати останнього входу.
  */
 public class LoginService {
+    private static final String LOGINS = "chat_logins_total";
+    private static final String LOGINS_HELP = "Login attempts by result";
+    private static final Counter loginOk = Metrics.counter(LOGINS, LOGINS_HELP, "result", "ok");
+    private static final Counter loginResumed = Metrics.counter(LOGINS, LOGINS_HELP, "result", "resumed");
+    private static final Counter loginTaken = Metrics.counter(LOGINS, LOGINS_HELP, "result", "taken");
+    private static final Counter loginInvalid = Metrics.counter(LOGINS, LOGINS_HELP, "result", "invalid");
+    private static final Counter loginRegisterFailed = Metrics.counter(LOGINS, LOGINS_HELP, "result", "register_failed");
+    private static final Counter registrations =
+        Metrics.counter("chat_registrations_total", "Users registered on first login");
+    private static final LatencyHistogram loginTime =
+        Metrics.timer("chat_login_seconds", "Time to authenticate and deliver pending messages on login");
+    private static final Shape LAST_LOGIN = QueryProfiler.shape("user_last_login",
+        "session.get(UserEntity, :username); UPDATE users SET last_login");
 
     /**
      * Обробляє запит на вхід або реєстрацію нового користувача.
+     * Під час перепідключення старе з'єднання користувача могло ще не бути виявлене
+     * як розірване: після успішної автентифікації воно закривається, а клієнту
+     * повторно доставляються повідомлення, новіші за останнє отримане.
      *
      * @param login Об'єкт із даними для входу
-     * @param out Потік для відправки відповіді клієнту
+     * @param box Вихідна скринька з'єднання для відповіді клієнту
      * @return true, якщо вхід успішний; false — в іншому випадку
-     * @throws IOException при помилці зв'язку
      */
-    public static boolean login(LoginRequest login, ObjectOutputStream out) throws IOException {
+    public static boolean login(LoginRequest login, ConnectionMailbox box) {
+        long start = System.nanoTime();
+        LoginEvent event = new LoginEvent();
+        event.begin();
+        try {
+            return authenticateAndJoin(login, box, event);
+        } finally {
+            loginTime.recordMicrosSince(start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.username = login.getUsername();
+                event.commit();
+            }
+        }
+    }
+
+    private static boolean authenticateAndJoin(LoginRequest login, ConnectionMailbox box, LoginEvent event) {
         if (ClientManager.isUsernameTaken(login.getUsername())) {
-            sendResponse(out, "ERROR: Username already taken.");
-            return false;
+            if (!login.isResume() || !UserManager.authenticate(login.getUsername(), login.getPassword())) {
+                loginTaken.inc();
+                event.result = "taken";
+                ClientManager.recordEvent(EventJournal.Type.LOGIN_FAILED, login.getUsername(), "username taken");
+                box.send("ERROR: Username already taken.");
+                return false;
+            }
+            ClientManager.evictClient(login.getUsername());
         }
 
         if (!UserManager.userExists(login.getUsername())) {
             if (!UserManager.register(login.getUsername(), login.getPassword())) {
-                sendResponse(out, "ERROR: Failed to register new user.");
+                loginRegisterFailed.inc();
+                event.result = "register_failed";
+                ClientManager.recordEvent(EventJournal.Type.LOGIN_FAILED, login.getUsername(), "registration failed");
+                box.send("ERROR: Failed to register new user.");
                 return false;
             }
+            registrations.inc();
+            ClientManager.recordEvent(EventJournal.Type.REGISTERED, login.getUsername(), null);
         } else if (!UserManager.authenticate(login.getUsername(), login.getPassword())) {
-            sendResponse(out, "ERROR: Invalid credentials.");
+            loginInvalid.inc();
+            event.result = "invalid";
+            ClientManager.recordEvent(EventJournal.Type.LOGIN_FAILED, login.getUsername(), "invalid credentials");
+            box.send("ERROR: Invalid credentials.");
             return false;
         }
 
         updateLastLogin(login.getUsername());
-        ClientManager.addClient(login.getUsername(), out);
+        ClientManager.addClient(login.getUsername(), box);
+        if (login.isResume()) {
+            ClientManager.resumeDelivery(login.getUsername(), box, login.getResumeSeqs());
+        }
 
-        sendResponse(out, ClientManager.getAllKnownUsers());
+        box.send(ClientManager.getAllKnownUsers());
         ClientManager.broadcastOnlineUsers();
 
+        (login.isResume() ? loginResumed : loginOk).inc();
+        event.result = login.isResume() ? "resumed" : "ok";
         return true;
     }
 
-    /**
-     * Відправляє відповідь клієнту через потік.
-     *
-     * @param out Потік вихідних даних
-     * @param obj Об'єкт для відправки
-     * @throws IOException при помилці запису
-     */
-    private static void sendResponse(ObjectOutputStream out, Object obj) throws IOException {
-        out.writeObject(obj);
-        out.flush();
-    }
-
     /**
      * Оновлює дату останнього входу користувача в базі даних.
      *
      * @param username Ім'я користувача
      */
     private static void updateLastLogin(String username) {
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+        try (Operation op = QueryProfiler.begin(LAST_LOGIN).bind("username", username);
+             Session session = HibernateUtil.getSessionFactory().openSession()) {
             session.beginTransaction();
             UserEntity user = session.get(UserEntity.class, username);
             if (user != null) user.setLastLogin(LocalDateTime.now());
             session.getTransaction().commit();
+            op.done(user != null ? 1 : 0);
         }
     }
 }
\ No newline at end of file
@@ -1,7 +1,6 @@
 package nure.ua.server.service;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.time.LocalDateTime;
 import java.util.List;
 
@@ -9,25 +8,50 @@ import nure.ua.common.Message;
 import nure.ua.common.MessageType;
 import nure.ua.database.MessageEntity;
 import nure.ua.database.UserManager;
+import nure.ua.jfr.HistoryRequestEvent;
+import nure.ua.metrics.LatencyHistogram;
+import nure.ua.metrics.MessageTypeCounters;
+import nure.ua.metrics.Metrics;
 import nure.ua.server.ClientManager;
+import nure.ua.server.ConnectionMailbox;
+import nure.ua.server.GroupChats;
+import nure.ua.server.MessageTrace;
+import nure.ua.server.ReadReceipts;
+import nure.ua.server.TypingIndicators;
+import nure.ua.server.attachment.AttachmentServer;
 
 /**
  * Клас, який обробляє повідомлення, отримані від клієнта.
- * Підтримує текстові повідомлення, історію переписок та запити на видалення акаунта.
+ * Підтримує текстові повідомлення, історію переписок, групові чати, індикатори набору, квитанції
+ * та запити на видалення акаунта.
  */
 public class MessageProcessor {
+    private static final int HISTORY_PAGE_SIZE = 200;   // Скільки останніх повідомлень віддається без відомого seq
+
+    private static final MessageTypeCounters messagesIn =
+        new MessageTypeCounters("chat_messages_in_total", "Messages received from clients");
+    private static final MessageTypeCounters messagesOut =
+        new MessageTypeCounters("chat_messages_out_total", "Messages written to client connections");
+    private static final LatencyHistogram[] processTime = new LatencyHistogram[MessageType.values().length];
+
+    static {
+        for (MessageType type : MessageType.values()) {
+            processTime[type.ordinal()] = Metrics.timer("chat_process_seconds", "Time to process one client request", "type", type.name());
+        }
+    }
+
     private final String username;
-    private final ObjectOutputStream out;
+    private final ConnectionMailbox mailbox;
 
     /**
      * Конструктор, що ініціалізує процесор для конкретного користувача.
      *
      * @param username Ім’я користувача
-     * @param out Потік для відправки відповідей клієнту
+     * @param mailbox Вихідна скринька для відправки відповідей клієнту
      */
-    public MessageProcessor(String username, ObjectOutputStream out) {
+    public MessageProcessor(String username, ConnectionMailbox mailbox) {
         this.username = username;
-        this.out = out;
+        this.mailbox = mailbox;
     }
 
     /**
@@ -37,12 +61,44 @@ public class MessageProcessor {
      * @throws IOException при помилках зв'язку
      */
     public void process(Message msg) throws IOException {
-        switch (msg.getType()) {
-            case TEXT -> handleTextMessage(msg);
-            case HISTORY_REQUEST -> handleHistoryRequest(msg);
-            case DELETE_ACCOUNT_REQUEST -> handleAccountDeletion(msg);
-            case DISCONNECT_NOTIFICATION -> handleDisconnect(msg);
-            default -> System.out.println("Unknown message type from user: " + username);
+        process(msg, System.nanoTime());
+    }
+
+    /**
+     * Обробляє отримане повідомлення в залежності від його типу.
+     * Для текстових повідомлень час проходження етапів записується в {@link nure.ua.server.MessageTracer}.
+     *
+     * @param msg Повідомлення для обробки
+     * @param receivedAt Момент надходження першого байта повідомлення (System.nanoTime)
+     * @throws IOException при помилках зв'язку
+     */
+    public void process(Message msg, long receivedAt) throws IOException {
+        if (msg.getType() == null) {
+            System.out.println("Unknown message type from user: " + username);
+            return;
+        }
+        messagesIn.inc(msg.getType());
+        long start = System.nanoTime();
+        try {
+            switch (msg.getType()) {
+                case TEXT -> handleTextMessage(msg, receivedAt);
+                case HISTORY_REQUEST -> handleHistoryRequest(msg);
+                case HISTORY_PAGE_REQUEST -> handleHistoryPageRequest(msg);
+                case DELETE_ACCOUNT_REQUEST -> handleAccountDeletion(msg);
+                case DISCONNECT_NOTIFICATION -> handleDisconnect(msg);
+                case GROUP_CREATE -> GroupChats.createGroup(username, msg.getText());
+                case GROUP_ADD_MEMBER -> GroupChats.addMember(username, msg.getGroupId(), msg.getReceiver());
+                case GROUP_LEAVE -> GroupChats.leave(username, msg.getGroupId());
+                case GROUP_TEXT -> handleGroupMessage(msg);
+                case GROUP_READ -> GroupChats.markRead(username, msg.getGroupId(), msg.getSeq());
+                case ATTACHMENT_TICKET -> handleAttachmentTicket();
+                case TYPING -> TypingIndicators.update(username, msg.getReceiver(), true);
+                case TYPING_STOPPED -> TypingIndicators.update(username, msg.getReceiver(), false);
+                case DELIVERED, READ -> ReadReceipts.update(username, msg.getReceiver(), msg.getType(), msg.getSeq());
+                default -> System.out.println("Unknown message type from user: " + username);
+            }
+        } finally {
+            processTime[msg.getType().ordinal()].recordMicrosSince(start);
         }
     }
 
@@ -50,29 +106,145 @@ public class MessageProcessor {
      * Обробляє текстове повідомлення — зберігає його та перенаправляє.
      *
      * @param msg Текстове повідомлення
+     * @param receivedAt Момент надходження першого байта повідомлення
      * @throws IOException при помилках відправки
      */
-    private void handleTextMessage(Message msg) throws IOException {
-        ClientManager.saveAndForwardMessage(new MessageEntity(
+    private void handleTextMessage(Message msg, long receivedAt) throws IOException {
+        MessageTrace trace = new MessageTrace();
+        trace.start(receivedAt);
+        trace.mark(MessageTrace.Stage.DECODED);
+        if (!checkAttachment(msg)) return;
+        MessageEntity entity = new MessageEntity(
             msg.getSender(), msg.getReceiver(), msg.getText(), msg.getTimestamp(), MessageType.TEXT, false
-        ));
+        );
+        entity.setClientKey(msg.getClientKey());
+        entity.setAttachmentOf(msg);
+        TypingIndicators.messageSent(msg.getSender(), msg.getReceiver());
+        ClientManager.saveAndForwardMessage(entity, trace);
+    }
+
+    /**
+     * Обробляє повідомлення групового чату. Відправником вважається користувач з'єднання.
+     *
+     * @param msg Повідомлення групи
+     */
+    private void handleGroupMessage(Message msg) {
+        msg.setSender(username);
+        if (!checkAttachment(msg)) return;
+        GroupChats.send(msg);
+    }
+
+    /**
+     * Видає квиток для бічного каналу вкладень.
+     */
+    private void handleAttachmentTicket() {
+        if (!AttachmentServer.isEnabled()) {
+            reply(MessageType.SYSTEM, "Attachments are disabled on this server.");
+            return;
+        }
+        reply(MessageType.ATTACHMENT_TICKET, AttachmentServer.issueTicket(username));
+    }
+
+    /**
+     * Перевіряє, що вкладення повідомлення вже повністю завантажене бічним каналом,
+     * і підставляє його справжній розмір замість заявленого клієнтом.
+     *
+     * @param msg повідомлення
+     * @return true, якщо вкладення немає або воно збережене
+     */
+    private boolean checkAttachment(Message msg) {
+        if (msg.getAttachmentId() == null) return true;
+        long size = AttachmentServer.sizeOf(msg.getAttachmentId());
+        if (size < 0) {
+            reply(MessageType.SYSTEM, "Attachment " + msg.getAttachmentId() + " is not uploaded.");
+            return false;
+        }
+        msg.setAttachmentSize(size);
+        return true;
+    }
+
+    private void reply(MessageType type, String text) {
+        Message reply = new Message("Server", username, text, LocalDateTime.now());
+        reply.setType(type);
+        mailbox.send(reply);
+        messagesOut.inc(type);
     }
 
     /**
-     * Обробляє запит на історію повідомлень між користувачами.
+     * Обробляє запит на історію повідомлень між користувачами або групи.
+     * Якщо в запиті вказано порядковий номер, повертаються лише новіші повідомлення,
+     * інакше — лише остання сторінка розмови.
      *
      * @param msg Запит на історію
      * @throws IOException при помилках відправки
      */
     private void handleHistoryRequest(Message msg) throws IOException {
-        List<Message> history = ClientManager.getConversationBetween(msg.getSender(), msg.getReceiver());
-        for (Message message : history) {
-            Message historyMsg = new Message(
-                message.getSender(), message.getReceiver(), message.getText(), message.getTimestamp());
+        HistoryRequestEvent event = new HistoryRequestEvent();
+        event.begin();
+        List<Message> history;
+        if (msg.getGroupId() > 0) {
+            history = msg.getSeq() > 0
+                ? GroupChats.getHistoryAfter(username, msg.getGroupId(), msg.getSeq(), HISTORY_PAGE_SIZE)
+                : GroupChats.getRecentHistory(username, msg.getGroupId(), HISTORY_PAGE_SIZE);
+        } else {
+            history = msg.getSeq() > 0
+                ? ClientManager.getConversationAfter(msg.getSender(), msg.getReceiver(), msg.getSeq())
+                : ClientManager.getRecentConversation(msg.getSender(), msg.getReceiver(), HISTORY_PAGE_SIZE);
+        }
+        sendHistory(history);
+        commitHistory(event, msg, msg.getSeq() > 0 ? "after" : "recent", history.size());
+    }
+
+    /**
+     * Обробляє запит сторінки старішої історії (прокручування чату вгору).
+     *
+     * @param msg Запит з найменшим відомим клієнту порядковим номером
+     * @throws IOException при помилках відправки
+     */
+    private void handleHistoryPageRequest(Message msg) throws IOException {
+        HistoryRequestEvent event = new HistoryRequestEvent();
+        event.begin();
+        List<Message> page = msg.getGroupId() > 0
+            ? GroupChats.getHistoryBefore(username, msg.getGroupId(), msg.getSeq(), HISTORY_PAGE_SIZE)
+            : ClientManager.getConversationBefore(msg.getSender(), msg.getReceiver(), msg.getSeq(), HISTORY_PAGE_SIZE);
+        sendHistory(page);
+        commitHistory(event, msg, "before", page.size());
+    }
+
+    /**
+     * Завершує подію JFR запиту історії та записує її, якщо подія увімкнена.
+     *
+     * @param event Подія, розпочата на початку обробки запиту
+     * @param msg Запит історії
+     * @param kind Вид запиту: after, recent або before
+     * @param rows Кількість надісланих повідомлень
+     */
+    private static void commitHistory(HistoryRequestEvent event, Message msg, String kind, int rows) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.username = msg.getSender();
+            event.peer = msg.getGroupId() > 0 ? "group:" + msg.getGroupId() : msg.getReceiver();
+            event.kind = kind;
+            event.rows = rows;
+            event.commit();
+        }
+    }
+
+    /**
+     * Надсилає повідомлення історії клієнту одним записом вихідної скриньки.
+     *
+     * @param history Повідомлення історії
+     */
+    private void sendHistory(List<Message> history) {
+        for (Message historyMsg : history) {
             historyMsg.setType(MessageType.HISTORY_RESPONSE);
-            out.writeObject(historyMsg);
-            out.flush();
         }
+        mailbox.execute(out -> {
+            for (Message historyMsg : history) {
+                out.writeObject(historyMsg);
+            }
+        });
+        messagesOut.add(MessageType.HISTORY_RESPONSE, history.size());
     }
 
     /**
@@ -85,8 +257,8 @@ public class MessageProcessor {
         String userToDelete = msg.getSender();
         Message confirmation = new Message("Server", userToDelete, "Account deleted", LocalDateTime.now());
         confirmation.setType(MessageType.DELETE_ACCOUNT_CONFIRMATION);
-        out.writeObject(confirmation);
-        out.flush();
+        mailbox.send(confirmation);
+        messagesOut.inc(MessageType.DELETE_ACCOUNT_CONFIRMATION);
 
         UserManager.deleteUser(userToDelete);
         ClientManager.deleteMessagesOf(userToDelete); 